@@ -0,0 +1,75 @@
+package se.fearless.fettle.benchmark;
+
+import se.fearless.fettle.Condition;
+import se.fearless.fettle.Fettle;
+import se.fearless.fettle.MutableTransitionModel;
+import se.fearless.fettle.StateMachineTemplate;
+import se.fearless.fettle.builder.StateMachineBuilder;
+import se.fearless.fettle.codegen.GeneratedTransitionModel;
+
+/**
+ * The model shared by the benchmarks. IDLE and RUNNING toggle on TOGGLE, STOP only has a transition from all states,
+ * GUARDED has three mutually exclusive guarded transitions out of IDLE where only the last one is satisfied and NOTHING
+ * never matches.
+ */
+public final class BenchmarkModel {
+	public enum States {
+		IDLE, RUNNING, STOPPED, FIRST, SECOND, THIRD
+	}
+
+	public enum Events {
+		TOGGLE, STOP, GUARDED, NOTHING
+	}
+
+	/**
+	 * The kinds of templates a model can be built as
+	 */
+	public enum Kind {
+		MUTABLE, IMMUTABLE, COMPILED, GENERATED, ADAPTIVE
+	}
+
+	private BenchmarkModel() {
+	}
+
+	public static StateMachineTemplate<States, Events, Integer> create(Kind kind) {
+		StateMachineBuilder<States, Events, Integer> builder = Fettle.newBuilder(States.class, Events.class);
+		builder.defaultContext(3);
+		builder.transition().from(States.IDLE).to(States.RUNNING).on(Events.TOGGLE);
+		builder.transition().from(States.RUNNING).to(States.IDLE).on(Events.TOGGLE);
+		builder.transition().fromAll().to(States.STOPPED).on(Events.STOP);
+		builder.transition().from(States.IDLE).to(States.FIRST).on(Events.GUARDED).when(new Equals(1));
+		builder.transition().from(States.IDLE).to(States.SECOND).on(Events.GUARDED).when(new Equals(2));
+		builder.transition().from(States.IDLE).to(States.THIRD).on(Events.GUARDED).when(new Equals(3));
+		builder.mutuallyExclusive(States.IDLE, Events.GUARDED);
+		return build(builder, kind);
+	}
+
+	static <C> StateMachineTemplate<States, Events, C> build(StateMachineBuilder<States, Events, C> builder, Kind kind) {
+		switch (kind) {
+			case ADAPTIVE:
+				return builder.buildAdaptiveTransitionModel();
+			case GENERATED:
+				return GeneratedTransitionModel.generate(builder.buildTransitionModel());
+			case COMPILED:
+				return builder.buildCompiledTransitionModel();
+			case IMMUTABLE:
+				return ((MutableTransitionModel<States, Events, C>) builder.buildTransitionModel()).createImmutableClone();
+			case MUTABLE:
+			default:
+				return builder.buildTransitionModel();
+		}
+	}
+
+	static final class Equals implements Condition<Integer> {
+		private final int expected;
+
+		Equals(int expected) {
+			this.expected = expected;
+		}
+
+		@Override
+		public boolean isSatisfied(Integer context) {
+			return context == expected;
+		}
+	}
+}
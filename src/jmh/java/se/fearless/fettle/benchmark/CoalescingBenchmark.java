@@ -0,0 +1,65 @@
+package se.fearless.fettle.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se.fearless.fettle.StateMachine;
+import se.fearless.fettle.benchmark.BenchmarkModel.Events;
+import se.fearless.fettle.benchmark.BenchmarkModel.Kind;
+import se.fearless.fettle.benchmark.BenchmarkModel.States;
+import se.fearless.fettle.coalesce.CoalescingStateMachine;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handling a burst of the same event, either firing every event at the machine or coalescing the burst and firing
+ * it once on drain.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CoalescingBenchmark {
+	@Param({"16"})
+	public int burst;
+
+	private StateMachine<States, Events, Integer> machine;
+	private CoalescingStateMachine<States, Events, Integer> coalescing;
+
+	@Setup
+	public void setUp() {
+		machine = BenchmarkModel.create(Kind.COMPILED).newStateMachine(States.IDLE);
+		StateMachine<States, Events, Integer> coalesced = BenchmarkModel.create(Kind.COMPILED).newStateMachine(States.IDLE);
+		coalescing = new CoalescingStateMachine<States, Events, Integer>(coalesced, Events.class, Collections.singleton(Events.TOGGLE));
+	}
+
+	@Benchmark
+	public int fireEveryEvent() {
+		int transitions = 0;
+		for (int i = 0; i < burst; i++) {
+			if (machine.fireEvent(Events.TOGGLE)) {
+				transitions++;
+			}
+		}
+		return transitions;
+	}
+
+	@Benchmark
+	public int coalesceAndDrain() {
+		for (int i = 0; i < burst; i++) {
+			coalescing.fireEvent(Events.TOGGLE);
+		}
+		return coalescing.drain();
+	}
+}
@@ -0,0 +1,100 @@
+package se.fearless.fettle.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se.fearless.fettle.BasicConditions;
+import se.fearless.fettle.Condition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of evaluating guards built with BasicConditions, both as nested pairs and as lists.
+ * All chains evaluate every term, the and chains are true and the or chains are false.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConditionBenchmark {
+	private static final int TERMS = 8;
+
+	private Integer context = 5;
+	private Condition<Integer> nestedAnd;
+	private Condition<Integer> listAnd;
+	private Condition<Integer> nestedOr;
+	private Condition<Integer> listOr;
+	private Condition<Integer> mixed;
+
+	@Setup
+	public void setUp() {
+		List<Condition<Integer>> trueTerms = new ArrayList<Condition<Integer>>();
+		List<Condition<Integer>> falseTerms = new ArrayList<Condition<Integer>>();
+		for (int i = 0; i < TERMS; i++) {
+			trueTerms.add(new LessThan(10 + i));
+			falseTerms.add(new LessThan(-i));
+		}
+		nestedAnd = nest(trueTerms, true);
+		listAnd = BasicConditions.and(trueTerms);
+		nestedOr = nest(falseTerms, false);
+		listOr = BasicConditions.or(falseTerms);
+		mixed = BasicConditions.and(BasicConditions.not(nestedOr), BasicConditions.or(BasicConditions.<Integer>always(), nestedAnd));
+	}
+
+	private Condition<Integer> nest(List<Condition<Integer>> terms, boolean and) {
+		Condition<Integer> result = terms.get(0);
+		for (int i = 1; i < terms.size(); i++) {
+			result = and ? BasicConditions.and(result, terms.get(i)) : BasicConditions.or(result, terms.get(i));
+		}
+		return result;
+	}
+
+	@Benchmark
+	public boolean nestedAnd() {
+		return nestedAnd.isSatisfied(context);
+	}
+
+	@Benchmark
+	public boolean listAnd() {
+		return listAnd.isSatisfied(context);
+	}
+
+	@Benchmark
+	public boolean nestedOr() {
+		return nestedOr.isSatisfied(context);
+	}
+
+	@Benchmark
+	public boolean listOr() {
+		return listOr.isSatisfied(context);
+	}
+
+	@Benchmark
+	public boolean mixed() {
+		return mixed.isSatisfied(context);
+	}
+
+	static final class LessThan implements Condition<Integer> {
+		private final int limit;
+
+		LessThan(int limit) {
+			this.limit = limit;
+		}
+
+		@Override
+		public boolean isSatisfied(Integer context) {
+			return context < limit;
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package se.fearless.fettle.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import se.fearless.fettle.Concurrency;
+import se.fearless.fettle.StateMachine;
+import se.fearless.fettle.StateMachineTemplate;
+import se.fearless.fettle.benchmark.BenchmarkModel.Events;
+import se.fearless.fettle.benchmark.BenchmarkModel.Kind;
+import se.fearless.fettle.benchmark.BenchmarkModel.States;
+import se.fearless.fettle.impl.AbstractTransitionModel;
+import se.fearless.fettle.metrics.TransitionMetrics;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Four threads firing at one shared machine, the worst case for lock contention. With metrics on every event also
+ * updates the shared counters and histograms of the template.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ContendedFireBenchmark {
+
+	@Param({"LOCKING", "OPTIMISTIC"})
+	public Concurrency concurrency;
+
+	@Param({"false", "true"})
+	public boolean metrics;
+
+	private StateMachine<States, Events, Integer> machine;
+
+	@Setup
+	public void setUp() {
+		StateMachineTemplate<States, Events, Integer> template = BenchmarkModel.create(Kind.COMPILED);
+		if (metrics) {
+			((AbstractTransitionModel<States, Events, Integer>) template).setMetrics(new TransitionMetrics<States, Events>());
+		}
+		machine = template.newStateMachine(States.IDLE, concurrency);
+	}
+
+	@Benchmark
+	public boolean toggle() {
+		return machine.fireEvent(Events.TOGGLE);
+	}
+
+	@Benchmark
+	public boolean miss() {
+		return machine.fireEvent(Events.NOTHING);
+	}
+}
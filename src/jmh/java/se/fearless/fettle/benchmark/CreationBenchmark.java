@@ -0,0 +1,58 @@
+package se.fearless.fettle.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se.fearless.fettle.Concurrency;
+import se.fearless.fettle.StateMachine;
+import se.fearless.fettle.StateMachinePool;
+import se.fearless.fettle.StateMachineTemplate;
+import se.fearless.fettle.benchmark.BenchmarkModel.Events;
+import se.fearless.fettle.benchmark.BenchmarkModel.Kind;
+import se.fearless.fettle.benchmark.BenchmarkModel.States;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of creating machines from a template. Run with <code>-prof gc</code> to see the bytes allocated per machine
+ * in <code>gc.alloc.rate.norm</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CreationBenchmark {
+	private static final int POOL_SIZE = 1000;
+
+	private StateMachineTemplate<States, Events, Integer> template;
+
+	@Setup
+	public void setUp() {
+		template = BenchmarkModel.create(Kind.COMPILED);
+	}
+
+	@Benchmark
+	public StateMachine<States, Events, Integer> locking() {
+		return template.newStateMachine(States.IDLE);
+	}
+
+	@Benchmark
+	public StateMachine<States, Events, Integer> optimistic() {
+		return template.newStateMachine(States.IDLE, Concurrency.OPTIMISTIC);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public StateMachinePool<States, Events, Integer> pool() {
+		return template.newStateMachinePool(POOL_SIZE, States.IDLE);
+	}
+}
@@ -0,0 +1,78 @@
+package se.fearless.fettle.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se.fearless.fettle.StateMachine;
+import se.fearless.fettle.StateMachineTemplate;
+import se.fearless.fettle.benchmark.BenchmarkModel.Events;
+import se.fearless.fettle.benchmark.BenchmarkModel.Kind;
+import se.fearless.fettle.benchmark.BenchmarkModel.States;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single threaded cost of StateMachine.fireEvent for the different ways an event can be resolved.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FireEventBenchmark {
+
+	@Param({"MUTABLE", "IMMUTABLE", "COMPILED", "GENERATED", "ADAPTIVE"})
+	public Kind kind;
+
+	private final Events[] batch = {Events.TOGGLE, Events.TOGGLE, Events.NOTHING, Events.TOGGLE,
+			  Events.TOGGLE, Events.NOTHING, Events.TOGGLE, Events.TOGGLE};
+
+	private StateMachine<States, Events, Integer> machine;
+
+	@Setup
+	public void setUp() {
+		StateMachineTemplate<States, Events, Integer> template = BenchmarkModel.create(kind);
+		machine = template.newStateMachine(States.IDLE);
+	}
+
+	@Benchmark
+	public boolean hit() {
+		return machine.fireEvent(Events.TOGGLE);
+	}
+
+	@Benchmark
+	public boolean miss() {
+		return machine.fireEvent(Events.NOTHING);
+	}
+
+	@Benchmark
+	public boolean fromAllFallback() {
+		machine.rawSetState(States.IDLE);
+		return machine.fireEvent(Events.STOP);
+	}
+
+	@Benchmark
+	public boolean guarded() {
+		machine.rawSetState(States.IDLE);
+		return machine.fireEvent(Events.GUARDED, 3);
+	}
+
+	@Benchmark
+	public int batchOfEight() {
+		return machine.fireEvents(batch, 0, batch.length, 3);
+	}
+
+	@Benchmark
+	public void rawSetStateOnly() {
+		machine.rawSetState(States.IDLE);
+	}
+}
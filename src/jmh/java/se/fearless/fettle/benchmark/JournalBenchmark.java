@@ -0,0 +1,90 @@
+package se.fearless.fettle.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import se.fearless.fettle.StateMachinePool;
+import se.fearless.fettle.StateMachineTemplate;
+import se.fearless.fettle.TransitionModel;
+import se.fearless.fettle.benchmark.BenchmarkModel.Events;
+import se.fearless.fettle.benchmark.BenchmarkModel.Kind;
+import se.fearless.fettle.benchmark.BenchmarkModel.States;
+import se.fearless.fettle.journal.Durability;
+import se.fearless.fettle.journal.EventJournal;
+import se.fearless.fettle.journal.JournalReplayer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appending buffered records to a journal, and replaying a journal of a million toggles spread over a hundred
+ * thousand machines into a pool. Every machine is toggled an even number of times, so the pool ends up in the
+ * state it started in and can be replayed into again. Both report records per second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JournalBenchmark {
+	private static final int MACHINES = 100000;
+	private static final int RECORDS = 1000000;
+
+	private File appendFile;
+	private File replayFile;
+	private EventJournal journal;
+	private int next;
+	private JournalReplayer<States, Events> replayer;
+	private StateMachinePool<States, Events, Integer> pool;
+
+	@Setup
+	public void setUp() throws IOException {
+		StateMachineTemplate<States, Events, Integer> template = BenchmarkModel.create(Kind.COMPILED);
+		replayer = new JournalReplayer<States, Events>((TransitionModel<States, Events, Integer>) template, States.class, Events.class);
+		pool = template.newStateMachinePool(MACHINES, States.IDLE);
+
+		replayFile = File.createTempFile("fettle-replay", ".journal");
+		replayFile.delete();
+		EventJournal replayJournal = new EventJournal(replayFile, Durability.BUFFERED);
+		for (int i = 0; i < RECORDS; i++) {
+			int toggles = i / MACHINES;
+			States state = toggles % 2 == 0 ? States.RUNNING : States.IDLE;
+			replayJournal.append(i % MACHINES, Events.TOGGLE.ordinal(), state.ordinal(), 0);
+		}
+		replayJournal.close();
+
+		appendFile = File.createTempFile("fettle-append", ".journal");
+		appendFile.delete();
+		journal = new EventJournal(appendFile, Durability.BUFFERED);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		journal.close();
+		appendFile.delete();
+		replayFile.delete();
+	}
+
+	@Benchmark
+	public void append() throws IOException {
+		next = next + 1 == MACHINES ? 0 : next + 1;
+		journal.append(next, Events.TOGGLE.ordinal(), States.RUNNING.ordinal(), 0);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(RECORDS)
+	public long replay() throws IOException {
+		return replayer.replay(replayFile, pool, true);
+	}
+}
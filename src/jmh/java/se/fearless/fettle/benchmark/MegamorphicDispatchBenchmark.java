@@ -0,0 +1,131 @@
+package se.fearless.fettle.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se.fearless.fettle.Action;
+import se.fearless.fettle.Condition;
+import se.fearless.fettle.Fettle;
+import se.fearless.fettle.StateMachine;
+import se.fearless.fettle.benchmark.BenchmarkModel.Events;
+import se.fearless.fettle.benchmark.BenchmarkModel.Kind;
+import se.fearless.fettle.benchmark.BenchmarkModel.States;
+import se.fearless.fettle.builder.StateMachineBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fires events at machines from four templates that each use their own condition and action classes, so the
+ * condition and action call sites of the interpreted models see four receiver types, while the generated model
+ * calls each of them from a call site of its own.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MegamorphicDispatchBenchmark {
+
+	@Param({"IMMUTABLE", "COMPILED", "GENERATED"})
+	public Kind kind;
+
+	private StateMachine<States, Events, Integer>[] machines;
+	private int next;
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setUp() {
+		Object[][] parts = {
+				  {new Positive(), new CountA()},
+				  {new Even(), new CountB()},
+				  {new Small(), new CountC()},
+				  {new NotNull(), new CountD()}};
+		machines = new StateMachine[parts.length];
+		for (int i = 0; i < parts.length; i++) {
+			StateMachineBuilder<States, Events, Integer> builder = Fettle.newBuilder(States.class, Events.class);
+			builder.defaultContext(2);
+			Condition<Integer> condition = (Condition<Integer>) parts[i][0];
+			Action<States, Events, Integer> action = (Action<States, Events, Integer>) parts[i][1];
+			builder.transition().from(States.IDLE).to(States.RUNNING).on(Events.TOGGLE).when(condition).perform(action);
+			builder.transition().from(States.RUNNING).to(States.IDLE).on(Events.TOGGLE).when(condition).perform(action);
+			builder.onEntry(States.RUNNING).perform(action);
+			builder.onExit(States.RUNNING).perform(action);
+			machines[i] = BenchmarkModel.build(builder, kind).newStateMachine(States.IDLE);
+		}
+	}
+
+	@Benchmark
+	public boolean fire() {
+		next = (next + 1) & (machines.length - 1);
+		return machines[next].fireEvent(Events.TOGGLE);
+	}
+
+	static final class Positive implements Condition<Integer> {
+		@Override
+		public boolean isSatisfied(Integer context) {
+			return context > 0;
+		}
+	}
+
+	static final class Even implements Condition<Integer> {
+		@Override
+		public boolean isSatisfied(Integer context) {
+			return (context & 1) == 0;
+		}
+	}
+
+	static final class Small implements Condition<Integer> {
+		@Override
+		public boolean isSatisfied(Integer context) {
+			return context < 100;
+		}
+	}
+
+	static final class NotNull implements Condition<Integer> {
+		@Override
+		public boolean isSatisfied(Integer context) {
+			return context != null;
+		}
+	}
+
+	abstract static class Counter implements Action<States, Events, Integer> {
+		int count;
+	}
+
+	static final class CountA extends Counter {
+		@Override
+		public void onTransition(States from, States to, Events causedBy, Integer context, StateMachine<States, Events, Integer> stateMachine) {
+			count++;
+		}
+	}
+
+	static final class CountB extends Counter {
+		@Override
+		public void onTransition(States from, States to, Events causedBy, Integer context, StateMachine<States, Events, Integer> stateMachine) {
+			count += 2;
+		}
+	}
+
+	static final class CountC extends Counter {
+		@Override
+		public void onTransition(States from, States to, Events causedBy, Integer context, StateMachine<States, Events, Integer> stateMachine) {
+			count += 3;
+		}
+	}
+
+	static final class CountD extends Counter {
+		@Override
+		public void onTransition(States from, States to, Events causedBy, Integer context, StateMachine<States, Events, Integer> stateMachine) {
+			count += context;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package se.fearless.fettle.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se.fearless.fettle.Fettle;
+import se.fearless.fettle.OrthogonalStateMachine;
+import se.fearless.fettle.StateMachine;
+import se.fearless.fettle.StateMachineTemplate;
+import se.fearless.fettle.benchmark.BenchmarkModel.Events;
+import se.fearless.fettle.benchmark.BenchmarkModel.Kind;
+import se.fearless.fettle.benchmark.BenchmarkModel.States;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Firing TOGGLE at an entity made of three independent dimensions, kept either as three machines with a lock each
+ * or as one machine with three orthogonal regions sharing a lock.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OrthogonalRegionBenchmark {
+	private static final int REGIONS = 3;
+
+	private StateMachine<States, Events, Integer>[] separate;
+	private OrthogonalStateMachine<Events, Integer> orthogonal;
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setUp() {
+		List<StateMachineTemplate<?, Events, Integer>> regions = new ArrayList<StateMachineTemplate<?, Events, Integer>>();
+		separate = new StateMachine[REGIONS];
+		Object[] initial = new Object[REGIONS];
+		for (int i = 0; i < REGIONS; i++) {
+			StateMachineTemplate<States, Events, Integer> template = BenchmarkModel.create(Kind.COMPILED);
+			regions.add(template);
+			separate[i] = template.newStateMachine(States.IDLE);
+			initial[i] = States.IDLE;
+		}
+		orthogonal = Fettle.newOrthogonalModel(Events.class, regions).newStateMachine(initial);
+	}
+
+	@Benchmark
+	public int separateMachines() {
+		int transitions = 0;
+		for (int i = 0; i < REGIONS; i++) {
+			if (separate[i].fireEvent(Events.TOGGLE)) {
+				transitions++;
+			}
+		}
+		return transitions;
+	}
+
+	@Benchmark
+	public boolean orthogonalRegions() {
+		return orthogonal.fireEvent(Events.TOGGLE);
+	}
+}
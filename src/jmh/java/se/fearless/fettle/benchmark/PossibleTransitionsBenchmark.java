@@ -0,0 +1,54 @@
+package se.fearless.fettle.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import se.fearless.fettle.StateMachine;
+import se.fearless.fettle.Transition;
+import se.fearless.fettle.benchmark.BenchmarkModel.Events;
+import se.fearless.fettle.benchmark.BenchmarkModel.Kind;
+import se.fearless.fettle.benchmark.BenchmarkModel.States;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of querying the outgoing transitions of a state, including the transitions from all states.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PossibleTransitionsBenchmark {
+
+	@Param({"MUTABLE", "IMMUTABLE", "COMPILED"})
+	public Kind kind;
+
+	private StateMachine<States, Events, Integer> machine;
+
+	@Setup
+	public void setUp() {
+		machine = BenchmarkModel.create(kind).newStateMachine(States.IDLE);
+	}
+
+	@Benchmark
+	public Map<Events, Collection<? extends Transition<States, Events, Integer>>> withTransitions() {
+		return machine.getPossibleTransitions(States.IDLE);
+	}
+
+	@Benchmark
+	public Map<Events, Collection<? extends Transition<States, Events, Integer>>> onlyFromAll() {
+		return machine.getPossibleTransitions(States.STOPPED);
+	}
+}
@@ -0,0 +1,80 @@
+package se.fearless.fettle.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import se.fearless.fettle.StateMachine;
+import se.fearless.fettle.StateMachineTemplate;
+import se.fearless.fettle.benchmark.BenchmarkModel.Events;
+import se.fearless.fettle.benchmark.BenchmarkModel.Kind;
+import se.fearless.fettle.benchmark.BenchmarkModel.States;
+import se.fearless.fettle.shard.ShardedEngine;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Four producers firing TOGGLE at machines spread over a population, either directly at machines with a lock each
+ * or through a sharded engine where the submit rate is bounded by how fast the shards apply the events.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class ShardedEngineBenchmark {
+	private static final int MACHINES = 1 << 16;
+
+	@Param({"1", "2", "4"})
+	public int shards;
+
+	private StateMachine<States, Events, Integer>[] locked;
+	private ShardedEngine<States, Events, Integer> engine;
+
+	@State(Scope.Thread)
+	public static class Producer {
+		private int next;
+
+		int nextId() {
+			next = (next + 1) & (MACHINES - 1);
+			return next;
+		}
+	}
+
+	@Setup
+	@SuppressWarnings("unchecked")
+	public void setUp() {
+		StateMachineTemplate<States, Events, Integer> template = BenchmarkModel.create(Kind.COMPILED);
+		locked = new StateMachine[MACHINES];
+		for (int i = 0; i < MACHINES; i++) {
+			locked[i] = template.newStateMachine(States.IDLE);
+		}
+		engine = new ShardedEngine<States, Events, Integer>(template, MACHINES, States.IDLE, shards, 4096);
+	}
+
+	@TearDown
+	public void tearDown() {
+		engine.close();
+	}
+
+	@Benchmark
+	public boolean lockedMachines(Producer producer) {
+		return locked[producer.nextId()].fireEvent(Events.TOGGLE);
+	}
+
+	@Benchmark
+	public void shardedEngine(Producer producer) {
+		engine.submit(producer.nextId(), Events.TOGGLE);
+	}
+}
@@ -0,0 +1,107 @@
+package se.fearless.fettle.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import se.fearless.fettle.StateMachine;
+import se.fearless.fettle.StateMachineTemplate;
+import se.fearless.fettle.benchmark.BenchmarkModel.Events;
+import se.fearless.fettle.benchmark.BenchmarkModel.Kind;
+import se.fearless.fettle.benchmark.BenchmarkModel.States;
+import se.fearless.fettle.util.StripedLocks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares machines with a lock each (stripes = 0) against machines sharing a striped lock pool.
+ * <p>
+ * Memory: run with <code>-prof gc</code> and read <code>gc.alloc.rate.norm</code> of {@link #create()}, which is the
+ * number of bytes allocated per machine. {@link #footprint()} prints the retained heap per machine for a large
+ * population once per fork.
+ * <p>
+ * Throughput: {@link #fire()} fires events at random machines from four threads, so contention depends on how
+ * many machines end up on the same stripe.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StripedLockBenchmark {
+	private static final int MACHINES = 4096;
+	private static final int FOOTPRINT_MACHINES = 1000000;
+
+	@Param({"0", "1", "4", "16", "64", "256"})
+	public int stripes;
+
+	private StateMachineTemplate<States, Events, Integer> template;
+	private StripedLocks locks;
+	private StateMachine<States, Events, Integer>[] machines;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		template = BenchmarkModel.create(Kind.COMPILED);
+		locks = stripes == 0 ? null : new StripedLocks(stripes);
+		machines = newMachines(MACHINES);
+	}
+
+	@SuppressWarnings("unchecked")
+	private StateMachine<States, Events, Integer>[] newMachines(int count) {
+		StateMachine<States, Events, Integer>[] result = new StateMachine[count];
+		for (int i = 0; i < count; i++) {
+			result[i] = create();
+		}
+		return result;
+	}
+
+	@Benchmark
+	public StateMachine<States, Events, Integer> create() {
+		if (locks == null) {
+			return template.newStateMachine(States.IDLE);
+		}
+		return template.newStateMachine(States.IDLE, locks);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public boolean fire(ThreadState threadState) {
+		return machines[threadState.nextMachine()].fireEvent(Events.TOGGLE);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	@Warmup(iterations = 1)
+	@Measurement(iterations = 1)
+	public Object footprint() {
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		long before = runtime.totalMemory() - runtime.freeMemory();
+		StateMachine<States, Events, Integer>[] population = newMachines(FOOTPRINT_MACHINES);
+		System.gc();
+		long after = runtime.totalMemory() - runtime.freeMemory();
+		System.out.println("stripes=" + stripes + ": " + (after - before) / FOOTPRINT_MACHINES + " bytes per machine");
+		return population;
+	}
+
+	@State(Scope.Thread)
+	public static class ThreadState {
+		private final Random random = new Random();
+
+		int nextMachine() {
+			return random.nextInt(MACHINES);
+		}
+	}
+}
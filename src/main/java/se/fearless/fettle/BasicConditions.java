@@ -3,80 +3,166 @@ package se.fearless.fettle;
 import java.util.List;
 
 public class BasicConditions {
+	@SuppressWarnings("rawtypes")
+	private static final Condition ALWAYS = new Constant(true);
+	@SuppressWarnings("rawtypes")
+	private static final Condition NEVER = new Constant(false);
 
 	private BasicConditions() {
 	}
 
+	@SuppressWarnings("unchecked")
 	public static <C> Condition<C> always()  {
-		return new Condition<C>() {
-			@Override
-			public boolean isSatisfied(C context) {
-				return true;
-			}
-		};
+		return ALWAYS;
+	}
+
+	@SuppressWarnings("unchecked")
+	public static <C> Condition<C> never()  {
+		return NEVER;
 	}
 
+	@SuppressWarnings("unchecked")
 	public static <C> Condition<C> and(final Condition<C> first, final Condition<C> second) {
-		return new Condition<C>() {
-			@Override
-			public boolean isSatisfied(C context) {
-				return first.isSatisfied(context) && second.isSatisfied(context);
-			}
-		};
+		return new And<C>(new Condition[]{first, second});
 	}
 
+	/**
+	 * @param conditions the terms, copied when the condition is created so later changes to the list are not seen
+	 * @return a condition that is satisfied when all of the terms are, evaluated in order
+	 */
+	@SuppressWarnings("unchecked")
 	public static <C> Condition<C> and(final List<Condition<C>> conditions) {
-		return new Condition<C>() {
-			@Override
-			public boolean isSatisfied(C context) {
-				for (Condition<C> condition : conditions) {
-					if (!condition.isSatisfied(context)) {
-						return false;
-					}
-				}
-				return true;
-			}
-		};
+		return new And<C>(conditions.toArray(new Condition[conditions.size()]));
 	}
 
+	@SuppressWarnings("unchecked")
 	public static <C> Condition<C> or(final Condition<C> first, final Condition<C> second) {
-		return new Condition<C>() {
-			@Override
-			public boolean isSatisfied(C context) {
-				return first.isSatisfied(context) || second.isSatisfied(context);
-			}
-		};
+		return new Or<C>(new Condition[]{first, second});
 	}
 
+	/**
+	 * @param conditions the terms, copied when the condition is created so later changes to the list are not seen
+	 * @return a condition that is satisfied when any of the terms is, evaluated in order
+	 */
+	@SuppressWarnings("unchecked")
 	public static <C> Condition<C> or(final List<Condition<C>> conditions) {
-		return new Condition<C>() {
-			@Override
-			public boolean isSatisfied(C context) {
-				for (Condition<C> condition : conditions) {
-					if (condition.isSatisfied(context)) {
-						return true;
-					}
-				}
-				return false;
-			}
-		};
+		return new Or<C>(conditions.toArray(new Condition[conditions.size()]));
 	}
 
 	public static <C> Condition<C> not(final Condition<C> condition) {
-		return new Condition<C>() {
-			@Override
-			public boolean isSatisfied(C context) {
-				return !condition.isSatisfied(context);
-			}
-		};
+		return new Not<C>(condition);
 	}
 
 	public static <C> Condition<C> xor(final Condition<C> first, final Condition<C> second) {
-		return new Condition<C>() {
-			@Override
-			public boolean isSatisfied(C context) {
-				return first.isSatisfied(context) ^ second.isSatisfied(context);
+		return new Xor<C>(first, second);
+	}
+
+	/**
+	 * Declares how expensive a condition is to evaluate. When every term of an and or an or has a declared cost,
+	 * {@link ConditionOptimizer} evaluates the cheapest terms first, so only declare costs for conditions that
+	 * can be evaluated in any order.
+	 * @param condition the condition
+	 * @param cost the relative cost, lower is cheaper
+	 * @return a condition that is satisfied when the given condition is
+	 */
+	public static <C> CostedCondition<C> withCost(Condition<C> condition, int cost) {
+		return new Costed<C>(condition, cost);
+	}
+
+	static final class Constant implements Condition<Object> {
+		final boolean value;
+
+		Constant(boolean value) {
+			this.value = value;
+		}
+
+		@Override
+		public boolean isSatisfied(Object context) {
+			return value;
+		}
+	}
+
+	static final class And<C> implements Condition<C> {
+		final Condition<C>[] terms;
+
+		And(Condition<C>[] terms) {
+			this.terms = terms;
+		}
+
+		@Override
+		public boolean isSatisfied(C context) {
+			for (int i = 0; i < terms.length; i++) {
+				if (!terms[i].isSatisfied(context)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	static final class Or<C> implements Condition<C> {
+		final Condition<C>[] terms;
+
+		Or(Condition<C>[] terms) {
+			this.terms = terms;
+		}
+
+		@Override
+		public boolean isSatisfied(C context) {
+			for (int i = 0; i < terms.length; i++) {
+				if (terms[i].isSatisfied(context)) {
+					return true;
+				}
 			}
-		};
+			return false;
+		}
+	}
+
+	static final class Not<C> implements Condition<C> {
+		final Condition<C> term;
+
+		Not(Condition<C> term) {
+			this.term = term;
+		}
+
+		@Override
+		public boolean isSatisfied(C context) {
+			return !term.isSatisfied(context);
+		}
+	}
+
+	static final class Xor<C> implements Condition<C> {
+		final Condition<C> first;
+		final Condition<C> second;
+
+		Xor(Condition<C> first, Condition<C> second) {
+			this.first = first;
+			this.second = second;
+		}
+
+		@Override
+		public boolean isSatisfied(C context) {
+			return first.isSatisfied(context) ^ second.isSatisfied(context);
+		}
+	}
+
+	static final class Costed<C> implements CostedCondition<C> {
+		final Condition<C> condition;
+		private final int cost;
+
+		Costed(Condition<C> condition, int cost) {
+			this.condition = condition;
+			this.cost = cost;
+		}
+
+		@Override
+		public int getCost() {
+			return cost;
+		}
+
+		@Override
+		public boolean isSatisfied(C context) {
+			return condition.isSatisfied(context);
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,33 @@
+package se.fearless.fettle;
+
+/**
+ * The outcome of broadcasting one event to many state machines
+ */
+public class BroadcastResult {
+	private final int transitioned;
+	private final int unchanged;
+
+	public BroadcastResult(int transitioned, int unchanged) {
+		this.transitioned = transitioned;
+		this.unchanged = unchanged;
+	}
+
+	/**
+	 * @return the number of machines that changed state because of the event
+	 */
+	public int getTransitioned() {
+		return transitioned;
+	}
+
+	/**
+	 * @return the number of machines that had no transition for the event
+	 */
+	public int getUnchanged() {
+		return unchanged;
+	}
+
+	@Override
+	public String toString() {
+		return "BroadcastResult(transitioned=" + transitioned + ", unchanged=" + unchanged + ")";
+	}
+}
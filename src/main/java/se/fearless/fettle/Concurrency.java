@@ -0,0 +1,26 @@
+package se.fearless.fettle;
+
+/**
+ * Selects how a state machine created from a template protects its current state from concurrent events.
+ */
+public enum Concurrency {
+	/**
+	 * Every event is handled while holding a lock owned by the machine. Conditions and actions never run
+	 * concurrently for the same machine.
+	 */
+	LOCKING,
+
+	/**
+	 * No lock is taken, the new state is committed with a compare-and-set and the event is retried on conflict.
+	 * Conditions may be evaluated more than once per event and actions run after the new state is committed,
+	 * see {@link se.fearless.fettle.impl.OptimisticStateMachine} for the details.
+	 */
+	OPTIMISTIC,
+
+	/**
+	 * Like {@link #LOCKING}, but the state is also published for threads reading it without the lock, along with
+	 * a version that is incremented every time the state is set. The machine implements
+	 * {@link VersionedStateMachine}, see {@link se.fearless.fettle.impl.PublishedStateMachine} for the details.
+	 */
+	PUBLISHED
+}
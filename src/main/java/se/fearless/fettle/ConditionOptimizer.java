@@ -0,0 +1,332 @@
+package se.fearless.fettle;
+
+import se.fearless.fettle.BasicConditions.And;
+import se.fearless.fettle.BasicConditions.Constant;
+import se.fearless.fettle.BasicConditions.Costed;
+import se.fearless.fettle.BasicConditions.Not;
+import se.fearless.fettle.BasicConditions.Or;
+import se.fearless.fettle.BasicConditions.Xor;
+import se.fearless.fettle.util.GuavaReplacement;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Rewrites condition trees built with {@link BasicConditions} into trees that are cheaper to evaluate. Nested ands
+ * and ors are flattened into a single array, always and never terms are removed or fold the whole junction into a
+ * constant, double negations are removed and junctions where every term has a declared cost evaluate the cheapest
+ * terms first. Conditions that were not built by {@link BasicConditions} are left as they are.
+ * <p>
+ * Both {@link #optimize(Condition)} and {@link #adaptive(Condition)} may change the order the terms of a junction
+ * are evaluated in, so the terms must be independent and free of side effects. A junction relying on short circuit
+ * evaluation, like {@code and(notNull, usesValue)} where the second term assumes the first one held, can fail once
+ * its terms are reordered and must not be passed to them. Only terms that all declare a cost are reordered by
+ * {@link #optimize(Condition)}, while {@link #adaptive(Condition)} reorders the terms of every and and or.
+ */
+public class ConditionOptimizer {
+	private static final int REORDER_INTERVAL = 1024;
+
+	@SuppressWarnings("rawtypes")
+	private static final Comparator<Condition> BY_COST = new Comparator<Condition>() {
+		@Override
+		public int compare(Condition first, Condition second) {
+			int firstCost = ((CostedCondition) first).getCost();
+			int secondCost = ((CostedCondition) second).getCost();
+			return firstCost < secondCost ? -1 : (firstCost == secondCost ? 0 : 1);
+		}
+	};
+
+	private ConditionOptimizer() {
+	}
+
+	/**
+	 * Returns a condition that is satisfied for the same contexts as the given condition, assuming that the terms
+	 * of its junctions are independent and evaluating them has no side effects. A condition that can not be
+	 * simplified is returned as it is, and so are the parts of a condition that can not be.
+	 */
+	public static <C> Condition<C> optimize(Condition<C> condition) {
+		return strip(simplify(condition));
+	}
+
+	/**
+	 * Like {@link #optimize(Condition)}, but the ands and ors of the result also count how often each term decides
+	 * the outcome and periodically move the terms that decide it most often first. The counters are updated without
+	 * synchronization, so under contention some evaluations are not counted, which only affects the order.
+	 * Every and and or may be reordered, so the terms must be independent and free of side effects, see the class
+	 * documentation.
+	 */
+	public static <C> Condition<C> adaptive(Condition<C> condition) {
+		return adapt(optimize(condition));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <C> Condition<C> simplify(Condition<C> condition) {
+		if (condition instanceof And) {
+			return junction(condition, ((And<C>) condition).terms, true);
+		}
+		if (condition instanceof Or) {
+			return junction(condition, ((Or<C>) condition).terms, false);
+		}
+		if (condition instanceof Not) {
+			Condition<C> term = simplify(((Not<C>) condition).term);
+			if (term instanceof Constant) {
+				return constant(!((Constant) term).value);
+			}
+			if (term instanceof Not) {
+				return ((Not<C>) term).term;
+			}
+			return term == ((Not<C>) condition).term ? condition : new Not<C>(term);
+		}
+		if (condition instanceof Xor) {
+			Xor<C> xor = (Xor<C>) condition;
+			Condition<C> first = simplify(xor.first);
+			Condition<C> second = simplify(xor.second);
+			if (first instanceof Constant) {
+				return ((Constant) first).value ? simplify(new Not<C>(second)) : second;
+			}
+			if (second instanceof Constant) {
+				return ((Constant) second).value ? simplify(new Not<C>(first)) : first;
+			}
+			return first == xor.first && second == xor.second ? condition : new Xor<C>(first, second);
+		}
+		if (condition instanceof Costed) {
+			Costed<C> costed = (Costed<C>) condition;
+			Condition<C> inner = simplify(costed.condition);
+			if (inner instanceof Constant) {
+				return inner;
+			}
+			return inner == costed.condition ? condition : new Costed<C>(inner, costed.getCost());
+		}
+		return condition;
+	}
+
+	/**
+	 * Simplifies the terms of an and or an or, returning the junction itself if none of them changed
+	 */
+	@SuppressWarnings("unchecked")
+	private static <C> Condition<C> junction(Condition<C> junction, Condition<C>[] input, boolean and) {
+		List<Condition<C>> terms = GuavaReplacement.newArrayList();
+		for (Condition<C> term : input) {
+			Condition<C> simplified = simplify(term);
+			if (simplified instanceof Constant) {
+				if (((Constant) simplified).value != and) {
+					return constant(!and);
+				}
+			} else if (and && simplified instanceof And) {
+				terms.addAll(Arrays.asList(((And<C>) simplified).terms));
+			} else if (!and && simplified instanceof Or) {
+				terms.addAll(Arrays.asList(((Or<C>) simplified).terms));
+			} else {
+				terms.add(simplified);
+			}
+		}
+		if (terms.isEmpty()) {
+			return constant(and);
+		}
+		if (terms.size() == 1) {
+			return terms.get(0);
+		}
+		Condition<C>[] array = terms.toArray(new Condition[terms.size()]);
+		if (allCosted(array)) {
+			Arrays.sort(array, BY_COST);
+		}
+		if (sameTerms(array, input)) {
+			return junction;
+		}
+		return and ? new And<C>(array) : new Or<C>(array);
+	}
+
+	private static boolean sameTerms(Condition<?>[] terms, Condition<?>[] original) {
+		if (terms.length != original.length) {
+			return false;
+		}
+		for (int i = 0; i < terms.length; i++) {
+			if (terms[i] != original[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean allCosted(Condition<?>[] terms) {
+		for (Condition<?> term : terms) {
+			if (!(term instanceof CostedCondition)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <C> Condition<C> constant(boolean value) {
+		return value ? BasicConditions.<C>always() : BasicConditions.<C>never();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <C> Condition<C> strip(Condition<C> condition) {
+		if (condition instanceof And) {
+			Condition<C>[] terms = ((And<C>) condition).terms;
+			Condition<C>[] stripped = strip(terms);
+			return stripped == terms ? condition : new And<C>(stripped);
+		}
+		if (condition instanceof Or) {
+			Condition<C>[] terms = ((Or<C>) condition).terms;
+			Condition<C>[] stripped = strip(terms);
+			return stripped == terms ? condition : new Or<C>(stripped);
+		}
+		if (condition instanceof Not) {
+			Condition<C> term = ((Not<C>) condition).term;
+			Condition<C> stripped = strip(term);
+			return stripped == term ? condition : new Not<C>(stripped);
+		}
+		if (condition instanceof Xor) {
+			Xor<C> xor = (Xor<C>) condition;
+			Condition<C> first = strip(xor.first);
+			Condition<C> second = strip(xor.second);
+			return first == xor.first && second == xor.second ? condition : new Xor<C>(first, second);
+		}
+		if (condition instanceof Costed) {
+			return strip(((Costed<C>) condition).condition);
+		}
+		return condition;
+	}
+
+	/**
+	 * Strips the terms, returning the same array if none of them changed
+	 */
+	@SuppressWarnings("unchecked")
+	private static <C> Condition<C>[] strip(Condition<C>[] terms) {
+		Condition<C>[] res = new Condition[terms.length];
+		for (int i = 0; i < terms.length; i++) {
+			res[i] = strip(terms[i]);
+		}
+		return sameTerms(res, terms) ? terms : res;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <C> Condition<C> adapt(Condition<C> condition) {
+		if (condition instanceof And) {
+			return new AdaptiveJunction<C>(adapt(((And<C>) condition).terms), true);
+		}
+		if (condition instanceof Or) {
+			return new AdaptiveJunction<C>(adapt(((Or<C>) condition).terms), false);
+		}
+		if (condition instanceof Not) {
+			return new Not<C>(adapt(((Not<C>) condition).term));
+		}
+		if (condition instanceof Xor) {
+			return new Xor<C>(adapt(((Xor<C>) condition).first), adapt(((Xor<C>) condition).second));
+		}
+		return condition;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <C> Condition<C>[] adapt(Condition<C>[] terms) {
+		Condition<C>[] res = new Condition[terms.length];
+		for (int i = 0; i < terms.length; i++) {
+			res[i] = adapt(terms[i]);
+		}
+		return res;
+	}
+
+	/**
+	 * An and or an or that evaluates the terms that most often decide the outcome first. A term decides an and when
+	 * it is not satisfied and an or when it is.
+	 */
+	static final class AdaptiveJunction<C> implements Condition<C> {
+		private final boolean and;
+		private volatile Ordering<C> ordering;
+		private int evaluations;
+
+		AdaptiveJunction(Condition<C>[] terms, boolean and) {
+			this.and = and;
+			this.ordering = new Ordering<C>(terms, new int[terms.length], new int[terms.length]);
+		}
+
+		@Override
+		public boolean isSatisfied(C context) {
+			Ordering<C> current = ordering;
+			Condition<C>[] terms = current.terms;
+			boolean result = and;
+			for (int i = 0; i < terms.length; i++) {
+				current.evaluated[i]++;
+				if (terms[i].isSatisfied(context) != and) {
+					current.decided[i]++;
+					result = !and;
+					break;
+				}
+			}
+			if (++evaluations >= REORDER_INTERVAL) {
+				evaluations = 0;
+				ordering = current.reorder();
+			}
+			return result;
+		}
+
+		Condition<C>[] getTerms() {
+			return ordering.terms.clone();
+		}
+	}
+
+	private static final class Ordering<C> {
+		private final Condition<C>[] terms;
+		private final int[] evaluated;
+		private final int[] decided;
+
+		Ordering(Condition<C>[] terms, int[] evaluated, int[] decided) {
+			this.terms = terms;
+			this.evaluated = evaluated;
+			this.decided = decided;
+		}
+
+		/**
+		 * Ages the counters and returns this ordering if the terms are already in order, so a junction whose order
+		 * has settled does not allocate. Otherwise returns a new ordering, sorted on a copy of the counters since
+		 * other threads keep updating them.
+		 */
+		@SuppressWarnings("unchecked")
+		Ordering<C> reorder() {
+			if (isOrdered()) {
+				for (int i = 0; i < terms.length; i++) {
+					evaluated[i] /= 2;
+					decided[i] /= 2;
+				}
+				return this;
+			}
+			int[] snapshotEvaluated = evaluated.clone();
+			int[] snapshotDecided = decided.clone();
+			int[] order = new int[terms.length];
+			for (int i = 0; i < order.length; i++) {
+				int index = i;
+				while (index > 0 && decidesMoreOften(i, order[index - 1], snapshotEvaluated, snapshotDecided)) {
+					order[index] = order[index - 1];
+					index--;
+				}
+				order[index] = i;
+			}
+			Condition<C>[] newTerms = new Condition[terms.length];
+			int[] newEvaluated = new int[terms.length];
+			int[] newDecided = new int[terms.length];
+			for (int i = 0; i < order.length; i++) {
+				newTerms[i] = terms[order[i]];
+				newEvaluated[i] = snapshotEvaluated[order[i]] / 2;
+				newDecided[i] = snapshotDecided[order[i]] / 2;
+			}
+			return new Ordering<C>(newTerms, newEvaluated, newDecided);
+		}
+
+		private boolean isOrdered() {
+			for (int i = 1; i < terms.length; i++) {
+				if (decidesMoreOften(i, i - 1, evaluated, decided)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static boolean decidesMoreOften(int first, int second, int[] evaluated, int[] decided) {
+			return (long) decided[first] * Math.max(1, evaluated[second]) > (long) decided[second] * Math.max(1, evaluated[first]);
+		}
+	}
+}
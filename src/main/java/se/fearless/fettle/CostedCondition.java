@@ -0,0 +1,8 @@
+package se.fearless.fettle;
+
+/**
+ * A condition that declares how expensive it is to evaluate, see {@link BasicConditions#withCost(Condition, int)}.
+ */
+public interface CostedCondition<C> extends Condition<C> {
+	int getCost();
+}
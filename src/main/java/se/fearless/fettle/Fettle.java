@@ -2,6 +2,9 @@ package se.fearless.fettle;
 
 import se.fearless.fettle.builder.StateMachineBuilder;
 import se.fearless.fettle.impl.MutableTransitionModelImpl;
+import se.fearless.fettle.impl.OrthogonalTransitionModel;
+
+import java.util.List;
 
 /**
  * Utility class to have an easy to find entry point to the framework
@@ -35,4 +38,17 @@ public class Fettle {
 	public static <S, E, C> StateMachineBuilder<S, E, C> newBuilder(Class<S> stateClass, Class<E> eventClass) {
 		return StateMachineBuilder.create(stateClass, eventClass);
 	}
+
+	/**
+	 * Combines templates into one template for machines with a region per template, see {@link OrthogonalStateMachine}
+	 * @param eventClass the class of the events fired at all regions, must be an enum
+	 * @param regions the templates of the regions, created by Fettle and with enum states
+	 * @param <E> the type of the events triggering state transitions
+	 * @param <C> the type of the context sent to actions and conditions
+	 * @return a template for machines made of the regions
+	 * @throws IllegalArgumentException if the events or the states of a region are not enums
+	 */
+	public static <E, C> OrthogonalTransitionModel<E, C> newOrthogonalModel(Class<E> eventClass, List<? extends StateMachineTemplate<?, E, C>> regions) {
+		return new OrthogonalTransitionModel<E, C>(eventClass, regions);
+	}
 }
@@ -0,0 +1,25 @@
+package se.fearless.fettle;
+
+/**
+ * Receives measurements from a transition model, see
+ * {@link se.fearless.fettle.impl.AbstractTransitionModel#setMetrics(MetricsRecorder)}. Durations are in nanoseconds.
+ * The methods are called on the thread firing the event, often while the machine's lock is held, so they must be cheap.
+ *
+ * @param <S> the type of the states
+ * @param <E> the type of the events
+ */
+public interface MetricsRecorder<S, E> {
+	void transitionTaken(S from, E event, S to);
+
+	void eventRejected(S from, E event);
+
+	void conditionsEvaluated(long nanos);
+
+	void exitActionsRun(long nanos);
+
+	void transitionActionsRun(long nanos);
+
+	void entryActionsRun(long nanos);
+
+	void lockAcquired(long nanos);
+}
@@ -6,10 +6,46 @@ public interface MutableTransitionModel<S, E, C> extends TransitionModel<S, E, C
 
 	StateMachineTemplate<S, E, C> createImmutableClone();
 
+	/**
+	 * Creates an immutable clone of the model where the transitions and actions are laid out in flat tables
+	 * indexed by the ordinals of the states and events, making event dispatch a couple of array reads.
+	 * @return an immutable template with the transitions and actions currently defined in this model
+	 * @throws IllegalArgumentException if the states or the events are not enums
+	 */
+	StateMachineTemplate<S, E, C> compile();
+
+	/**
+	 * Creates an immutable clone of the model that learns in which order to evaluate the guards of the transitions
+	 * declared mutually exclusive with {@link #markMutuallyExclusive(Object, Object)}, evaluating the guard that is
+	 * satisfied most often first.
+	 * @return an immutable template with the transitions and actions currently defined in this model
+	 */
+	StateMachineTemplate<S, E, C> createAdaptiveClone();
+
+	/**
+	 * Declares that at most one of the guards of the transitions out of a state on an event can be satisfied at
+	 * the same time, so they may be evaluated in any order.
+	 * @param from the state the transitions leave
+	 * @param event the event triggering the transitions
+	 */
+	void markMutuallyExclusive(S from, E event);
+
 	void addTransition(S from, S to, E event, Condition<C> condition, List<Action<S, E, C>> actions);
 
 	void addFromAllTransition(S to, E event, Condition<C> condition, List<Action<S, E, C>> actions);
 
+	/**
+	 * Makes a state a substate of another. The substate inherits the transitions of its parent, tried after its own
+	 * and before those added with {@link #addFromAllTransition}. Going from a state to one outside its parent runs
+	 * the exit actions of the state and then of the parent, going into a substate from outside its parent runs the
+	 * entry actions of the parent and then of the substate. Immutable clones precompute these chains for every
+	 * pair of states.
+	 * @param state the substate
+	 * @param parent the state containing it
+	 * @throws IllegalArgumentException if the state already has a parent or the parent is the state or one of its substates
+	 */
+	void setParent(S state, S parent);
+
 	void addEntryAction(S entryState, Action<S, E, C> action);
 
 	void addExitAction(S exitState, Action<S, E, C> action);
@@ -0,0 +1,68 @@
+package se.fearless.fettle;
+
+/**
+ * A state machine made of several independent regions, each in a state of its own. Every event is fired at all
+ * regions, in the order the regions were given, while the machine's lock is held once.
+ *
+ * @param <E> the type of the events that can trigger state changes
+ * @param <C> the context events are fired in
+ */
+public interface OrthogonalStateMachine<E, C> {
+	/**
+	 * @return the number of regions in the machine
+	 */
+	int getRegionCount();
+
+	/**
+	 * Gets the current state of a region by its index
+	 *
+	 * @param region the index of the region, in the order the regions were given
+	 * @return the state the region is currently in
+	 */
+	Object getCurrentState(int region);
+
+	/**
+	 * Gets the current state of a region
+	 *
+	 * @param region the template the region was created from
+	 * @return the state the region is currently in
+	 * @throws IllegalArgumentException if the template is not one of the regions of the machine
+	 */
+	<S> S getCurrentState(StateMachineTemplate<S, E, C> region);
+
+	/**
+	 * Returns a view of one region. Events fired at the view are fired at all regions, while setting the state only
+	 * affects the region.
+	 *
+	 * @param region the template the region was created from
+	 * @return a state machine backed by the region
+	 * @throws IllegalArgumentException if the template is not one of the regions of the machine
+	 */
+	<S> StateMachine<S, E, C> getRegion(StateMachineTemplate<S, E, C> region);
+
+	/**
+	 * Fires an event at all regions using the default context
+	 *
+	 * @param event the event that is fired
+	 * @return true if the event resulted in a state change in any region, false otherwise
+	 */
+	boolean fireEvent(E event);
+
+	/**
+	 * Fires an event at all regions
+	 *
+	 * @param event the event that is fired
+	 * @param context the context to be sent to any actions and conditions
+	 * @return true if the event resulted in a state change in any region, false otherwise
+	 */
+	boolean fireEvent(E event, C context);
+
+	/**
+	 * Fires a sequence of events at all regions in order without letting events fired from other threads in between
+	 *
+	 * @param events the events to fire, in order
+	 * @param context the context to be sent to any actions and conditions for all the events
+	 * @return the number of events that resulted in a state change in any region
+	 */
+	int fireEvents(Iterable<? extends E> events, C context);
+}
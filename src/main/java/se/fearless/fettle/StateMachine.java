@@ -38,6 +38,27 @@ public interface StateMachine<S, E, C> {
 	 */
 	boolean fireEvent(E event, C context);
 
+	/**
+	 * Fires a sequence of events at the state machine in order, as if each was fired with {@link #fireEvent(Object, Object)},
+	 * but without letting events fired from other threads in between.
+	 *
+	 * @param events the events to fire, in order
+	 * @param context the context to be sent to any actions and conditions for all the events
+	 * @return the number of events that resulted in a state change
+	 */
+	int fireEvents(Iterable<? extends E> events, C context);
+
+	/**
+	 * Fires a range of an array of events at the state machine in order, see {@link #fireEvents(Iterable, Object)}
+	 *
+	 * @param events the array holding the events to fire
+	 * @param offset the index of the first event to fire
+	 * @param length the number of events to fire
+	 * @param context the context to be sent to any actions and conditions for all the events
+	 * @return the number of events that resulted in a state change
+	 */
+	int fireEvents(E[] events, int offset, int length, C context);
+
 	/**
 	 * Sets the state of the state machine to the rawState even if there are no transitions leading to it
 	 * No transition, entry or exit actions are run
@@ -0,0 +1,93 @@
+package se.fearless.fettle;
+
+/**
+ * A fixed size population of state machines sharing one template, where each machine is addressed by an int id
+ * rather than being an object of its own. Only the current state of each machine is stored, packed as the ordinal
+ * of the state, which makes it suitable for tracking millions of entities.
+ *
+ * @param <S> the type of the states, must be an enum
+ * @param <E> the type of the events that can trigger state changes
+ * @param <C> the context events are fired in
+ */
+public interface StateMachinePool<S, E, C> {
+	/**
+	 * @return the number of machines in the pool, valid ids are 0 to size - 1
+	 */
+	int size();
+
+	/**
+	 * Gets the current state of a machine
+	 *
+	 * @param id the id of the machine
+	 * @return the state the machine is currently in
+	 */
+	S getCurrentState(int id);
+
+	/**
+	 * Fires an event at a machine in the pool using the default context, possibly triggering a state change
+	 *
+	 * @param id the id of the machine
+	 * @param event the event that is fired
+	 * @return true if the event resulted in a state change, false otherwise
+	 */
+	boolean fireEvent(int id, E event);
+
+	/**
+	 * Fires an event at a machine in the pool, possibly triggering a state change
+	 *
+	 * @param id the id of the machine
+	 * @param event the event that is fired
+	 * @param context the context to be sent to any actions and conditions
+	 * @return true if the event resulted in a state change, false otherwise
+	 */
+	boolean fireEvent(int id, E event, C context);
+
+	/**
+	 * Fires a sequence of events at a machine in the pool in order, see {@link StateMachine#fireEvents(Iterable, Object)}
+	 *
+	 * @param id the id of the machine
+	 * @param events the events to fire, in order
+	 * @param context the context to be sent to any actions and conditions for all the events
+	 * @return the number of events that resulted in a state change
+	 */
+	int fireEvents(int id, Iterable<? extends E> events, C context);
+
+	/**
+	 * Fires a range of an array of events at a machine in the pool in order,
+	 * see {@link StateMachine#fireEvents(Object[], int, int, Object)}
+	 *
+	 * @param id the id of the machine
+	 * @param events the array holding the events to fire
+	 * @param offset the index of the first event to fire
+	 * @param length the number of events to fire
+	 * @param context the context to be sent to any actions and conditions for all the events
+	 * @return the number of events that resulted in a state change
+	 */
+	int fireEvents(int id, E[] events, int offset, int length, C context);
+
+	/**
+	 * Sets the state of a machine without running any actions, see {@link StateMachine#rawSetState(Object)}
+	 *
+	 * @param id the id of the machine
+	 * @param rawState the state the machine will be in after this method is called
+	 */
+	void rawSetState(int id, S rawState);
+
+	/**
+	 * Forces a machine into a state running exit and entry actions, see {@link StateMachine#forceSetState(Object)}
+	 *
+	 * @param id the id of the machine
+	 * @param forcedState the state the machine will be in after this method is called
+	 * @return true if the machine changed state
+	 */
+	boolean forceSetState(int id, S forcedState);
+
+	/**
+	 * Returns a lightweight view of one machine in the pool for code that needs a {@link StateMachine}.
+	 * The view holds no state of its own, all calls are forwarded to the pool.
+	 *
+	 * @param id the id of the machine
+	 * @return a state machine backed by the pool
+	 */
+	StateMachine<S, E, C> getStateMachine(int id);
+}
@@ -1,5 +1,10 @@
 package se.fearless.fettle;
 
+import se.fearless.fettle.util.StripedLocks;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.locks.Lock;
 
 public interface StateMachineTemplate<S, E, C> {
@@ -11,4 +16,77 @@ public interface StateMachineTemplate<S, E, C> {
 	StateMachine<S, E, C> newStateMachine(S init);
 
 	StateMachine<S, E, C> newStateMachine(S init, Lock lock);
+
+	/**
+	 * Creates a new state machine guarded by one of a fixed set of shared locks rather than a lock of its own.
+	 * Stripes are handed out round robin, use {@link #newStateMachine(Object, java.util.concurrent.locks.Lock)}
+	 * with {@link StripedLocks#get(int)} to key the stripe on an id of your own instead.
+	 * @param init the state the machine will be in when created
+	 * @param locks the shared locks to pick the machine's lock from
+	 * @return a new state machine with the transitions and actions defined in this model
+	 */
+	StateMachine<S, E, C> newStateMachine(S init, StripedLocks locks);
+
+	/**
+	 * Creates a new state machine using the transition model as a template
+	 * @param init the state the machine will be in when created
+	 * @param concurrency how the machine protects its state when events are fired from several threads
+	 * @return a new state machine with the transitions and actions defined in this model
+	 */
+	StateMachine<S, E, C> newStateMachine(S init, Concurrency concurrency);
+
+	/**
+	 * Creates a new state machine like {@link #newStateMachine(Object, Concurrency)} with {@link Concurrency#PUBLISHED}
+	 * @param init the state the machine will be in when created
+	 * @return a new state machine whose versioned state can be read without its lock
+	 */
+	VersionedStateMachine<S, E, C> newVersionedStateMachine(S init);
+
+	/**
+	 * Creates a pool of state machines that only store their current state, packed as state ordinals
+	 * @param size the number of machines in the pool
+	 * @param init the state all machines will be in when created
+	 * @return a new pool of machines with the transitions and actions defined in this model
+	 * @throws IllegalArgumentException if the states are not enums
+	 */
+	StateMachinePool<S, E, C> newStateMachinePool(int size, S init);
+
+	/**
+	 * Fires the same event at many machines created from this template on the calling thread. The machines are
+	 * grouped by their current state and the transition is resolved once per group, so conditions are evaluated once
+	 * per state rather than once per machine. Machines whose state has no transition for the event are left
+	 * untouched. A machine that changes state after it was grouped, or that was created from another template, gets
+	 * the event fired at it as usual. To update the machines on an executor, use
+	 * {@code se.fearless.fettle.async.ParallelBroadcast}.
+	 * @param event the event to fire
+	 * @param context the context to use for transition conditions and actions
+	 * @param machines the machines to fire the event at
+	 * @return the number of machines that did and did not change state
+	 */
+	BroadcastResult broadcast(E event, C context, Collection<? extends StateMachine<S, E, C>> machines);
+
+	/**
+	 * Groups the machines and resolves the transitions like {@link #broadcast(Object, Object, java.util.Collection)}
+	 * without applying them. Each of the returned tasks applies the event to a chunk of the machines when called,
+	 * on any thread, and returns the number of them that changed state.
+	 * @param event the event to fire
+	 * @param context the context to use for transition conditions and actions
+	 * @param machines the machines to fire the event at
+	 * @return the tasks that together fire the event at all machines
+	 */
+	List<Callable<Integer>> prepareBroadcast(E event, C context, Collection<? extends StateMachine<S, E, C>> machines);
+
+	/**
+	 * Registers a listener that is notified of every transition and every rejected event of all machines created
+	 * from this template, including machines created before the listener was added.
+	 * @param listener the listener to add
+	 */
+	void addTransitionListener(TransitionListener<S, E, C> listener);
+
+	/**
+	 * Removes a listener added with {@link #addTransitionListener(TransitionListener)}
+	 * @param listener the listener to remove
+	 * @return true if the listener was registered
+	 */
+	boolean removeTransitionListener(TransitionListener<S, E, C> listener);
 }
@@ -0,0 +1,28 @@
+package se.fearless.fettle;
+
+/**
+ * Notified of every event fired at any machine created from a template, see
+ * {@link StateMachineTemplate#addTransitionListener(TransitionListener)}. Listeners are called on the thread firing
+ * the event, after all actions of a transition have run, so they should return quickly. Wrap slow listeners in
+ * {@link se.fearless.fettle.async.AsyncTransitionListener}.
+ */
+public interface TransitionListener<S, E, C> {
+	/**
+	 * Called when an event caused a machine to change state
+	 * @param from the state the machine was in before the transition
+	 * @param to the state the machine is in after the transition
+	 * @param causedBy the event that triggered the transition
+	 * @param context the context the event was fired in
+	 * @param stateMachine the machine for which the transition occurred
+	 */
+	void onTransition(S from, S to, E causedBy, C context, StateMachine<S, E, C> stateMachine);
+
+	/**
+	 * Called when an event fired at a machine did not match any transition
+	 * @param state the state the machine is in
+	 * @param event the event that was rejected
+	 * @param context the context the event was fired in
+	 * @param stateMachine the machine the event was fired at
+	 */
+	void onRejected(S state, E event, C context, StateMachine<S, E, C> stateMachine);
+}
@@ -0,0 +1,47 @@
+package se.fearless.fettle;
+
+/**
+ * The state of a machine together with the number of times its state had been set when it was read
+ */
+public class VersionedState<S> {
+	private final S state;
+	private final long version;
+
+	public VersionedState(S state, long version) {
+		this.state = state;
+		this.version = version;
+	}
+
+	public S getState() {
+		return state;
+	}
+
+	/**
+	 * @return the number of times the state had been set, by transitions or forcibly, when it was read
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof VersionedState)) {
+			return false;
+		}
+		VersionedState<?> other = (VersionedState<?>) o;
+		return version == other.version && state.equals(other.state);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * state.hashCode() + (int) (version ^ (version >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return "VersionedState(state=" + state + ", version=" + version + ")";
+	}
+}
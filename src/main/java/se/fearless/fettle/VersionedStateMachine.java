@@ -0,0 +1,47 @@
+package se.fearless.fettle;
+
+/**
+ * A state machine whose state can be read from any thread without taking its lock. Every time the state is set
+ * the version is incremented, so readers can tell whether a machine changed between two reads even if it ended up
+ * in the same state. Created with {@link StateMachineTemplate#newVersionedStateMachine(Object)}.
+ *
+ * @param <S> the type of the states
+ * @param <E> the type of the events that can trigger state changes
+ * @param <C> the context events are fired in
+ */
+public interface VersionedStateMachine<S, E, C> extends StateMachine<S, E, C> {
+	/**
+	 * @return the number of times the state has been set since the machine was created
+	 */
+	long getVersion();
+
+	/**
+	 * Reads the current state and the version it was set at as a consistent pair
+	 *
+	 * @return the current state and its version
+	 */
+	VersionedState<S> getVersionedState();
+
+	/**
+	 * Starts reading the state and its version as a consistent pair without allocating, waiting for a state that is
+	 * being set to be published. Read the state with {@link #getCurrentState()} and then check the read with
+	 * {@link #validateRead(long)}, starting over if the state was set in between.
+	 * <pre>
+	 * long version;
+	 * S state;
+	 * do {
+	 *     version = machine.startRead();
+	 *     state = machine.getCurrentState();
+	 * } while (!machine.validateRead(version));
+	 * </pre>
+	 *
+	 * @return the version of the state about to be read
+	 */
+	long startRead();
+
+	/**
+	 * @param version the version returned by {@link #startRead()}
+	 * @return true if the state has not been set since the read started, so the state read belongs to the version
+	 */
+	boolean validateRead(long version);
+}
@@ -0,0 +1,18 @@
+package se.fearless.fettle.annotation;
+
+import se.fearless.fettle.Action;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Actions performed when a {@link StateMachineDefinition} enters or exits a state.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target({})
+public @interface StateActionDefinition {
+	String state();
+
+	Class<? extends Action>[] perform();
+}
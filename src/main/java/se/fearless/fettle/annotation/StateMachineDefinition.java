@@ -0,0 +1,46 @@
+package se.fearless.fettle.annotation;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Declares a state machine that is generated at compile time. For an annotated type <code>Door</code> the
+ * annotation processor writes a class <code>DoorModel</code> in the same package, a transition model and state
+ * machine template that resolves events with switch statements over the state and event enums.
+ * <pre>
+ * &#64;StateMachineDefinition(states = DoorState.class, events = DoorEvent.class,
+ *     transitions = {
+ *         &#64;TransitionDefinition(from = "CLOSED", to = "OPEN", on = "OPEN", when = IsUnlocked.class),
+ *         &#64;TransitionDefinition(fromAll = true, to = "BROKEN", on = "KICK", perform = Alarm.class)
+ *     },
+ *     onEntry = &#64;StateActionDefinition(state = "OPEN", perform = Log.class))
+ * interface Door {
+ * }
+ * </pre>
+ * Conditions and actions are referred to by class and created once per model with their no argument constructor.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface StateMachineDefinition {
+	/**
+	 * @return the enum of the states, defaults to the annotated type which must then be an enum
+	 */
+	Class<?> states() default Void.class;
+
+	Class<?> events();
+
+	Class<?> context() default Void.class;
+
+	/**
+	 * @return the simple name of the generated class, defaults to the name of the annotated type followed by Model
+	 */
+	String name() default "";
+
+	TransitionDefinition[] transitions() default {};
+
+	StateActionDefinition[] onEntry() default {};
+
+	StateActionDefinition[] onExit() default {};
+}
@@ -0,0 +1,33 @@
+package se.fearless.fettle.annotation;
+
+import se.fearless.fettle.Action;
+import se.fearless.fettle.Condition;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * A transition of a {@link StateMachineDefinition}. States and events are given by the names of their enum constants.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target({})
+public @interface TransitionDefinition {
+	/**
+	 * @return the states the transition is taken from, must be empty when fromAll is set
+	 */
+	String[] from() default {};
+
+	boolean fromAll() default false;
+
+	String to();
+
+	String on();
+
+	/**
+	 * @return the condition that has to be satisfied, Condition itself means that the transition is always taken
+	 */
+	Class<? extends Condition> when() default Condition.class;
+
+	Class<? extends Action>[] perform() default {};
+}
@@ -0,0 +1,152 @@
+package se.fearless.fettle.async;
+
+import se.fearless.fettle.StateMachine;
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Fires events at a state machine without blocking the caller. Events are put in a lock-free mailbox owned by the
+ * machine and applied on the executor, in the order they were fired, by at most one thread at a time.
+ * A drain handles up to a batch of events before giving the thread back to the executor, so a busy machine
+ * costs one executor task per batch rather than one per event.
+ * <p>
+ * Any executor works, including one running each task on a virtual thread on JVMs that have them.
+ * Exceptions thrown by conditions or actions are reported through the future of the event that caused them
+ * and do not stop later events from being applied. If the executor rejects a drain, the events waiting in the mailbox
+ * are failed with the {@link RejectedExecutionException}, which is also thrown to the caller that fired the event.
+ *
+ * @param <S> the type of the states
+ * @param <E> the type of the events that can trigger state changes
+ * @param <C> the context events are fired in
+ */
+public class AsyncStateMachine<S, E, C> {
+	private static final int DEFAULT_BATCH_SIZE = 64;
+
+	private final StateMachine<S, E, C> stateMachine;
+	private final Executor executor;
+	private final int batchSize;
+	private final Queue<Mail> mailbox = new ConcurrentLinkedQueue<Mail>();
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private final Runnable drain = new Runnable() {
+		@Override
+		public void run() {
+			drain();
+		}
+	};
+
+	public AsyncStateMachine(StateMachine<S, E, C> stateMachine, Executor executor) {
+		this(stateMachine, executor, DEFAULT_BATCH_SIZE);
+	}
+
+	public AsyncStateMachine(StateMachine<S, E, C> stateMachine, Executor executor, int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("Batch size must be at least one, got " + batchSize);
+		}
+		this.stateMachine = stateMachine;
+		this.executor = executor;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Fires an event at the machine using the default context once all previously fired events have been applied
+	 *
+	 * @param event the event that is fired
+	 * @return a future that is completed with true if the event resulted in a state change, false otherwise
+	 * @throws RejectedExecutionException if the executor rejected the drain
+	 */
+	public Future<Boolean> fireEvent(final E event) {
+		return enqueue(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return stateMachine.fireEvent(event);
+			}
+		});
+	}
+
+	/**
+	 * Fires an event at the machine once all previously fired events have been applied
+	 *
+	 * @param event the event that is fired
+	 * @param context the context to be sent to any actions and conditions
+	 * @return a future that is completed with true if the event resulted in a state change, false otherwise
+	 * @throws RejectedExecutionException if the executor rejected the drain
+	 */
+	public Future<Boolean> fireEvent(final E event, final C context) {
+		return enqueue(new Callable<Boolean>() {
+			@Override
+			public Boolean call() {
+				return stateMachine.fireEvent(event, context);
+			}
+		});
+	}
+
+	/**
+	 * Gets the current state of the machine, which does not reflect events still waiting in the mailbox
+	 *
+	 * @return the state the machine is currently in
+	 */
+	public S getCurrentState() {
+		return stateMachine.getCurrentState();
+	}
+
+	/**
+	 * @return the machine events are applied to
+	 */
+	public StateMachine<S, E, C> getStateMachine() {
+		return stateMachine;
+	}
+
+	private Future<Boolean> enqueue(Callable<Boolean> fire) {
+		Mail task = new Mail(fire);
+		mailbox.offer(task);
+		schedule();
+		return task;
+	}
+
+	private void schedule() {
+		if (scheduled.compareAndSet(false, true)) {
+			try {
+				executor.execute(drain);
+			} catch (RejectedExecutionException e) {
+				// Nothing will drain the mailbox, so fail what is in it. Events fired after the flag is cleared
+				// schedule a drain of their own.
+				scheduled.set(false);
+				for (Mail task = mailbox.poll(); task != null; task = mailbox.poll()) {
+					task.fail(e);
+				}
+				throw e;
+			}
+		}
+	}
+
+	private void drain() {
+		for (int i = 0; i < batchSize; i++) {
+			Mail task = mailbox.poll();
+			if (task == null) {
+				break;
+			}
+			task.run();
+		}
+		scheduled.set(false);
+		if (!mailbox.isEmpty()) {
+			schedule();
+		}
+	}
+
+	private static final class Mail extends FutureTask<Boolean> {
+		private Mail(Callable<Boolean> fire) {
+			super(fire);
+		}
+
+		private void fail(Throwable cause) {
+			setException(cause);
+		}
+	}
+}
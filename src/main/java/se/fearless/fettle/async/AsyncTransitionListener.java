@@ -0,0 +1,212 @@
+package se.fearless.fettle.async;
+
+import se.fearless.fettle.StateMachine;
+import se.fearless.fettle.TransitionListener;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Delivers notifications to another listener on a thread of its own, so a slow listener never holds up the threads
+ * firing events. Notifications are copied into a ring buffer of preallocated slots, firing threads claim a slot with
+ * a compare and set and never wait: when the ring is full the notification is dropped and counted, see
+ * {@link #getDropped()}. Notifications are delivered in the order their slots were claimed.
+ * <p>
+ * If the wrapped listener throws, the exception goes to the uncaught exception handler of the delivering thread and
+ * delivery continues on a new thread from the thread factory.
+ *
+ * @param <S> the type of the states
+ * @param <E> the type of the events
+ * @param <C> the type of the context
+ */
+public class AsyncTransitionListener<S, E, C> implements TransitionListener<S, E, C> {
+	private static final int SPINS_BEFORE_PARKING = 100;
+	private static final long CLOSED = Long.MIN_VALUE;
+
+	private final TransitionListener<S, E, C> listener;
+	private final ThreadFactory threadFactory;
+	private final Slot<S, E, C>[] slots;
+	private final int mask;
+	private final AtomicLongArray published;
+	private final AtomicLong claimed = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private volatile long delivered;
+	private volatile boolean running = true;
+	private volatile Thread consumer;
+	private volatile boolean parked;
+
+	public AsyncTransitionListener(TransitionListener<S, E, C> listener, int capacity) {
+		this(listener, capacity, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "fettle-transition-listener");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	public AsyncTransitionListener(TransitionListener<S, E, C> listener, int capacity, ThreadFactory threadFactory) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Capacity must be at least one, got " + capacity);
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		this.listener = listener;
+		this.threadFactory = threadFactory;
+		this.mask = size - 1;
+		slots = new Slot[size];
+		published = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			slots[i] = new Slot<S, E, C>();
+			published.set(i, -1);
+		}
+		startConsumer();
+	}
+
+	@Override
+	public void onTransition(S from, S to, E causedBy, C context, StateMachine<S, E, C> stateMachine) {
+		publish(true, from, to, causedBy, context, stateMachine);
+	}
+
+	@Override
+	public void onRejected(S state, E event, C context, StateMachine<S, E, C> stateMachine) {
+		publish(false, state, null, event, context, stateMachine);
+	}
+
+	private void publish(boolean transition, S from, S to, E event, C context, StateMachine<S, E, C> stateMachine) {
+		long sequence;
+		do {
+			sequence = claimed.get();
+			if (sequence < 0 || sequence - delivered >= slots.length) {
+				dropped.incrementAndGet();
+				return;
+			}
+		} while (!claimed.compareAndSet(sequence, sequence + 1));
+		int index = (int) sequence & mask;
+		Slot<S, E, C> slot = slots[index];
+		slot.transition = transition;
+		slot.from = from;
+		slot.to = to;
+		slot.event = event;
+		slot.context = context;
+		slot.stateMachine = stateMachine;
+		// A volatile write so it can not be reordered with the read of parked below, see idle()
+		published.set(index, sequence);
+		if (parked) {
+			LockSupport.unpark(consumer);
+		}
+	}
+
+	/**
+	 * @return the number of notifications that were dropped because the ring was full or the listener was closed
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return the number of notifications handed to the wrapped listener so far
+	 */
+	public long getDelivered() {
+		return delivered;
+	}
+
+	/**
+	 * Stops accepting notifications. Notifications already accepted are still delivered. Once they have been, the
+	 * consumer sets the closed bit of the claimed sequence, so a notification racing with close is either claimed
+	 * before that and delivered or dropped.
+	 */
+	public void close() {
+		running = false;
+		LockSupport.unpark(consumer);
+	}
+
+	private void startConsumer() {
+		Thread thread = threadFactory.newThread(new Runnable() {
+			@Override
+			public void run() {
+				consume();
+			}
+		});
+		consumer = thread;
+		thread.start();
+	}
+
+	private void consume() {
+		int idle = 0;
+		while (true) {
+			long sequence = delivered;
+			int index = (int) sequence & mask;
+			if (published.get(index) != sequence) {
+				if (!running && claimed.compareAndSet(sequence, sequence | CLOSED)) {
+					return;
+				}
+				idle = idle(idle, index, sequence);
+				continue;
+			}
+			idle = 0;
+			boolean completed = false;
+			try {
+				slots[index].deliverTo(listener);
+				completed = true;
+			} finally {
+				delivered = sequence + 1;
+				if (!completed) {
+					startConsumer();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Yields for a while and then parks until a producer or close unparks the consumer. The consumer announces that
+	 * it is parking before checking the slot a last time, so a producer publishing to it at the same time either is
+	 * seen by that check or sees the announcement and unparks it.
+	 * @return the number of rounds idle to pass to the next call, saturating once the consumer parks
+	 */
+	private int idle(int idle, int index, long sequence) {
+		if (idle < SPINS_BEFORE_PARKING) {
+			Thread.yield();
+			return idle + 1;
+		}
+		parked = true;
+		if (running && published.get(index) != sequence) {
+			LockSupport.park(this);
+		}
+		parked = false;
+		return idle;
+	}
+
+	private static final class Slot<S, E, C> {
+		private boolean transition;
+		private S from;
+		private S to;
+		private E event;
+		private C context;
+		private StateMachine<S, E, C> stateMachine;
+
+		void deliverTo(TransitionListener<S, E, C> listener) {
+			S slotFrom = from;
+			S slotTo = to;
+			E slotEvent = event;
+			C slotContext = context;
+			StateMachine<S, E, C> slotMachine = stateMachine;
+			from = null;
+			to = null;
+			event = null;
+			context = null;
+			stateMachine = null;
+			if (transition) {
+				listener.onTransition(slotFrom, slotTo, slotEvent, slotContext, slotMachine);
+			} else {
+				listener.onRejected(slotFrom, slotEvent, slotContext, slotMachine);
+			}
+		}
+	}
+}
@@ -0,0 +1,56 @@
+package se.fearless.fettle.async;
+
+import se.fearless.fettle.BroadcastResult;
+import se.fearless.fettle.StateMachine;
+import se.fearless.fettle.StateMachineTemplate;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Broadcasts events on an executor. Kept out of {@link StateMachineTemplate} since executors are not available on
+ * every platform the core runs on.
+ */
+public final class ParallelBroadcast {
+	private ParallelBroadcast() {
+	}
+
+	/**
+	 * Fires the same event at many machines created from a template, updating them on the executor in chunks.
+	 * See {@link StateMachineTemplate#broadcast(Object, Object, java.util.Collection)}.
+	 * The method returns when the event has been applied to all machines.
+	 * @param template the template the machines were created from
+	 * @param event the event to fire
+	 * @param context the context to use for transition conditions and actions
+	 * @param machines the machines to fire the event at
+	 * @param executor the executor the machines are updated on
+	 * @return the number of machines that did and did not change state
+	 */
+	public static <S, E, C> BroadcastResult broadcast(StateMachineTemplate<S, E, C> template, E event, C context,
+			Collection<? extends StateMachine<S, E, C>> machines, ExecutorService executor) {
+		List<Callable<Integer>> tasks = template.prepareBroadcast(event, context, machines);
+		int transitioned = 0;
+		try {
+			for (Future<Integer> result : executor.invokeAll(tasks)) {
+				transitioned += result.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while broadcasting " + event, e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException("Failed to broadcast " + event, cause);
+		}
+		return new BroadcastResult(transitioned, machines.size() - transitioned);
+	}
+}
@@ -5,11 +5,15 @@ import se.fearless.fettle.StateMachineTemplate;
 import se.fearless.fettle.impl.MutableTransitionModelImpl;
 import se.fearless.fettle.util.GuavaReplacement;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class StateMachineBuilder<S, E, C> {
 	private final List<TransitionBuilder<S, E, C>> transitionBuilders = GuavaReplacement.newArrayList();
 	private final List<EntryExitActionBuilder<S, E, C>> entryExitActions = GuavaReplacement.newArrayList();
+	private final Map<S, List<E>> mutuallyExclusive = GuavaReplacement.newHashMap();
+	private final Map<S, S> parents = new LinkedHashMap<S, S>();
 	private final Class<S> stateClass;
 	private final Class<E> eventClass;
 	private C defaultContext;
@@ -42,6 +46,38 @@ public class StateMachineBuilder<S, E, C> {
 		return actionBuilder;
 	}
 
+	/**
+	 * Declares that at most one of the guards of the transitions out of a state on an event can be satisfied at the
+	 * same time. Only templates built with {@link #buildAdaptiveTransitionModel()} make use of this.
+	 * @param from the state the transitions leave
+	 * @param event the event triggering the transitions
+	 * @return this builder
+	 */
+	public StateMachineBuilder<S, E, C> mutuallyExclusive(S from, E event) {
+		List<E> events = mutuallyExclusive.get(from);
+		if (events == null) {
+			events = GuavaReplacement.newArrayList();
+			mutuallyExclusive.put(from, events);
+		}
+		events.add(event);
+		return this;
+	}
+
+	/**
+	 * Nests states inside a parent state. The substates inherit the transitions out of the parent, and the entry and
+	 * exit actions of the parent run when a transition crosses its boundary,
+	 * see {@link se.fearless.fettle.MutableTransitionModel#setParent(Object, Object)}.
+	 * @param parent the state containing the substates
+	 * @param substates the states to nest inside the parent
+	 * @return this builder
+	 */
+	public StateMachineBuilder<S, E, C> substates(S parent, S... substates) {
+		for (S substate : substates) {
+			parents.put(substate, parent);
+		}
+		return this;
+	}
+
 	public StateMachineBuilder<S, E, C> defaultContext(C defaultContext) {
 		this.defaultContext = defaultContext;
 		return this;
@@ -70,13 +106,47 @@ public class StateMachineBuilder<S, E, C> {
 	 * @return a state machine template configured with all the transitions and actions specified using this builder
 	 */
 	public StateMachineTemplate<S, E, C> buildTransitionModel() {
+		return createTransitionModel();
+	}
+
+	/**
+	 * Builds an immutable state machine template where transitions are looked up in a flat table indexed by
+	 * the ordinals of the states and events. Requires both states and events to be enums.
+	 *
+	 * @return a compiled state machine template configured with all the transitions and actions specified using this builder
+	 * @throws IllegalArgumentException if the states or the events are not enums
+	 */
+	public StateMachineTemplate<S, E, C> buildCompiledTransitionModel() {
+		return createTransitionModel().compile();
+	}
+
+	/**
+	 * Builds an immutable state machine template that counts which of the transitions declared with
+	 * {@link #mutuallyExclusive(Object, Object)} are taken and evaluates the guard that is satisfied most often first.
+	 * Other transitions keep the order they were added in.
+	 *
+	 * @return an adaptive state machine template configured with all the transitions and actions specified using this builder
+	 */
+	public StateMachineTemplate<S, E, C> buildAdaptiveTransitionModel() {
+		return createTransitionModel().createAdaptiveClone();
+	}
+
+	private MutableTransitionModelImpl<S, E, C> createTransitionModel() {
 		MutableTransitionModelImpl<S, E, C> template = MutableTransitionModelImpl.create(stateClass, eventClass, defaultContext);
+		for (Map.Entry<S, S> entry : parents.entrySet()) {
+			template.setParent(entry.getKey(), entry.getValue());
+		}
 		for (TransitionBuilder<S, E, C> transitionBuilder : transitionBuilders) {
 			transitionBuilder.addToTransitionModel(template);
 		}
 		for (EntryExitActionBuilder<S, E, C> entryExitAction : entryExitActions) {
 			entryExitAction.addToMachine(template);
 		}
+		for (Map.Entry<S, List<E>> entry : mutuallyExclusive.entrySet()) {
+			for (E event : entry.getValue()) {
+				template.markMutuallyExclusive(entry.getKey(), event);
+			}
+		}
 		return template;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,212 @@
+package se.fearless.fettle.coalesce;
+
+import se.fearless.fettle.StateMachine;
+import se.fearless.fettle.Transition;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A front end for a state machine that receives bursts of events where only the latest one matters, like position
+ * updates or heartbeats. Events declared coalescible are not fired when they arrive but marked as pending, at most
+ * once per event, remembering the context of the latest one. Pending events are fired at the machine by
+ * {@link #drain()} in the order they first arrived, and the ones that arrived while an event of the same kind was
+ * already pending are counted as dropped.
+ * <p>
+ * Other events are fired right away, after draining the pending events so that events are never applied out of the
+ * order they arrived in. Firing a coalescible event returns false, since its outcome is not known until it is
+ * drained. The pending set is preallocated, so firing and draining do not allocate.
+ * <p>
+ * Events fired at the front end while it is draining, typically by actions of the machine, do not start a drain of
+ * their own. Coalescible ones join the drain in progress and other ones are fired at the machine right away.
+ *
+ * @param <S> the type of the states
+ * @param <E> the type of the events
+ * @param <C> the type of the context
+ */
+public class CoalescingStateMachine<S, E extends Enum<E>, C> implements StateMachine<S, E, C> {
+	private static final Object DEFAULT_CONTEXT = new Object();
+
+	private final StateMachine<S, E, C> stateMachine;
+	private final E[] events;
+	private final boolean[] coalescible;
+	private final boolean[] pending;
+	private final Object[] contexts;
+	private final int[] order;
+	private int first;
+	private int pendingCount;
+	private boolean draining;
+	private long received;
+	private long dropped;
+	private long applied;
+
+	public CoalescingStateMachine(StateMachine<S, E, C> stateMachine, Class<E> eventClass, Collection<E> coalescibleEvents) {
+		if (coalescibleEvents.isEmpty()) {
+			throw new IllegalArgumentException("At least one event has to be coalescible");
+		}
+		this.stateMachine = stateMachine;
+		events = eventClass.getEnumConstants();
+		coalescible = new boolean[events.length];
+		for (E event : coalescibleEvents) {
+			coalescible[event.ordinal()] = true;
+		}
+		pending = new boolean[events.length];
+		contexts = new Object[events.length];
+		order = new int[events.length];
+	}
+
+	@Override
+	public S getCurrentState() {
+		return stateMachine.getCurrentState();
+	}
+
+	@Override
+	public boolean fireEvent(E event) {
+		return fire(event, DEFAULT_CONTEXT);
+	}
+
+	@Override
+	public boolean fireEvent(E event, C context) {
+		return fire(event, context);
+	}
+
+	@Override
+	public synchronized int fireEvents(Iterable<? extends E> events, C context) {
+		int transitions = 0;
+		for (E event : events) {
+			if (fire(event, context)) {
+				transitions++;
+			}
+		}
+		return transitions;
+	}
+
+	@Override
+	public synchronized int fireEvents(E[] events, int offset, int length, C context) {
+		int transitions = 0;
+		for (int i = offset; i < offset + length; i++) {
+			if (fire(events[i], context)) {
+				transitions++;
+			}
+		}
+		return transitions;
+	}
+
+	/**
+	 * Fires the pending events at the machine, in the order they first arrived and with the latest context they
+	 * arrived with
+	 *
+	 * @return the number of pending events that resulted in a state change, always 0 when called while draining
+	 */
+	public synchronized int drain() {
+		if (draining) {
+			return 0;
+		}
+		draining = true;
+		int transitions = 0;
+		int drained = 0;
+		try {
+			while (pendingCount > 0) {
+				int ordinal = order[first];
+				first = (first + 1) % order.length;
+				pendingCount--;
+				drained++;
+				Object context = contexts[ordinal];
+				pending[ordinal] = false;
+				contexts[ordinal] = null;
+				if (apply(events[ordinal], context)) {
+					transitions++;
+				}
+			}
+		} finally {
+			// Events after one whose actions threw stay pending
+			draining = false;
+			applied += drained;
+		}
+		return transitions;
+	}
+
+	private synchronized boolean fire(E event, Object context) {
+		received++;
+		if (event == null || !coalescible[event.ordinal()]) {
+			drain();
+			applied++;
+			return apply(event, context);
+		}
+		int ordinal = event.ordinal();
+		if (pending[ordinal]) {
+			dropped++;
+		} else {
+			pending[ordinal] = true;
+			// An event is pending at most once, so the ring never holds more than one entry per event
+			order[(first + pendingCount) % order.length] = ordinal;
+			pendingCount++;
+		}
+		contexts[ordinal] = context;
+		return false;
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean apply(E event, Object context) {
+		if (context == DEFAULT_CONTEXT) {
+			return stateMachine.fireEvent(event);
+		}
+		return stateMachine.fireEvent(event, (C) context);
+	}
+
+	/**
+	 * @return the number of coalescible events waiting to be drained
+	 */
+	public synchronized int getPending() {
+		return pendingCount;
+	}
+
+	/**
+	 * @return the number of events fired at this front end
+	 */
+	public synchronized long getReceived() {
+		return received;
+	}
+
+	/**
+	 * @return the number of events that were replaced by a later event of the same kind before being drained
+	 */
+	public synchronized long getDropped() {
+		return dropped;
+	}
+
+	/**
+	 * @return the number of events fired at the machine
+	 */
+	public synchronized long getApplied() {
+		return applied;
+	}
+
+	/**
+	 * @return the machine events are applied to
+	 */
+	public StateMachine<S, E, C> getStateMachine() {
+		return stateMachine;
+	}
+
+	/**
+	 * Sets the state of the machine, leaving the pending events to be drained against the new state
+	 */
+	@Override
+	public void rawSetState(S rawState) {
+		stateMachine.rawSetState(rawState);
+	}
+
+	/**
+	 * Forces the state of the machine, leaving the pending events to be drained against the new state
+	 */
+	@Override
+	public boolean forceSetState(S forcedState) {
+		return stateMachine.forceSetState(forcedState);
+	}
+
+	@Override
+	public Map<E, Collection<? extends Transition<S, E, C>>> getPossibleTransitions(S fromState) {
+		return stateMachine.getPossibleTransitions(fromState);
+	}
+}
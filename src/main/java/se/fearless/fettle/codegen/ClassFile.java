@@ -0,0 +1,390 @@
+package se.fearless.fettle.codegen;
+
+import se.fearless.fettle.util.GuavaReplacement;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of a class file writer to emit the generated dispatchers. Classes are written as version 49 so the
+ * verifier infers the types itself and no stack map frames are needed.
+ */
+class ClassFile {
+	static final int ALOAD_0 = 0x2a;
+	static final int ALOAD = 0x19;
+	static final int ILOAD_1 = 0x1b;
+	static final int AALOAD = 0x32;
+	static final int IFEQ = 0x99;
+	static final int IF_ICMPGE = 0xa2;
+	static final int IRETURN = 0xac;
+	static final int RETURN = 0xb1;
+	static final int GETFIELD = 0xb4;
+	static final int PUTFIELD = 0xb5;
+	static final int INVOKEVIRTUAL = 0xb6;
+	static final int INVOKESPECIAL = 0xb7;
+	static final int INVOKEINTERFACE = 0xb9;
+
+	private static final int MAGIC = 0xcafebabe;
+	private static final int VERSION = 49;
+	private static final int ACC_PUBLIC = 0x0001;
+	private static final int ACC_PRIVATE = 0x0002;
+	private static final int ACC_FINAL = 0x0010;
+	private static final int ACC_SUPER = 0x0020;
+	private static final int MAX_CODE_LENGTH = 65535;
+
+	private static final int CONSTANT_UTF8 = 1;
+	private static final int CONSTANT_INTEGER = 3;
+	private static final int CONSTANT_CLASS = 7;
+	private static final int CONSTANT_FIELDREF = 9;
+	private static final int CONSTANT_METHODREF = 10;
+	private static final int CONSTANT_INTERFACE_METHODREF = 11;
+	private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+	private final ByteArrayOutputStream constantBytes = new ByteArrayOutputStream();
+	private final DataOutputStream constants = new DataOutputStream(constantBytes);
+	private final Map<String, Integer> constantIndex = GuavaReplacement.newHashMap();
+	private int constantCount = 1;
+
+	private final ByteArrayOutputStream memberBytes = new ByteArrayOutputStream();
+	private final DataOutputStream members = new DataOutputStream(memberBytes);
+	private final List<byte[]> fields = GuavaReplacement.newArrayList();
+	private final List<byte[]> methods = GuavaReplacement.newArrayList();
+
+	private final String name;
+	private final int thisClass;
+	private final int superClass;
+	private int longestMethod;
+
+	ClassFile(String name, String superName) {
+		this.name = name;
+		thisClass = classRef(name);
+		superClass = classRef(superName);
+	}
+
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the number of bytes of code of the longest method so far, not counting the constructor which only runs once
+	 */
+	int getLongestMethod() {
+		return longestMethod;
+	}
+
+	void field(String fieldName, String descriptor) {
+		try {
+			memberBytes.reset();
+			members.writeShort(ACC_PRIVATE | ACC_FINAL);
+			members.writeShort(utf8(fieldName));
+			members.writeShort(utf8(descriptor));
+			members.writeShort(0);
+			fields.add(memberBytes.toByteArray());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	void method(String methodName, String descriptor, Code code) {
+		byte[] instructions = code.toByteArray();
+		if (instructions.length > MAX_CODE_LENGTH) {
+			throw new IllegalArgumentException("The model is too large to generate " + methodName + " for, " + instructions.length + " bytes of code");
+		}
+		if (!"<init>".equals(methodName)) {
+			longestMethod = Math.max(longestMethod, instructions.length);
+		}
+		try {
+			memberBytes.reset();
+			members.writeShort(ACC_PUBLIC);
+			members.writeShort(utf8(methodName));
+			members.writeShort(utf8(descriptor));
+			members.writeShort(1);
+			members.writeShort(utf8("Code"));
+			members.writeInt(12 + instructions.length);
+			members.writeShort(code.maxStack);
+			members.writeShort(code.maxLocals);
+			members.writeInt(instructions.length);
+			members.write(instructions);
+			members.writeShort(0);
+			members.writeShort(0);
+			methods.add(memberBytes.toByteArray());
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	byte[] toByteArray() {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(MAGIC);
+			out.writeShort(0);
+			out.writeShort(VERSION);
+			out.writeShort(constantCount);
+			constants.flush();
+			out.write(constantBytes.toByteArray());
+			out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(0);
+			writeAll(out, fields);
+			writeAll(out, methods);
+			out.writeShort(0);
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void writeAll(DataOutputStream out, List<byte[]> entries) throws IOException {
+		out.writeShort(entries.size());
+		for (byte[] entry : entries) {
+			out.write(entry);
+		}
+	}
+
+	int fieldRef(String fieldName, String descriptor) {
+		return memberRef(CONSTANT_FIELDREF, thisClass, fieldName, descriptor);
+	}
+
+	int methodRef(String owner, String methodName, String descriptor) {
+		return memberRef(CONSTANT_METHODREF, classRef(owner), methodName, descriptor);
+	}
+
+	int interfaceMethodRef(String owner, String methodName, String descriptor) {
+		return memberRef(CONSTANT_INTERFACE_METHODREF, classRef(owner), methodName, descriptor);
+	}
+
+	int integer(int value) {
+		String key = "I" + value;
+		Integer index = constantIndex.get(key);
+		if (index != null) {
+			return index;
+		}
+		try {
+			constants.writeByte(CONSTANT_INTEGER);
+			constants.writeInt(value);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return register(key);
+	}
+
+	private int memberRef(int tag, int owner, String memberName, String descriptor) {
+		String key = tag + ":" + owner + "." + memberName + descriptor;
+		Integer index = constantIndex.get(key);
+		if (index != null) {
+			return index;
+		}
+		int nameAndType = nameAndType(memberName, descriptor);
+		try {
+			constants.writeByte(tag);
+			constants.writeShort(owner);
+			constants.writeShort(nameAndType);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return register(key);
+	}
+
+	private int nameAndType(String memberName, String descriptor) {
+		String key = "NT" + memberName + ":" + descriptor;
+		Integer index = constantIndex.get(key);
+		if (index != null) {
+			return index;
+		}
+		int nameIndex = utf8(memberName);
+		int descriptorIndex = utf8(descriptor);
+		try {
+			constants.writeByte(CONSTANT_NAME_AND_TYPE);
+			constants.writeShort(nameIndex);
+			constants.writeShort(descriptorIndex);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return register(key);
+	}
+
+	private int classRef(String className) {
+		String key = "C" + className;
+		Integer index = constantIndex.get(key);
+		if (index != null) {
+			return index;
+		}
+		int nameIndex = utf8(className);
+		try {
+			constants.writeByte(CONSTANT_CLASS);
+			constants.writeShort(nameIndex);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return register(key);
+	}
+
+	private int utf8(String value) {
+		String key = "U" + value;
+		Integer index = constantIndex.get(key);
+		if (index != null) {
+			return index;
+		}
+		try {
+			constants.writeByte(CONSTANT_UTF8);
+			constants.writeUTF(value);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return register(key);
+	}
+
+	private int register(String key) {
+		int index = constantCount++;
+		constantIndex.put(key, index);
+		return index;
+	}
+
+	/**
+	 * The instructions of one method. Branch targets are labels that are bound once the code they point at is
+	 * emitted, the offsets are filled in when the method is finished.
+	 */
+	static class Code {
+		private final ClassFile classFile;
+		private final int maxStack;
+		private final int maxLocals;
+		private byte[] code = new byte[64];
+		private int length;
+		private final List<int[]> fixups = GuavaReplacement.newArrayList();
+		private final List<Integer> labels = GuavaReplacement.newArrayList();
+
+		Code(ClassFile classFile, int maxStack, int maxLocals) {
+			this.classFile = classFile;
+			this.maxStack = maxStack;
+			this.maxLocals = maxLocals;
+		}
+
+		int newLabel() {
+			labels.add(-1);
+			return labels.size() - 1;
+		}
+
+		void bind(int label) {
+			labels.set(label, length);
+		}
+
+		void op(int opcode) {
+			u1(opcode);
+		}
+
+		void op(int opcode, int constantIndex) {
+			u1(opcode);
+			u2(constantIndex);
+		}
+
+		void aload(int local) {
+			if (local <= 3) {
+				u1(ALOAD_0 + local);
+			} else {
+				u1(ALOAD);
+				u1(local);
+			}
+		}
+
+		void push(int value) {
+			if (value >= -1 && value <= 5) {
+				u1(0x03 + value);
+			} else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+				u1(0x10);
+				u1(value);
+			} else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+				u1(0x11);
+				u2(value);
+			} else {
+				op(0x13, classFile.integer(value));
+			}
+		}
+
+		void invokeInterface(int methodRef, int argumentSlots) {
+			u1(INVOKEINTERFACE);
+			u2(methodRef);
+			u1(argumentSlots + 1);
+			u1(0);
+		}
+
+		void branch(int opcode, int label) {
+			int base = length;
+			u1(opcode);
+			fixups.add(new int[]{length, base, label, 2});
+			u2(0);
+		}
+
+		/**
+		 * Emits a lookupswitch on the int on top of the stack
+		 * @param keys the keys in ascending order
+		 * @param targets the label to jump to for each key
+		 * @param defaultLabel the label to jump to for any other value
+		 */
+		void lookupSwitch(int[] keys, int[] targets, int defaultLabel) {
+			int base = length;
+			u1(0xab);
+			while (length % 4 != 0) {
+				u1(0);
+			}
+			fixups.add(new int[]{length, base, defaultLabel, 4});
+			u4(0);
+			u4(keys.length);
+			for (int i = 0; i < keys.length; i++) {
+				u4(keys[i]);
+				fixups.add(new int[]{length, base, targets[i], 4});
+				u4(0);
+			}
+		}
+
+		byte[] toByteArray() {
+			for (int[] fixup : fixups) {
+				int target = labels.get(fixup[2]);
+				if (target < 0) {
+					throw new IllegalStateException("Unbound label " + fixup[2]);
+				}
+				int offset = target - fixup[1];
+				if (fixup[3] == 2) {
+					if (offset > Short.MAX_VALUE) {
+						throw new IllegalArgumentException("Branch offset " + offset + " out of range");
+					}
+					put(fixup[0], offset, 2);
+				} else {
+					put(fixup[0], offset, 4);
+				}
+			}
+			byte[] result = new byte[length];
+			System.arraycopy(code, 0, result, 0, length);
+			return result;
+		}
+
+		private void put(int position, int value, int bytes) {
+			for (int i = 0; i < bytes; i++) {
+				code[position + i] = (byte) (value >>> (8 * (bytes - 1 - i)));
+			}
+		}
+
+		private void u1(int value) {
+			if (length == code.length) {
+				byte[] grown = new byte[code.length * 2];
+				System.arraycopy(code, 0, grown, 0, length);
+				code = grown;
+			}
+			code[length++] = (byte) value;
+		}
+
+		private void u2(int value) {
+			u1(value >>> 8);
+			u1(value);
+		}
+
+		private void u4(int value) {
+			u2(value >>> 16);
+			u2(value);
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package se.fearless.fettle.codegen;
+
+import se.fearless.fettle.StateMachine;
+
+/**
+ * Base class of the dispatchers generated for a {@link GeneratedTransitionModel}. Every condition and action of the model is
+ * held in a field of its own and called from a call site of its own, so the JIT sees each call as monomorphic.
+ */
+public abstract class Dispatcher<S, E, C> {
+
+	/**
+	 * @param slot <code>state.ordinal() * eventCount + event.ordinal()</code>
+	 * @param context the context to evaluate the conditions in
+	 * @return the index of the first transition in the slot whose condition is satisfied, or -1 if there is none
+	 */
+	public abstract int findTransition(int slot, C context);
+
+	public abstract void exit(int state, S from, S to, E event, C context, StateMachine<S, E, C> stateMachine);
+
+	public abstract void entry(int state, S from, S to, E event, C context, StateMachine<S, E, C> stateMachine);
+
+	public abstract void transition(int transition, S from, S to, E event, C context, StateMachine<S, E, C> stateMachine);
+}
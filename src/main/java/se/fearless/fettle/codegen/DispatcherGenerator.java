@@ -0,0 +1,301 @@
+package se.fearless.fettle.codegen;
+
+import se.fearless.fettle.Action;
+import se.fearless.fettle.Condition;
+import se.fearless.fettle.util.GuavaReplacement;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Emits a {@link Dispatcher} subclass for one model. Slots, states and transitions are dispatched with a
+ * lookupswitch, each case calling the conditions or actions that belong to it directly from their own fields.
+ */
+class DispatcherGenerator {
+	private static final AtomicInteger COUNTER = new AtomicInteger();
+
+	private static final String DISPATCHER = "se/fearless/fettle/codegen/Dispatcher";
+	private static final String CONDITION = "se/fearless/fettle/Condition";
+	private static final String ACTION = "se/fearless/fettle/Action";
+	private static final String CONDITION_DESCRIPTOR = "L" + CONDITION + ";";
+	private static final String ACTION_DESCRIPTOR = "L" + ACTION + ";";
+	private static final String ACTIONS_DESCRIPTOR = "(ILjava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;Lse/fearless/fettle/StateMachine;)V";
+	private static final String FIND_TRANSITION_DESCRIPTOR = "(ILjava/lang/Object;)I";
+	private static final String ON_TRANSITION_DESCRIPTOR = "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;Lse/fearless/fettle/StateMachine;)V";
+
+	/**
+	 * Kept below the 8000 bytes HotSpot compiles at most, leaving room for the estimates to be off
+	 */
+	static final int METHOD_SIZE_LIMIT = 7000;
+	private static final int SWITCH_SIZE = 1 + 1 + 3 + 8;
+	private static final int SWITCH_CASE_SIZE = 8;
+	private static final int MAX_RETURN_SIZE = 2;
+	private static final int MAX_CONDITION_CALL_SIZE = 1 + 3 + 1 + 5 + 3 + 3 + 1;
+	private static final int MAX_ACTION_CALL_SIZE = 1 + 3 + 5 + 5;
+
+	private final ClassFile classFile;
+	private final List<Action<?, ?, ?>> actionFields = GuavaReplacement.newArrayList();
+
+	DispatcherGenerator() {
+		String name = "se/fearless/fettle/codegen/GeneratedDispatcher" + COUNTER.incrementAndGet();
+		classFile = new ClassFile(name, DISPATCHER);
+	}
+
+	/**
+	 * @param slots for every slot, the indexes of its candidate transitions in the order they should be tried
+	 * @param conditions the condition of every transition
+	 * @param transitionActions the actions of every transition
+	 * @param exitActions the exit actions of every state, indexed by ordinal
+	 * @param entryActions the entry actions of every state, indexed by ordinal
+	 */
+	@SuppressWarnings("unchecked")
+	static <S, E, C> Dispatcher<S, E, C> generate(int[][] slots, Condition<?>[] conditions, Action<?, ?, ?>[][] transitionActions,
+																 Action<?, ?, ?>[][] exitActions, Action<?, ?, ?>[][] entryActions) {
+		DispatcherGenerator generator = new DispatcherGenerator();
+		byte[] bytes = generator.emit(slots, conditions, transitionActions, exitActions, entryActions);
+		Action<?, ?, ?>[] actions = generator.actionFields.toArray(new Action<?, ?, ?>[generator.actionFields.size()]);
+		DispatcherClassLoader loader = new DispatcherClassLoader(Dispatcher.class.getClassLoader());
+		Class<?> type = loader.define(generator.classFile.getName().replace('/', '.'), bytes);
+		try {
+			return (Dispatcher<S, E, C>) type.getConstructor(Condition[].class, Action[].class).newInstance(conditions, actions);
+		} catch (NoSuchMethodException e) {
+			throw new IllegalStateException("Generated dispatcher has no constructor", e);
+		} catch (InstantiationException e) {
+			throw new IllegalStateException("Could not create generated dispatcher", e);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException("Could not create generated dispatcher", e);
+		} catch (InvocationTargetException e) {
+			throw new IllegalStateException("Could not create generated dispatcher", e.getCause());
+		}
+	}
+
+	byte[] emit(int[][] slots, Condition<?>[] conditions, Action<?, ?, ?>[][] transitionActions,
+							  Action<?, ?, ?>[][] exitActions, Action<?, ?, ?>[][] entryActions) {
+		for (int i = 0; i < conditions.length; i++) {
+			classFile.field("c" + i, CONDITION_DESCRIPTOR);
+		}
+		emitFindTransition(slots);
+		emitActions("exit", exitActions);
+		emitActions("entry", entryActions);
+		emitActions("transition", transitionActions);
+		for (int i = 0; i < actionFields.size(); i++) {
+			classFile.field("a" + i, ACTION_DESCRIPTOR);
+		}
+		emitConstructor(conditions.length);
+		return classFile.toByteArray();
+	}
+
+	int getLongestMethod() {
+		return classFile.getLongestMethod();
+	}
+
+	private void emitConstructor(int conditionCount) {
+		ClassFile.Code code = new ClassFile.Code(classFile, 3, 3);
+		code.op(ClassFile.ALOAD_0);
+		code.op(ClassFile.INVOKESPECIAL, classFile.methodRef(DISPATCHER, "<init>", "()V"));
+		for (int i = 0; i < conditionCount; i++) {
+			assignField(code, 1, i, "c" + i, CONDITION_DESCRIPTOR);
+		}
+		for (int i = 0; i < actionFields.size(); i++) {
+			assignField(code, 2, i, "a" + i, ACTION_DESCRIPTOR);
+		}
+		code.op(ClassFile.RETURN);
+		classFile.method("<init>", "([" + CONDITION_DESCRIPTOR + "[" + ACTION_DESCRIPTOR + ")V", code);
+	}
+
+	private void assignField(ClassFile.Code code, int array, int index, String field, String descriptor) {
+		code.op(ClassFile.ALOAD_0);
+		code.aload(array);
+		code.push(index);
+		code.op(ClassFile.AALOAD);
+		code.op(ClassFile.PUTFIELD, classFile.fieldRef(field, descriptor));
+	}
+
+	private void emitFindTransition(final int[][] slots) {
+		final int isSatisfied = classFile.interfaceMethodRef(CONDITION, "isSatisfied", "(Ljava/lang/Object;)Z");
+		List<Integer> keys = GuavaReplacement.newArrayList();
+		for (int slot = 0; slot < slots.length; slot++) {
+			if (slots[slot].length > 0) {
+				keys.add(slot);
+			}
+		}
+		emitSplit("findTransition", FIND_TRANSITION_DESCRIPTOR, 2, 3, keys, new Cases() {
+			@Override
+			int size(int key) {
+				return slots[key].length * MAX_CONDITION_CALL_SIZE + MAX_RETURN_SIZE;
+			}
+
+			@Override
+			void emit(ClassFile.Code code, int key) {
+				for (int transition : slots[key]) {
+					int next = code.newLabel();
+					code.op(ClassFile.ALOAD_0);
+					code.op(ClassFile.GETFIELD, classFile.fieldRef("c" + transition, CONDITION_DESCRIPTOR));
+					code.aload(2);
+					code.invokeInterface(isSatisfied, 1);
+					code.branch(ClassFile.IFEQ, next);
+					code.push(transition);
+					code.op(ClassFile.IRETURN);
+					code.bind(next);
+				}
+				emitDefault(code);
+			}
+
+			@Override
+			void emitDefault(ClassFile.Code code) {
+				code.push(-1);
+				code.op(ClassFile.IRETURN);
+			}
+
+			@Override
+			void emitForward(ClassFile.Code code, int methodRef) {
+				code.op(ClassFile.ALOAD_0);
+				code.op(ClassFile.ILOAD_1);
+				code.aload(2);
+				code.op(ClassFile.INVOKEVIRTUAL, methodRef);
+				code.op(ClassFile.IRETURN);
+			}
+		});
+	}
+
+	private void emitActions(String name, final Action<?, ?, ?>[][] actionsByKey) {
+		final int onTransition = classFile.interfaceMethodRef(ACTION, "onTransition", ON_TRANSITION_DESCRIPTOR);
+		List<Integer> keys = GuavaReplacement.newArrayList();
+		for (int key = 0; key < actionsByKey.length; key++) {
+			if (actionsByKey[key].length > 0) {
+				keys.add(key);
+			}
+		}
+		emitSplit(name, ACTIONS_DESCRIPTOR, 6, 7, keys, new Cases() {
+			@Override
+			int size(int key) {
+				return actionsByKey[key].length * MAX_ACTION_CALL_SIZE + MAX_RETURN_SIZE;
+			}
+
+			@Override
+			void emit(ClassFile.Code code, int key) {
+				for (Action<?, ?, ?> action : actionsByKey[key]) {
+					String field = "a" + actionFields.size();
+					actionFields.add(action);
+					code.op(ClassFile.ALOAD_0);
+					code.op(ClassFile.GETFIELD, classFile.fieldRef(field, ACTION_DESCRIPTOR));
+					for (int local = 2; local <= 6; local++) {
+						code.aload(local);
+					}
+					code.invokeInterface(onTransition, 5);
+				}
+				emitDefault(code);
+			}
+
+			@Override
+			void emitDefault(ClassFile.Code code) {
+				code.op(ClassFile.RETURN);
+			}
+
+			@Override
+			void emitForward(ClassFile.Code code, int methodRef) {
+				code.op(ClassFile.ALOAD_0);
+				code.op(ClassFile.ILOAD_1);
+				for (int local = 2; local <= 6; local++) {
+					code.aload(local);
+				}
+				code.op(ClassFile.INVOKEVIRTUAL, methodRef);
+				code.op(ClassFile.RETURN);
+			}
+		});
+	}
+
+	/**
+	 * Emits a method that switches on its int argument. HotSpot never compiles a method with more than 8000 bytes of
+	 * code, so when the cases do not fit in one method they are split into blocks of consecutive keys, each block a
+	 * method of its own, and the method itself only picks the block to call.
+	 */
+	private void emitSplit(String name, String descriptor, int maxStack, int maxLocals, List<Integer> keys, Cases cases) {
+		List<List<Integer>> blocks = GuavaReplacement.newArrayList();
+		List<Integer> block = GuavaReplacement.newArrayList();
+		int size = SWITCH_SIZE + MAX_RETURN_SIZE;
+		for (int key : keys) {
+			int caseSize = SWITCH_CASE_SIZE + cases.size(key);
+			if (!block.isEmpty() && size + caseSize > METHOD_SIZE_LIMIT) {
+				blocks.add(block);
+				block = GuavaReplacement.newArrayList();
+				size = SWITCH_SIZE + MAX_RETURN_SIZE;
+			}
+			block.add(key);
+			size += caseSize;
+		}
+		blocks.add(block);
+		if (blocks.size() == 1) {
+			classFile.method(name, descriptor, emitSwitch(maxStack, maxLocals, block, cases));
+			return;
+		}
+		// forwarding pushes this and every argument, which is all of the locals
+		ClassFile.Code code = new ClassFile.Code(classFile, maxLocals, maxLocals);
+		for (int i = 0; i < blocks.size(); i++) {
+			String blockName = name + i;
+			classFile.method(blockName, descriptor, emitSwitch(maxStack, maxLocals, blocks.get(i), cases));
+			int methodRef = classFile.methodRef(classFile.getName(), blockName, descriptor);
+			if (i == blocks.size() - 1) {
+				cases.emitForward(code, methodRef);
+			} else {
+				int next = code.newLabel();
+				code.op(ClassFile.ILOAD_1);
+				code.push(blocks.get(i + 1).get(0));
+				code.branch(ClassFile.IF_ICMPGE, next);
+				cases.emitForward(code, methodRef);
+				code.bind(next);
+			}
+		}
+		classFile.method(name, descriptor, code);
+	}
+
+	private ClassFile.Code emitSwitch(int maxStack, int maxLocals, List<Integer> keys, Cases cases) {
+		ClassFile.Code code = new ClassFile.Code(classFile, maxStack, maxLocals);
+		int[] keyArray = new int[keys.size()];
+		int[] labels = new int[keys.size()];
+		for (int i = 0; i < keys.size(); i++) {
+			keyArray[i] = keys.get(i);
+			labels[i] = code.newLabel();
+		}
+		int none = code.newLabel();
+		code.op(ClassFile.ILOAD_1);
+		code.lookupSwitch(keyArray, labels, none);
+		for (int i = 0; i < keys.size(); i++) {
+			code.bind(labels[i]);
+			cases.emit(code, keys.get(i));
+		}
+		code.bind(none);
+		cases.emitDefault(code);
+		return code;
+	}
+
+	/**
+	 * The cases of one switching method
+	 */
+	private abstract static class Cases {
+		/**
+		 * @return an upper bound of the number of bytes {@link #emit} writes for the key
+		 */
+		abstract int size(int key);
+
+		abstract void emit(ClassFile.Code code, int key);
+
+		abstract void emitDefault(ClassFile.Code code);
+
+		/**
+		 * Emits a call to the block method with the same arguments, returning what it returns
+		 */
+		abstract void emitForward(ClassFile.Code code, int methodRef);
+	}
+
+	private static class DispatcherClassLoader extends ClassLoader {
+		DispatcherClassLoader(ClassLoader parent) {
+			super(parent);
+		}
+
+		Class<?> define(String name, byte[] bytes) {
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+}
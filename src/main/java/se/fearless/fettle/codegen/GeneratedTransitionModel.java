@@ -0,0 +1,226 @@
+package se.fearless.fettle.codegen;
+
+import se.fearless.fettle.Action;
+import se.fearless.fettle.Condition;
+import se.fearless.fettle.StateMachine;
+import se.fearless.fettle.StateMachineTemplate;
+import se.fearless.fettle.impl.AbstractTransitionModel;
+import se.fearless.fettle.impl.BasicTransition;
+import se.fearless.fettle.impl.ImmutableTransitionModel;
+import se.fearless.fettle.util.GuavaReplacement;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable transition model for enum states and events that dispatches through a class generated for the model.
+ * The generated class switches on the state and event ordinals and calls every condition and action from a call site
+ * of its own, instead of looping over shared collections where the calls quickly become megamorphic.
+ * <p>
+ * Generating a model defines a new class, so this is meant for a few hot templates that live for a long time.
+ *
+ * @param <S> the type of the states, must be an enum
+ * @param <E> the type of the events, must be an enum
+ * @param <C> the type of the context
+ */
+public class GeneratedTransitionModel<S, E, C> extends ImmutableTransitionModel<S, E, C> {
+	private static final int[] NO_STATES = new int[0];
+
+	private final int eventCount;
+	private final BasicTransition<S, E, C>[] transitions;
+	private final Dispatcher<S, E, C> dispatcher;
+	private final int[][] chainTargets;
+	private final int[][][] exitChains;
+	private final int[][][] entryChains;
+
+	public GeneratedTransitionModel(Class<S> stateClass, Class<E> eventClass,
+											  Map<S, Map<E, Collection<BasicTransition<S, E, C>>>> transitionMap,
+											  Map<E, Collection<BasicTransition<S, E, C>>> fromAllTransitions,
+											  Map<S, Collection<Action<S, E, C>>> exitActions,
+											  Map<S, Collection<Action<S, E, C>>> enterActions, C defaultContext) {
+		this(stateClass, eventClass, transitionMap, fromAllTransitions, exitActions, enterActions, Collections.<S, S>emptyMap(), defaultContext);
+	}
+
+	@SuppressWarnings("unchecked")
+	public GeneratedTransitionModel(Class<S> stateClass, Class<E> eventClass,
+											  Map<S, Map<E, Collection<BasicTransition<S, E, C>>>> transitionMap,
+											  Map<E, Collection<BasicTransition<S, E, C>>> fromAllTransitions,
+											  Map<S, Collection<Action<S, E, C>>> exitActions,
+											  Map<S, Collection<Action<S, E, C>>> enterActions,
+											  Map<S, S> parents, C defaultContext) {
+		super(stateClass, eventClass, transitionMap, fromAllTransitions, exitActions, enterActions, parents, defaultContext, false);
+		if (!stateClass.isEnum() || !eventClass.isEnum()) {
+			throw new IllegalArgumentException("Only models with enum states and events can be generated, got " +
+					  stateClass.getName() + " and " + eventClass.getName());
+		}
+		S[] states = stateClass.getEnumConstants();
+		E[] events = eventClass.getEnumConstants();
+		eventCount = events.length;
+
+		Map<BasicTransition<S, E, C>, Integer> indexes = new IdentityHashMap<BasicTransition<S, E, C>, Integer>();
+		List<BasicTransition<S, E, C>> ordered = GuavaReplacement.newArrayList();
+		int[][] slots = new int[states.length * events.length][];
+		for (S state : states) {
+			for (E event : events) {
+				List<BasicTransition<S, E, C>> candidates = getCandidates(state, event);
+				int[] slot = new int[candidates.size()];
+				for (int i = 0; i < slot.length; i++) {
+					Integer index = indexes.get(candidates.get(i));
+					if (index == null) {
+						index = ordered.size();
+						indexes.put(candidates.get(i), index);
+						ordered.add(candidates.get(i));
+					}
+					slot[i] = index;
+				}
+				slots[ordinal(state) * eventCount + ordinal(event)] = slot;
+			}
+		}
+
+		Condition<?>[] conditions = new Condition<?>[ordered.size()];
+		Action<?, ?, ?>[][] transitionActions = new Action<?, ?, ?>[ordered.size()][];
+		transitions = new BasicTransition[ordered.size()];
+		for (int i = 0; i < transitions.length; i++) {
+			BasicTransition<S, E, C> transition = ordered.get(i);
+			conditions[i] = transition.getCondition();
+			transitionActions[i] = transition.getActions().toArray(new Action<?, ?, ?>[0]);
+			transitions[i] = new DispatchedTransition(i, transition);
+		}
+		dispatcher = DispatcherGenerator.generate(slots, conditions, transitionActions,
+				  actionsByOrdinal(states, this.exitActions), actionsByOrdinal(states, this.enterActions));
+		if (this.parents.isEmpty()) {
+			chainTargets = null;
+			exitChains = null;
+			entryChains = null;
+		} else {
+			chainTargets = new int[states.length][];
+			exitChains = new int[states.length][][];
+			entryChains = new int[states.length][][];
+			chains(states);
+		}
+	}
+
+	/**
+	 * Lists the ordinals of the states left or entered when going from every state to each state its transitions lead
+	 * to, so the dispatcher can run the actions of each of them in turn. Other pairs are only gone between by forcing
+	 * the state and walk the hierarchy.
+	 */
+	private void chains(S[] states) {
+		for (S from : states) {
+			Set<S> targets = getTargets(from);
+			int[] targetOrdinals = new int[targets.size()];
+			int[][] exits = new int[targets.size()][];
+			int[][] entries = new int[targets.size()][];
+			int i = 0;
+			for (S to : targets) {
+				targetOrdinals[i] = ordinal(to);
+				exits[i] = ordinals(getExitChain(from, to));
+				entries[i] = ordinals(getEntryChain(from, to));
+				i++;
+			}
+			chainTargets[ordinal(from)] = targetOrdinals;
+			exitChains[ordinal(from)] = exits;
+			entryChains[ordinal(from)] = entries;
+		}
+	}
+
+	private int[] ordinals(List<S> chain) {
+		if (chain.isEmpty()) {
+			return NO_STATES;
+		}
+		int[] ordinals = new int[chain.size()];
+		for (int i = 0; i < ordinals.length; i++) {
+			ordinals[i] = ordinal(chain.get(i));
+		}
+		return ordinals;
+	}
+
+	/**
+	 * Creates a generated model with the transitions and actions currently defined in the template
+	 * @param template a template created by this library, mutable or immutable
+	 * @throws IllegalArgumentException if the template was not created by this library or the states or the events
+	 * are not enums
+	 */
+	public static <S, E, C> GeneratedTransitionModel<S, E, C> generate(StateMachineTemplate<S, E, C> template) {
+		if (!(template instanceof AbstractTransitionModel)) {
+			throw new IllegalArgumentException("Can only generate models from templates created by Fettle, got " + template.getClass().getName());
+		}
+		AbstractTransitionModel<S, E, C> model = (AbstractTransitionModel<S, E, C>) template;
+		return new GeneratedTransitionModel<S, E, C>(model.getStateClass(), model.getEventClass(), model.getStateTransitions(),
+				  model.getFromAllTransitions(), model.getExitActions(), model.getEntryActions(), model.getParents(), model.getDefaultContext());
+	}
+
+	private Action<?, ?, ?>[][] actionsByOrdinal(S[] states, Map<S, Collection<Action<S, E, C>>> actions) {
+		Action<?, ?, ?>[][] result = new Action<?, ?, ?>[states.length][];
+		for (S state : states) {
+			Collection<Action<S, E, C>> stateActions = actions.get(state);
+			result[ordinal(state)] = stateActions == null ? new Action<?, ?, ?>[0] : stateActions.toArray(new Action<?, ?, ?>[0]);
+		}
+		return result;
+	}
+
+	@Override
+	protected BasicTransition<S, E, C> findTransition(S from, E event, C context) {
+		if (event == null) {
+			return null;
+		}
+		int transition = dispatcher.findTransition(ordinal(from) * eventCount + ordinal(event), context);
+		return transition < 0 ? null : transitions[transition];
+	}
+
+	@Override
+	protected void onExit(S from, S to, E event, C context, StateMachine<S, E, C> stateMachine) {
+		if (exitChains == null) {
+			dispatcher.exit(ordinal(from), from, to, event, context, stateMachine);
+			return;
+		}
+		int index = indexOf(chainTargets[ordinal(from)], ordinal(to));
+		if (index < 0) {
+			super.onExit(from, to, event, context, stateMachine);
+			return;
+		}
+		int[] chain = exitChains[ordinal(from)][index];
+		for (int i = 0; i < chain.length; i++) {
+			dispatcher.exit(chain[i], from, to, event, context, stateMachine);
+		}
+	}
+
+	@Override
+	protected void onEntry(S from, S to, E event, C context, StateMachine<S, E, C> stateMachine) {
+		if (entryChains == null) {
+			dispatcher.entry(ordinal(to), from, to, event, context, stateMachine);
+			return;
+		}
+		int index = indexOf(chainTargets[ordinal(from)], ordinal(to));
+		if (index < 0) {
+			super.onEntry(from, to, event, context, stateMachine);
+			return;
+		}
+		int[] chain = entryChains[ordinal(from)][index];
+		for (int i = 0; i < chain.length; i++) {
+			dispatcher.entry(chain[i], from, to, event, context, stateMachine);
+		}
+	}
+
+	private static int ordinal(Object enumValue) {
+		return ((Enum<?>) enumValue).ordinal();
+	}
+
+	private class DispatchedTransition extends BasicTransition<S, E, C> {
+		private final int index;
+
+		DispatchedTransition(int index, BasicTransition<S, E, C> transition) {
+			super(transition.getTo(), transition.getCondition(), transition.getActions());
+			this.index = index;
+		}
+
+		@Override
+		public void onTransition(S from, S to, E event, C context, StateMachine<S, E, C> statemachine) {
+			dispatcher.transition(index, from, to, event, context, statemachine);
+		}
+	}
+}
@@ -1,25 +1,43 @@
 package se.fearless.fettle.impl;
 
 import se.fearless.fettle.Action;
+import se.fearless.fettle.BroadcastResult;
+import se.fearless.fettle.Concurrency;
+import se.fearless.fettle.Condition;
+import se.fearless.fettle.MetricsRecorder;
 import se.fearless.fettle.StateMachine;
+import se.fearless.fettle.StateMachinePool;
+import se.fearless.fettle.StateMachineTemplate;
 import se.fearless.fettle.Transition;
+import se.fearless.fettle.TransitionListener;
 import se.fearless.fettle.TransitionModel;
+import se.fearless.fettle.VersionedStateMachine;
 import se.fearless.fettle.util.GuavaReplacement;
+import se.fearless.fettle.util.StripedLocks;
 
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
-public abstract class AbstractTransitionModel<S, E, C> implements TransitionModel<S, E, C> {
+public abstract class AbstractTransitionModel<S, E, C> implements TransitionModel<S, E, C>, StateMachineTemplate<S, E, C> {
 	protected final Map<S, Map<E, Collection<BasicTransition<S, E, C>>>> transitionMap;
 	protected final Map<E, Collection<BasicTransition<S, E, C>>> fromAllTransitions;
 	protected final Map<S, Collection<Action<S, E, C>>> exitActions;
 	protected final Map<S, Collection<Action<S, E, C>>> enterActions;
+	protected final Map<S, S> parents;
 	protected final Class<S> stateClass;
 	protected final Class<E> eventClass;
 	protected final C defaultContext;
-
+	private volatile MetricsRecorder<S, E> metrics;
+	@SuppressWarnings("unchecked")
+	private volatile TransitionListener<S, E, C>[] listeners = new TransitionListener[0];
 
 	protected AbstractTransitionModel(Class<S> stateClass, Class<E> eventClass, C defaultContext) {
 		this.stateClass = stateClass;
@@ -29,6 +47,7 @@ public abstract class AbstractTransitionModel<S, E, C> implements TransitionMode
 		exitActions = createMap(stateClass);
 		enterActions = createMap(stateClass);
 		fromAllTransitions = createMap(eventClass);
+		parents = createMap(stateClass);
 	}
 
 	protected static <S, T> Map<S, T> createMap(Class<S> state) {
@@ -39,11 +58,172 @@ public abstract class AbstractTransitionModel<S, E, C> implements TransitionMode
 		}
 	}
 
+	@Override
+	public StateMachine<S, E, C> newStateMachine(S init) {
+		return newStateMachine(init, new ReentrantLock());
+	}
+
+	@Override
+	public StateMachine<S, E, C> newStateMachine(S init, Lock lock) {
+		return new TemplateBasedStateMachine<S, E, C>(this, init, lock);
+	}
+
+	@Override
+	public StateMachine<S, E, C> newStateMachine(S init, StripedLocks locks) {
+		return newStateMachine(init, locks.next());
+	}
+
+	@Override
+	public StateMachine<S, E, C> newStateMachine(S init, Concurrency concurrency) {
+		switch (concurrency) {
+			case OPTIMISTIC:
+				return new OptimisticStateMachine<S, E, C>(this, init);
+			case PUBLISHED:
+				return newVersionedStateMachine(init);
+			case LOCKING:
+			default:
+				return newStateMachine(init);
+		}
+	}
+
+	@Override
+	public VersionedStateMachine<S, E, C> newVersionedStateMachine(S init) {
+		return new PublishedStateMachine<S, E, C>(this, init, new ReentrantLock());
+	}
+
+	@Override
+	public StateMachinePool<S, E, C> newStateMachinePool(int size, S init) {
+		return new OrdinalStateMachinePool<S, E, C>(this, size, init);
+	}
+
+	@Override
+	public BroadcastResult broadcast(E event, C context, Collection<? extends StateMachine<S, E, C>> machines) {
+		return new Broadcaster<S, E, C>(this, event, context).broadcast(machines);
+	}
+
+	@Override
+	public List<Callable<Integer>> prepareBroadcast(E event, C context, Collection<? extends StateMachine<S, E, C>> machines) {
+		return new Broadcaster<S, E, C>(this, event, context).prepare(machines);
+	}
+
+	protected BasicTransition<S, E, C> putTransition(S from, S to, E event, Condition<C> condition, List<Action<S, E, C>> actions) {
+		Map<E, Collection<BasicTransition<S, E, C>>> map = transitionMap.get(from);
+		if (map == null) {
+			map = createMap(eventClass);
+			transitionMap.put(from, map);
+		}
+		Collection<BasicTransition<S, E, C>> transitions = map.get(event);
+		if (transitions == null) {
+			transitions = GuavaReplacement.newArrayList();
+			map.put(event, transitions);
+		}
+		BasicTransition<S, E, C> transition = new BasicTransition<S, E, C>(to, condition, actions);
+		transitions.add(transition);
+		return transition;
+	}
+
+	protected BasicTransition<S, E, C> putFromAllTransition(S to, E event, Condition<C> condition, List<Action<S, E, C>> actions) {
+		Collection<BasicTransition<S, E, C>> transitions = fromAllTransitions.get(event);
+		if (transitions == null) {
+			transitions = GuavaReplacement.newArrayList();
+			fromAllTransitions.put(event, transitions);
+		}
+		BasicTransition<S, E, C> transition = new BasicTransition<S, E, C>(to, condition, actions);
+		transitions.add(transition);
+		return transition;
+	}
+
+	protected void putEntryAction(S entryState, Action<S, E, C> action) {
+		putAction(entryState, action, enterActions);
+	}
+
+	protected void putExitAction(S exitState, Action<S, E, C> action) {
+		putAction(exitState, action, exitActions);
+	}
+
+	/**
+	 * Makes a state a substate of another. The substate inherits the transitions of its parent, which are tried
+	 * after its own, and entering or leaving it also enters or leaves the parent when the other end of the
+	 * transition is outside the parent, see {@link #getExitChain(Object, Object)}.
+	 * @throws IllegalArgumentException if the state already has a parent or the parent is the state or one of its substates
+	 */
+	protected void putParent(S state, S parent) {
+		if (state == null || parent == null) {
+			throw new IllegalArgumentException("Both the state and its parent must be given");
+		}
+		if (parents.containsKey(state)) {
+			throw new IllegalArgumentException(state + " already has the parent " + parents.get(state));
+		}
+		for (S ancestor = parent; ancestor != null; ancestor = parents.get(ancestor)) {
+			if (ancestor.equals(state)) {
+				throw new IllegalArgumentException("Making " + parent + " the parent of " + state + " would create a cycle");
+			}
+		}
+		parents.put(state, parent);
+	}
+
+	private void putAction(S state, Action<S, E, C> action, Map<S, Collection<Action<S, E, C>>> map) {
+		Collection<Action<S, E, C>> collection = map.get(state);
+		if (collection == null) {
+			collection = GuavaReplacement.newArrayList();
+			map.put(state, collection);
+		}
+		collection.add(action);
+	}
+
 	@Override
 	public boolean fireEvent(StateMachine<S, E, C> stateMachine, E event, C context) {
 		S from = stateMachine.getCurrentState();
-		return fireEvent(stateMachine, event, transitionMap.get(from), from, context) ||
-				  fireEvent(stateMachine, event, fromAllTransitions, from, context);
+		BasicTransition<S, E, C> transition = resolveTransition(from, event, context);
+		if (transition == null) {
+			rejected(stateMachine, from, event, context);
+			return false;
+		}
+		forceSetState(stateMachine, from, transition.getTo(), transition, event, context);
+		return true;
+	}
+
+	/**
+	 * Finds the transition to take like {@link #findTransition(Object, Object, Object)} and records the lookup
+	 * if the model has metrics.
+	 */
+	BasicTransition<S, E, C> resolveTransition(S from, E event, C context) {
+		BasicTransition<S, E, C> transition = measureTransition(from, event, context);
+		if (transition == null) {
+			MetricsRecorder<S, E> recorder = metrics;
+			if (recorder != null) {
+				recorder.eventRejected(from, event);
+			}
+		}
+		return transition;
+	}
+
+	/**
+	 * Finds the transition to take and records how long the conditions took if the model has metrics, leaving it
+	 * to the caller to report a rejection, see {@link #rejectResolved(StateMachine, Object, Object, Object)}.
+	 * Used to resolve a transition once for many machines.
+	 */
+	BasicTransition<S, E, C> measureTransition(S from, E event, C context) {
+		MetricsRecorder<S, E> recorder = metrics;
+		if (recorder == null) {
+			return findTransition(from, event, context);
+		}
+		long start = System.nanoTime();
+		BasicTransition<S, E, C> transition = findTransition(from, event, context);
+		recorder.conditionsEvaluated(System.nanoTime() - start);
+		return transition;
+	}
+
+	/**
+	 * Records the rejection of an event resolved by {@link #measureTransition(Object, Object, Object)} for a machine
+	 * and notifies the listeners
+	 */
+	void rejectResolved(StateMachine<S, E, C> stateMachine, S state, E event, C context) {
+		MetricsRecorder<S, E> recorder = metrics;
+		if (recorder != null) {
+			recorder.eventRejected(state, event);
+		}
+		rejected(stateMachine, state, event, context);
 	}
 
 	@Override
@@ -56,30 +236,277 @@ public abstract class AbstractTransitionModel<S, E, C> implements TransitionMode
 		return true;
 	}
 
-	private void forceSetState(StateMachine<S, E, C> stateMachine, S from, S to, BasicTransition<S, E, C> transition, E event, C context) {
-		invoke(exitActions.get(from), from, to, event, context, stateMachine);
+	void forceSetState(StateMachine<S, E, C> stateMachine, S from, S to, BasicTransition<S, E, C> transition, E event, C context) {
+		MetricsRecorder<S, E> recorder = metrics;
+		if (recorder != null) {
+			long start = System.nanoTime();
+			onExit(from, to, event, context, stateMachine);
+			recorder.exitActionsRun(System.nanoTime() - start);
+			stateMachine.rawSetState(to);
+			runMeasured(recorder, stateMachine, from, to, transition, event, context);
+			return;
+		}
+		onExit(from, to, event, context, stateMachine);
 		stateMachine.rawSetState(to);
 		if (transition != null) {
 			transition.onTransition(from, to, event, context, stateMachine);
 		}
-		invoke(enterActions.get(to), from, to, event, context, stateMachine);
+		onEntry(from, to, event, context, stateMachine);
+		if (transition != null) {
+			transitioned(stateMachine, from, to, event, context);
+		}
 	}
 
-	private boolean fireEvent(StateMachine<S, E, C> stateMachine, E event, Map<E, Collection<BasicTransition<S, E, C>>> transitionMap, S from, C context) {
-		if (transitionMap == null) {
+	/**
+	 * Runs the exit actions of the from state, the actions of the transition and the entry actions of the to state
+	 * without changing the state of the machine. Used by machines that commit the state change on their own.
+	 */
+	void runActions(StateMachine<S, E, C> stateMachine, S from, S to, BasicTransition<S, E, C> transition, E event, C context) {
+		MetricsRecorder<S, E> recorder = metrics;
+		if (recorder != null) {
+			long start = System.nanoTime();
+			onExit(from, to, event, context, stateMachine);
+			recorder.exitActionsRun(System.nanoTime() - start);
+			runMeasured(recorder, stateMachine, from, to, transition, event, context);
+			return;
+		}
+		onExit(from, to, event, context, stateMachine);
+		if (transition != null) {
+			transition.onTransition(from, to, event, context, stateMachine);
+		}
+		onEntry(from, to, event, context, stateMachine);
+		if (transition != null) {
+			transitioned(stateMachine, from, to, event, context);
+		}
+	}
+
+	private void runMeasured(MetricsRecorder<S, E> recorder, StateMachine<S, E, C> stateMachine, S from, S to,
+									 BasicTransition<S, E, C> transition, E event, C context) {
+		long start = System.nanoTime();
+		if (transition != null) {
+			transition.onTransition(from, to, event, context, stateMachine);
+			long now = System.nanoTime();
+			recorder.transitionActionsRun(now - start);
+			start = now;
+		}
+		onEntry(from, to, event, context, stateMachine);
+		recorder.entryActionsRun(System.nanoTime() - start);
+		if (transition != null) {
+			recorder.transitionTaken(from, event, to);
+			transitioned(stateMachine, from, to, event, context);
+		}
+	}
+
+	private void transitioned(StateMachine<S, E, C> stateMachine, S from, S to, E event, C context) {
+		TransitionListener<S, E, C>[] current = listeners;
+		for (int i = 0; i < current.length; i++) {
+			current[i].onTransition(from, to, event, context, stateMachine);
+		}
+	}
+
+	/**
+	 * Notifies the listeners that an event fired at a machine did not match any transition
+	 */
+	void rejected(StateMachine<S, E, C> stateMachine, S state, E event, C context) {
+		TransitionListener<S, E, C>[] current = listeners;
+		for (int i = 0; i < current.length; i++) {
+			current[i].onRejected(state, event, context, stateMachine);
+		}
+	}
+
+	boolean hasTransitionListeners() {
+		return listeners.length > 0;
+	}
+
+	/**
+	 * Tells whether going from one state to another runs no actions and reports nothing to listeners or metrics,
+	 * in which case machines that only store their state can set it without a {@link StateMachine} to pass along.
+	 * @param transition the transition taken or null if the state is forced
+	 */
+	boolean isSilent(S from, S to, BasicTransition<S, E, C> transition) {
+		if (metrics != null || listeners.length > 0 || (transition != null && transition.hasActions())) {
 			return false;
 		}
+		if (exitActions.isEmpty() && enterActions.isEmpty()) {
+			return true;
+		}
+		return parents.isEmpty() && exitActions.get(from) == null && enterActions.get(to) == null;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public synchronized void addTransitionListener(TransitionListener<S, E, C> listener) {
+		if (listener == null) {
+			throw new IllegalArgumentException("Listener must not be null");
+		}
+		TransitionListener<S, E, C>[] updated = new TransitionListener[listeners.length + 1];
+		System.arraycopy(listeners, 0, updated, 0, listeners.length);
+		updated[listeners.length] = listener;
+		listeners = updated;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public synchronized boolean removeTransitionListener(TransitionListener<S, E, C> listener) {
+		for (int i = 0; i < listeners.length; i++) {
+			if (listeners[i].equals(listener)) {
+				TransitionListener<S, E, C>[] updated = new TransitionListener[listeners.length - 1];
+				System.arraycopy(listeners, 0, updated, 0, i);
+				System.arraycopy(listeners, i + 1, updated, i, listeners.length - i - 1);
+				listeners = updated;
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Finds the first transition out of the from state that is triggered by the event and whose condition is satisfied.
+	 * Transitions registered on the from state take precedence over transitions inherited from its parents, closest
+	 * parent first, which take precedence over transitions registered from all states.
+	 * @param from the state to look for outgoing transitions from
+	 * @param event the event that was fired
+	 * @param context the context to evaluate the transition conditions in
+	 * @return the transition to take or null if no transition matched
+	 */
+	protected BasicTransition<S, E, C> findTransition(S from, E event, C context) {
+		for (S state = from; state != null; state = parents.get(state)) {
+			BasicTransition<S, E, C> transition = findTransition(transitionMap.get(state), event, context);
+			if (transition != null) {
+				return transition;
+			}
+		}
+		return findTransition(fromAllTransitions, event, context);
+	}
+
+	/**
+	 * Lists the transitions out of a state on an event in the order they are tried, see {@link #findTransition(Object, Object, Object)}
+	 */
+	protected List<BasicTransition<S, E, C>> getCandidates(S state, E event) {
+		List<BasicTransition<S, E, C>> candidates = GuavaReplacement.newArrayList();
+		for (S current = state; current != null; current = parents.get(current)) {
+			Map<E, Collection<BasicTransition<S, E, C>>> stateTransitions = transitionMap.get(current);
+			if (stateTransitions != null && stateTransitions.get(event) != null) {
+				candidates.addAll(stateTransitions.get(event));
+			}
+		}
+		if (fromAllTransitions.get(event) != null) {
+			candidates.addAll(fromAllTransitions.get(event));
+		}
+		return candidates;
+	}
+
+	/**
+	 * Lists the states that the transitions out of a state lead to, including the inherited ones and those registered
+	 * from all states. These are the only states a transition leaves the state for, see {@link #getExitChain(Object, Object)}.
+	 */
+	protected Set<S> getTargets(S state) {
+		Set<S> targets = new LinkedHashSet<S>();
+		for (S current = state; current != null; current = parents.get(current)) {
+			addTargets(targets, transitionMap.get(current));
+		}
+		addTargets(targets, fromAllTransitions);
+		return targets;
+	}
+
+	protected void addTargets(Set<S> targets, Map<E, Collection<BasicTransition<S, E, C>>> transitions) {
+		if (transitions == null) {
+			return;
+		}
+		for (Collection<BasicTransition<S, E, C>> candidates : transitions.values()) {
+			for (BasicTransition<S, E, C> transition : candidates) {
+				targets.add(transition.getTo());
+			}
+		}
+	}
+
+	/**
+	 * @return the index of the first occurrence of the value in the array, or -1 if it is not there
+	 */
+	protected static int indexOf(int[] values, int value) {
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Lists the states left when going from one state to another, innermost first. That is the from state and its
+	 * parents up to, but not including, the closest state that is or contains both the from and the to state, so
+	 * going to a substate does not leave the parent. A transition to the same state leaves and enters it.
+	 */
+	protected List<S> getExitChain(S from, S to) {
+		List<S> chain = GuavaReplacement.newArrayList();
+		if (from.equals(to)) {
+			chain.add(from);
+			return chain;
+		}
+		for (S state = from; state != null && !isAncestorOrSelf(state, to); state = parents.get(state)) {
+			chain.add(state);
+		}
+		return chain;
+	}
+
+	/**
+	 * Lists the states entered when going from one state to another, outermost first, see {@link #getExitChain(Object, Object)}
+	 */
+	protected List<S> getEntryChain(S from, S to) {
+		List<S> chain = GuavaReplacement.newArrayList();
+		if (from.equals(to)) {
+			chain.add(to);
+			return chain;
+		}
+		for (S state = to; state != null && !isAncestorOrSelf(state, from); state = parents.get(state)) {
+			chain.add(0, state);
+		}
+		return chain;
+	}
+
+	private boolean isAncestorOrSelf(S ancestor, S state) {
+		for (S current = state; current != null; current = parents.get(current)) {
+			if (current.equals(ancestor)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private BasicTransition<S, E, C> findTransition(Map<E, Collection<BasicTransition<S, E, C>>> transitionMap, E event, C context) {
+		if (transitionMap == null) {
+			return null;
+		}
 		Collection<BasicTransition<S, E, C>> transitions = transitionMap.get(event);
 		if (transitions == null) {
-			return false;
+			return null;
 		}
 		for (BasicTransition<S, E, C> transition : transitions) {
 			if (transition.isSatisfied(context)) {
-				forceSetState(stateMachine, from, transition.getTo(), transition, event, context);
-				return true;
+				return transition;
 			}
 		}
-		return false;
+		return null;
+	}
+
+	protected void onExit(S from, S to, E event, C context, StateMachine<S, E, C> stateMachine) {
+		if (parents.isEmpty()) {
+			invoke(exitActions.get(from), from, to, event, context, stateMachine);
+			return;
+		}
+		for (S state : getExitChain(from, to)) {
+			invoke(exitActions.get(state), from, to, event, context, stateMachine);
+		}
+	}
+
+	protected void onEntry(S from, S to, E event, C context, StateMachine<S, E, C> stateMachine) {
+		if (parents.isEmpty()) {
+			invoke(enterActions.get(to), from, to, event, context, stateMachine);
+			return;
+		}
+		for (S state : getEntryChain(from, to)) {
+			invoke(enterActions.get(state), from, to, event, context, stateMachine);
+		}
 	}
 
 	private void invoke(Collection<Action<S, E, C>> actions, S from, S to, E event, C context, StateMachine<S, E, C> stateMachine) {
@@ -99,6 +526,40 @@ public abstract class AbstractTransitionModel<S, E, C> implements TransitionMode
 		return Collections.unmodifiableMap(fromAllTransitions);
 	}
 
+	public Map<S, Collection<Action<S, E, C>>> getExitActions() {
+		return Collections.unmodifiableMap(exitActions);
+	}
+
+	public Map<S, Collection<Action<S, E, C>>> getEntryActions() {
+		return Collections.unmodifiableMap(enterActions);
+	}
+
+	public Map<S, S> getParents() {
+		return Collections.unmodifiableMap(parents);
+	}
+
+	public Class<S> getStateClass() {
+		return stateClass;
+	}
+
+	public Class<E> getEventClass() {
+		return eventClass;
+	}
+
+	/**
+	 * Makes the model report the transitions taken, the events rejected and how long firing events takes to the
+	 * given recorder, see {@link se.fearless.fettle.metrics.TransitionMetrics}. Models without metrics do not measure
+	 * anything.
+	 * @param metrics the recorder to report to or null to stop recording
+	 */
+	public void setMetrics(MetricsRecorder<S, E> metrics) {
+		this.metrics = metrics;
+	}
+
+	public MetricsRecorder<S, E> getMetrics() {
+		return metrics;
+	}
+
 	@Override
 	public C getDefaultContext() {
 		return defaultContext;
@@ -111,17 +572,26 @@ public abstract class AbstractTransitionModel<S, E, C> implements TransitionMode
 		if (transitions != null) {
 			map.putAll(transitions);
 		}
+		for (S parent = parents.get(fromState); parent != null; parent = parents.get(parent)) {
+			Map<E, Collection<BasicTransition<S, E, C>>> inherited = transitionMap.get(parent);
+			if (inherited != null) {
+				append(map, inherited);
+			}
+		}
+		append(map, fromAllTransitions);
+		return map;
+	}
 
-		for (Map.Entry<E, Collection<BasicTransition<S, E, C>>> entry : fromAllTransitions.entrySet()) {
-			@SuppressWarnings("unchecked")
-			Collection<Transition<S, E, C>> transitionCollection = (Collection<Transition<S, E, C>>) map.get(entry.getKey());
-			if (transitionCollection == null) {
-				transitionCollection = GuavaReplacement.newArrayList();
+	private void append(Map<E, Collection<? extends Transition<S, E, C>>> map, Map<E, Collection<BasicTransition<S, E, C>>> transitions) {
+		for (Map.Entry<E, Collection<BasicTransition<S, E, C>>> entry : transitions.entrySet()) {
+			Collection<Transition<S, E, C>> transitionCollection = GuavaReplacement.newArrayList();
+			Collection<? extends Transition<S, E, C>> stateTransitions = map.get(entry.getKey());
+			if (stateTransitions != null) {
+				transitionCollection.addAll(stateTransitions);
 			}
 
 			transitionCollection.addAll(entry.getValue());
 			map.put(entry.getKey(), transitionCollection);
 		}
-		return map;
 	}
 }
\ No newline at end of file
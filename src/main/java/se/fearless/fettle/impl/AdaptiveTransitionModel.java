@@ -0,0 +1,145 @@
+package se.fearless.fettle.impl;
+
+import se.fearless.fettle.Transition;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An immutable transition model that learns in which order to evaluate the guards of transitions that have been
+ * declared mutually exclusive. For those state and event pairs the model counts how often each transition is taken
+ * and every {@value #REORDER_INTERVAL} lookups moves the transitions taken most often first. Since at most one of
+ * the guards can be satisfied the order does not change which transition is taken, only how many guards are
+ * evaluated to find it. All other transitions are tried in the order they were added, just like in
+ * {@link ImmutableTransitionModel}.
+ * <p>
+ * The counters are updated without synchronization, so when many threads fire events some hits may be lost.
+ * That only affects the order and the values reported by {@link #getGuardHits(Object, Object)}.
+ */
+public class AdaptiveTransitionModel<S, E, C> extends ImmutableTransitionModel<S, E, C> {
+	static final int REORDER_INTERVAL = 1024;
+
+	private final Map<S, Map<E, ExclusiveGuards<S, E, C>>> exclusiveGuards;
+
+	public AdaptiveTransitionModel(AbstractTransitionModel<S, E, C> model, Map<S, ? extends Collection<E>> mutuallyExclusive) {
+		super(model.getStateClass(), model.getEventClass(), model.getStateTransitions(), model.getFromAllTransitions(),
+				  model.getExitActions(), model.getEntryActions(), model.getParents(), model.getDefaultContext());
+		exclusiveGuards = createMap(stateClass);
+		for (Map.Entry<S, ? extends Collection<E>> entry : mutuallyExclusive.entrySet()) {
+			Map<E, Collection<BasicTransition<S, E, C>>> stateTransitions = transitionMap.get(entry.getKey());
+			if (stateTransitions == null) {
+				continue;
+			}
+			Map<E, ExclusiveGuards<S, E, C>> guards = createMap(eventClass);
+			for (E event : entry.getValue()) {
+				Collection<BasicTransition<S, E, C>> transitions = stateTransitions.get(event);
+				if (transitions != null && transitions.size() > 1) {
+					guards.put(event, new ExclusiveGuards<S, E, C>(transitions));
+				}
+			}
+			exclusiveGuards.put(entry.getKey(), guards);
+		}
+	}
+
+	@Override
+	protected BasicTransition<S, E, C> findTransition(S from, E event, C context) {
+		ExclusiveGuards<S, E, C> guards = getGuards(from, event);
+		if (guards == null) {
+			return super.findTransition(from, event, context);
+		}
+		BasicTransition<S, E, C> transition = guards.find(context);
+		if (transition != null) {
+			return transition;
+		}
+		S parent = parents.get(from);
+		return parent != null ? super.findTransition(parent, event, context) : findFromAllTransition(event, context);
+	}
+
+	private ExclusiveGuards<S, E, C> getGuards(S from, E event) {
+		Map<E, ExclusiveGuards<S, E, C>> guards = exclusiveGuards.get(from);
+		return guards == null ? null : guards.get(event);
+	}
+
+	/**
+	 * Returns how many times each of the mutually exclusive transitions out of a state on an event has been taken,
+	 * in the order they are currently evaluated.
+	 * @param from the state the transitions leave
+	 * @param event the event triggering the transitions
+	 * @return the hits of each transition or an empty map if the transitions were not declared mutually exclusive
+	 */
+	public Map<Transition<S, E, C>, Long> getGuardHits(S from, E event) {
+		Map<Transition<S, E, C>, Long> hits = new LinkedHashMap<Transition<S, E, C>, Long>();
+		ExclusiveGuards<S, E, C> guards = getGuards(from, event);
+		if (guards != null) {
+			int[] order = guards.order;
+			for (int i = 0; i < order.length; i++) {
+				hits.put(guards.transitions[order[i]], guards.totalHits[order[i]]);
+			}
+		}
+		return hits;
+	}
+
+	private static final class ExclusiveGuards<S, E, C> {
+		private final BasicTransition<S, E, C>[] transitions;
+		private final long[] totalHits;
+		private final int[] recentHits;
+		private volatile int[] order;
+		private int lookups;
+
+		@SuppressWarnings("unchecked")
+		ExclusiveGuards(Collection<BasicTransition<S, E, C>> transitions) {
+			this.transitions = transitions.toArray(new BasicTransition[transitions.size()]);
+			totalHits = new long[this.transitions.length];
+			recentHits = new int[this.transitions.length];
+			order = new int[this.transitions.length];
+			for (int i = 0; i < order.length; i++) {
+				order[i] = i;
+			}
+		}
+
+		BasicTransition<S, E, C> find(C context) {
+			int[] current = order;
+			BasicTransition<S, E, C> found = null;
+			for (int i = 0; i < current.length; i++) {
+				int index = current[i];
+				if (transitions[index].isSatisfied(context)) {
+					totalHits[index]++;
+					recentHits[index]++;
+					found = transitions[index];
+					break;
+				}
+			}
+			if (++lookups >= REORDER_INTERVAL) {
+				lookups = 0;
+				reorder(current);
+			}
+			return found;
+		}
+
+		/**
+		 * Sorts on a copy of the hit counts, other threads keep updating the counters and a sort comparing values
+		 * that change under it can fail
+		 */
+		private void reorder(int[] current) {
+			int[] hits = recentHits.clone();
+			int[] newOrder = current.clone();
+			for (int i = 1; i < newOrder.length; i++) {
+				int index = newOrder[i];
+				int position = i;
+				while (position > 0 && hits[index] > hits[newOrder[position - 1]]) {
+					newOrder[position] = newOrder[position - 1];
+					position--;
+				}
+				newOrder[position] = index;
+			}
+			for (int i = 0; i < hits.length; i++) {
+				recentHits[i] = hits[i] / 2;
+			}
+			if (!Arrays.equals(newOrder, current)) {
+				order = newOrder;
+			}
+		}
+	}
+}
@@ -4,19 +4,21 @@ import se.fearless.fettle.Action;
 import se.fearless.fettle.Condition;
 import se.fearless.fettle.StateMachine;
 import se.fearless.fettle.Transition;
-import se.fearless.fettle.util.GuavaReplacement;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 
 public class BasicTransition<S, E, C> implements Transition<S, E, C> {
 	private final S to;
 	private final Condition<C> condition;
-	private final Collection<Action<S, E, C>> actions = GuavaReplacement.newArrayList();
+	private final Action<S, E, C>[] actions;
 
+	@SuppressWarnings("unchecked")
 	public BasicTransition(S to, Condition<C> condition, Collection<Action<S, E, C>> actions) {
 		this.to = to;
 		this.condition = condition;
-		this.actions.addAll(actions);
+		this.actions = actions.toArray(new Action[actions.size()]);
 	}
 
 	@Override
@@ -33,9 +35,17 @@ public class BasicTransition<S, E, C> implements Transition<S, E, C> {
 		return condition;
 	}
 
+	public Collection<Action<S, E, C>> getActions() {
+		return Collections.unmodifiableList(Arrays.asList(actions));
+	}
+
+	boolean hasActions() {
+		return actions.length > 0;
+	}
+
 	public void onTransition(S from, S to, E event, C context, StateMachine<S, E, C> statemachine) {
-		for (Action<S, E, C> action : actions) {
-			action.onTransition(from, to, event, context, statemachine);
+		for (int i = 0; i < actions.length; i++) {
+			actions[i].onTransition(from, to, event, context, statemachine);
 		}
 	}
 }
@@ -0,0 +1,114 @@
+package se.fearless.fettle.impl;
+
+import se.fearless.fettle.BroadcastResult;
+import se.fearless.fettle.StateMachine;
+import se.fearless.fettle.util.GuavaReplacement;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Fires one event at many machines, resolving the transition once per current state.
+ * <p>
+ * Machines are grouped by the state they are in when the broadcast is prepared. Each machine of this model is
+ * locked and checked to still be in the state of its group before the resolved transition is applied, or the
+ * rejection reported, and gets the event fired at it as usual if it has moved on. Other machines always get the
+ * event fired at them as usual, so they are reported to the listeners of their own model.
+ */
+class Broadcaster<S, E, C> {
+	private static final int CHUNK_SIZE = 1024;
+
+	private final AbstractTransitionModel<S, E, C> model;
+	private final E event;
+	private final C context;
+
+	Broadcaster(AbstractTransitionModel<S, E, C> model, E event, C context) {
+		this.model = model;
+		this.event = event;
+		this.context = context;
+	}
+
+	BroadcastResult broadcast(Collection<? extends StateMachine<S, E, C>> machines) {
+		int transitioned = 0;
+		for (Apply task : split(machines)) {
+			transitioned += task.apply();
+		}
+		return new BroadcastResult(transitioned, machines.size() - transitioned);
+	}
+
+	List<Callable<Integer>> prepare(Collection<? extends StateMachine<S, E, C>> machines) {
+		List<Callable<Integer>> tasks = GuavaReplacement.newArrayList();
+		tasks.addAll(split(machines));
+		return tasks;
+	}
+
+	private List<Apply> split(Collection<? extends StateMachine<S, E, C>> machines) {
+		List<Apply> tasks = GuavaReplacement.newArrayList();
+		for (Map.Entry<S, List<StateMachine<S, E, C>>> group : groupByState(machines).entrySet()) {
+			S state = group.getKey();
+			BasicTransition<S, E, C> transition = model.measureTransition(state, event, context);
+			List<StateMachine<S, E, C>> members = group.getValue();
+			for (int start = 0; start < members.size(); start += CHUNK_SIZE) {
+				int end = Math.min(start + CHUNK_SIZE, members.size());
+				tasks.add(new Apply(state, transition, members.subList(start, end)));
+			}
+		}
+		return tasks;
+	}
+
+	private Map<S, List<StateMachine<S, E, C>>> groupByState(Collection<? extends StateMachine<S, E, C>> machines) {
+		Map<S, List<StateMachine<S, E, C>>> groups = AbstractTransitionModel.createMap(model.stateClass);
+		for (StateMachine<S, E, C> machine : machines) {
+			S state = machine.getCurrentState();
+			List<StateMachine<S, E, C>> group = groups.get(state);
+			if (group == null) {
+				group = GuavaReplacement.newArrayList();
+				groups.put(state, group);
+			}
+			group.add(machine);
+		}
+		return groups;
+	}
+
+	private class Apply implements Callable<Integer> {
+		private final S state;
+		private final BasicTransition<S, E, C> transition;
+		private final List<StateMachine<S, E, C>> machines;
+
+		/**
+		 * @param transition the transition resolved for the state, or null if the event is rejected in it
+		 */
+		Apply(S state, BasicTransition<S, E, C> transition, List<StateMachine<S, E, C>> machines) {
+			this.state = state;
+			this.transition = transition;
+			this.machines = machines;
+		}
+
+		@Override
+		public Integer call() {
+			return apply();
+		}
+
+		int apply() {
+			int transitioned = 0;
+			for (StateMachine<S, E, C> machine : machines) {
+				if (applyTo(machine)) {
+					transitioned++;
+				}
+			}
+			return transitioned;
+		}
+
+		private boolean applyTo(StateMachine<S, E, C> machine) {
+			if (machine instanceof TemplateBasedStateMachine) {
+				return ((TemplateBasedStateMachine<S, E, C>) machine).fireResolved(model, state, transition, event, context);
+			}
+			if (machine instanceof OptimisticStateMachine) {
+				return ((OptimisticStateMachine<S, E, C>) machine).fireResolved(model, state, transition, event, context);
+			}
+			return machine.fireEvent(event, context);
+		}
+	}
+}
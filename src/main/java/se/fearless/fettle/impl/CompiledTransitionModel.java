@@ -0,0 +1,176 @@
+package se.fearless.fettle.impl;
+
+import se.fearless.fettle.Action;
+import se.fearless.fettle.StateMachine;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable transition model for enum states and events where all transitions are laid out in a flat table
+ * indexed by <code>state.ordinal() * eventCount + event.ordinal()</code>. Transitions registered from all states are
+ * merged into every state's slots when the model is compiled, after the transitions registered on the state itself,
+ * so firing an event is a table lookup followed by a scan of the candidate transitions. Transitions inherited from
+ * parent states are merged in the same way, between the state's own and those registered from all states.
+ * <p>
+ * Without substates the exit and entry actions are looked up by the ordinal of the state being left or entered.
+ * With substates they are looked up in tables holding the actions of all states left or entered on the way from
+ * each state to each state its transitions lead to, see {@link AbstractTransitionModel#getExitChain}. Forcing a
+ * state walks the state hierarchy instead.
+ *
+ * @param <S> the type of the states, must be an enum
+ * @param <E> the type of the events, must be an enum
+ * @param <C> the type of the context
+ */
+public class CompiledTransitionModel<S, E, C> extends ImmutableTransitionModel<S, E, C> {
+	private final int eventCount;
+	private final BasicTransition<S, E, C>[][] transitionTable;
+	private final Action<S, E, C>[][] exitActionTable;
+	private final Action<S, E, C>[][] entryActionTable;
+	private final int[][] chainTargets;
+	private final Action<S, E, C>[][][] exitChainTable;
+	private final Action<S, E, C>[][][] entryChainTable;
+
+	public CompiledTransitionModel(Class<S> stateClass, Class<E> eventClass,
+											 Map<S, Map<E, Collection<BasicTransition<S, E, C>>>> transitionMap,
+											 Map<E, Collection<BasicTransition<S, E, C>>> fromAllTransitions,
+											 Map<S, Collection<Action<S, E, C>>> exitActions,
+											 Map<S, Collection<Action<S, E, C>>> enterActions, C defaultContext) {
+		this(stateClass, eventClass, transitionMap, fromAllTransitions, exitActions, enterActions, Collections.<S, S>emptyMap(), defaultContext);
+	}
+
+	public CompiledTransitionModel(Class<S> stateClass, Class<E> eventClass,
+											 Map<S, Map<E, Collection<BasicTransition<S, E, C>>>> transitionMap,
+											 Map<E, Collection<BasicTransition<S, E, C>>> fromAllTransitions,
+											 Map<S, Collection<Action<S, E, C>>> exitActions,
+											 Map<S, Collection<Action<S, E, C>>> enterActions,
+											 Map<S, S> parents, C defaultContext) {
+		super(stateClass, eventClass, transitionMap, fromAllTransitions, exitActions, enterActions, parents, defaultContext, false);
+		if (!stateClass.isEnum() || !eventClass.isEnum()) {
+			throw new IllegalArgumentException("Only models with enum states and events can be compiled, got " +
+					  stateClass.getName() + " and " + eventClass.getName());
+		}
+		S[] states = stateClass.getEnumConstants();
+		E[] events = eventClass.getEnumConstants();
+		eventCount = events.length;
+		transitionTable = compileTransitions(states, events);
+		exitActionTable = compileActions(states, this.exitActions);
+		entryActionTable = compileActions(states, this.enterActions);
+		if (this.parents.isEmpty()) {
+			chainTargets = null;
+			exitChainTable = null;
+			entryChainTable = null;
+		} else {
+			chainTargets = new int[states.length][];
+			exitChainTable = new Action[states.length][][];
+			entryChainTable = new Action[states.length][][];
+			compileChains(states);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private BasicTransition<S, E, C>[][] compileTransitions(S[] states, E[] events) {
+		BasicTransition<S, E, C>[] none = new BasicTransition[0];
+		BasicTransition<S, E, C>[][] table = new BasicTransition[states.length * events.length][];
+		for (S state : states) {
+			for (E event : events) {
+				List<BasicTransition<S, E, C>> candidates = getCandidates(state, event);
+				table[index(state, event)] = candidates.isEmpty() ? none : candidates.toArray(none);
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Precomputes the actions for the states each state has transitions to, other pairs are only gone between by
+	 * forcing the state and walk the hierarchy
+	 */
+	@SuppressWarnings("unchecked")
+	private void compileChains(S[] states) {
+		for (S from : states) {
+			Set<S> targets = getTargets(from);
+			int[] ordinals = new int[targets.size()];
+			Action<S, E, C>[][] exitChains = new Action[targets.size()][];
+			Action<S, E, C>[][] entryChains = new Action[targets.size()][];
+			int i = 0;
+			for (S to : targets) {
+				ordinals[i] = ordinal(to);
+				exitChains[i] = concat(getExitChain(from, to), this.exitActions);
+				entryChains[i] = concat(getEntryChain(from, to), this.enterActions);
+				i++;
+			}
+			chainTargets[ordinal(from)] = ordinals;
+			exitChainTable[ordinal(from)] = exitChains;
+			entryChainTable[ordinal(from)] = entryChains;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private Action<S, E, C>[][] compileActions(S[] states, Map<S, Collection<Action<S, E, C>>> actions) {
+		Action<S, E, C>[] none = new Action[0];
+		Action<S, E, C>[][] table = new Action[states.length][];
+		for (S state : states) {
+			Collection<Action<S, E, C>> stateActions = actions.get(state);
+			table[ordinal(state)] = stateActions == null ? none : stateActions.toArray(none);
+		}
+		return table;
+	}
+
+	@Override
+	protected BasicTransition<S, E, C> findTransition(S from, E event, C context) {
+		if (event == null) {
+			return null;
+		}
+		for (BasicTransition<S, E, C> transition : transitionTable[index(from, event)]) {
+			if (transition.isSatisfied(context)) {
+				return transition;
+			}
+		}
+		return null;
+	}
+
+	@Override
+	protected void onExit(S from, S to, E event, C context, StateMachine<S, E, C> stateMachine) {
+		if (exitChainTable == null) {
+			invoke(exitActionTable[ordinal(from)], from, to, event, context, stateMachine);
+			return;
+		}
+		int chain = indexOf(chainTargets[ordinal(from)], ordinal(to));
+		if (chain < 0) {
+			super.onExit(from, to, event, context, stateMachine);
+			return;
+		}
+		invoke(exitChainTable[ordinal(from)][chain], from, to, event, context, stateMachine);
+	}
+
+	@Override
+	protected void onEntry(S from, S to, E event, C context, StateMachine<S, E, C> stateMachine) {
+		if (entryChainTable == null) {
+			invoke(entryActionTable[ordinal(to)], from, to, event, context, stateMachine);
+			return;
+		}
+		int chain = indexOf(chainTargets[ordinal(from)], ordinal(to));
+		if (chain < 0) {
+			super.onEntry(from, to, event, context, stateMachine);
+			return;
+		}
+		invoke(entryChainTable[ordinal(from)][chain], from, to, event, context, stateMachine);
+	}
+
+	private void invoke(Action<S, E, C>[] actions, S from, S to, E event, C context, StateMachine<S, E, C> stateMachine) {
+		for (Action<S, E, C> action : actions) {
+			action.onTransition(from, to, event, context, stateMachine);
+		}
+	}
+
+	private int index(S state, E event) {
+		return ordinal(state) * eventCount + ordinal(event);
+	}
+
+	private static int ordinal(Object enumValue) {
+		return ((Enum<?>) enumValue).ordinal();
+	}
+}
@@ -1,27 +1,301 @@
 package se.fearless.fettle.impl;
 
 import se.fearless.fettle.Action;
+import se.fearless.fettle.Condition;
+import se.fearless.fettle.ConditionOptimizer;
 import se.fearless.fettle.StateMachine;
 import se.fearless.fettle.StateMachineTemplate;
+import se.fearless.fettle.Transition;
 import se.fearless.fettle.util.GuavaReplacement;
 
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.Set;
 
+/**
+ * A transition model that can not be changed after it has been created. Transitions and actions are kept in arrays
+ * so firing an event walks them with indexed loops and does not allocate, and the conditions of the transitions are
+ * rewritten by {@link ConditionOptimizer} once when the model is created.
+ * <p>
+ * If some states are substates of others, the transitions they inherit are copied into their arrays and the exit
+ * and entry actions run when going from a state to any state its transitions lead to are concatenated into one
+ * array per pair of states, so firing an event never walks the state hierarchy. Forcing a state does.
+ */
 public class ImmutableTransitionModel<S, E, C> extends AbstractTransitionModel<S, E, C> implements StateMachineTemplate<S, E, C> {
+	@SuppressWarnings("rawtypes")
+	private static final Action[] NO_ACTIONS = new Action[0];
+
+	private final Map<S, Map<E, BasicTransition<S, E, C>[]>> transitionArrays;
+	private final Map<E, BasicTransition<S, E, C>[]> fromAllArrays;
+	private final Map<S, Action<S, E, C>[]> exitActionArrays;
+	private final Map<S, Action<S, E, C>[]> entryActionArrays;
+	private final Map<S, Map<S, Action<S, E, C>[]>> exitChains;
+	private final Map<S, Map<S, Action<S, E, C>[]>> entryChains;
+	private final Map<S, Map<E, Collection<? extends Transition<S, E, C>>>> possibleTransitions;
+	private final Map<E, Collection<? extends Transition<S, E, C>>> fromAllOnly;
 
 	public ImmutableTransitionModel(Class<S> stateClass, Class<E> eventClass,
 											  Map<S, Map<E, Collection<BasicTransition<S, E, C>>>> transitionMap,
 											  Map<E, Collection<BasicTransition<S, E, C>>> fromAllTransitions,
 											  Map<S, Collection<Action<S, E, C>>> exitActions,
 											  Map<S, Collection<Action<S, E, C>>> enterActions, C defaultContext) {
+		this(stateClass, eventClass, transitionMap, fromAllTransitions, exitActions, enterActions, Collections.<S, S>emptyMap(), defaultContext);
+	}
+
+	public ImmutableTransitionModel(Class<S> stateClass, Class<E> eventClass,
+											  Map<S, Map<E, Collection<BasicTransition<S, E, C>>>> transitionMap,
+											  Map<E, Collection<BasicTransition<S, E, C>>> fromAllTransitions,
+											  Map<S, Collection<Action<S, E, C>>> exitActions,
+											  Map<S, Collection<Action<S, E, C>>> enterActions,
+											  Map<S, S> parents, C defaultContext) {
+		this(stateClass, eventClass, transitionMap, fromAllTransitions, exitActions, enterActions, parents, defaultContext, true);
+	}
+
+	/**
+	 * @param lookupTables false for subclasses that override {@link #findTransition(Object, Object, Object)},
+	 * {@link #onExit} and {@link #onEntry} with tables of their own, to skip building the arrays and chains this class
+	 * looks them up in. Without them the exit and entry actions are found by walking the state hierarchy.
+	 */
+	protected ImmutableTransitionModel(Class<S> stateClass, Class<E> eventClass,
+												  Map<S, Map<E, Collection<BasicTransition<S, E, C>>>> transitionMap,
+												  Map<E, Collection<BasicTransition<S, E, C>>> fromAllTransitions,
+												  Map<S, Collection<Action<S, E, C>>> exitActions,
+												  Map<S, Collection<Action<S, E, C>>> enterActions,
+												  Map<S, S> parents, C defaultContext, boolean lookupTables) {
 		super(stateClass, eventClass, defaultContext);
 		this.exitActions.putAll(copy(exitActions));
 		this.enterActions.putAll(copy(enterActions));
 		this.transitionMap.putAll(copyTransitions(transitionMap));
 		this.fromAllTransitions.putAll(copyTransitions3(fromAllTransitions));
+		this.parents.putAll(parents);
+		Set<S> sources = new HashSet<S>(this.transitionMap.keySet());
+		sources.addAll(this.parents.keySet());
+		possibleTransitions = createMap(stateClass);
+		for (S state : sources) {
+			possibleTransitions.put(state, freeze(super.getPossibleTransitions(state)));
+		}
+		fromAllOnly = freeze(super.getPossibleTransitions(null));
+		if (!lookupTables) {
+			transitionArrays = null;
+			fromAllArrays = null;
+			exitActionArrays = null;
+			entryActionArrays = null;
+			exitChains = null;
+			entryChains = null;
+			return;
+		}
+		transitionArrays = createMap(stateClass);
+		for (S state : sources) {
+			transitionArrays.put(state, toTransitionArrays(inherited(state)));
+		}
+		fromAllArrays = toTransitionArrays(this.fromAllTransitions);
+		exitActionArrays = toActionArrays(this.exitActions);
+		entryActionArrays = toActionArrays(this.enterActions);
+		if (this.parents.isEmpty()) {
+			exitChains = null;
+			entryChains = null;
+		} else {
+			Collection<S> states = knownStates();
+			exitChains = toChains(states, true);
+			entryChains = toChains(states, false);
+		}
+	}
+
+	private Map<E, Collection<BasicTransition<S, E, C>>> inherited(S state) {
+		Map<E, Collection<BasicTransition<S, E, C>>> res = createMap(eventClass);
+		for (S current = state; current != null; current = parents.get(current)) {
+			Map<E, Collection<BasicTransition<S, E, C>>> stateTransitions = transitionMap.get(current);
+			if (stateTransitions == null) {
+				continue;
+			}
+			for (Map.Entry<E, Collection<BasicTransition<S, E, C>>> entry : stateTransitions.entrySet()) {
+				Collection<BasicTransition<S, E, C>> transitions = res.get(entry.getKey());
+				if (transitions == null) {
+					transitions = GuavaReplacement.newArrayList();
+					res.put(entry.getKey(), transitions);
+				}
+				transitions.addAll(entry.getValue());
+			}
+		}
+		return res;
+	}
+
+	private Collection<S> knownStates() {
+		if (stateClass.isEnum()) {
+			return Arrays.asList(stateClass.getEnumConstants());
+		}
+		Set<S> states = new HashSet<S>(transitionMap.keySet());
+		for (Map<E, Collection<BasicTransition<S, E, C>>> stateTransitions : transitionMap.values()) {
+			addTargets(states, stateTransitions);
+		}
+		addTargets(states, fromAllTransitions);
+		states.addAll(parents.keySet());
+		states.addAll(parents.values());
+		states.addAll(exitActions.keySet());
+		states.addAll(enterActions.keySet());
+		return states;
+	}
+
+	/**
+	 * Precomputes the actions for the pairs of states that transitions go between. States set forcibly may go between
+	 * any two states, those fall back to walking the hierarchy.
+	 */
+	private Map<S, Map<S, Action<S, E, C>[]>> toChains(Collection<S> states, boolean exit) {
+		Map<S, Map<S, Action<S, E, C>[]>> res = createMap(stateClass);
+		for (S from : states) {
+			Set<S> targets = getTargets(from);
+			if (targets.isEmpty()) {
+				continue;
+			}
+			Map<S, Action<S, E, C>[]> byTarget = createMap(stateClass);
+			for (S to : targets) {
+				byTarget.put(to, exit ? concat(getExitChain(from, to), exitActions) : concat(getEntryChain(from, to), enterActions));
+			}
+			res.put(from, byTarget);
+		}
+		return res;
+	}
+
+	/**
+	 * Concatenates the actions of the states in order into one array, all empty chains sharing the same array
+	 */
+	@SuppressWarnings("unchecked")
+	protected Action<S, E, C>[] concat(List<S> states, Map<S, Collection<Action<S, E, C>>> actions) {
+		List<Action<S, E, C>> res = GuavaReplacement.newArrayList();
+		for (S state : states) {
+			Collection<Action<S, E, C>> stateActions = actions.get(state);
+			if (stateActions != null) {
+				res.addAll(stateActions);
+			}
+		}
+		return res.isEmpty() ? NO_ACTIONS : res.toArray(new Action[res.size()]);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<E, BasicTransition<S, E, C>[]> toTransitionArrays(Map<E, Collection<BasicTransition<S, E, C>>> input) {
+		Map<E, BasicTransition<S, E, C>[]> res = createMap(eventClass);
+		for (Map.Entry<E, Collection<BasicTransition<S, E, C>>> entry : input.entrySet()) {
+			res.put(entry.getKey(), entry.getValue().toArray(new BasicTransition[entry.getValue().size()]));
+		}
+		return res;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<S, Action<S, E, C>[]> toActionArrays(Map<S, Collection<Action<S, E, C>>> input) {
+		Map<S, Action<S, E, C>[]> res = createMap(stateClass);
+		for (Map.Entry<S, Collection<Action<S, E, C>>> entry : input.entrySet()) {
+			res.put(entry.getKey(), entry.getValue().toArray(new Action[entry.getValue().size()]));
+		}
+		return res;
+	}
+
+	@Override
+	protected BasicTransition<S, E, C> findTransition(S from, E event, C context) {
+		Map<E, BasicTransition<S, E, C>[]> stateTransitions = transitionArrays.get(from);
+		if (stateTransitions != null) {
+			BasicTransition<S, E, C> transition = findTransition(stateTransitions.get(event), context);
+			if (transition != null) {
+				return transition;
+			}
+		}
+		return findFromAllTransition(event, context);
+	}
+
+	/**
+	 * Finds the first transition registered from all states that is triggered by the event and whose condition is satisfied.
+	 */
+	protected BasicTransition<S, E, C> findFromAllTransition(E event, C context) {
+		return findTransition(fromAllArrays.get(event), context);
+	}
+
+	private BasicTransition<S, E, C> findTransition(BasicTransition<S, E, C>[] transitions, C context) {
+		if (transitions == null) {
+			return null;
+		}
+		for (int i = 0; i < transitions.length; i++) {
+			if (transitions[i].isSatisfied(context)) {
+				return transitions[i];
+			}
+		}
+		return null;
+	}
+
+	@Override
+	protected void onExit(S from, S to, E event, C context, StateMachine<S, E, C> stateMachine) {
+		if (exitActionArrays == null) {
+			super.onExit(from, to, event, context, stateMachine);
+			return;
+		}
+		if (exitChains == null) {
+			invoke(exitActionArrays.get(from), from, to, event, context, stateMachine);
+			return;
+		}
+		Action<S, E, C>[] chain = getChain(exitChains, from, to);
+		if (chain == null) {
+			super.onExit(from, to, event, context, stateMachine);
+			return;
+		}
+		invoke(chain, from, to, event, context, stateMachine);
+	}
+
+	@Override
+	protected void onEntry(S from, S to, E event, C context, StateMachine<S, E, C> stateMachine) {
+		if (entryActionArrays == null) {
+			super.onEntry(from, to, event, context, stateMachine);
+			return;
+		}
+		if (entryChains == null) {
+			invoke(entryActionArrays.get(to), from, to, event, context, stateMachine);
+			return;
+		}
+		Action<S, E, C>[] chain = getChain(entryChains, from, to);
+		if (chain == null) {
+			super.onEntry(from, to, event, context, stateMachine);
+			return;
+		}
+		invoke(chain, from, to, event, context, stateMachine);
+	}
+
+	/**
+	 * Returns the actions precomputed for going from one state to another, or null for pairs of states no transition
+	 * goes between
+	 */
+	private Action<S, E, C>[] getChain(Map<S, Map<S, Action<S, E, C>[]>> chains, S from, S to) {
+		Map<S, Action<S, E, C>[]> byTarget = chains.get(from);
+		return byTarget == null ? null : byTarget.get(to);
+	}
+
+	private void invoke(Action<S, E, C>[] actions, S from, S to, E event, C context, StateMachine<S, E, C> stateMachine) {
+		if (actions == null) {
+			return;
+		}
+		for (int i = 0; i < actions.length; i++) {
+			actions[i].onTransition(from, to, event, context, stateMachine);
+		}
+	}
+
+	/**
+	 * Returns a view that was computed when the model was created, so the same unmodifiable map is returned
+	 * for every call with the same state.
+	 */
+	@Override
+	public Map<E, Collection<? extends Transition<S, E, C>>> getPossibleTransitions(S fromState) {
+		Map<E, Collection<? extends Transition<S, E, C>>> transitions = possibleTransitions.get(fromState);
+		return transitions != null ? transitions : fromAllOnly;
+	}
+
+	private Map<E, Collection<? extends Transition<S, E, C>>> freeze(Map<E, Collection<? extends Transition<S, E, C>>> input) {
+		Map<E, Collection<? extends Transition<S, E, C>>> res = createMap(eventClass);
+		for (Map.Entry<E, Collection<? extends Transition<S, E, C>>> entry : input.entrySet()) {
+			List<Transition<S, E, C>> transitions = GuavaReplacement.newArrayList();
+			transitions.addAll(entry.getValue());
+			res.put(entry.getKey(), Collections.unmodifiableList(transitions));
+		}
+		return Collections.unmodifiableMap(res);
 	}
 
 	private Map<E, Collection<BasicTransition<S, E, C>>> copyTransitions3(Map<E, Collection<BasicTransition<S, E, C>>> input) {
@@ -29,7 +303,7 @@ public class ImmutableTransitionModel<S, E, C> extends AbstractTransitionModel<S
 		for (Map.Entry<E, Collection<BasicTransition<S, E, C>>> entry : input.entrySet()) {
 			E key = entry.getKey();
 			Collection<BasicTransition<S, E, C>> value = entry.getValue();
-			res.put(key, copy(value));
+			res.put(key, optimize(value));
 		}
 		return res;
 	}
@@ -49,7 +323,7 @@ public class ImmutableTransitionModel<S, E, C> extends AbstractTransitionModel<S
 		for (Map.Entry<E, Collection<BasicTransition<S, E, C>>> entry : input.entrySet()) {
 			E key = entry.getKey();
 			Collection<BasicTransition<S, E, C>> value = entry.getValue();
-			res.put(key, copy(value));
+			res.put(key, optimize(value));
 		}
 		return res;
 	}
@@ -64,19 +338,21 @@ public class ImmutableTransitionModel<S, E, C> extends AbstractTransitionModel<S
 		return res;
 	}
 
+	private Collection<BasicTransition<S, E, C>> optimize(Collection<BasicTransition<S, E, C>> input) {
+		Collection<BasicTransition<S, E, C>> res = GuavaReplacement.newArrayList();
+		for (BasicTransition<S, E, C> transition : input) {
+			Condition<C> condition = ConditionOptimizer.optimize(transition.getCondition());
+			if (condition != transition.getCondition() && transition.getClass() == BasicTransition.class) {
+				transition = new BasicTransition<S, E, C>(transition.getTo(), condition, transition.getActions());
+			}
+			res.add(transition);
+		}
+		return res;
+	}
+
 	private <T> Collection<T> copy(Collection<T> input) {
 		Collection<T> res = GuavaReplacement.newArrayList();
 		res.addAll(input);
 		return res;
 	}
-
-	@Override
-	public StateMachine<S, E, C> newStateMachine(S init) {
-		return newStateMachine(init, new ReentrantLock());
-	}
-
-	@Override
-	public StateMachine<S, E, C> newStateMachine(S init, Lock lock) {
-		return new TemplateBasedStateMachine<S, E, C>(this, init, lock);
-	}
 }
\ No newline at end of file
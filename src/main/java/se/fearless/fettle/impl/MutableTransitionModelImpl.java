@@ -3,17 +3,15 @@ package se.fearless.fettle.impl;
 import se.fearless.fettle.Action;
 import se.fearless.fettle.Condition;
 import se.fearless.fettle.MutableTransitionModel;
-import se.fearless.fettle.StateMachine;
 import se.fearless.fettle.StateMachineTemplate;
 import se.fearless.fettle.util.GuavaReplacement;
 
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 public class MutableTransitionModelImpl<S, E, C> extends AbstractTransitionModel<S, E, C> implements MutableTransitionModel<S, E, C> {
+	private final Map<S, Collection<E>> mutuallyExclusive = GuavaReplacement.newHashMap();
 
 	private MutableTransitionModelImpl(Class<S> stateClass, Class<E> eventClass, C defaultContext) {
 		super(stateClass, eventClass, defaultContext);
@@ -28,63 +26,55 @@ public class MutableTransitionModelImpl<S, E, C> extends AbstractTransitionModel
 	}
 
 	@Override
-	public StateMachine<S, E, C> newStateMachine(S init) {
-		return newStateMachine(init, new ReentrantLock());
+	public StateMachineTemplate<S, E, C> createImmutableClone() {
+		return new ImmutableTransitionModel<S, E, C>(stateClass, eventClass, transitionMap, fromAllTransitions, exitActions, enterActions, parents, defaultContext);
 	}
 
-
 	@Override
-	public StateMachine<S, E, C> newStateMachine(S init, Lock lock) {
-		return new TemplateBasedStateMachine<S, E, C>(this, init, lock);
+	public StateMachineTemplate<S, E, C> compile() {
+		return new CompiledTransitionModel<S, E, C>(stateClass, eventClass, transitionMap, fromAllTransitions, exitActions, enterActions, parents, defaultContext);
 	}
 
-
 	@Override
-	public StateMachineTemplate<S, E, C> createImmutableClone() {
-		return new ImmutableTransitionModel<S, E, C>(stateClass, eventClass, transitionMap, fromAllTransitions, exitActions, enterActions, defaultContext);
+	public StateMachineTemplate<S, E, C> createAdaptiveClone() {
+		return new AdaptiveTransitionModel<S, E, C>(this, mutuallyExclusive);
 	}
 
 	@Override
-	public void addTransition(S from, S to, E event, Condition<C> condition, List<Action<S, E, C>> actions) {
-		Map<E, Collection<BasicTransition<S, E, C>>> map = transitionMap.get(from);
-		if (map == null) {
-			map = createMap(eventClass);
-			transitionMap.put(from, map);
+	public void markMutuallyExclusive(S from, E event) {
+		if (from == null || event == null) {
+			throw new IllegalArgumentException("Both the state and the event of mutually exclusive transitions must be given");
 		}
-		Collection<BasicTransition<S, E, C>> transitions = map.get(event);
-		if (transitions == null) {
-			transitions = GuavaReplacement.newArrayList();
-			map.put(event, transitions);
+		Collection<E> events = mutuallyExclusive.get(from);
+		if (events == null) {
+			events = GuavaReplacement.newArrayList();
+			mutuallyExclusive.put(from, events);
 		}
-		transitions.add(new BasicTransition<S, E, C>(to, condition, actions));
+		events.add(event);
+	}
+
+	@Override
+	public void addTransition(S from, S to, E event, Condition<C> condition, List<Action<S, E, C>> actions) {
+		putTransition(from, to, event, condition, actions);
 	}
 
 	@Override
 	public void addFromAllTransition(S to, E event, Condition<C> condition, List<Action<S, E, C>> actions) {
-		Collection<BasicTransition<S, E, C>> transitions = fromAllTransitions.get(event);
-		if (transitions == null) {
-			transitions = GuavaReplacement.newArrayList();
-			fromAllTransitions.put(event, transitions);
-		}
-		transitions.add(new BasicTransition<S, E, C>(to, condition, actions));
+		putFromAllTransition(to, event, condition, actions);
 	}
 
 	@Override
-	public void addEntryAction(S entryState, Action<S, E, C> action) {
-		addAction(entryState, action, enterActions);
+	public void setParent(S state, S parent) {
+		putParent(state, parent);
 	}
 
-	private void addAction(S entryState, Action<S, E, C> action, Map<S, Collection<Action<S, E, C>>> map) {
-		Collection<Action<S, E, C>> collection = map.get(entryState);
-		if (collection == null) {
-			collection = GuavaReplacement.newArrayList();
-			map.put(entryState, collection);
-		}
-		collection.add(action);
+	@Override
+	public void addEntryAction(S entryState, Action<S, E, C> action) {
+		putEntryAction(entryState, action);
 	}
 
 	@Override
 	public void addExitAction(S exitState, Action<S, E, C> action) {
-		addAction(exitState, action, exitActions);
+		putExitAction(exitState, action);
 	}
 }
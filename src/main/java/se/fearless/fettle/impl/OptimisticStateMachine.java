@@ -0,0 +1,124 @@
+package se.fearless.fettle.impl;
+
+import se.fearless.fettle.StateMachine;
+import se.fearless.fettle.Transition;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A state machine that never locks. The transition is resolved against a snapshot of the current state and committed
+ * with a compare-and-set; if another thread changed the state in the meantime the event is evaluated again against
+ * the new state.
+ * <p>
+ * Conditions may be evaluated several times for a single event and must be free of side effects. Exit, transition
+ * and entry actions run exactly once for every committed transition, in that order, after the new state has become
+ * visible to other threads. Actions triggered by events fired concurrently from different threads may interleave.
+ * There is no lock to hold across a batch of events, so events from other threads may be applied in between
+ * the events of a batch.
+ */
+public class OptimisticStateMachine<S, E, C> implements StateMachine<S, E, C> {
+	private final AbstractTransitionModel<S, E, C> model;
+	private final AtomicReference<S> currentState;
+
+	public OptimisticStateMachine(AbstractTransitionModel<S, E, C> model, S initial) {
+		if (initial == null) {
+			throw new IllegalArgumentException("Initial state must not be null");
+		}
+		this.model = model;
+		currentState = new AtomicReference<S>(initial);
+	}
+
+	@Override
+	public S getCurrentState() {
+		return currentState.get();
+	}
+
+	@Override
+	public boolean fireEvent(E event) {
+		return fireEvent(event, model.getDefaultContext());
+	}
+
+	@Override
+	public boolean fireEvent(E event, C context) {
+		while (true) {
+			S from = currentState.get();
+			BasicTransition<S, E, C> transition = model.resolveTransition(from, event, context);
+			if (transition == null) {
+				model.rejected(this, from, event, context);
+				return false;
+			}
+			if (currentState.compareAndSet(from, transition.getTo())) {
+				model.runActions(this, from, transition.getTo(), transition, event, context);
+				return true;
+			}
+		}
+	}
+
+	@Override
+	public int fireEvents(Iterable<? extends E> events, C context) {
+		int transitions = 0;
+		for (E event : events) {
+			if (fireEvent(event, context)) {
+				transitions++;
+			}
+		}
+		return transitions;
+	}
+
+	@Override
+	public int fireEvents(E[] events, int offset, int length, C context) {
+		int transitions = 0;
+		for (int i = offset; i < offset + length; i++) {
+			if (fireEvent(events[i], context)) {
+				transitions++;
+			}
+		}
+		return transitions;
+	}
+
+	/**
+	 * Applies a transition that was resolved by the model for the given state, or reports the rejection if no
+	 * transition was found, unless the machine has left that state or belongs to another model in which case the
+	 * event is fired as usual.
+	 */
+	boolean fireResolved(AbstractTransitionModel<S, E, C> resolvedBy, S resolvedState, BasicTransition<S, E, C> transition, E event, C context) {
+		if (transition == null) {
+			if (model == resolvedBy && currentState.get().equals(resolvedState)) {
+				model.rejectResolved(this, resolvedState, event, context);
+				return false;
+			}
+			return fireEvent(event, context);
+		}
+		if (model == resolvedBy && currentState.compareAndSet(resolvedState, transition.getTo())) {
+			model.runActions(this, resolvedState, transition.getTo(), transition, event, context);
+			return true;
+		}
+		return fireEvent(event, context);
+	}
+
+	@Override
+	public void rawSetState(S rawState) {
+		currentState.set(rawState);
+	}
+
+	@Override
+	public boolean forceSetState(S forcedState) {
+		while (true) {
+			S from = currentState.get();
+			if (from.equals(forcedState)) {
+				return false;
+			}
+			if (currentState.compareAndSet(from, forcedState)) {
+				model.runActions(this, from, forcedState, null, null, null);
+				return true;
+			}
+		}
+	}
+
+	@Override
+	public Map<E, Collection<? extends Transition<S, E, C>>> getPossibleTransitions(S fromState) {
+		return model.getPossibleTransitions(fromState);
+	}
+}
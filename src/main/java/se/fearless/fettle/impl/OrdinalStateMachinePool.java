@@ -0,0 +1,263 @@
+package se.fearless.fettle.impl;
+
+import se.fearless.fettle.StateMachine;
+import se.fearless.fettle.StateMachinePool;
+import se.fearless.fettle.Transition;
+import se.fearless.fettle.util.StripedLocks;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Stores the current state of every machine as an ordinal in a byte array, or a short array if there are more than
+ * 256 states. Machines are guarded by a fixed number of striped locks instead of one lock per machine, so the memory
+ * cost per machine is one or two bytes. Events are handled exactly like in {@link TemplateBasedStateMachine}.
+ * <p>
+ * Actions and listeners are handed a {@link StateMachine} view of the machine they concern. The view is only created
+ * when there is something to hand it to, transitions that run no actions and notify nobody just update the ordinal.
+ */
+public class OrdinalStateMachinePool<S, E, C> implements StateMachinePool<S, E, C> {
+	private static final int DEFAULT_LOCK_STRIPES = 64;
+
+	private final AbstractTransitionModel<S, E, C> model;
+	private final S[] states;
+	private final byte[] byteOrdinals;
+	private final short[] shortOrdinals;
+	private final StripedLocks locks;
+
+	public OrdinalStateMachinePool(AbstractTransitionModel<S, E, C> model, int size, S initial) {
+		this(model, size, initial, DEFAULT_LOCK_STRIPES);
+	}
+
+	public OrdinalStateMachinePool(AbstractTransitionModel<S, E, C> model, int size, S initial, int lockStripes) {
+		if (initial == null) {
+			throw new IllegalArgumentException("Initial state must not be null");
+		}
+		if (!model.stateClass.isEnum()) {
+			throw new IllegalArgumentException("Only enum states can be stored in a pool, got " + model.stateClass.getName());
+		}
+		this.model = model;
+		states = model.stateClass.getEnumConstants();
+		if (states.length <= 256) {
+			byteOrdinals = new byte[size];
+			shortOrdinals = null;
+		} else {
+			byteOrdinals = null;
+			shortOrdinals = new short[size];
+		}
+		locks = new StripedLocks(lockStripes);
+		int initialOrdinal = ((Enum<?>) initial).ordinal();
+		for (int id = 0; id < size; id++) {
+			setOrdinal(id, initialOrdinal);
+		}
+	}
+
+	@Override
+	public int size() {
+		return byteOrdinals != null ? byteOrdinals.length : shortOrdinals.length;
+	}
+
+	/**
+	 * Reads the state under the stripe lock of the machine, since the ordinals are plain array elements that other
+	 * threads would otherwise not be guaranteed to see updated. The lock is reentrant, so actions and listeners can
+	 * read the state of the machine they concern.
+	 */
+	@Override
+	public S getCurrentState(int id) {
+		Lock lock = locks.get(id);
+		lock.lock();
+		try {
+			return states[getOrdinal(id)];
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean fireEvent(int id, E event) {
+		return fireEvent(id, event, model.getDefaultContext());
+	}
+
+	@Override
+	public boolean fireEvent(int id, E event, C context) {
+		Lock lock = locks.get(id);
+		lock.lock();
+		try {
+			return fire(id, event, context);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int fireEvents(int id, Iterable<? extends E> events, C context) {
+		Lock lock = locks.get(id);
+		lock.lock();
+		try {
+			int transitions = 0;
+			for (E event : events) {
+				if (fire(id, event, context)) {
+					transitions++;
+				}
+			}
+			return transitions;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int fireEvents(int id, E[] events, int offset, int length, C context) {
+		Lock lock = locks.get(id);
+		lock.lock();
+		try {
+			int transitions = 0;
+			for (int i = offset; i < offset + length; i++) {
+				if (fire(id, events[i], context)) {
+					transitions++;
+				}
+			}
+			return transitions;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean fire(int id, E event, C context) {
+		S from = states[getOrdinal(id)];
+		BasicTransition<S, E, C> transition = model.resolveTransition(from, event, context);
+		if (transition == null) {
+			if (model.hasTransitionListeners()) {
+				model.rejected(getStateMachine(id), from, event, context);
+			}
+			return false;
+		}
+		S to = transition.getTo();
+		if (model.isSilent(from, to, transition)) {
+			setOrdinal(id, ((Enum<?>) to).ordinal());
+		} else {
+			model.forceSetState(getStateMachine(id), from, to, transition, event, context);
+		}
+		return true;
+	}
+
+	@Override
+	public void rawSetState(int id, S rawState) {
+		Lock lock = locks.get(id);
+		lock.lock();
+		try {
+			setOrdinal(id, ((Enum<?>) rawState).ordinal());
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean forceSetState(int id, S forcedState) {
+		Lock lock = locks.get(id);
+		lock.lock();
+		try {
+			S from = states[getOrdinal(id)];
+			if (from.equals(forcedState)) {
+				return false;
+			}
+			if (model.isSilent(from, forcedState, null)) {
+				setOrdinal(id, ((Enum<?>) forcedState).ordinal());
+				return true;
+			}
+			return model.forceSetState(getStateMachine(id), forcedState);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public StateMachine<S, E, C> getStateMachine(int id) {
+		return new PooledStateMachine(id);
+	}
+
+	private int getOrdinal(int id) {
+		if (byteOrdinals != null) {
+			return byteOrdinals[id] & 0xFF;
+		}
+		return shortOrdinals[id] & 0xFFFF;
+	}
+
+	private void setOrdinal(int id, int ordinal) {
+		if (byteOrdinals != null) {
+			byteOrdinals[id] = (byte) ordinal;
+		} else {
+			shortOrdinals[id] = (short) ordinal;
+		}
+	}
+
+	private final class PooledStateMachine implements StateMachine<S, E, C> {
+		private final int id;
+
+		private PooledStateMachine(int id) {
+			this.id = id;
+		}
+
+		@Override
+		public S getCurrentState() {
+			return OrdinalStateMachinePool.this.getCurrentState(id);
+		}
+
+		@Override
+		public boolean fireEvent(E event) {
+			return OrdinalStateMachinePool.this.fireEvent(id, event);
+		}
+
+		@Override
+		public boolean fireEvent(E event, C context) {
+			return OrdinalStateMachinePool.this.fireEvent(id, event, context);
+		}
+
+		@Override
+		public int fireEvents(Iterable<? extends E> events, C context) {
+			return OrdinalStateMachinePool.this.fireEvents(id, events, context);
+		}
+
+		@Override
+		public int fireEvents(E[] events, int offset, int length, C context) {
+			return OrdinalStateMachinePool.this.fireEvents(id, events, offset, length, context);
+		}
+
+		@Override
+		public void rawSetState(S rawState) {
+			OrdinalStateMachinePool.this.rawSetState(id, rawState);
+		}
+
+		@Override
+		public boolean forceSetState(S forcedState) {
+			return OrdinalStateMachinePool.this.forceSetState(id, forcedState);
+		}
+
+		@Override
+		public Map<E, Collection<? extends Transition<S, E, C>>> getPossibleTransitions(S fromState) {
+			return model.getPossibleTransitions(fromState);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof OrdinalStateMachinePool.PooledStateMachine)) {
+				return false;
+			}
+			PooledStateMachine other = (PooledStateMachine) o;
+			return id == other.id && getPool() == other.getPool();
+		}
+
+		@Override
+		public int hashCode() {
+			return id;
+		}
+
+		private OrdinalStateMachinePool<S, E, C> getPool() {
+			return OrdinalStateMachinePool.this;
+		}
+	}
+}
@@ -0,0 +1,272 @@
+package se.fearless.fettle.impl;
+
+import se.fearless.fettle.OrthogonalStateMachine;
+import se.fearless.fettle.StateMachine;
+import se.fearless.fettle.StateMachineTemplate;
+import se.fearless.fettle.Transition;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Stores the state of every region as an ordinal in a byte array, or a short array if a region has more than 256
+ * states. The views handed to actions are created the first time a region takes a transition.
+ * <p>
+ * Like {@link TemplateBasedStateMachine} the machine runs to completion. Events fired by actions while an event is
+ * being handled by the regions are queued and handled in order once every region has handled the current event, and
+ * return false since their outcome is not known yet.
+ * <p>
+ * The ordinals are plain array elements, so the states are read under the lock to see the latest states set from
+ * other threads. The lock has to be reentrant, since actions read and set the states of the regions while it is held.
+ */
+public class OrthogonalStateMachineImpl<E, C> implements OrthogonalStateMachine<E, C> {
+	private static final int INITIAL_QUEUE_CAPACITY = 4;
+
+	private final OrthogonalTransitionModel<E, C> model;
+	private final Lock lock;
+	private final byte[] byteOrdinals;
+	private final short[] shortOrdinals;
+	private RegionView[] views;
+	private boolean dispatching;
+	private Object[] queue;
+	private int queueHead;
+	private int queueSize;
+
+	OrthogonalStateMachineImpl(OrthogonalTransitionModel<E, C> model, Lock lock, Object[] initialStates) {
+		this.model = model;
+		this.lock = lock;
+		if (model.wide) {
+			byteOrdinals = null;
+			shortOrdinals = new short[initialStates.length];
+		} else {
+			byteOrdinals = new byte[initialStates.length];
+			shortOrdinals = null;
+		}
+		for (int r = 0; r < initialStates.length; r++) {
+			setOrdinal(r, OrthogonalTransitionModel.ordinal(initialStates[r]));
+		}
+	}
+
+	@Override
+	public int getRegionCount() {
+		return model.getRegionCount();
+	}
+
+	@Override
+	public Object getCurrentState(int region) {
+		lock.lock();
+		try {
+			return model.states[region][getOrdinal(region)];
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <S> S getCurrentState(StateMachineTemplate<S, E, C> region) {
+		return (S) getCurrentState(model.indexOf(region));
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <S> StateMachine<S, E, C> getRegion(StateMachineTemplate<S, E, C> region) {
+		int index = model.indexOf(region);
+		lock.lock();
+		try {
+			return (StateMachine<S, E, C>) view(index);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean fireEvent(E event) {
+		return fireEvent(event, model.getDefaultContext());
+	}
+
+	@Override
+	public boolean fireEvent(E event, C context) {
+		lock.lock();
+		try {
+			return dispatch(event, context);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int fireEvents(Iterable<? extends E> events, C context) {
+		lock.lock();
+		try {
+			int transitions = 0;
+			for (E event : events) {
+				if (dispatch(event, context)) {
+					transitions++;
+				}
+			}
+			return transitions;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Handles the event and then the events queued by its actions, or queues the event if the machine is already
+	 * handling one. Must be called with the lock held.
+	 */
+	@SuppressWarnings("unchecked")
+	private boolean dispatch(E event, C context) {
+		if (dispatching) {
+			enqueue(event, context);
+			return false;
+		}
+		dispatching = true;
+		try {
+			boolean changed = fire(event, context);
+			while (queueHead < queueSize) {
+				int index = queueHead << 1;
+				queueHead++;
+				fire((E) queue[index], (C) queue[index + 1]);
+			}
+			return changed;
+		} finally {
+			dispatching = false;
+			if (queueSize > 0) {
+				Arrays.fill(queue, 0, queueSize << 1, null);
+			}
+			queueHead = 0;
+			queueSize = 0;
+		}
+	}
+
+	/**
+	 * The queue is an array of event and context pairs that doubles when full and is emptied once the machine has run
+	 * to completion, events still queued when an action threw are dropped
+	 */
+	private void enqueue(E event, C context) {
+		if (queue == null) {
+			queue = new Object[INITIAL_QUEUE_CAPACITY << 1];
+		} else if (queueSize << 1 == queue.length) {
+			queue = Arrays.copyOf(queue, queue.length << 1);
+		}
+		queue[queueSize << 1] = event;
+		queue[(queueSize << 1) + 1] = context;
+		queueSize++;
+	}
+
+	private boolean fire(E event, C context) {
+		if (event == null) {
+			return false;
+		}
+		int eventOrdinal = OrthogonalTransitionModel.ordinal(event);
+		boolean changed = false;
+		for (int r = 0; r < model.regions.length; r++) {
+			int from = getOrdinal(r);
+			BasicTransition<Object, E, C> transition = model.findTransition(r, from, eventOrdinal, context);
+			if (transition != null) {
+				model.regions[r].forceSetState(view(r), model.states[r][from], transition.getTo(), transition, event, context);
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private RegionView view(int region) {
+		if (views == null) {
+			views = new OrthogonalStateMachineImpl.RegionView[model.regions.length];
+		}
+		if (views[region] == null) {
+			views[region] = new RegionView(region);
+		}
+		return views[region];
+	}
+
+	private int getOrdinal(int region) {
+		if (byteOrdinals != null) {
+			return byteOrdinals[region] & 0xFF;
+		}
+		return shortOrdinals[region] & 0xFFFF;
+	}
+
+	private void setOrdinal(int region, int ordinal) {
+		if (byteOrdinals != null) {
+			byteOrdinals[region] = (byte) ordinal;
+		} else {
+			shortOrdinals[region] = (short) ordinal;
+		}
+	}
+
+	private final class RegionView implements StateMachine<Object, E, C> {
+		private final int region;
+
+		private RegionView(int region) {
+			this.region = region;
+		}
+
+		@Override
+		public Object getCurrentState() {
+			return OrthogonalStateMachineImpl.this.getCurrentState(region);
+		}
+
+		@Override
+		public boolean fireEvent(E event) {
+			return OrthogonalStateMachineImpl.this.fireEvent(event);
+		}
+
+		@Override
+		public boolean fireEvent(E event, C context) {
+			return OrthogonalStateMachineImpl.this.fireEvent(event, context);
+		}
+
+		@Override
+		public int fireEvents(Iterable<? extends E> events, C context) {
+			return OrthogonalStateMachineImpl.this.fireEvents(events, context);
+		}
+
+		@Override
+		public int fireEvents(E[] events, int offset, int length, C context) {
+			lock.lock();
+			try {
+				int transitions = 0;
+				for (int i = offset; i < offset + length; i++) {
+					if (dispatch(events[i], context)) {
+						transitions++;
+					}
+				}
+				return transitions;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void rawSetState(Object rawState) {
+			model.checkState(region, rawState);
+			lock.lock();
+			try {
+				setOrdinal(region, OrthogonalTransitionModel.ordinal(rawState));
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public boolean forceSetState(Object forcedState) {
+			model.checkState(region, forcedState);
+			lock.lock();
+			try {
+				return model.regions[region].forceSetState(this, forcedState);
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public Map<E, Collection<? extends Transition<Object, E, C>>> getPossibleTransitions(Object fromState) {
+			return model.regions[region].getPossibleTransitions(fromState);
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package se.fearless.fettle.impl;
+
+import se.fearless.fettle.OrthogonalStateMachine;
+import se.fearless.fettle.StateMachineTemplate;
+
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A template for machines made of several orthogonal regions, each defined by a template of its own with enum
+ * states. The transitions of all regions are compiled into one table indexed by
+ * <code>regionOffset + state.ordinal() * eventCount + event.ordinal()</code>, and a machine stores the state of
+ * every region as an ordinal in a single array, so firing an event at a machine takes one lock and one table
+ * lookup per region.
+ * <p>
+ * Exit, transition and entry actions are run by the template of the region, including the actions of parent
+ * states, and a region's metrics and listeners are told about the transitions it takes. An event that a region has
+ * no transition for is not reported as rejected, since other regions may handle it. The default context is the
+ * default context of the first region.
+ *
+ * @param <E> the type of the events, must be an enum
+ * @param <C> the type of the context
+ */
+public class OrthogonalTransitionModel<E, C> {
+	final AbstractTransitionModel<Object, E, C>[] regions;
+	final Object[][] states;
+	private final int eventCount;
+	private final int[] offsets;
+	private final BasicTransition<Object, E, C>[][] table;
+	final boolean wide;
+
+	@SuppressWarnings("unchecked")
+	public OrthogonalTransitionModel(Class<E> eventClass, List<? extends StateMachineTemplate<?, E, C>> regionTemplates) {
+		if (!eventClass.isEnum()) {
+			throw new IllegalArgumentException("Only enum events can be dispatched to regions, got " + eventClass.getName());
+		}
+		if (regionTemplates.isEmpty()) {
+			throw new IllegalArgumentException("At least one region is needed");
+		}
+		E[] events = eventClass.getEnumConstants();
+		eventCount = events.length;
+		regions = new AbstractTransitionModel[regionTemplates.size()];
+		states = new Object[regions.length][];
+		offsets = new int[regions.length];
+		boolean needsShorts = false;
+		int slots = 0;
+		for (int r = 0; r < regions.length; r++) {
+			StateMachineTemplate<?, E, C> template = regionTemplates.get(r);
+			if (!(template instanceof AbstractTransitionModel) || !((AbstractTransitionModel<?, E, C>) template).getStateClass().isEnum()) {
+				throw new IllegalArgumentException("Regions must be templates created by Fettle with enum states, got " + template);
+			}
+			regions[r] = (AbstractTransitionModel<Object, E, C>) template;
+			states[r] = regions[r].getStateClass().getEnumConstants();
+			needsShorts |= states[r].length > 256;
+			offsets[r] = slots;
+			slots += states[r].length * eventCount;
+		}
+		wide = needsShorts;
+
+		BasicTransition<Object, E, C>[] none = new BasicTransition[0];
+		table = new BasicTransition[slots][];
+		for (int r = 0; r < regions.length; r++) {
+			for (Object state : states[r]) {
+				for (E event : events) {
+					List<BasicTransition<Object, E, C>> candidates = regions[r].getCandidates(state, event);
+					table[slot(r, ordinal(state), ordinal(event))] = candidates.isEmpty() ? none : candidates.toArray(none);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates a new machine guarded by a lock of its own
+	 * @param initialStates the initial state of every region, in the order the regions were given
+	 * @return a new machine with all regions in their initial states
+	 * @throws IllegalArgumentException if the number of states does not match the number of regions or a state is
+	 * not a state of its region
+	 */
+	public OrthogonalStateMachine<E, C> newStateMachine(Object... initialStates) {
+		return newStateMachine(new ReentrantLock(), initialStates);
+	}
+
+	public OrthogonalStateMachine<E, C> newStateMachine(Lock lock, Object... initialStates) {
+		if (initialStates.length != regions.length) {
+			throw new IllegalArgumentException("Expected " + regions.length + " initial states, got " + initialStates.length);
+		}
+		for (int r = 0; r < regions.length; r++) {
+			checkState(r, initialStates[r]);
+		}
+		return new OrthogonalStateMachineImpl<E, C>(this, lock, initialStates);
+	}
+
+	public int getRegionCount() {
+		return regions.length;
+	}
+
+	public C getDefaultContext() {
+		return regions[0].getDefaultContext();
+	}
+
+	int indexOf(StateMachineTemplate<?, E, C> region) {
+		for (int r = 0; r < regions.length; r++) {
+			if (regions[r] == region) {
+				return r;
+			}
+		}
+		throw new IllegalArgumentException(region + " is not a region of this model");
+	}
+
+	void checkState(int region, Object state) {
+		if (!regions[region].getStateClass().isInstance(state)) {
+			throw new IllegalArgumentException(state + " is not a state of region " + region);
+		}
+	}
+
+	BasicTransition<Object, E, C> findTransition(int region, int state, int event, C context) {
+		BasicTransition<Object, E, C>[] candidates = table[slot(region, state, event)];
+		for (int i = 0; i < candidates.length; i++) {
+			if (candidates[i].isSatisfied(context)) {
+				return candidates[i];
+			}
+		}
+		return null;
+	}
+
+	private int slot(int region, int state, int event) {
+		return offsets[region] + state * eventCount + event;
+	}
+
+	static int ordinal(Object enumValue) {
+		return ((Enum<?>) enumValue).ordinal();
+	}
+}
@@ -0,0 +1,60 @@
+package se.fearless.fettle.impl;
+
+import se.fearless.fettle.TransitionModel;
+import se.fearless.fettle.VersionedState;
+import se.fearless.fettle.VersionedStateMachine;
+
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A locking state machine that versions its state for readers that do not take the lock. The state is guarded by a
+ * sequence number, incremented to an odd value before the state is published and to an even value after, so a
+ * reader that sees the same even sequence before and after reading the state has read a state and version that
+ * belong together. Only writers, which hold the lock, ever wait for each other.
+ */
+public class PublishedStateMachine<S, E, C> extends TemplateBasedStateMachine<S, E, C> implements VersionedStateMachine<S, E, C> {
+	private volatile long sequence;
+
+	public PublishedStateMachine(TransitionModel<S, E, C> model, S initial, Lock lock) {
+		super(model, initial, lock);
+	}
+
+	@Override
+	public long getVersion() {
+		return sequence >> 1;
+	}
+
+	@Override
+	public long startRead() {
+		while (true) {
+			long current = sequence;
+			if ((current & 1) == 0) {
+				return current >> 1;
+			}
+		}
+	}
+
+	@Override
+	public boolean validateRead(long version) {
+		return sequence == version << 1;
+	}
+
+	@Override
+	public VersionedState<S> getVersionedState() {
+		while (true) {
+			long version = startRead();
+			S current = getCurrentState();
+			if (validateRead(version)) {
+				return new VersionedState<S>(current, version);
+			}
+		}
+	}
+
+	@Override
+	void publish(S newState) {
+		long current = sequence;
+		sequence = current + 1;
+		super.publish(newState);
+		sequence = current + 2;
+	}
+}
@@ -1,5 +1,6 @@
 package se.fearless.fettle.impl;
 
+import se.fearless.fettle.MetricsRecorder;
 import se.fearless.fettle.StateMachine;
 import se.fearless.fettle.Transition;
 import se.fearless.fettle.TransitionModel;
@@ -8,10 +9,27 @@ import java.util.Collection;
 import java.util.Map;
 import java.util.concurrent.locks.Lock;
 
+/**
+ * A state machine guarded by a lock, with run-to-completion semantics. Events fired and states forced by actions
+ * while the machine is handling an event are not handled recursively but appended to an internal queue, and handled
+ * in order once the current transition has completed. The deferred calls return false since their outcome is not
+ * known yet.
+ * <p>
+ * The current state is read without the lock. It is volatile, so a reader on another thread sees the latest state
+ * set, but the state may change right after it is read. {@link PublishedStateMachine} adds a version to tell
+ * whether it did.
+ */
 public class TemplateBasedStateMachine<S, E, C> implements StateMachine<S,E,C> {
+	private static final int INITIAL_QUEUE_CAPACITY = 4;
+	private static final Object FORCED = new Object();
+
 	private final TransitionModel<S, E, C> model;
-	private S currentState;
+	private volatile S currentState;
 	private final Lock lock;
+	private boolean dispatching;
+	private Object[] queue;
+	private int queueHead;
+	private int queueSize;
 
 	public TemplateBasedStateMachine(TransitionModel<S, E, C> model, S initial, Lock lock) {
 		if (initial == null) {
@@ -34,27 +52,189 @@ public class TemplateBasedStateMachine<S, E, C> implements StateMachine<S,E,C> {
 
 	@Override
 	public boolean fireEvent(E event, C context) {
-		lock.lock();
+		acquireLock();
+		try {
+			return dispatch(event, context);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+	@Override
+	public int fireEvents(Iterable<? extends E> events, C context) {
+		acquireLock();
+		try {
+			int transitions = 0;
+			for (E event : events) {
+				if (dispatch(event, context)) {
+					transitions++;
+				}
+			}
+			return transitions;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int fireEvents(E[] events, int offset, int length, C context) {
+		acquireLock();
+		try {
+			int transitions = 0;
+			for (int i = offset; i < offset + length; i++) {
+				if (dispatch(events[i], context)) {
+					transitions++;
+				}
+			}
+			return transitions;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Applies a transition that was resolved by the model for the given state, or reports the rejection if no
+	 * transition was found, unless the machine has left that state or belongs to another model in which case the
+	 * event is fired as usual.
+	 */
+	boolean fireResolved(AbstractTransitionModel<S, E, C> resolvedBy, S resolvedState, BasicTransition<S, E, C> transition, E event, C context) {
+		acquireLock();
 		try {
-			return model.fireEvent(this, event, context);
+			if (dispatching || model != resolvedBy || !getCurrentState().equals(resolvedState)) {
+				return dispatch(event, context);
+			}
+			if (transition == null) {
+				resolvedBy.rejectResolved(this, resolvedState, event, context);
+				return false;
+			}
+			dispatching = true;
+			try {
+				resolvedBy.forceSetState(this, resolvedState, transition.getTo(), transition, event, context);
+				runToCompletion();
+			} finally {
+				completed();
+			}
+			return true;
 		} finally {
 			lock.unlock();
 		}
 	}
 
+	/**
+	 * Handles the event and then the events queued by its actions, or queues the event if the machine is already
+	 * handling one. Must be called with the lock held.
+	 */
+	private boolean dispatch(E event, C context) {
+		if (dispatching) {
+			enqueue(event, context);
+			return false;
+		}
+		dispatching = true;
+		try {
+			boolean transitioned = model.fireEvent(this, event, context);
+			runToCompletion();
+			return transitioned;
+		} finally {
+			completed();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void runToCompletion() {
+		while (queueSize > 0) {
+			int index = queueHead << 1;
+			Object first = queue[index];
+			Object second = queue[index + 1];
+			queue[index] = null;
+			queue[index + 1] = null;
+			queueHead = (queueHead + 1) & ((queue.length >> 1) - 1);
+			queueSize--;
+			if (first == FORCED) {
+				model.forceSetState(this, (S) second);
+			} else {
+				model.fireEvent(this, (E) first, (C) second);
+			}
+		}
+	}
+
+	/**
+	 * Events still queued when an action threw are dropped, they were fired in response to a transition that failed
+	 */
+	private void completed() {
+		dispatching = false;
+		while (queueSize > 0) {
+			int index = queueHead << 1;
+			queue[index] = null;
+			queue[index + 1] = null;
+			queueHead = (queueHead + 1) & ((queue.length >> 1) - 1);
+			queueSize--;
+		}
+		queueHead = 0;
+	}
+
+	/**
+	 * The queue is a ring of event and context pairs, or {@link #FORCED} and state pairs, that doubles when full
+	 * and is kept for the life of the machine
+	 */
+	private void enqueue(Object first, Object second) {
+		if (queue == null) {
+			queue = new Object[INITIAL_QUEUE_CAPACITY << 1];
+		} else if (queueSize == queue.length >> 1) {
+			Object[] grown = new Object[queue.length << 1];
+			int head = queueHead << 1;
+			System.arraycopy(queue, head, grown, 0, queue.length - head);
+			System.arraycopy(queue, 0, grown, queue.length - head, head);
+			queue = grown;
+			queueHead = 0;
+		}
+		int index = ((queueHead + queueSize) & ((queue.length >> 1) - 1)) << 1;
+		queue[index] = first;
+		queue[index + 1] = second;
+		queueSize++;
+	}
+
+	private void acquireLock() {
+		MetricsRecorder<S, E> recorder = model instanceof AbstractTransitionModel ? ((AbstractTransitionModel<S, E, C>) model).getMetrics() : null;
+		if (recorder == null) {
+			lock.lock();
+			return;
+		}
+		long start = System.nanoTime();
+		lock.lock();
+		recorder.lockAcquired(System.nanoTime() - start);
+	}
 
 	@Override
 	public void rawSetState(S rawState) {
 		lock.lock();
-		currentState = rawState;
+		publish(rawState);
 		lock.unlock();
 	}
 
+	/**
+	 * Stores a new state, called with the lock held
+	 */
+	void publish(S newState) {
+		currentState = newState;
+	}
+
 	@Override
 	public boolean forceSetState(S forcedState) {
-		lock.lock();
+		acquireLock();
 		try {
-			return model.forceSetState(this, forcedState);
+			if (dispatching) {
+				enqueue(FORCED, forcedState);
+				return false;
+			}
+			dispatching = true;
+			try {
+				boolean changed = model.forceSetState(this, forcedState);
+				runToCompletion();
+				return changed;
+			} finally {
+				completed();
+			}
 		} finally {
 			lock.unlock();
 		}
@@ -0,0 +1,9 @@
+package se.fearless.fettle.journal;
+
+/**
+ * Reduces the context an event was fired in to a number stored with the journal record, such as the id of the
+ * entity the context refers to
+ */
+public interface ContextSummarizer<C> {
+	long summarize(C context);
+}
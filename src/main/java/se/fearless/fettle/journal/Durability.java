@@ -0,0 +1,19 @@
+package se.fearless.fettle.journal;
+
+/**
+ * How far a record has made it when {@link EventJournal#append(int, int, int, long)} returns
+ */
+public enum Durability {
+	/**
+	 * The record is in the journal's buffer and is written when the buffer fills up, on flush or on close
+	 */
+	BUFFERED,
+	/**
+	 * The record has been written to the file, so it survives the process crashing but not the machine
+	 */
+	WRITTEN,
+	/**
+	 * The record has been written and forced to the storage device
+	 */
+	SYNCED
+}
@@ -0,0 +1,263 @@
+package se.fearless.fettle.journal;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An append only file of fixed size records, each holding the id of a machine, the ordinal of the event fired at it,
+ * the ordinal of the state it ended up in and a summary of the context.
+ * <p>
+ * Records are collected in a buffer and written in batches. When a record has to be written before append returns,
+ * the first appender to find no write in progress writes everything buffered so far, including the records of
+ * threads that appended while it was waiting, and the others wait for that write instead of issuing their own.
+ * While a batch is written, new records go to a second buffer, so appending only waits when both are in use.
+ * <p>
+ * A record that was only partially written when the process died is dropped when the journal is opened again.
+ */
+public class EventJournal implements Closeable {
+	/**
+	 * The event ordinal of records where the state was set without firing an event
+	 */
+	public static final int FORCED = -1;
+
+	static final int MAGIC = 0x46544c4a;
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 8;
+	static final int RECORD_SIZE = 20;
+	private static final int DEFAULT_BUFFER_RECORDS = 4096;
+	private static final int READ_BUFFER_RECORDS = 1 << 16;
+
+	private final RandomAccessFile file;
+	private final FileChannel channel;
+	private final Durability durability;
+	private final Lock lock = new ReentrantLock();
+	private final Condition batchWritten = lock.newCondition();
+	private ByteBuffer filling;
+	private ByteBuffer spare;
+	private long appended;
+	private long written;
+	private boolean writing;
+	private boolean closed;
+	private IOException failure;
+
+	public EventJournal(File file, Durability durability) throws IOException {
+		this(file, durability, DEFAULT_BUFFER_RECORDS);
+	}
+
+	/**
+	 * Opens a journal, creating the file if it does not exist and appending to it if it does
+	 * @param file the journal file
+	 * @param durability how far records must have made it before append returns
+	 * @param bufferRecords how many records each of the two buffers holds
+	 * @throws IOException if the file could not be opened or is not a journal
+	 */
+	public EventJournal(File file, Durability durability, int bufferRecords) throws IOException {
+		if (bufferRecords < 1) {
+			throw new IllegalArgumentException("The buffers must hold at least one record, got " + bufferRecords);
+		}
+		this.file = new RandomAccessFile(file, "rw");
+		this.channel = this.file.getChannel();
+		this.durability = durability;
+		boolean opened = false;
+		try {
+			openAtEnd(file);
+			opened = true;
+		} finally {
+			if (!opened) {
+				this.file.close();
+			}
+		}
+		filling = ByteBuffer.allocateDirect(bufferRecords * RECORD_SIZE);
+		spare = ByteBuffer.allocateDirect(bufferRecords * RECORD_SIZE);
+	}
+
+	private void openAtEnd(File path) throws IOException {
+		long size = channel.size();
+		if (size == 0) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).flip();
+			writeFully(channel, header, 0);
+			channel.force(true);
+			channel.position(HEADER_SIZE);
+			return;
+		}
+		verifyHeader(channel, path);
+		long complete = HEADER_SIZE + (size - HEADER_SIZE) / RECORD_SIZE * RECORD_SIZE;
+		if (complete < size) {
+			channel.truncate(complete);
+		}
+		channel.position(complete);
+	}
+
+	/**
+	 * Adds a record to the journal
+	 * @param machineId the id of the machine the event was fired at
+	 * @param event the ordinal of the event or {@link #FORCED}
+	 * @param state the ordinal of the state the machine ended up in
+	 * @param summary a summary of the context the event was fired in
+	 * @throws IOException if the record or an earlier batch could not be written
+	 */
+	public void append(int machineId, int event, int state, long summary) throws IOException {
+		lock.lock();
+		try {
+			checkOpen();
+			while (!filling.hasRemaining()) {
+				writeOrWait();
+			}
+			filling.putInt(machineId).putInt(event).putInt(state).putLong(summary);
+			long sequence = ++appended;
+			if (durability != Durability.BUFFERED) {
+				while (written < sequence) {
+					writeOrWait();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes all buffered records to the file, and forces them to the device if the journal is {@link Durability#SYNCED}
+	 * @throws IOException if the records could not be written
+	 */
+	public void flush() throws IOException {
+		lock.lock();
+		try {
+			checkOpen();
+			while (written < appended) {
+				writeOrWait();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			try {
+				if (failure == null) {
+					flush();
+				}
+			} finally {
+				closed = true;
+				file.close();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void writeOrWait() throws IOException {
+		if (writing) {
+			batchWritten.awaitUninterruptibly();
+		} else {
+			writeBatch();
+		}
+		checkOpen();
+	}
+
+	private void writeBatch() throws IOException {
+		writing = true;
+		ByteBuffer batch = filling;
+		filling = spare;
+		spare = null;
+		long batchEnd = appended;
+		boolean done = false;
+		lock.unlock();
+		try {
+			batch.flip();
+			while (batch.hasRemaining()) {
+				channel.write(batch);
+			}
+			if (durability == Durability.SYNCED) {
+				channel.force(false);
+			}
+			done = true;
+		} catch (IOException e) {
+			failure = e;
+			throw e;
+		} finally {
+			lock.lock();
+			batch.clear();
+			spare = batch;
+			writing = false;
+			if (done) {
+				written = batchEnd;
+			}
+			batchWritten.signalAll();
+		}
+	}
+
+	private void checkOpen() throws IOException {
+		if (failure != null) {
+			throw new IOException("The journal could not be written earlier", failure);
+		}
+		if (closed) {
+			throw new IllegalStateException("The journal has been closed");
+		}
+	}
+
+	/**
+	 * Reads all complete records of a journal in the order they were appended
+	 * @param journal the journal file
+	 * @param handler the handler to pass the records to
+	 * @return the number of records read
+	 * @throws IOException if the file could not be read or is not a journal
+	 */
+	public static long read(File journal, JournalRecordHandler handler) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(journal, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			verifyHeader(channel, journal);
+			channel.position(HEADER_SIZE);
+			ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_RECORDS * RECORD_SIZE);
+			long records = 0;
+			while (channel.read(buffer) >= 0) {
+				buffer.flip();
+				while (buffer.remaining() >= RECORD_SIZE) {
+					handler.onRecord(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getLong());
+					records++;
+				}
+				buffer.compact();
+			}
+			return records;
+		} finally {
+			file.close();
+		}
+	}
+
+	private static void verifyHeader(FileChannel channel, File path) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		int read = 0;
+		while (header.hasRemaining() && read >= 0) {
+			read = channel.read(header, header.position());
+		}
+		header.flip();
+		if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+			throw new IOException(path + " is not an event journal");
+		}
+		int version = header.getInt();
+		if (version != VERSION) {
+			throw new IOException(path + " has journal version " + version + ", only version " + VERSION + " is supported");
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		long at = position;
+		while (buffer.hasRemaining()) {
+			at += channel.write(buffer, at);
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package se.fearless.fettle.journal;
+
+/**
+ * Receives the records read by {@link EventJournal#read(java.io.File, JournalRecordHandler)}
+ */
+public interface JournalRecordHandler {
+	/**
+	 * @param machineId the id of the machine the event was fired at
+	 * @param event the ordinal of the event or {@link EventJournal#FORCED} if the state was set without an event
+	 * @param state the ordinal of the state the machine ended up in
+	 * @param summary the summary of the context the event was fired in
+	 */
+	void onRecord(int machineId, int event, int state, long summary);
+}
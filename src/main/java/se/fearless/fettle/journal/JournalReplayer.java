@@ -0,0 +1,98 @@
+package se.fearless.fettle.journal;
+
+import se.fearless.fettle.StateMachinePool;
+import se.fearless.fettle.Transition;
+import se.fearless.fettle.TransitionModel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Rebuilds the states of machines from an {@link EventJournal}. The state of each record is set directly on a
+ * {@link StateMachinePool}, where the id of the machine in the journal is its id in the pool, so no conditions or
+ * actions are run.
+ * <p>
+ * The target states of the transitions of the model are laid out in a flat table indexed by the state and event
+ * ordinals when the replayer is created, so the table grows with the number of transitions rather than with the
+ * square of the number of states. When verifying, every record caused by an event is looked up in the table to check
+ * that the model has a transition from the state the machine was in on that event to the journaled state, which
+ * catches journals replayed against the wrong model or a pool created in the wrong initial state.
+ *
+ * @param <S> the type of the states
+ * @param <E> the type of the events
+ */
+public class JournalReplayer<S extends Enum<S>, E extends Enum<E>> {
+	private final S[] states;
+	private final E[] events;
+	private final int[][] targets;
+
+	public JournalReplayer(TransitionModel<S, E, ?> model, Class<S> stateClass, Class<E> eventClass) {
+		states = stateClass.getEnumConstants();
+		events = eventClass.getEnumConstants();
+		targets = new int[states.length * events.length][];
+		for (S state : states) {
+			Map<E, ? extends Collection<? extends Transition<S, E, ?>>> possible = model.getPossibleTransitions(state);
+			for (Map.Entry<E, ? extends Collection<? extends Transition<S, E, ?>>> entry : possible.entrySet()) {
+				int[] slot = new int[entry.getValue().size()];
+				int i = 0;
+				for (Transition<S, E, ?> transition : entry.getValue()) {
+					slot[i++] = transition.getTo().ordinal();
+				}
+				targets[state.ordinal() * events.length + entry.getKey().ordinal()] = slot;
+			}
+		}
+	}
+
+	/**
+	 * Sets the state of every machine in the pool to the last state journaled for it
+	 * @param journal the journal file
+	 * @param pool the machines to rebuild, in the state they were in when journaling started
+	 * @param verify whether to check every record against the transitions of the model
+	 * @return the number of records replayed
+	 * @throws IOException if the journal could not be read
+	 * @throws IllegalStateException if a record refers to a machine outside the pool, to a state or event the model
+	 * does not have or, when verifying, to a transition the model does not have
+	 */
+	public long replay(File journal, final StateMachinePool<S, E, ?> pool, final boolean verify) throws IOException {
+		return EventJournal.read(journal, new JournalRecordHandler() {
+			private long record;
+
+			@Override
+			public void onRecord(int machineId, int event, int state, long summary) {
+				if (machineId < 0 || machineId >= pool.size()) {
+					throw new IllegalStateException("Record " + record + " is for machine " + machineId + " but the pool only has " + pool.size());
+				}
+				if (state < 0 || state >= states.length) {
+					throw new IllegalStateException("Record " + record + " moves machine " + machineId + " to state " + state + " but there are only " + states.length);
+				}
+				if (event != EventJournal.FORCED && (event < 0 || event >= events.length)) {
+					throw new IllegalStateException("Record " + record + " is caused by event " + event + " but there are only " + events.length);
+				}
+				S to = states[state];
+				if (verify && event != EventJournal.FORCED) {
+					S from = pool.getCurrentState(machineId);
+					if (!contains(targets[from.ordinal() * events.length + event], state)) {
+						throw new IllegalStateException("Record " + record + " moves machine " + machineId + " from " + from + " to " + to +
+								  " on " + events[event] + ", but there is no such transition");
+					}
+				}
+				pool.rawSetState(machineId, to);
+				record++;
+			}
+		});
+	}
+
+	private static boolean contains(int[] slot, int state) {
+		if (slot == null) {
+			return false;
+		}
+		for (int target : slot) {
+			if (target == state) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
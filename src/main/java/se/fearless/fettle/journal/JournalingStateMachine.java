@@ -0,0 +1,88 @@
+package se.fearless.fettle.journal;
+
+import se.fearless.fettle.StateMachine;
+import se.fearless.fettle.Transition;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A view of a machine journaled by a {@link JournalingTransitionListener}. Transitions are journaled by the listener,
+ * this view journals the states set with {@link #rawSetState(Enum)} or {@link #forceSetState(Enum)} as
+ * {@link EventJournal#FORCED}, after the state has been set. Forcing the state while other threads fire events at
+ * the machine may therefore journal the forced record after a record of a later transition.
+ *
+ * @param <S> the type of the states
+ * @param <E> the type of the events
+ * @param <C> the type of the context
+ */
+public class JournalingStateMachine<S extends Enum<S>, E extends Enum<E>, C> implements StateMachine<S, E, C> {
+	private final StateMachine<S, E, C> stateMachine;
+	private final JournalingTransitionListener<S, E, C> listener;
+	private final int id;
+
+	JournalingStateMachine(StateMachine<S, E, C> stateMachine, JournalingTransitionListener<S, E, C> listener, int id) {
+		this.stateMachine = stateMachine;
+		this.listener = listener;
+		this.id = id;
+	}
+
+	@Override
+	public S getCurrentState() {
+		return stateMachine.getCurrentState();
+	}
+
+	@Override
+	public boolean fireEvent(E event) {
+		return stateMachine.fireEvent(event);
+	}
+
+	@Override
+	public boolean fireEvent(E event, C context) {
+		return stateMachine.fireEvent(event, context);
+	}
+
+	@Override
+	public int fireEvents(Iterable<? extends E> events, C context) {
+		return stateMachine.fireEvents(events, context);
+	}
+
+	@Override
+	public int fireEvents(E[] events, int offset, int length, C context) {
+		return stateMachine.fireEvents(events, offset, length, context);
+	}
+
+	@Override
+	public void rawSetState(S rawState) {
+		stateMachine.rawSetState(rawState);
+		listener.append(id, EventJournal.FORCED, rawState, 0);
+	}
+
+	@Override
+	public boolean forceSetState(S forcedState) {
+		if (!stateMachine.forceSetState(forcedState)) {
+			return false;
+		}
+		listener.append(id, EventJournal.FORCED, forcedState, 0);
+		return true;
+	}
+
+	/**
+	 * @return the id of the machine in the journal
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @return the journaled machine
+	 */
+	public StateMachine<S, E, C> getStateMachine() {
+		return stateMachine;
+	}
+
+	@Override
+	public Map<E, Collection<? extends Transition<S, E, C>>> getPossibleTransitions(S fromState) {
+		return stateMachine.getPossibleTransitions(fromState);
+	}
+}
@@ -0,0 +1,80 @@
+package se.fearless.fettle.journal;
+
+import se.fearless.fettle.StateMachine;
+import se.fearless.fettle.TransitionListener;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Appends a record to an {@link EventJournal} for every transition taken by the machines registered with
+ * {@link #journal(StateMachine, int)}, so their states can be rebuilt with a {@link JournalReplayer} after a crash.
+ * Add the listener to the template the machines are created from.
+ * <p>
+ * Records are appended by the transition itself, on the thread and under the lock of the machine, so every state
+ * change gets a record with the event that caused it and the records of one machine are in the order its state
+ * changed. This includes events fired by actions, timeouts and anything else that fires at the machine directly.
+ * Rejected events are not journaled. Failing to append is reported as an {@link IllegalStateException} after the
+ * state has changed.
+ *
+ * @param <S> the type of the states
+ * @param <E> the type of the events
+ * @param <C> the type of the context
+ */
+public class JournalingTransitionListener<S extends Enum<S>, E extends Enum<E>, C> implements TransitionListener<S, E, C> {
+	private final EventJournal journal;
+	private final ContextSummarizer<? super C> summarizer;
+	private final ConcurrentMap<StateMachine<S, E, C>, Integer> ids = new ConcurrentHashMap<StateMachine<S, E, C>, Integer>();
+
+	public JournalingTransitionListener(EventJournal journal) {
+		this(journal, null);
+	}
+
+	public JournalingTransitionListener(EventJournal journal, ContextSummarizer<? super C> summarizer) {
+		this.journal = journal;
+		this.summarizer = summarizer;
+	}
+
+	/**
+	 * Starts journaling the transitions of a machine
+	 * @param stateMachine a machine created from the template the listener is added to
+	 * @param id the id of the machine in the journal
+	 * @return a view of the machine that also journals the states set with
+	 * {@link StateMachine#rawSetState(Object)} and {@link StateMachine#forceSetState(Object)}
+	 */
+	public StateMachine<S, E, C> journal(StateMachine<S, E, C> stateMachine, int id) {
+		if (ids.putIfAbsent(stateMachine, id) != null) {
+			throw new IllegalArgumentException("The machine is already journaled as " + ids.get(stateMachine));
+		}
+		return new JournalingStateMachine<S, E, C>(stateMachine, this, id);
+	}
+
+	/**
+	 * Stops journaling the transitions of a machine
+	 * @param stateMachine a machine registered with {@link #journal(StateMachine, int)}
+	 */
+	public void forget(StateMachine<S, E, C> stateMachine) {
+		ids.remove(stateMachine);
+	}
+
+	@Override
+	public void onTransition(S from, S to, E causedBy, C context, StateMachine<S, E, C> stateMachine) {
+		Integer id = ids.get(stateMachine);
+		if (id != null) {
+			append(id, causedBy.ordinal(), to, summarizer == null ? 0 : summarizer.summarize(context));
+		}
+	}
+
+	@Override
+	public void onRejected(S state, E event, C context, StateMachine<S, E, C> stateMachine) {
+	}
+
+	void append(int id, int event, S state, long summary) {
+		try {
+			journal.append(id, event, state.ordinal(), summary);
+		} catch (IOException e) {
+			throw new IllegalStateException("Could not journal the state change of machine " + id, e);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package se.fearless.fettle.metrics;
+
+/**
+ * The durations recorded by a {@link LatencyHistogram} at one point in time. Values are in nanoseconds and are
+ * reported as the lowest value of the bucket they were counted in.
+ */
+public class HistogramSnapshot {
+	private final long[] counts;
+	private final long count;
+	private final long total;
+
+	HistogramSnapshot(long[] counts, long count, long total) {
+		this.counts = counts;
+		this.count = count;
+		this.total = total;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMean() {
+		return count == 0 ? 0 : (double) total / count;
+	}
+
+	public long getMax() {
+		for (int i = counts.length - 1; i >= 0; i--) {
+			if (counts[i] > 0) {
+				return LatencyHistogram.lowestValue(i);
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * @param percentile a percentile between 0 and 100
+	 * @return the smallest recorded value that the given percentile of the recorded values are less than or equal to
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Percentile must be between 0 and 100, got " + percentile);
+		}
+		long recorded = 0;
+		for (long bucketCount : counts) {
+			recorded += bucketCount;
+		}
+		long wanted = Math.max(1, (long) Math.ceil(recorded * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= wanted) {
+				return LatencyHistogram.lowestValue(i);
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + count + ", mean=" + getMean() + ", p50=" + getValueAtPercentile(50) + ", p99=" + getValueAtPercentile(99) + ", max=" + getMax();
+	}
+}
@@ -0,0 +1,66 @@
+package se.fearless.fettle.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in buckets whose width grows with the magnitude of the value, like HdrHistogram. Values below
+ * {@value #LINEAR_LIMIT} nanoseconds get a bucket each and every power of two above that is split into
+ * {@value #SUB_BUCKETS} buckets, so a recorded value is off by at most about three percent. Values above roughly
+ * 68 seconds are counted in the last bucket.
+ * <p>
+ * Threads recording at the same time tend to record similar durations, so the buckets are striped like a
+ * {@link StripedCounter}. Each stripe has its own copy of the buckets, padded off from the next one, and a snapshot
+ * sums the stripes. The number of stripes is capped lower than for a counter since every stripe holds all buckets.
+ */
+public class LatencyHistogram {
+	static final int SUB_BUCKET_BITS = 5;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+	private static final int MAX_MAGNITUDE = 36;
+	static final int BUCKETS = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+	private static final int PADDING = 8;
+	private static final int STRIPE_SIZE = BUCKETS + PADDING;
+	private static final int STRIPES = StripedCounter.stripes(16);
+
+	private final AtomicLongArray counts = new AtomicLongArray(STRIPES * STRIPE_SIZE);
+	private final StripedCounter count = new StripedCounter();
+	private final StripedCounter total = new StripedCounter();
+
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(StripedCounter.stripe(STRIPES) * STRIPE_SIZE + bucket(value));
+		count.increment();
+		total.add(value);
+	}
+
+	public HistogramSnapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		for (int stripe = 0; stripe < STRIPES; stripe++) {
+			int offset = stripe * STRIPE_SIZE;
+			for (int i = 0; i < BUCKETS; i++) {
+				copy[i] += counts.get(offset + i);
+			}
+		}
+		return new HistogramSnapshot(copy, count.sum(), total.sum());
+	}
+
+	static int bucket(long value) {
+		if (value < LINEAR_LIMIT) {
+			return (int) value;
+		}
+		int magnitude = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_MAGNITUDE);
+		int shift = magnitude - SUB_BUCKET_BITS;
+		if (magnitude == MAX_MAGNITUDE && value >>> magnitude > 1) {
+			return BUCKETS - 1;
+		}
+		return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+	}
+
+	static long lowestValue(int bucket) {
+		if (bucket < LINEAR_LIMIT) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKETS - 1;
+		return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+	}
+}
@@ -0,0 +1,77 @@
+package se.fearless.fettle.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The counts and latencies recorded by {@link TransitionMetrics} at one point in time
+ */
+public class MetricsSnapshot<S, E> {
+	private final Map<TransitionKey<S, E>, Long> transitions;
+	private final Map<S, Long> rejections;
+	private final HistogramSnapshot conditions;
+	private final HistogramSnapshot exitActions;
+	private final HistogramSnapshot transitionActions;
+	private final HistogramSnapshot entryActions;
+	private final HistogramSnapshot lockWait;
+
+	MetricsSnapshot(Map<TransitionKey<S, E>, Long> transitions, Map<S, Long> rejections, HistogramSnapshot[] latencies) {
+		this.transitions = Collections.unmodifiableMap(transitions);
+		this.rejections = Collections.unmodifiableMap(rejections);
+		this.conditions = latencies[0];
+		this.exitActions = latencies[1];
+		this.transitionActions = latencies[2];
+		this.entryActions = latencies[3];
+		this.lockWait = latencies[4];
+	}
+
+	/**
+	 * @return how many times each transition has been taken
+	 */
+	public Map<TransitionKey<S, E>, Long> getTransitionCounts() {
+		return transitions;
+	}
+
+	public long getTransitionCount(S from, E event, S to) {
+		Long count = transitions.get(new TransitionKey<S, E>(from, event, to));
+		return count == null ? 0 : count;
+	}
+
+	/**
+	 * @return how many events fired at machines in each state did not match any transition
+	 */
+	public Map<S, Long> getRejections() {
+		return rejections;
+	}
+
+	public long getRejections(S state) {
+		Long count = rejections.get(state);
+		return count == null ? 0 : count;
+	}
+
+	/**
+	 * @return the time spent looking up the transition for an event, which is dominated by evaluating conditions
+	 */
+	public HistogramSnapshot getConditionLatency() {
+		return conditions;
+	}
+
+	public HistogramSnapshot getExitActionLatency() {
+		return exitActions;
+	}
+
+	public HistogramSnapshot getTransitionActionLatency() {
+		return transitionActions;
+	}
+
+	public HistogramSnapshot getEntryActionLatency() {
+		return entryActions;
+	}
+
+	/**
+	 * @return the time spent waiting for the lock of a machine before firing events at it
+	 */
+	public HistogramSnapshot getLockWaitLatency() {
+		return lockWait;
+	}
+}
@@ -0,0 +1,84 @@
+package se.fearless.fettle.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A counter that spreads increments over several cells, each on its own cache line, so threads incrementing it
+ * at the same time rarely contend. Reading the counter sums the cells.
+ * <p>
+ * The cells are only allocated once two threads have raced to update the counter. Until then it is a single
+ * {@link AtomicLong}, so counters that are only ever updated from one thread at a time cost a few dozen bytes
+ * rather than the {@value #STRIPE_LIMIT} padded cells, 64 bytes each, the counter spreads over at most.
+ */
+public class StripedCounter {
+	private static final int PADDING = 8;
+	private static final int STRIPE_LIMIT = 16;
+	private static final int STRIPES = stripes(STRIPE_LIMIT);
+
+	private final AtomicLong base = new AtomicLong();
+	private final AtomicReference<AtomicLongArray> cells = new AtomicReference<AtomicLongArray>();
+
+	/**
+	 * @param limit the largest number of stripes to use, a power of two
+	 * @return the number of stripes to spread updates from different threads over, a power of two
+	 */
+	static int stripes(int limit) {
+		int processors = Runtime.getRuntime().availableProcessors();
+		int stripes = 1;
+		while (stripes < processors * 2 && stripes < limit) {
+			stripes <<= 1;
+		}
+		return stripes;
+	}
+
+	public void increment() {
+		add(1);
+	}
+
+	public void add(long value) {
+		AtomicLongArray striped = cells.get();
+		if (striped == null) {
+			long current = base.get();
+			if (base.compareAndSet(current, current + value)) {
+				return;
+			}
+			striped = spread();
+		}
+		striped.getAndAdd(stripe(STRIPES) * PADDING, value);
+	}
+
+	public long sum() {
+		long sum = base.get();
+		AtomicLongArray striped = cells.get();
+		if (striped != null) {
+			for (int i = 0; i < STRIPES; i++) {
+				sum += striped.get(i * PADDING);
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Allocates the cells, once the base has been contended. The count so far stays in the base.
+	 * @return the cells to update from now on
+	 */
+	AtomicLongArray spread() {
+		AtomicLongArray striped = cells.get();
+		if (striped == null) {
+			cells.compareAndSet(null, new AtomicLongArray(STRIPES * PADDING));
+			striped = cells.get();
+		}
+		return striped;
+	}
+
+	/**
+	 * @param stripes the number of stripes, a power of two
+	 * @return the stripe the calling thread updates
+	 */
+	static int stripe(int stripes) {
+		int hash = (int) Thread.currentThread().getId() * 0x9E3779B9;
+		return (hash ^ (hash >>> 16)) & (stripes - 1);
+	}
+}
@@ -0,0 +1,50 @@
+package se.fearless.fettle.metrics;
+
+/**
+ * Identifies a transition taken by the state it left, the event that caused it and the state it entered
+ */
+public final class TransitionKey<S, E> {
+	private final S from;
+	private final E event;
+	private final S to;
+
+	public TransitionKey(S from, E event, S to) {
+		this.from = from;
+		this.event = event;
+		this.to = to;
+	}
+
+	public S getFrom() {
+		return from;
+	}
+
+	public E getEvent() {
+		return event;
+	}
+
+	public S getTo() {
+		return to;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof TransitionKey)) {
+			return false;
+		}
+		TransitionKey<?, ?> other = (TransitionKey<?, ?>) o;
+		return from.equals(other.from) && event.equals(other.event) && to.equals(other.to);
+	}
+
+	@Override
+	public int hashCode() {
+		return (from.hashCode() * 31 + event.hashCode()) * 31 + to.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return from + " -" + event + "-> " + to;
+	}
+}
@@ -0,0 +1,335 @@
+package se.fearless.fettle.processor;
+
+import se.fearless.fettle.util.GuavaReplacement;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the source of a generated transition model. Every condition and action class gets one instance held in a
+ * field, findTransition switches on the state and then on the event and tries the candidate transitions in the
+ * order they were declared, transitions from all states after the ones declared on the state.
+ */
+class ModelSourceWriter {
+	private static final String ACTION = "se.fearless.fettle.Action";
+	private static final String CONDITION = "se.fearless.fettle.Condition";
+	private static final String TRANSITION = "se.fearless.fettle.impl.BasicTransition";
+
+	private final String packageName;
+	private final String className;
+	private final String definedBy;
+	private final String states;
+	private final String events;
+	private final String context;
+	private final String types;
+	private final List<TransitionSpec> transitions;
+	private final List<StateActionSpec> entryActions;
+	private final List<StateActionSpec> exitActions;
+
+	private final Map<String, String> conditionFields = new LinkedHashMap<String, String>();
+	private final Map<String, String> actionFields = new LinkedHashMap<String, String>();
+	private final List<String> transitionFields = GuavaReplacement.newArrayList();
+	private final StringBuilder out = new StringBuilder();
+	private int indent;
+
+	ModelSourceWriter(String packageName, String className, String definedBy, String states, String events, String context,
+							List<TransitionSpec> transitions, List<StateActionSpec> entryActions, List<StateActionSpec> exitActions) {
+		this.packageName = packageName;
+		this.className = className;
+		this.definedBy = definedBy;
+		this.states = states;
+		this.events = events;
+		this.context = context;
+		this.types = "<" + states + ", " + events + ", " + context + ">";
+		this.transitions = transitions;
+		this.entryActions = entryActions;
+		this.exitActions = exitActions;
+	}
+
+	String write() {
+		collectFields();
+		if (packageName.length() > 0) {
+			line("package " + packageName + ";");
+			line("");
+		}
+		line("/**");
+		line(" * Generated from {@link " + definedBy + "} by " + StateMachineProcessor.class.getName() + ", do not edit.");
+		line(" */");
+		line("@SuppressWarnings(\"unchecked\")");
+		open("public final class " + className + " extends se.fearless.fettle.impl.AbstractTransitionModel" + types + " {");
+		for (Map.Entry<String, String> condition : conditionFields.entrySet()) {
+			line("private final " + CONDITION + "<" + context + "> " + condition.getValue() + " = new " + condition.getKey() + "();");
+		}
+		for (Map.Entry<String, String> action : actionFields.entrySet()) {
+			line("private final " + ACTION + types + " " + action.getValue() + " = new " + action.getKey() + "();");
+		}
+		for (String transition : transitionFields) {
+			line("private final " + TRANSITION + types + " " + transition + ";");
+		}
+		line("");
+		writeConstructors();
+		writeFindTransition();
+		writeActions("onExit", "from", exitActions);
+		writeActions("onEntry", "to", entryActions);
+		out.setLength(out.length() - 1);
+		close("}");
+		return out.toString();
+	}
+
+	private void collectFields() {
+		for (TransitionSpec transition : transitions) {
+			if (transition.condition != null) {
+				field(conditionFields, transition.condition, "condition");
+			}
+			for (String action : transition.actions) {
+				field(actionFields, action, "action");
+			}
+			int count = transition.from.isEmpty() ? 1 : transition.from.size();
+			for (int i = 0; i < count; i++) {
+				transitionFields.add("transition" + transitionFields.size());
+			}
+		}
+		for (StateActionSpec stateActions : entryActions) {
+			for (String action : stateActions.actions) {
+				field(actionFields, action, "action");
+			}
+		}
+		for (StateActionSpec stateActions : exitActions) {
+			for (String action : stateActions.actions) {
+				field(actionFields, action, "action");
+			}
+		}
+	}
+
+	private void field(Map<String, String> fields, String type, String prefix) {
+		if (!fields.containsKey(type)) {
+			fields.put(type, prefix + fields.size());
+		}
+	}
+
+	private void writeConstructors() {
+		open("public " + className + "() {");
+		line("this(null);");
+		close("}");
+		line("");
+		open("public " + className + "(" + context + " defaultContext) {");
+		line("super(" + states + ".class, " + events + ".class, defaultContext);");
+		int index = 0;
+		for (TransitionSpec transition : transitions) {
+			String rest = events + "." + transition.event + ", " + condition(transition) + ", " + actionList(transition.actions) + ");";
+			if (transition.from.isEmpty()) {
+				line(transitionFields.get(index++) + " = putFromAllTransition(" + states + "." + transition.to + ", " + rest);
+			}
+			for (String from : transition.from) {
+				line(transitionFields.get(index++) + " = putTransition(" + states + "." + from + ", " + states + "." + transition.to + ", " + rest);
+			}
+		}
+		for (StateActionSpec stateActions : entryActions) {
+			for (String action : stateActions.actions) {
+				line("putEntryAction(" + states + "." + stateActions.state + ", " + actionFields.get(action) + ");");
+			}
+		}
+		for (StateActionSpec stateActions : exitActions) {
+			for (String action : stateActions.actions) {
+				line("putExitAction(" + states + "." + stateActions.state + ", " + actionFields.get(action) + ");");
+			}
+		}
+		close("}");
+		line("");
+	}
+
+	private String condition(TransitionSpec transition) {
+		if (transition.condition == null) {
+			return "se.fearless.fettle.BasicConditions.<" + context + ">always()";
+		}
+		return conditionFields.get(transition.condition);
+	}
+
+	private String actionList(List<String> actions) {
+		if (actions.isEmpty()) {
+			return "java.util.Collections.<" + ACTION + types + ">emptyList()";
+		}
+		StringBuilder list = new StringBuilder("java.util.Arrays.<" + ACTION + types + ">asList(");
+		for (int i = 0; i < actions.size(); i++) {
+			list.append(i == 0 ? "" : ", ").append(actionFields.get(actions.get(i)));
+		}
+		return list.append(")").toString();
+	}
+
+	private void writeFindTransition() {
+		Map<String, Map<String, List<Candidate>>> byState = new LinkedHashMap<String, Map<String, List<Candidate>>>();
+		Map<String, List<Candidate>> fromAll = new LinkedHashMap<String, List<Candidate>>();
+		int index = 0;
+		for (TransitionSpec transition : transitions) {
+			if (transition.from.isEmpty()) {
+				candidates(fromAll, transition.event).add(new Candidate(transitionFields.get(index++), transition.condition));
+			}
+			for (String from : transition.from) {
+				Map<String, List<Candidate>> byEvent = byState.get(from);
+				if (byEvent == null) {
+					byEvent = new LinkedHashMap<String, List<Candidate>>();
+					byState.put(from, byEvent);
+				}
+				candidates(byEvent, transition.event).add(new Candidate(transitionFields.get(index++), transition.condition));
+			}
+		}
+
+		line("@Override");
+		open("protected " + TRANSITION + types + " findTransition(" + states + " from, " + events + " event, " + context + " context) {");
+		open("if (from == null || event == null) {");
+		line("return null;");
+		close("}");
+		if (!byState.isEmpty()) {
+			open("switch (from) {");
+			for (Map.Entry<String, Map<String, List<Candidate>>> state : byState.entrySet()) {
+				open("case " + state.getKey() + ":");
+				writeEventSwitch(state.getValue());
+				line("break;");
+				close(null);
+			}
+			writeDefault();
+			close("}");
+		}
+		if (!fromAll.isEmpty()) {
+			writeEventSwitch(fromAll);
+		}
+		line("return null;");
+		close("}");
+		line("");
+	}
+
+	private List<Candidate> candidates(Map<String, List<Candidate>> byEvent, String event) {
+		List<Candidate> candidates = byEvent.get(event);
+		if (candidates == null) {
+			candidates = GuavaReplacement.newArrayList();
+			byEvent.put(event, candidates);
+		}
+		return candidates;
+	}
+
+	private void writeEventSwitch(Map<String, List<Candidate>> byEvent) {
+		open("switch (event) {");
+		for (Map.Entry<String, List<Candidate>> event : byEvent.entrySet()) {
+			open("case " + event.getKey() + ":");
+			boolean unconditional = false;
+			for (Candidate candidate : event.getValue()) {
+				if (candidate.condition == null) {
+					line("return " + candidate.field + ";");
+					unconditional = true;
+					break;
+				}
+				open("if (" + conditionFields.get(candidate.condition) + ".isSatisfied(context)) {");
+				line("return " + candidate.field + ";");
+				close("}");
+			}
+			if (!unconditional) {
+				line("break;");
+			}
+			close(null);
+		}
+		writeDefault();
+		close("}");
+	}
+
+	private void writeActions(String method, String stateParameter, List<StateActionSpec> stateActions) {
+		Map<String, List<String>> byState = new LinkedHashMap<String, List<String>>();
+		for (StateActionSpec spec : stateActions) {
+			List<String> actions = byState.get(spec.state);
+			if (actions == null) {
+				actions = GuavaReplacement.newArrayList();
+				byState.put(spec.state, actions);
+			}
+			actions.addAll(spec.actions);
+		}
+		if (byState.isEmpty()) {
+			return;
+		}
+		line("@Override");
+		open("protected void " + method + "(" + states + " from, " + states + " to, " + events + " event, " + context + " context, "
+				  + "se.fearless.fettle.StateMachine" + types + " stateMachine) {");
+		open("if (" + stateParameter + " == null) {");
+		line("return;");
+		close("}");
+		open("switch (" + stateParameter + ") {");
+		for (Map.Entry<String, List<String>> state : byState.entrySet()) {
+			open("case " + state.getKey() + ":");
+			for (String action : state.getValue()) {
+				line(actionFields.get(action) + ".onTransition(from, to, event, context, stateMachine);");
+			}
+			line("break;");
+			close(null);
+		}
+		writeDefault();
+		close("}");
+		close("}");
+		line("");
+	}
+
+	private void writeDefault() {
+		open("default:");
+		line("break;");
+		close(null);
+	}
+
+	private void open(String text) {
+		line(text);
+		indent++;
+	}
+
+	private void close(String text) {
+		indent--;
+		if (text != null) {
+			line(text);
+		}
+	}
+
+	private void line(String text) {
+		if (text.length() > 0) {
+			for (int i = 0; i < indent; i++) {
+				out.append('\t');
+			}
+			out.append(text);
+		}
+		out.append('\n');
+	}
+
+	private static class Candidate {
+		private final String field;
+		private final String condition;
+
+		Candidate(String field, String condition) {
+			this.field = field;
+			this.condition = condition;
+		}
+	}
+
+	/**
+	 * A transition as declared, an empty from list means from all states and a null condition means always
+	 */
+	static class TransitionSpec {
+		final List<String> from;
+		final String to;
+		final String event;
+		final String condition;
+		final List<String> actions;
+
+		TransitionSpec(List<String> from, String to, String event, String condition, List<String> actions) {
+			this.from = from;
+			this.to = to;
+			this.event = event;
+			this.condition = condition;
+			this.actions = actions;
+		}
+	}
+
+	static class StateActionSpec {
+		final String state;
+		final List<String> actions;
+
+		StateActionSpec(String state, List<String> actions) {
+			this.state = state;
+			this.actions = actions;
+		}
+	}
+}
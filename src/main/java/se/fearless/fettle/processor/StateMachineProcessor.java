@@ -0,0 +1,248 @@
+package se.fearless.fettle.processor;
+
+import se.fearless.fettle.Condition;
+import se.fearless.fettle.annotation.StateMachineDefinition;
+import se.fearless.fettle.processor.ModelSourceWriter.StateActionSpec;
+import se.fearless.fettle.processor.ModelSourceWriter.TransitionSpec;
+import se.fearless.fettle.util.GuavaReplacement;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Generates a transition model for every type annotated with {@link StateMachineDefinition}. Mistakes in the
+ * definition, such as unknown state or event names, are reported as compile errors on the annotated type.
+ */
+@SupportedAnnotationTypes("se.fearless.fettle.annotation.StateMachineDefinition")
+public class StateMachineProcessor extends AbstractProcessor {
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		for (Element element : roundEnv.getElementsAnnotatedWith(StateMachineDefinition.class)) {
+			AnnotationMirror definition = findDefinition(element);
+			if (definition != null) {
+				new Definition((TypeElement) element, definition).generate();
+			}
+		}
+		return true;
+	}
+
+	private AnnotationMirror findDefinition(Element element) {
+		for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+			if (typeName(mirror.getAnnotationType()).equals(StateMachineDefinition.class.getName())) {
+				return mirror;
+			}
+		}
+		return null;
+	}
+
+	private Object value(AnnotationMirror mirror, String name) {
+		Map<? extends ExecutableElement, ? extends AnnotationValue> values = processingEnv.getElementUtils().getElementValuesWithDefaults(mirror);
+		for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : values.entrySet()) {
+			if (entry.getKey().getSimpleName().contentEquals(name)) {
+				return entry.getValue().getValue();
+			}
+		}
+		throw new IllegalArgumentException("No value named " + name + " in " + mirror);
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<? extends AnnotationValue> values(AnnotationMirror mirror, String name) {
+		return (List<? extends AnnotationValue>) value(mirror, name);
+	}
+
+	/**
+	 * @return the qualified name of a class or interface, or how the type is written for primitives and arrays
+	 */
+	private static String typeName(TypeMirror type) {
+		if (type.getKind() != TypeKind.DECLARED) {
+			return type.toString();
+		}
+		return ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString();
+	}
+
+	private class Definition {
+		private final TypeElement element;
+		private final AnnotationMirror mirror;
+		private boolean valid = true;
+
+		Definition(TypeElement element, AnnotationMirror mirror) {
+			this.element = element;
+			this.mirror = mirror;
+		}
+
+		void generate() {
+			TypeElement states = enumType(value(mirror, "states"), "states");
+			TypeElement events = enumType(value(mirror, "events"), "events");
+			TypeMirror contextType = (TypeMirror) value(mirror, "context");
+			String context = typeName(contextType);
+			if (contextType.getKind() != TypeKind.DECLARED) {
+				error("The context of a state machine definition must be a class or interface, got " + context);
+			}
+			if (states == null || events == null) {
+				return;
+			}
+			List<String> stateNames = constants(states);
+			List<String> eventNames = constants(events);
+			List<TransitionSpec> transitions = GuavaReplacement.newArrayList();
+			for (AnnotationValue value : values(mirror, "transitions")) {
+				transitions.add(transition((AnnotationMirror) value.getValue(), stateNames, eventNames));
+			}
+			List<StateActionSpec> entryActions = stateActions("onEntry", stateNames);
+			List<StateActionSpec> exitActions = stateActions("onExit", stateNames);
+			if (!valid) {
+				return;
+			}
+
+			String packageName = packageOf(element).getQualifiedName().toString();
+			String className = (String) value(mirror, "name");
+			if (className.length() == 0) {
+				className = element.getSimpleName() + "Model";
+			}
+			String source = new ModelSourceWriter(packageName, className, element.getQualifiedName().toString(),
+					  states.getQualifiedName().toString(), events.getQualifiedName().toString(), context,
+					  transitions, entryActions, exitActions).write();
+			String qualifiedName = packageName.length() == 0 ? className : packageName + "." + className;
+			try {
+				Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, element).openWriter();
+				try {
+					writer.write(source);
+				} finally {
+					writer.close();
+				}
+			} catch (IOException e) {
+				error("Could not write " + qualifiedName + ": " + e.getMessage());
+			}
+		}
+
+		private TypeElement enumType(Object value, String name) {
+			TypeMirror type = (TypeMirror) value;
+			if (name.equals("states") && typeName(type).equals(Void.class.getName())) {
+				type = element.asType();
+			}
+			if (type.getKind() != TypeKind.DECLARED) {
+				error("The " + name + " of a state machine definition must be an enum, got " + typeName(type));
+				return null;
+			}
+			TypeElement typeElement = (TypeElement) ((DeclaredType) type).asElement();
+			if (typeElement.getKind() != ElementKind.ENUM) {
+				error("The " + name + " of a state machine definition must be an enum, got " + typeElement.getQualifiedName());
+				return null;
+			}
+			return typeElement;
+		}
+
+		private List<String> constants(TypeElement enumType) {
+			List<String> names = GuavaReplacement.newArrayList();
+			for (Element enclosed : enumType.getEnclosedElements()) {
+				if (enclosed.getKind() == ElementKind.ENUM_CONSTANT) {
+					names.add(enclosed.getSimpleName().toString());
+				}
+			}
+			return names;
+		}
+
+		private TransitionSpec transition(AnnotationMirror transition, List<String> stateNames, List<String> eventNames) {
+			List<String> from = GuavaReplacement.newArrayList();
+			for (AnnotationValue value : values(transition, "from")) {
+				from.add(constant((String) value.getValue(), stateNames, "state"));
+			}
+			boolean fromAll = (Boolean) value(transition, "fromAll");
+			if (fromAll == !from.isEmpty()) {
+				error("A transition must either have from states or be fromAll, got from " + from + " and fromAll " + fromAll);
+			}
+			String to = constant((String) value(transition, "to"), stateNames, "state");
+			String event = constant((String) value(transition, "on"), eventNames, "event");
+			String condition = typeName((TypeMirror) value(transition, "when"));
+			if (condition.equals(Condition.class.getName())) {
+				condition = null;
+			} else {
+				instantiable((TypeMirror) value(transition, "when"));
+			}
+			return new TransitionSpec(from, to, event, condition, classes(values(transition, "perform")));
+		}
+
+		private List<StateActionSpec> stateActions(String name, List<String> stateNames) {
+			List<StateActionSpec> result = GuavaReplacement.newArrayList();
+			for (AnnotationValue value : values(mirror, name)) {
+				AnnotationMirror stateActions = (AnnotationMirror) value.getValue();
+				String state = constant((String) value(stateActions, "state"), stateNames, "state");
+				result.add(new StateActionSpec(state, classes(values(stateActions, "perform"))));
+			}
+			return result;
+		}
+
+		private List<String> classes(List<? extends AnnotationValue> values) {
+			List<String> result = GuavaReplacement.newArrayList();
+			for (AnnotationValue value : values) {
+				TypeMirror type = (TypeMirror) value.getValue();
+				instantiable(type);
+				result.add(typeName(type));
+			}
+			return result;
+		}
+
+		private void instantiable(TypeMirror type) {
+			TypeElement typeElement = (TypeElement) ((DeclaredType) type).asElement();
+			Set<Modifier> modifiers = typeElement.getModifiers();
+			boolean innerClass = typeElement.getNestingKind() == NestingKind.MEMBER && !modifiers.contains(Modifier.STATIC);
+			if (typeElement.getKind() != ElementKind.CLASS || modifiers.contains(Modifier.ABSTRACT) || innerClass || !hasNoArgConstructor(typeElement)) {
+				error(typeElement.getQualifiedName() + " must be a concrete top level or static class with a no argument constructor");
+			}
+		}
+
+		private boolean hasNoArgConstructor(TypeElement typeElement) {
+			for (Element enclosed : typeElement.getEnclosedElements()) {
+				if (enclosed.getKind() == ElementKind.CONSTRUCTOR && ((ExecutableElement) enclosed).getParameters().isEmpty()) {
+					return !enclosed.getModifiers().contains(Modifier.PRIVATE);
+				}
+			}
+			return false;
+		}
+
+		private String constant(String name, List<String> names, String kind) {
+			if (!names.contains(name)) {
+				error("Unknown " + kind + " " + name + ", expected one of " + names);
+			}
+			return name;
+		}
+
+		private PackageElement packageOf(Element element) {
+			Element current = element;
+			while (!(current instanceof PackageElement)) {
+				current = current.getEnclosingElement();
+			}
+			return (PackageElement) current;
+		}
+
+		private void error(String message) {
+			valid = false;
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element, mirror);
+		}
+	}
+}
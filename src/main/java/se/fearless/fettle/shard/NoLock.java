@@ -0,0 +1,43 @@
+package se.fearless.fettle.shard;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A lock that does nothing, for state machines that are only ever touched by one thread. This is what the GWT
+ * build substitutes for {@link java.util.concurrent.locks.ReentrantLock}, available on the JVM.
+ */
+public final class NoLock implements Lock {
+	public static final Lock INSTANCE = new NoLock();
+
+	private NoLock() {
+	}
+
+	@Override
+	public void lock() {
+	}
+
+	@Override
+	public void lockInterruptibly() {
+	}
+
+	@Override
+	public boolean tryLock() {
+		return true;
+	}
+
+	@Override
+	public boolean tryLock(long time, TimeUnit unit) {
+		return true;
+	}
+
+	@Override
+	public void unlock() {
+	}
+
+	@Override
+	public Condition newCondition() {
+		throw new UnsupportedOperationException("A lock that is never held has no conditions");
+	}
+}
@@ -0,0 +1,326 @@
+package se.fearless.fettle.shard;
+
+import se.fearless.fettle.StateMachine;
+import se.fearless.fettle.StateMachineTemplate;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Owns a fixed number of state machines addressed by int ids and applies events to them on a fixed number of worker
+ * threads, typically one per core. Machine ids are partitioned across the shards, each shard has a worker thread and
+ * a ring buffer of preallocated slots that producers claim with a compare and set. Since a machine is only ever
+ * touched by the worker of its shard, machines are created with a {@link NoLock} and shards never contend with each
+ * other, so throughput grows with the number of shards as long as events are spread evenly over the ids.
+ * <p>
+ * {@link #submit(int, Object, Object)} applies backpressure, a producer waits while the ring of the shard is full.
+ * {@link #trySubmit(int, Object, Object)} returns false instead. Events for one machine are applied in the order they
+ * were submitted from one thread. Actions run on the worker and may fire events at their own machine, which are
+ * handled after the current transition, but must submit events for other machines through the engine.
+ * If an action throws, the exception goes to the uncaught exception handler of the worker and the shard continues
+ * with the next event on a new thread from the thread factory.
+ *
+ * @param <S> the type of the states
+ * @param <E> the type of the events
+ * @param <C> the type of the context
+ */
+public class ShardedEngine<S, E, C> {
+	private static final int SPINS_BEFORE_PARKING = 100;
+	private static final long PARK_NANOS = 100000;
+	private static final Object DEFAULT_CONTEXT = new Object();
+	private static final int PADDING = 8;
+	private static final int CLAIMED = PADDING;
+	private static final int PROCESSED = PADDING * 2;
+	private static final long CLOSED = Long.MIN_VALUE;
+
+	private final StateMachine<S, E, C>[] machines;
+	private final Shard[] shards;
+	private final ThreadFactory threadFactory;
+	private final AtomicLong rejected = new AtomicLong();
+	private volatile boolean running = true;
+
+	public ShardedEngine(StateMachineTemplate<S, E, C> template, int machineCount, S initial, int shardCount, int ringCapacity) {
+		this(template, machineCount, initial, shardCount, ringCapacity, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "fettle-shard");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @param template the template the machines are created from
+	 * @param machineCount the number of machines, valid ids are 0 to machineCount - 1
+	 * @param initial the state all machines start in
+	 * @param shardCount the number of worker threads
+	 * @param ringCapacity the number of events each shard can hold, rounded up to a power of two
+	 * @param threadFactory creates the worker threads
+	 */
+	@SuppressWarnings("unchecked")
+	public ShardedEngine(StateMachineTemplate<S, E, C> template, int machineCount, S initial, int shardCount, int ringCapacity, ThreadFactory threadFactory) {
+		if (machineCount < 0) {
+			throw new IllegalArgumentException("Machine count can not be negative, got " + machineCount);
+		}
+		if (shardCount < 1) {
+			throw new IllegalArgumentException("There must be at least one shard, got " + shardCount);
+		}
+		if (ringCapacity < 1) {
+			throw new IllegalArgumentException("Ring capacity must be at least one, got " + ringCapacity);
+		}
+		this.threadFactory = threadFactory;
+		machines = new StateMachine[machineCount];
+		for (int i = 0; i < machineCount; i++) {
+			machines[i] = template.newStateMachine(initial, NoLock.INSTANCE);
+		}
+		int size = Integer.highestOneBit(ringCapacity);
+		if (size < ringCapacity) {
+			size <<= 1;
+		}
+		shards = new ShardedEngine.Shard[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new Shard(size);
+		}
+		for (Shard shard : shards) {
+			shard.start();
+		}
+	}
+
+	/**
+	 * Submits an event for a machine using the default context, waiting while the ring of its shard is full
+	 * @param id the id of the machine
+	 * @param event the event to fire
+	 * @throws IllegalStateException if the engine is closed
+	 */
+	public void submit(int id, E event) {
+		shardOf(id).publish(id, event, DEFAULT_CONTEXT, true);
+	}
+
+	/**
+	 * Submits an event for a machine, waiting while the ring of its shard is full
+	 * @param id the id of the machine
+	 * @param event the event to fire
+	 * @param context the context to be sent to any actions and conditions
+	 * @throws IllegalStateException if the engine is closed
+	 */
+	public void submit(int id, E event, C context) {
+		shardOf(id).publish(id, event, context, true);
+	}
+
+	/**
+	 * Submits an event for a machine unless the ring of its shard is full
+	 * @param id the id of the machine
+	 * @param event the event to fire
+	 * @param context the context to be sent to any actions and conditions
+	 * @return true if the event was accepted, false if it was rejected, see {@link #getRejected()}
+	 * @throws IllegalStateException if the engine is closed
+	 */
+	public boolean trySubmit(int id, E event, C context) {
+		return shardOf(id).publish(id, event, context, false);
+	}
+
+	/**
+	 * Gets the state of a machine as last seen by the calling thread, which may lag behind the worker of its shard.
+	 * Call {@link #flush()} first to see the effect of the events submitted so far.
+	 * @param id the id of the machine
+	 * @return the state the machine is in
+	 */
+	public S getCurrentState(int id) {
+		return machines[id].getCurrentState();
+	}
+
+	/**
+	 * Waits until all events accepted before the call have been applied
+	 */
+	public void flush() {
+		for (Shard shard : shards) {
+			shard.await(shard.claimed() & ~CLOSED);
+		}
+	}
+
+	/**
+	 * Stops accepting events. Events already accepted are still applied.
+	 */
+	public void close() {
+		running = false;
+		for (Shard shard : shards) {
+			LockSupport.unpark(shard.worker);
+		}
+	}
+
+	public int size() {
+		return machines.length;
+	}
+
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	/**
+	 * @param id the id of a machine
+	 * @return the index of the shard owning the machine
+	 */
+	public int getShard(int id) {
+		if (id < 0 || id >= machines.length) {
+			throw new IllegalArgumentException("No machine with id " + id + ", the engine has " + machines.length);
+		}
+		return id % shards.length;
+	}
+
+	/**
+	 * @return the number of events applied to the machines so far
+	 */
+	public long getProcessed() {
+		long processed = 0;
+		for (Shard shard : shards) {
+			processed += shard.processed();
+		}
+		return processed;
+	}
+
+	/**
+	 * @return the number of events {@link #trySubmit(int, Object, Object)} rejected because a ring was full
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	private Shard shardOf(int id) {
+		return shards[getShard(id)];
+	}
+
+	/**
+	 * @return the number of rounds idle to pass to the next call, saturating once the thread parks
+	 */
+	private static int backOff(int idle) {
+		if (idle < SPINS_BEFORE_PARKING) {
+			Thread.yield();
+			return idle + 1;
+		}
+		LockSupport.parkNanos(PARK_NANOS);
+		return idle;
+	}
+
+	private final class Shard {
+		private final int[] ids;
+		private final Object[] events;
+		private final Object[] contexts;
+		private final int mask;
+		private final AtomicLongArray published;
+		/**
+		 * The claimed and processed sequences, each on a cache line of its own since producers update the first and
+		 * the worker the second
+		 */
+		private final AtomicLongArray sequences = new AtomicLongArray(PADDING * 3);
+		private volatile Thread worker;
+
+		private Shard(int size) {
+			ids = new int[size];
+			events = new Object[size];
+			contexts = new Object[size];
+			mask = size - 1;
+			published = new AtomicLongArray(size);
+			for (int i = 0; i < size; i++) {
+				published.set(i, -1);
+			}
+		}
+
+		private boolean publish(int id, E event, Object context, boolean wait) {
+			long sequence;
+			int idle = 0;
+			while (true) {
+				sequence = claimed();
+				if (!running || sequence < 0) {
+					throw new IllegalStateException("The engine is closed");
+				}
+				if (sequence - processed() < ids.length) {
+					if (sequences.compareAndSet(CLAIMED, sequence, sequence + 1)) {
+						break;
+					}
+				} else if (wait) {
+					idle = backOff(idle);
+				} else {
+					rejected.incrementAndGet();
+					return false;
+				}
+			}
+			int index = (int) sequence & mask;
+			ids[index] = id;
+			events[index] = event;
+			contexts[index] = context;
+			published.lazySet(index, sequence);
+			return true;
+		}
+
+		private void await(long sequence) {
+			int idle = 0;
+			while (processed() < sequence) {
+				idle = backOff(idle);
+			}
+		}
+
+		private long claimed() {
+			return sequences.get(CLAIMED);
+		}
+
+		private long processed() {
+			return sequences.get(PROCESSED);
+		}
+
+		private void start() {
+			Thread thread = threadFactory.newThread(new Runnable() {
+				@Override
+				public void run() {
+					consume();
+				}
+			});
+			worker = thread;
+			thread.start();
+		}
+
+		private void consume() {
+			int idle = 0;
+			while (true) {
+				long sequence = processed();
+				int index = (int) sequence & mask;
+				if (published.get(index) != sequence) {
+					// Once caught up the worker closes the ring before exiting, so a producer racing with close
+					// either claims a slot before it and has its event applied or fails to claim one
+					if (!running && sequences.compareAndSet(CLAIMED, sequence, sequence | CLOSED)) {
+						return;
+					}
+					idle = backOff(idle);
+					continue;
+				}
+				idle = 0;
+				boolean completed = false;
+				try {
+					apply(index);
+					completed = true;
+				} finally {
+					sequences.lazySet(PROCESSED, sequence + 1);
+					if (!completed) {
+						start();
+					}
+				}
+			}
+		}
+
+		@SuppressWarnings("unchecked")
+		private void apply(int index) {
+			StateMachine<S, E, C> machine = machines[ids[index]];
+			E event = (E) events[index];
+			Object context = contexts[index];
+			events[index] = null;
+			contexts[index] = null;
+			if (context == DEFAULT_CONTEXT) {
+				machine.fireEvent(event);
+			} else {
+				machine.fireEvent(event, (C) context);
+			}
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package se.fearless.fettle.snapshot;
+
+import se.fearless.fettle.StateMachine;
+
+/**
+ * Receives the machines restored from a snapshot, see {@link Snapshots#restore(java.nio.channels.ReadableByteChannel, RestoredMachineHandler)}
+ *
+ * @param <S> the type of the states
+ * @param <E> the type of the events
+ * @param <C> the type of the context
+ */
+public interface RestoredMachineHandler<S, E, C> {
+	void onMachine(long index, StateMachine<S, E, C> machine);
+}
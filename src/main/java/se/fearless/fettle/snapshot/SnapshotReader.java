@@ -0,0 +1,90 @@
+package se.fearless.fettle.snapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.NoSuchElementException;
+
+/**
+ * Unpacks the states of a snapshot one block at a time, see {@link Snapshots}.
+ *
+ * @param <S> the type of the states
+ */
+public class SnapshotReader<S extends Enum<S>> {
+	private final ReadableByteChannel channel;
+	private final S[] states;
+	private final int bitsPerState;
+	private final int[] block = new int[Snapshots.BLOCK_MACHINES];
+	private final ByteBuffer buffer;
+	private int size;
+	private int next;
+	private boolean ended;
+
+	SnapshotReader(ReadableByteChannel channel, S[] states, int bitsPerState) {
+		this.channel = channel;
+		this.states = states;
+		this.bitsPerState = bitsPerState;
+		buffer = ByteBuffer.allocateDirect(SnapshotWriter.packedSize(Snapshots.BLOCK_MACHINES, bitsPerState));
+	}
+
+	/**
+	 * @return true if there are more states in the snapshot, reading the next block from the channel if needed
+	 * @throws IOException if the next block could not be read
+	 */
+	public boolean hasNext() throws IOException {
+		if (next < size) {
+			return true;
+		}
+		if (ended) {
+			return false;
+		}
+		readBlock();
+		return next < size;
+	}
+
+	/**
+	 * @return the state of the next machine in the snapshot
+	 * @throws IOException if the next block could not be read
+	 * @throws NoSuchElementException if all states have been read
+	 */
+	public S next() throws IOException {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return states[block[next++]];
+	}
+
+	private void readBlock() throws IOException {
+		buffer.clear().limit(Snapshots.BLOCK_HEADER_SIZE);
+		Snapshots.readFully(channel, buffer);
+		int machines = buffer.getInt(0);
+		if (machines < 0 || machines > block.length) {
+			throw new IOException("Corrupt snapshot, a block claims to hold " + machines + " machines");
+		}
+		next = 0;
+		size = machines;
+		if (machines == 0) {
+			ended = true;
+			return;
+		}
+		buffer.clear().limit(SnapshotWriter.packedSize(machines, bitsPerState));
+		Snapshots.readFully(channel, buffer);
+		buffer.flip();
+		long mask = (1L << bitsPerState) - 1;
+		long bits = 0;
+		int pending = 0;
+		for (int i = 0; i < machines; i++) {
+			while (pending < bitsPerState) {
+				bits |= (buffer.get() & 0xffL) << pending;
+				pending += Byte.SIZE;
+			}
+			int ordinal = (int) (bits & mask);
+			if (ordinal >= states.length) {
+				throw new IOException("Corrupt snapshot, state ordinal " + ordinal + " is out of range");
+			}
+			block[i] = ordinal;
+			bits >>>= bitsPerState;
+			pending -= bitsPerState;
+		}
+	}
+}
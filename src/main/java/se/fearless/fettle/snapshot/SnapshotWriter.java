@@ -0,0 +1,88 @@
+package se.fearless.fettle.snapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Packs states into the blocks of a snapshot, see {@link Snapshots}. A block is written to the channel as soon as it
+ * is full, {@link #finish()} writes the last block and the end of the snapshot.
+ *
+ * @param <S> the type of the states
+ */
+public class SnapshotWriter<S extends Enum<S>> {
+	private final WritableByteChannel channel;
+	private final int bitsPerState;
+	private final int[] block = new int[Snapshots.BLOCK_MACHINES];
+	private final ByteBuffer buffer;
+	private int buffered;
+	private long written;
+	private boolean finished;
+
+	SnapshotWriter(WritableByteChannel channel, int bitsPerState) {
+		this.channel = channel;
+		this.bitsPerState = bitsPerState;
+		buffer = ByteBuffer.allocateDirect(Snapshots.BLOCK_HEADER_SIZE + packedSize(Snapshots.BLOCK_MACHINES, bitsPerState));
+	}
+
+	static int packedSize(int machines, int bitsPerState) {
+		return (int) (((long) machines * bitsPerState + Byte.SIZE - 1) / Byte.SIZE);
+	}
+
+	/**
+	 * Adds the state of the next machine to the snapshot
+	 * @param state the state of the machine
+	 * @throws IOException if a full block could not be written
+	 */
+	public void write(S state) throws IOException {
+		if (finished) {
+			throw new IllegalStateException("The snapshot has been finished");
+		}
+		block[buffered++] = state.ordinal();
+		written++;
+		if (buffered == block.length) {
+			writeBlock();
+		}
+	}
+
+	/**
+	 * Writes the buffered states and marks the end of the snapshot. The channel is left open.
+	 * @throws IOException if the states could not be written
+	 */
+	public void finish() throws IOException {
+		if (finished) {
+			return;
+		}
+		if (buffered > 0) {
+			writeBlock();
+		}
+		writeBlock();
+		finished = true;
+	}
+
+	public long getWritten() {
+		return written;
+	}
+
+	private void writeBlock() throws IOException {
+		buffer.clear();
+		buffer.putInt(buffered);
+		long bits = 0;
+		int pending = 0;
+		for (int i = 0; i < buffered; i++) {
+			bits |= (long) block[i] << pending;
+			pending += bitsPerState;
+			while (pending >= Byte.SIZE) {
+				buffer.put((byte) bits);
+				bits >>>= Byte.SIZE;
+				pending -= Byte.SIZE;
+			}
+		}
+		if (pending > 0) {
+			buffer.put((byte) bits);
+		}
+		buffer.flip();
+		Snapshots.writeFully(channel, buffer);
+		buffered = 0;
+	}
+}
@@ -0,0 +1,230 @@
+package se.fearless.fettle.snapshot;
+
+import se.fearless.fettle.StateMachine;
+import se.fearless.fettle.StateMachinePool;
+import se.fearless.fettle.StateMachineTemplate;
+import se.fearless.fettle.Transition;
+import se.fearless.fettle.TransitionModel;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Writes and reads snapshots of the current states of many machines created from one template.
+ * <p>
+ * A snapshot starts with a header holding a fingerprint of the template, computed from the names of its states and
+ * events and the states its transitions lead to, followed by blocks of up to {@link #BLOCK_MACHINES} state ordinals
+ * packed with as few bits as the number of states needs. Each block starts with the number of machines in it and
+ * an empty block ends the snapshot, so snapshots can be written to and read from channels that are not seekable,
+ * one block at a time, without ever holding the whole population in memory.
+ * <p>
+ * Snapshots are only read with a template that has the same fingerprint as the one they were written with.
+ * Conditions and actions are not part of the fingerprint.
+ *
+ * @param <S> the type of the states
+ * @param <E> the type of the events
+ * @param <C> the type of the context
+ */
+public class Snapshots<S extends Enum<S>, E extends Enum<E>, C> {
+	public static final int BLOCK_MACHINES = 4096;
+
+	static final int MAGIC = 0x46544c53;
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 20;
+	static final int BLOCK_HEADER_SIZE = 4;
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final StateMachineTemplate<S, E, C> template;
+	private final S[] states;
+	private final int bitsPerState;
+	private final long fingerprint;
+
+	public Snapshots(StateMachineTemplate<S, E, C> template, Class<S> stateClass, Class<E> eventClass) {
+		if (!(template instanceof TransitionModel)) {
+			throw new IllegalArgumentException("Only templates that are transition models can be fingerprinted, got " + template.getClass().getName());
+		}
+		this.template = template;
+		states = stateClass.getEnumConstants();
+		bitsPerState = Math.max(1, Integer.SIZE - Integer.numberOfLeadingZeros(states.length - 1));
+		fingerprint = fingerprint((TransitionModel<S, E, C>) template, states, eventClass.getEnumConstants());
+	}
+
+	private static <S extends Enum<S>, E extends Enum<E>, C> long fingerprint(TransitionModel<S, E, C> model, S[] states, E[] events) {
+		long hash = FNV_OFFSET;
+		for (S state : states) {
+			hash = hash(hash, state.name());
+		}
+		for (E event : events) {
+			hash = hash(hash, event.name());
+		}
+		for (S state : states) {
+			Map<E, Collection<? extends Transition<S, E, C>>> possible = model.getPossibleTransitions(state);
+			for (E event : events) {
+				Collection<? extends Transition<S, E, C>> transitions = possible.get(event);
+				if (transitions == null) {
+					continue;
+				}
+				for (Transition<S, E, C> transition : transitions) {
+					hash = hash(hash, state.ordinal());
+					hash = hash(hash, event.ordinal());
+					hash = hash(hash, transition.getTo().ordinal());
+				}
+			}
+		}
+		return hash;
+	}
+
+	private static long hash(long hash, String value) {
+		long result = hash;
+		for (int i = 0; i < value.length(); i++) {
+			result = hash(result, value.charAt(i));
+		}
+		return hash(result, -1);
+	}
+
+	private static long hash(long hash, int value) {
+		long result = hash;
+		for (int shift = 0; shift < Integer.SIZE; shift += Byte.SIZE) {
+			result = (result ^ ((value >>> shift) & 0xff)) * FNV_PRIME;
+		}
+		return result;
+	}
+
+	public long getFingerprint() {
+		return fingerprint;
+	}
+
+	public StateMachineTemplate<S, E, C> getTemplate() {
+		return template;
+	}
+
+	/**
+	 * Writes the header of a snapshot and returns a writer for the states that follow it
+	 * @param channel the channel to write to, it is not closed by the writer
+	 * @return a writer for the states of the snapshot
+	 * @throws IOException if the header could not be written
+	 */
+	public SnapshotWriter<S> newWriter(WritableByteChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(VERSION).putLong(fingerprint).putInt(states.length).flip();
+		writeFully(channel, header);
+		return new SnapshotWriter<S>(channel, bitsPerState);
+	}
+
+	/**
+	 * Reads the header of a snapshot and returns a reader for the states that follow it
+	 * @param channel the channel to read from, it is not closed by the reader
+	 * @return a reader for the states of the snapshot
+	 * @throws IOException if the header could not be read or the channel does not hold a snapshot
+	 * @throws IllegalStateException if the snapshot was written with a different template
+	 */
+	public SnapshotReader<S> newReader(ReadableByteChannel channel) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		readFully(channel, header);
+		header.flip();
+		if (header.getInt() != MAGIC) {
+			throw new IOException("The channel does not hold a snapshot");
+		}
+		int version = header.getInt();
+		if (version != VERSION) {
+			throw new IOException("The snapshot has version " + version + ", only version " + VERSION + " is supported");
+		}
+		long written = header.getLong();
+		int stateCount = header.getInt();
+		if (written != fingerprint || stateCount != states.length) {
+			throw new IllegalStateException("The snapshot was written with a different template, fingerprint " + Long.toHexString(written) +
+					  " with " + stateCount + " states rather than " + Long.toHexString(fingerprint) + " with " + states.length);
+		}
+		return new SnapshotReader<S>(channel, states, bitsPerState);
+	}
+
+	/**
+	 * Writes a snapshot of the states of all machines in a pool, in id order
+	 * @param pool the machines to write
+	 * @param channel the channel to write to
+	 * @return the number of machines written
+	 * @throws IOException if the snapshot could not be written
+	 */
+	public long write(StateMachinePool<S, E, C> pool, WritableByteChannel channel) throws IOException {
+		SnapshotWriter<S> writer = newWriter(channel);
+		for (int id = 0; id < pool.size(); id++) {
+			writer.write(pool.getCurrentState(id));
+		}
+		writer.finish();
+		return writer.getWritten();
+	}
+
+	/**
+	 * Writes a snapshot of the states of machines in iteration order
+	 * @param machines the machines to write
+	 * @param channel the channel to write to
+	 * @return the number of machines written
+	 * @throws IOException if the snapshot could not be written
+	 */
+	public long write(Iterable<? extends StateMachine<S, E, C>> machines, WritableByteChannel channel) throws IOException {
+		SnapshotWriter<S> writer = newWriter(channel);
+		for (StateMachine<S, E, C> machine : machines) {
+			writer.write(machine.getCurrentState());
+		}
+		writer.finish();
+		return writer.getWritten();
+	}
+
+	/**
+	 * Creates a machine from the template for every state in a snapshot, without running any actions, and hands them
+	 * to the handler one at a time in the order they were written
+	 * @param channel the channel to read from
+	 * @param handler the handler to pass the machines to
+	 * @return the number of machines restored
+	 * @throws IOException if the snapshot could not be read
+	 */
+	public long restore(ReadableByteChannel channel, RestoredMachineHandler<S, E, C> handler) throws IOException {
+		SnapshotReader<S> reader = newReader(channel);
+		long index = 0;
+		while (reader.hasNext()) {
+			handler.onMachine(index++, template.newStateMachine(reader.next()));
+		}
+		return index;
+	}
+
+	/**
+	 * Sets the states of the machines in a pool to the states in a snapshot, the n:th state going to the machine with
+	 * id n. No actions are run.
+	 * @param channel the channel to read from
+	 * @param pool the pool to restore into, it must have room for all machines in the snapshot
+	 * @return the number of machines restored
+	 * @throws IOException if the snapshot could not be read
+	 * @throws IllegalStateException if the snapshot holds more machines than the pool
+	 */
+	public long restore(ReadableByteChannel channel, StateMachinePool<S, E, C> pool) throws IOException {
+		SnapshotReader<S> reader = newReader(channel);
+		int id = 0;
+		while (reader.hasNext()) {
+			if (id == pool.size()) {
+				throw new IllegalStateException("The snapshot holds more than the " + pool.size() + " machines of the pool");
+			}
+			pool.rawSetState(id++, reader.next());
+		}
+		return id;
+	}
+
+	static void writeFully(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				throw new EOFException("The snapshot ended " + buffer.remaining() + " bytes early");
+			}
+		}
+	}
+}
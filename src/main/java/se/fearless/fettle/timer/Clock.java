@@ -0,0 +1,11 @@
+package se.fearless.fettle.timer;
+
+/**
+ * The source of time for a {@link TimingWheel}
+ */
+public interface Clock {
+	/**
+	 * @return the current time in nanoseconds, only meaningful compared to other values from the same clock
+	 */
+	long nanoTime();
+}
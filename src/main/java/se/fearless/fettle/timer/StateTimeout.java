@@ -0,0 +1,117 @@
+package se.fearless.fettle.timer;
+
+import se.fearless.fettle.Action;
+import se.fearless.fettle.StateMachine;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fires an event at a state machine once it has stayed in a state for a given time. The timeout is armed by the
+ * entry action and cancelled by the exit action of the state, so a machine has at most one pending timeout per
+ * state timeout and leaving the state before it expires costs a single unlink from the wheel.
+ * <p>
+ * Only transitions arm the timeout, a machine created in the timed state is not armed until {@link #arm(StateMachine)}
+ * is called for it or it enters the state.
+ */
+public class StateTimeout<S, E, C> {
+	private final TimingWheel wheel;
+	private final E event;
+	private final long delay;
+	private final TimeUnit unit;
+	private final ConcurrentMap<StateMachine<S, E, C>, Expiry> armed = new ConcurrentHashMap<StateMachine<S, E, C>, Expiry>();
+
+	public StateTimeout(TimingWheel wheel, E event, long delay, TimeUnit unit) {
+		if (wheel == null) {
+			throw new IllegalArgumentException("A timing wheel is needed to schedule timeouts");
+		}
+		if (delay < 0) {
+			throw new IllegalArgumentException("The delay can not be negative, got " + delay);
+		}
+		this.wheel = wheel;
+		this.event = event;
+		this.delay = delay;
+		this.unit = unit;
+	}
+
+	/**
+	 * Schedules the event to be fired at the machine, replacing the timeout it had pending
+	 * @param stateMachine the machine to fire the event at
+	 */
+	public void arm(StateMachine<S, E, C> stateMachine) {
+		Expiry expiry = new Expiry(stateMachine);
+		Expiry previous = armed.put(stateMachine, expiry);
+		if (previous != null) {
+			previous.cancel();
+		}
+		expiry.timeout = wheel.schedule(expiry, delay, unit);
+	}
+
+	/**
+	 * Cancels the timeout pending for the machine, if any
+	 * @param stateMachine the machine to cancel the timeout for
+	 */
+	public void cancel(StateMachine<S, E, C> stateMachine) {
+		Expiry expiry = armed.remove(stateMachine);
+		if (expiry != null) {
+			expiry.cancel();
+		}
+	}
+
+	/**
+	 * @return an action to run on entry to the timed state
+	 */
+	public Action<S, E, C> armOnEntry() {
+		return new Action<S, E, C>() {
+			@Override
+			public void onTransition(S from, S to, E causedBy, C context, StateMachine<S, E, C> stateMachine) {
+				arm(stateMachine);
+			}
+		};
+	}
+
+	/**
+	 * @return an action to run on exit from the timed state
+	 */
+	public Action<S, E, C> cancelOnExit() {
+		return new Action<S, E, C>() {
+			@Override
+			public void onTransition(S from, S to, E causedBy, C context, StateMachine<S, E, C> stateMachine) {
+				cancel(stateMachine);
+			}
+		};
+	}
+
+	/**
+	 * @return the number of machines with a pending timeout
+	 */
+	public int getArmed() {
+		return armed.size();
+	}
+
+	private final class Expiry implements Runnable {
+		private final StateMachine<S, E, C> stateMachine;
+		private volatile Timeout timeout;
+
+		private Expiry(StateMachine<S, E, C> stateMachine) {
+			this.stateMachine = stateMachine;
+		}
+
+		private void cancel() {
+			// A timeout still being scheduled is left in the wheel, it no longer matches the armed one when it expires
+			Timeout scheduled = timeout;
+			if (scheduled != null) {
+				scheduled.cancel();
+			}
+		}
+
+		@Override
+		public void run() {
+			// A machine that left the state after this timeout was collected has already replaced or removed it
+			if (armed.remove(stateMachine, this)) {
+				stateMachine.fireEvent(event);
+			}
+		}
+	}
+}
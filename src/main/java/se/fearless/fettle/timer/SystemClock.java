@@ -0,0 +1,16 @@
+package se.fearless.fettle.timer;
+
+/**
+ * A clock backed by {@link System#nanoTime()}
+ */
+public final class SystemClock implements Clock {
+	public static final Clock INSTANCE = new SystemClock();
+
+	private SystemClock() {
+	}
+
+	@Override
+	public long nanoTime() {
+		return System.nanoTime();
+	}
+}
@@ -0,0 +1,74 @@
+package se.fearless.fettle.timer;
+
+/**
+ * A task scheduled on a {@link TimingWheel}. The timeout is linked into the bucket of the tick it expires on, so
+ * cancelling it only unlinks it.
+ */
+public final class Timeout {
+	private final TimingWheel wheel;
+	private final Runnable task;
+	Timeout previous;
+	Timeout next;
+	long rounds;
+	private boolean expired;
+
+	Timeout(TimingWheel wheel, Runnable task) {
+		this.wheel = wheel;
+		this.task = task;
+	}
+
+	/**
+	 * Stops the task from being run, unless it already has been or is about to be
+	 * @return true if the timeout was pending and will now never expire
+	 */
+	public boolean cancel() {
+		synchronized (wheel) {
+			if (previous == null) {
+				return false;
+			}
+			unlink();
+			wheel.cancelled();
+			return true;
+		}
+	}
+
+	/**
+	 * @return true if the task has been handed to the wheel's caller to run
+	 */
+	public boolean isExpired() {
+		synchronized (wheel) {
+			return expired;
+		}
+	}
+
+	/**
+	 * @return true if the timeout is waiting to expire
+	 */
+	public boolean isPending() {
+		synchronized (wheel) {
+			return previous != null;
+		}
+	}
+
+	void linkBefore(Timeout head) {
+		previous = head.previous;
+		next = head;
+		head.previous.next = this;
+		head.previous = this;
+	}
+
+	void unlink() {
+		previous.next = next;
+		next.previous = previous;
+		previous = null;
+		next = null;
+	}
+
+	void expire() {
+		expired = true;
+	}
+
+	void run() {
+		task.run();
+	}
+}
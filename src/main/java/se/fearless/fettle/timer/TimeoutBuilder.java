@@ -0,0 +1,56 @@
+package se.fearless.fettle.timer;
+
+import se.fearless.fettle.builder.StateMachineBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Declares state timeouts on a {@link StateMachineBuilder}. The timeouts are kept out of the builder itself so that
+ * the builder does not depend on the timer package, which is not available to GWT.
+ * <pre>
+ * TimeoutBuilder&lt;Session, Events, Void&gt; timeouts = TimeoutBuilder.create(builder, wheel);
+ * builder.transition().from(Session.ACTIVE).to(Session.IDLE).on(Events.IDLE_TIMEOUT);
+ * timeouts.timeout(Session.ACTIVE, Events.IDLE_TIMEOUT, 30, TimeUnit.SECONDS);
+ * </pre>
+ */
+public class TimeoutBuilder<S, E, C> {
+	private final StateMachineBuilder<S, E, C> builder;
+	private final TimingWheel wheel;
+
+	private TimeoutBuilder(StateMachineBuilder<S, E, C> builder, TimingWheel wheel) {
+		this.builder = builder;
+		this.wheel = wheel;
+	}
+
+	/**
+	 * @param builder the builder to add the timeouts to
+	 * @param wheel the wheel to schedule the timeouts on. It can be shared by any number of templates, and has to be
+	 * advanced for the timeouts to expire.
+	 * @return a builder of timeouts
+	 */
+	public static <S, E, C> TimeoutBuilder<S, E, C> create(StateMachineBuilder<S, E, C> builder, TimingWheel wheel) {
+		if (wheel == null) {
+			throw new IllegalArgumentException("A timing wheel is needed to schedule timeouts");
+		}
+		return new TimeoutBuilder<S, E, C>(builder, wheel);
+	}
+
+	/**
+	 * Fires the event at a machine once it has stayed in the state for the given time. The transitions taken on the
+	 * event are declared on the builder like any other, and the event can still be fired like any other.
+	 * @param state the state the machine has to stay in
+	 * @param event the event to fire
+	 * @param delay how long the machine has to stay in the state
+	 * @param unit the unit of the delay
+	 * @return the timeout, to arm machines that are created in the state with
+	 */
+	public StateTimeout<S, E, C> timeout(S state, E event, long delay, TimeUnit unit) {
+		if (state == null) {
+			throw new IllegalArgumentException("The timeout on " + event + " has to leave a specific state, not all states");
+		}
+		StateTimeout<S, E, C> timeout = new StateTimeout<S, E, C>(wheel, event, delay, unit);
+		builder.onEntry(state).perform(timeout.armOnEntry());
+		builder.onExit(state).perform(timeout.cancelOnExit());
+		return timeout;
+	}
+}
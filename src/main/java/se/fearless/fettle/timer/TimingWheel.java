@@ -0,0 +1,173 @@
+package se.fearless.fettle.timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A hashed timing wheel for large numbers of timeouts. Time is divided into ticks and each tick hashes to one of a
+ * fixed number of buckets holding a doubly linked list of the timeouts expiring on it, so scheduling and cancelling
+ * a timeout are constant time regardless of how many are pending. Timeouts further away than one turn of the wheel
+ * wait for the number of turns stored with them.
+ * <p>
+ * The wheel has no thread of its own. Calling {@link #advance()}, or {@link #run()} from a scheduled executor, moves
+ * it up to the current time of its clock and runs the tasks of all timeouts that expired on the way, on the calling
+ * thread and without holding the wheel's lock, so tasks may schedule and cancel timeouts. A timeout expires on the
+ * first tick at or after its deadline, so it is late by at most the tick duration plus the time between advances.
+ * <p>
+ * A task that throws does not keep the other expired timeouts from running, they are all run before the failure
+ * propagates. When several tasks throw, the last failure is the one propagated. {@link #run()} throws like
+ * {@link #advance()}, and a scheduled executor stops running a task that throws, so tasks run from an executor should
+ * handle their own failures.
+ */
+public class TimingWheel implements Runnable {
+	private static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
+	private final Clock clock;
+	private final long tickNanos;
+	private final Timeout[] buckets;
+	private final int mask;
+	private final long start;
+	private long tick;
+	private int pending;
+
+	public TimingWheel(long tickDuration, TimeUnit unit) {
+		this(SystemClock.INSTANCE, tickDuration, unit, DEFAULT_TICKS_PER_WHEEL);
+	}
+
+	/**
+	 * @param clock the clock to read the time from
+	 * @param tickDuration the length of a tick, the resolution of the timeouts
+	 * @param unit the unit of the tick duration
+	 * @param ticksPerWheel the number of buckets, rounded up to a power of two
+	 */
+	public TimingWheel(Clock clock, long tickDuration, TimeUnit unit, int ticksPerWheel) {
+		if (tickDuration <= 0) {
+			throw new IllegalArgumentException("The tick duration must be positive, got " + tickDuration);
+		}
+		if (ticksPerWheel < 1 || ticksPerWheel > 1 << 30) {
+			throw new IllegalArgumentException("The number of ticks per wheel must be between 1 and 2^30, got " + ticksPerWheel);
+		}
+		this.clock = clock;
+		tickNanos = unit.toNanos(tickDuration);
+		int size = Integer.highestOneBit(ticksPerWheel);
+		if (size < ticksPerWheel) {
+			size <<= 1;
+		}
+		buckets = new Timeout[size];
+		for (int i = 0; i < size; i++) {
+			Timeout head = new Timeout(this, null);
+			head.previous = head;
+			head.next = head;
+			buckets[i] = head;
+		}
+		mask = size - 1;
+		start = clock.nanoTime();
+	}
+
+	/**
+	 * Schedules a task to run once the delay has passed
+	 * @param task the task to run when the timeout expires
+	 * @param delay how long to wait
+	 * @param unit the unit of the delay
+	 * @return a handle to cancel the timeout with
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		if (task == null) {
+			throw new IllegalArgumentException("Task must not be null");
+		}
+		long deadline = clock.nanoTime() - start + Math.max(0, unit.toNanos(delay));
+		Timeout timeout = new Timeout(this, task);
+		synchronized (this) {
+			long deadlineTick = Math.max(tick, (deadline + tickNanos - 1) / tickNanos);
+			timeout.rounds = (deadlineTick - tick) / buckets.length;
+			timeout.linkBefore(buckets[(int) (deadlineTick & mask)]);
+			pending++;
+		}
+		return timeout;
+	}
+
+	/**
+	 * Moves the wheel up to the current time and runs the tasks of all timeouts that expired
+	 * @return the number of timeouts that expired
+	 */
+	public int advance() {
+		return runExpired(collectExpired(clock.nanoTime() - start));
+	}
+
+	/**
+	 * Advances the wheel, for running it from a scheduled executor
+	 */
+	@Override
+	public void run() {
+		advance();
+	}
+
+	/**
+	 * Runs the tasks of a chain of expired timeouts. When a task throws, the rest of the chain is run before the
+	 * failure propagates.
+	 */
+	private static int runExpired(Timeout expired) {
+		int count = 0;
+		while (expired != null) {
+			Timeout timeout = expired;
+			expired = timeout.next;
+			timeout.next = null;
+			count++;
+			boolean completed = false;
+			try {
+				timeout.run();
+				completed = true;
+			} finally {
+				if (!completed) {
+					runExpired(expired);
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Unlinks the timeouts that are due from their buckets and chains them through their next references
+	 */
+	private synchronized Timeout collectExpired(long now) {
+		Timeout first = null;
+		Timeout last = null;
+		while (tick * tickNanos <= now) {
+			Timeout head = buckets[(int) (tick & mask)];
+			Timeout timeout = head.next;
+			while (timeout != head) {
+				Timeout following = timeout.next;
+				if (timeout.rounds > 0) {
+					timeout.rounds--;
+				} else {
+					timeout.unlink();
+					timeout.expire();
+					pending--;
+					if (last == null) {
+						first = timeout;
+					} else {
+						last.next = timeout;
+					}
+					last = timeout;
+				}
+				timeout = following;
+			}
+			tick++;
+		}
+		return first;
+	}
+
+	void cancelled() {
+		pending--;
+	}
+
+	/**
+	 * @return the number of timeouts waiting to expire
+	 */
+	public synchronized int getPending() {
+		return pending;
+	}
+
+	public long getTickDuration(TimeUnit unit) {
+		return unit.convert(tickNanos, TimeUnit.NANOSECONDS);
+	}
+}
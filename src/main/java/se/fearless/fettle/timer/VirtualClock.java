@@ -0,0 +1,27 @@
+package se.fearless.fettle.timer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A clock that only moves when told to, making timeouts deterministic in tests
+ */
+public class VirtualClock implements Clock {
+	private volatile long now;
+
+	@Override
+	public long nanoTime() {
+		return now;
+	}
+
+	/**
+	 * Moves the clock forward
+	 * @param duration how far to move it
+	 * @param unit the unit of the duration
+	 */
+	public synchronized void advance(long duration, TimeUnit unit) {
+		if (duration < 0) {
+			throw new IllegalArgumentException("Time can not go backwards, got " + duration);
+		}
+		now += unit.toNanos(duration);
+	}
+}
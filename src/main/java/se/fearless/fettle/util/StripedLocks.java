@@ -0,0 +1,64 @@
+package se.fearless.fettle.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed number of locks shared by many state machines. Memory use stays constant no matter how many machines
+ * are created while contention stays bounded by the number of stripes. Machines sharing a stripe never run
+ * concurrently, so actions must not block waiting for another machine that might be on the same stripe.
+ */
+public class StripedLocks {
+	private static final int MAX_STRIPES = 1 << 30;
+
+	private final Lock[] locks;
+	private final int mask;
+	private final AtomicInteger nextStripe = new AtomicInteger();
+
+	/**
+	 * @param stripes the number of locks, rounded up to the nearest power of two, at most 2<sup>30</sup>
+	 */
+	public StripedLocks(int stripes) {
+		if (stripes < 1) {
+			throw new IllegalArgumentException("There must be at least one stripe, got " + stripes);
+		}
+		if (stripes > MAX_STRIPES) {
+			throw new IllegalArgumentException("There can be at most " + MAX_STRIPES + " stripes, got " + stripes);
+		}
+		int size = Integer.highestOneBit(stripes);
+		if (size < stripes) {
+			size <<= 1;
+		}
+		locks = new Lock[size];
+		for (int i = 0; i < size; i++) {
+			locks[i] = new ReentrantLock();
+		}
+		mask = size - 1;
+	}
+
+	/**
+	 * Gets the lock for a caller supplied id. The same id always maps to the same lock.
+	 * @param id the id of the machine
+	 * @return the lock guarding the machine with the given id
+	 */
+	public Lock get(int id) {
+		return locks[id & mask];
+	}
+
+	/**
+	 * Hands out locks round robin, so consecutively created machines only share a lock once there are more
+	 * machines than stripes.
+	 * @return the lock to use for a newly created machine
+	 */
+	public Lock next() {
+		return get(nextStripe.getAndIncrement());
+	}
+
+	/**
+	 * @return the number of locks
+	 */
+	public int size() {
+		return locks.length;
+	}
+}
@@ -0,0 +1,103 @@
+package se.fearless.fettle;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import se.fearless.fettle.builder.StateMachineBuilder;
+import se.fearless.fettle.impl.AdaptiveTransitionModel;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveTransitionModelTest {
+
+	private final List<String> evaluated = Lists.newArrayList();
+	private StateMachineBuilder<States, String, Integer> builder;
+
+	@Before
+	public void setUp() {
+		builder = Fettle.newBuilder(States.class, String.class);
+		builder.transition().from(States.INITIAL).to(States.ONE).on("go").when(new Equals("one", 1));
+		builder.transition().from(States.INITIAL).to(States.TWO).on("go").when(new Equals("two", 2));
+		builder.transition().from(States.INITIAL).to(States.THREE).on("go").when(new Equals("three", 3));
+		builder.transition().fromAll().to(States.INITIAL).on("go");
+	}
+
+	@Test
+	public void mostLikelyGuardIsEvaluatedFirst() {
+		builder.mutuallyExclusive(States.INITIAL, "go");
+		AdaptiveTransitionModel<States, String, Integer> model = (AdaptiveTransitionModel<States, String, Integer>) builder.buildAdaptiveTransitionModel();
+		StateMachine<States, String, Integer> machine = model.newStateMachine(States.INITIAL);
+
+		fire(machine, 3, 2000);
+		fire(machine, 2, 100);
+		evaluated.clear();
+
+		fire(machine, 3, 1);
+		assertEquals(Lists.newArrayList("three"), evaluated);
+		assertEquals(States.THREE, machine.getCurrentState());
+
+		Map<Transition<States, String, Integer>, Long> hits = model.getGuardHits(States.INITIAL, "go");
+		List<States> order = Lists.newArrayList();
+		for (Transition<States, String, Integer> transition : hits.keySet()) {
+			order.add(transition.getTo());
+		}
+		assertEquals(Lists.newArrayList(States.THREE, States.TWO, States.ONE), order);
+		assertEquals(Lists.newArrayList(2001L, 100L, 0L), Lists.newArrayList(hits.values()));
+	}
+
+	@Test
+	public void transitionsNotDeclaredExclusiveKeepTheirOrder() {
+		AdaptiveTransitionModel<States, String, Integer> model = (AdaptiveTransitionModel<States, String, Integer>) builder.buildAdaptiveTransitionModel();
+		StateMachine<States, String, Integer> machine = model.newStateMachine(States.INITIAL);
+
+		fire(machine, 3, 2000);
+		evaluated.clear();
+
+		fire(machine, 3, 1);
+		assertEquals(Lists.newArrayList("one", "two", "three"), evaluated);
+		assertTrue(model.getGuardHits(States.INITIAL, "go").isEmpty());
+	}
+
+	@Test
+	public void fromAllTransitionsAreTriedAfterTheExclusiveOnes() {
+		builder.mutuallyExclusive(States.INITIAL, "go");
+		StateMachine<States, String, Integer> machine = builder.buildAdaptiveTransitionModel().newStateMachine(States.INITIAL);
+
+		machine.fireEvent("go", 4);
+
+		assertEquals(Lists.newArrayList("one", "two", "three"), evaluated);
+		assertEquals(States.INITIAL, machine.getCurrentState());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void mutuallyExclusiveTransitionsNeedAState() {
+		Fettle.<States, String, Void>newTransitionModel(States.class, String.class).markMutuallyExclusive(null, "go");
+	}
+
+	private void fire(StateMachine<States, String, Integer> machine, int context, int times) {
+		for (int i = 0; i < times; i++) {
+			machine.rawSetState(States.INITIAL);
+			machine.fireEvent("go", context);
+		}
+	}
+
+	private class Equals implements Condition<Integer> {
+		private final String name;
+		private final int expected;
+
+		Equals(String name, int expected) {
+			this.name = name;
+			this.expected = expected;
+		}
+
+		@Override
+		public boolean isSatisfied(Integer context) {
+			evaluated.add(name);
+			return context == expected;
+		}
+	}
+}
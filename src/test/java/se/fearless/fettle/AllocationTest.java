@@ -0,0 +1,143 @@
+package se.fearless.fettle;
+
+import org.junit.Before;
+import org.junit.Test;
+import se.fearless.fettle.builder.StateMachineBuilder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class AllocationTest {
+	private static final int WARMUP = 20000;
+	private static final int EVENTS = 100000;
+	private static final long SLACK_BYTES = 1024;
+
+	private enum Events {
+		TICK, NEVER, UNKNOWN
+	}
+
+	private StateMachineBuilder<States, Events, Integer> builder;
+	private int actionCalls;
+
+	@Before
+	public void setUp() throws Exception {
+		builder = Fettle.newBuilder(States.class, Events.class);
+		builder.defaultContext(1);
+		Action<States, Events, Integer> count = new Action<States, Events, Integer>() {
+			@Override
+			public void onTransition(States from, States to, Events causedBy, Integer context, StateMachine<States, Events, Integer> stateMachine) {
+				actionCalls++;
+			}
+		};
+		Condition<Integer> positive = new Condition<Integer>() {
+			@Override
+			public boolean isSatisfied(Integer context) {
+				return context > 0;
+			}
+		};
+		builder.transition().from(States.INITIAL).to(States.ONE).on(Events.TICK).when(positive).perform(count);
+		builder.transition().from(States.ONE).to(States.TWO).on(Events.TICK).perform(count);
+		builder.transition().from(States.TWO).to(States.INITIAL).on(Events.TICK);
+		builder.transition().fromAll().to(States.THREE).on(Events.NEVER).when(BasicConditions.not(BasicConditions.<Integer>always()));
+		for (States state : States.values()) {
+			builder.onEntry(state).perform(count);
+			builder.onExit(state).perform(count);
+		}
+	}
+
+	@Test
+	public void firingOnImmutableModelDoesNotAllocate() throws Exception {
+		MutableTransitionModel<States, Events, Integer> model = (MutableTransitionModel<States, Events, Integer>) builder.buildTransitionModel();
+		assertDoesNotAllocate(model.createImmutableClone().newStateMachine(States.INITIAL));
+	}
+
+	@Test
+	public void firingOnCompiledModelDoesNotAllocate() throws Exception {
+		assertDoesNotAllocate(builder.buildCompiledTransitionModel().newStateMachine(States.INITIAL));
+	}
+
+	@Test
+	public void firingOnHierarchicalModelsDoesNotAllocate() throws Exception {
+		builder.substates(States.THREE, States.ONE, States.TWO);
+		MutableTransitionModel<States, Events, Integer> model = (MutableTransitionModel<States, Events, Integer>) builder.buildTransitionModel();
+		assertDoesNotAllocate(model.createImmutableClone().newStateMachine(States.INITIAL));
+		assertDoesNotAllocate(model.compile().newStateMachine(States.INITIAL));
+	}
+
+	@Test
+	public void firingFromActionsDoesNotAllocate() throws Exception {
+		builder.onEntry(States.ONE).perform(new Action<States, Events, Integer>() {
+			@Override
+			public void onTransition(States from, States to, Events causedBy, Integer context, StateMachine<States, Events, Integer> stateMachine) {
+				stateMachine.fireEvent(Events.TICK);
+			}
+		});
+		assertDoesNotAllocate(builder.buildCompiledTransitionModel().newStateMachine(States.INITIAL));
+	}
+
+	@Test
+	public void notifyingListenersDoesNotAllocate() throws Exception {
+		StateMachineTemplate<States, Events, Integer> template = builder.buildCompiledTransitionModel();
+		template.addTransitionListener(new TransitionListener<States, Events, Integer>() {
+			@Override
+			public void onTransition(States from, States to, Events causedBy, Integer context, StateMachine<States, Events, Integer> stateMachine) {
+				actionCalls++;
+			}
+
+			@Override
+			public void onRejected(States state, Events event, Integer context, StateMachine<States, Events, Integer> stateMachine) {
+				actionCalls++;
+			}
+		});
+		assertDoesNotAllocate(template.newStateMachine(States.INITIAL));
+	}
+
+	@Test
+	public void firingAtPoolsWithoutActionsDoesNotAllocate() throws Exception {
+		StateMachineBuilder<States, Events, Integer> silent = Fettle.newBuilder(States.class, Events.class);
+		silent.defaultContext(1);
+		silent.transition().from(States.INITIAL).to(States.ONE).on(Events.TICK);
+		silent.transition().from(States.ONE).to(States.INITIAL).on(Events.TICK);
+		StateMachinePool<States, Events, Integer> pool = silent.buildCompiledTransitionModel().newStateMachinePool(4, States.INITIAL);
+		StateMachine<States, Events, Integer> machine = pool.getStateMachine(2);
+
+		long allocated = allocatedBytes(machine);
+
+		assertTrue("Allocated " + allocated + " bytes for " + EVENTS + " events", allocated < SLACK_BYTES);
+		assertTrue(machine.forceSetState(States.ONE));
+		assertEquals(States.ONE, pool.getCurrentState(2));
+	}
+
+	private void assertDoesNotAllocate(StateMachine<States, Events, Integer> machine) {
+		long allocated = allocatedBytes(machine);
+
+		assertTrue("Allocated " + allocated + " bytes for " + EVENTS + " events", allocated < SLACK_BYTES);
+		assertTrue(actionCalls > 0);
+	}
+
+	private long allocatedBytes(StateMachine<States, Events, Integer> machine) {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		assumeTrue(threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+		long threadId = Thread.currentThread().getId();
+
+		fire(machine, WARMUP);
+		long before = threads.getThreadAllocatedBytes(threadId);
+		fire(machine, EVENTS);
+		return threads.getThreadAllocatedBytes(threadId) - before;
+	}
+
+	private void fire(StateMachine<States, Events, Integer> machine, int events) {
+		for (int i = 0; i < events; i++) {
+			machine.fireEvent(Events.TICK);
+			machine.fireEvent(Events.NEVER);
+			machine.fireEvent(Events.UNKNOWN, 1);
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package se.fearless.fettle;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import se.fearless.fettle.async.AsyncStateMachine;
+import se.fearless.fettle.builder.StateMachineBuilder;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncStateMachineTest {
+
+	private StateMachineBuilder<States, String, Integer> builder;
+	private ManualExecutor executor;
+
+	@Before
+	public void setUp() throws Exception {
+		builder = Fettle.newBuilder(States.class, String.class);
+		builder.transition().from(States.INITIAL).to(States.ONE).on("hej");
+		builder.transition().from(States.ONE).to(States.TWO).on("hopp");
+		builder.transition().from(States.TWO).to(States.INITIAL).on("hej");
+		executor = new ManualExecutor();
+	}
+
+	@Test
+	public void eventsAreAppliedOnTheExecutor() throws Exception {
+		AsyncStateMachine<States, String, Integer> machine = new AsyncStateMachine<States, String, Integer>(builder.build(States.INITIAL), executor);
+
+		Future<Boolean> first = machine.fireEvent("hej");
+		Future<Boolean> second = machine.fireEvent("foo", 1);
+
+		assertFalse(first.isDone());
+		assertEquals(States.INITIAL, machine.getCurrentState());
+		executor.runAll();
+		assertTrue(first.get());
+		assertFalse(second.get());
+		assertEquals(States.ONE, machine.getCurrentState());
+	}
+
+	@Test
+	public void drainIsBatched() throws Exception {
+		AsyncStateMachine<States, String, Integer> machine = new AsyncStateMachine<States, String, Integer>(builder.build(States.INITIAL), executor, 4);
+		List<Future<Boolean>> results = Lists.newArrayList();
+		for (int i = 0; i < 10; i++) {
+			results.add(machine.fireEvent(i % 3 == 1 ? "hopp" : "hej"));
+		}
+
+		assertEquals(1, executor.tasks.size());
+		assertEquals(3, executor.runAll());
+		for (Future<Boolean> result : results) {
+			assertTrue(result.get());
+		}
+		assertEquals(States.ONE, machine.getCurrentState());
+	}
+
+	@Test
+	public void failingActionOnlyFailsItsOwnEvent() throws Exception {
+		final IllegalStateException failure = new IllegalStateException();
+		builder.onEntry(States.ONE).perform(new Action<States, String, Integer>() {
+			@Override
+			public void onTransition(States from, States to, String causedBy, Integer context, StateMachine<States, String, Integer> stateMachine) {
+				throw failure;
+			}
+		});
+		AsyncStateMachine<States, String, Integer> machine = new AsyncStateMachine<States, String, Integer>(builder.build(States.INITIAL), executor);
+
+		Future<Boolean> failing = machine.fireEvent("hej");
+		Future<Boolean> next = machine.fireEvent("hopp");
+		executor.runAll();
+
+		try {
+			failing.get();
+			fail("Expected the action to fail");
+		} catch (ExecutionException e) {
+			assertSame(failure, e.getCause());
+		}
+		assertTrue(next.get());
+		assertEquals(States.TWO, machine.getCurrentState());
+	}
+
+	@Test
+	public void orderIsPreservedPerProducer() throws Exception {
+		final List<Integer> applied = Collections.synchronizedList(Lists.<Integer>newArrayList());
+		Action<States, String, Integer> record = new Action<States, String, Integer>() {
+			@Override
+			public void onTransition(States from, States to, String causedBy, Integer context, StateMachine<States, String, Integer> stateMachine) {
+				applied.add(context);
+			}
+		};
+		StateMachineBuilder<States, String, Integer> selfLoop = Fettle.newBuilder(States.class, String.class);
+		selfLoop.transition().from(States.INITIAL).to(States.ONE).on("tick").perform(record);
+		selfLoop.transition().from(States.ONE).to(States.INITIAL).on("tick").perform(record);
+		ExecutorService pool = Executors.newFixedThreadPool(4);
+		try {
+			final AsyncStateMachine<States, String, Integer> machine = new AsyncStateMachine<States, String, Integer>(selfLoop.build(States.INITIAL), pool, 8);
+			final int producers = 4;
+			final int perProducer = 500;
+			List<Thread> threads = Lists.newArrayList();
+			for (int p = 0; p < producers; p++) {
+				final int producer = p;
+				threads.add(new Thread(new Runnable() {
+					@Override
+					public void run() {
+						for (int i = 0; i < perProducer; i++) {
+							machine.fireEvent("tick", producer * perProducer + i);
+						}
+					}
+				}));
+			}
+			for (Thread thread : threads) {
+				thread.start();
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+			machine.fireEvent("tick", -1).get(10, TimeUnit.SECONDS);
+
+			assertEquals(producers * perProducer + 1, applied.size());
+			int[] last = new int[producers];
+			for (int p = 0; p < producers; p++) {
+				last[p] = -1;
+			}
+			for (int value : applied.subList(0, applied.size() - 1)) {
+				int producer = value / perProducer;
+				assertTrue(value > last[producer]);
+				last[producer] = value;
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void rejectedDrainFailsTheWaitingEventsAndLetsLaterOnesThrough() throws Exception {
+		AsyncStateMachine<States, String, Integer> machine = new AsyncStateMachine<States, String, Integer>(builder.build(States.INITIAL), executor);
+		executor.rejecting = true;
+		try {
+			machine.fireEvent("hej");
+			fail("Expected the executor to reject the drain");
+		} catch (RejectedExecutionException e) {
+			assertEquals(0, executor.tasks.size());
+		}
+
+		executor.rejecting = false;
+		Future<Boolean> accepted = machine.fireEvent("hej");
+		executor.runAll();
+		assertTrue(accepted.get());
+		assertEquals(States.ONE, machine.getCurrentState());
+	}
+
+	@Test
+	public void eventsWaitingForARejectedDrainFail() throws Exception {
+		AsyncStateMachine<States, String, Integer> machine = new AsyncStateMachine<States, String, Integer>(builder.build(States.INITIAL), executor, 1);
+		Future<Boolean> first = machine.fireEvent("hej");
+		Future<Boolean> waiting = machine.fireEvent("hopp");
+		executor.rejecting = true;
+		try {
+			executor.runAll();
+			fail("Expected the executor to reject the next drain");
+		} catch (RejectedExecutionException e) {
+			assertTrue(first.get());
+		}
+
+		try {
+			waiting.get();
+			fail("Expected the waiting event to fail");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof RejectedExecutionException);
+		}
+		assertEquals(States.ONE, machine.getCurrentState());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void batchSizeMustBePositive() throws Exception {
+		new AsyncStateMachine<States, String, Integer>(builder.build(States.INITIAL), executor, 0);
+	}
+
+	private static class ManualExecutor implements Executor {
+		private final Queue<Runnable> tasks = new LinkedList<Runnable>();
+		private boolean rejecting;
+
+		@Override
+		public void execute(Runnable command) {
+			if (rejecting) {
+				throw new RejectedExecutionException();
+			}
+			tasks.add(command);
+		}
+
+		int runAll() {
+			int executed = 0;
+			while (!tasks.isEmpty()) {
+				tasks.poll().run();
+				executed++;
+			}
+			return executed;
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package se.fearless.fettle;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import se.fearless.fettle.async.ParallelBroadcast;
+import se.fearless.fettle.builder.StateMachineBuilder;
+import se.fearless.fettle.impl.AbstractTransitionModel;
+import se.fearless.fettle.metrics.TransitionMetrics;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class BroadcastTest {
+
+	private StateMachineBuilder<States, String, Void> builder;
+	private ExecutorService executor;
+	private AtomicInteger evaluations;
+
+	@Before
+	public void setUp() throws Exception {
+		builder = Fettle.newBuilder(States.class, String.class);
+		executor = Executors.newFixedThreadPool(4);
+		evaluations = new AtomicInteger();
+		Condition<Void> countingCondition = new Condition<Void>() {
+			@Override
+			public boolean isSatisfied(Void context) {
+				evaluations.incrementAndGet();
+				return true;
+			}
+		};
+		builder.transition().from(States.INITIAL).to(States.ONE).on("tick").when(countingCondition);
+		builder.transition().from(States.ONE).to(States.TWO).on("tick").when(countingCondition);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		executor.shutdown();
+	}
+
+	@Test
+	public void conditionsAreEvaluatedOncePerState() throws Exception {
+		StateMachineTemplate<States, String, Void> template = builder.buildTransitionModel();
+		List<StateMachine<States, String, Void>> machines = Lists.newArrayList();
+		for (int i = 0; i < 3000; i++) {
+			States initial = States.values()[i % 3];
+			machines.add(i % 2 == 0 ? template.newStateMachine(initial) : template.newStateMachine(initial, Concurrency.OPTIMISTIC));
+		}
+
+		BroadcastResult result = ParallelBroadcast.broadcast(template, "tick", null, machines, executor);
+
+		assertEquals(2000, result.getTransitioned());
+		assertEquals(1000, result.getUnchanged());
+		assertEquals(2, evaluations.get());
+		for (int i = 0; i < machines.size(); i++) {
+			States expected = i % 3 == 0 ? States.ONE : States.TWO;
+			assertEquals(expected, machines.get(i).getCurrentState());
+		}
+	}
+
+	@Test
+	public void actionsRunForEveryMachine() throws Exception {
+		final AtomicInteger entries = new AtomicInteger();
+		builder.onEntry(States.ONE).perform(new Action<States, String, Void>() {
+			@Override
+			public void onTransition(States from, States to, String causedBy, Void context, StateMachine<States, String, Void> stateMachine) {
+				entries.incrementAndGet();
+			}
+		});
+		StateMachineTemplate<States, String, Void> template = builder.buildTransitionModel();
+		List<StateMachine<States, String, Void>> machines = Lists.newArrayList();
+		for (int i = 0; i < 100; i++) {
+			machines.add(template.newStateMachine(States.INITIAL));
+		}
+
+		BroadcastResult result = template.broadcast("tick", null, machines);
+
+		assertEquals(100, result.getTransitioned());
+		assertEquals(100, entries.get());
+	}
+
+	@Test
+	public void machinesFromOtherSourcesAreFiredAsUsual() throws Exception {
+		StateMachineTemplate<States, String, Void> template = builder.buildTransitionModel();
+		StateMachineTemplate<States, String, Void> otherTemplate = Fettle.<States, String, Void>newBuilder(States.class, String.class).buildTransitionModel();
+		StateMachinePool<States, String, Void> pool = template.newStateMachinePool(2, States.INITIAL);
+		List<StateMachine<States, String, Void>> machines = Lists.newArrayList(
+				  pool.getStateMachine(0), otherTemplate.newStateMachine(States.INITIAL), template.newStateMachine(States.INITIAL));
+
+		BroadcastResult result = ParallelBroadcast.broadcast(template, "tick", null, machines, executor);
+
+		assertEquals(2, result.getTransitioned());
+		assertEquals(States.ONE, pool.getCurrentState(0));
+		assertEquals(States.INITIAL, pool.getCurrentState(1));
+		assertEquals(States.INITIAL, machines.get(1).getCurrentState());
+	}
+
+	@Test
+	public void rejectionsAreReportedToTheTemplateOfEachMachine() throws Exception {
+		StateMachineTemplate<States, String, Void> template = builder.buildTransitionModel();
+		StateMachineTemplate<States, String, Void> otherTemplate = Fettle.<States, String, Void>newBuilder(States.class, String.class).buildTransitionModel();
+		CountingListener listener = new CountingListener();
+		CountingListener otherListener = new CountingListener();
+		template.addTransitionListener(listener);
+		otherTemplate.addTransitionListener(otherListener);
+		TransitionMetrics<States, String> metrics = new TransitionMetrics<States, String>();
+		((AbstractTransitionModel<States, String, Void>) template).setMetrics(metrics);
+		List<StateMachine<States, String, Void>> machines = Lists.newArrayList(
+				  template.newStateMachine(States.TWO), template.newStateMachine(States.TWO, Concurrency.OPTIMISTIC),
+				  otherTemplate.newStateMachine(States.TWO));
+
+		BroadcastResult result = ParallelBroadcast.broadcast(template, "tick", null, machines, executor);
+
+		assertEquals(0, result.getTransitioned());
+		assertEquals(2, listener.rejections.get());
+		assertEquals(1, otherListener.rejections.get());
+		assertEquals(2, metrics.snapshot().getRejections(States.TWO));
+	}
+
+	@Test
+	public void preparedBroadcastsApplyTheEventWhenCalled() throws Exception {
+		StateMachineTemplate<States, String, Void> template = builder.buildTransitionModel();
+		StateMachine<States, String, Void> machine = template.newStateMachine(States.INITIAL);
+		List<Callable<Integer>> tasks = template.prepareBroadcast("tick", null, Lists.newArrayList(machine));
+
+		assertEquals(States.INITIAL, machine.getCurrentState());
+		machine.fireEvent("tick");
+		assertEquals(1, tasks.size());
+		assertEquals(1, tasks.get(0).call().intValue());
+		assertEquals(States.TWO, machine.getCurrentState());
+		assertEquals(3, evaluations.get());
+	}
+
+	@Test
+	public void failingActionsArePropagated() throws Exception {
+		builder.onEntry(States.ONE).perform(new Action<States, String, Void>() {
+			@Override
+			public void onTransition(States from, States to, String causedBy, Void context, StateMachine<States, String, Void> stateMachine) {
+				throw new IllegalStateException("boom");
+			}
+		});
+		StateMachineTemplate<States, String, Void> template = builder.buildTransitionModel();
+		List<StateMachine<States, String, Void>> machines = Lists.newArrayList();
+		machines.add(template.newStateMachine(States.INITIAL));
+		try {
+			ParallelBroadcast.broadcast(template, "tick", null, machines, executor);
+			fail("The exception from the action should be propagated");
+		} catch (IllegalStateException e) {
+			assertEquals("boom", e.getMessage());
+		}
+	}
+
+	private static class CountingListener implements TransitionListener<States, String, Void> {
+		private final AtomicInteger rejections = new AtomicInteger();
+
+		@Override
+		public void onTransition(States from, States to, String causedBy, Void context, StateMachine<States, String, Void> stateMachine) {
+		}
+
+		@Override
+		public void onRejected(States state, String event, Void context, StateMachine<States, String, Void> stateMachine) {
+			rejections.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,248 @@
+package se.fearless.fettle;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import se.fearless.fettle.builder.StateMachineBuilder;
+import se.fearless.fettle.coalesce.CoalescingStateMachine;
+
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CoalescingStateMachineTest {
+
+	private enum Vehicle {
+		PARKED, MOVING, LOST
+	}
+
+	private enum Events {
+		POSITION, HEARTBEAT, PARK, SIGNAL_LOST
+	}
+
+	private final List<String> log = Lists.newArrayList();
+	private StateMachine<Vehicle, Events, String> machine;
+	private CoalescingStateMachine<Vehicle, Events, String> coalescing;
+
+	@Before
+	public void setUp() {
+		StateMachineBuilder<Vehicle, Events, String> builder = Fettle.newBuilder(Vehicle.class, Events.class);
+		builder.defaultContext("default");
+		builder.transition().from(Vehicle.PARKED).to(Vehicle.MOVING).on(Events.POSITION);
+		builder.transition().from(Vehicle.MOVING).to(Vehicle.MOVING).on(Events.POSITION);
+		builder.transition().fromAll().to(Vehicle.PARKED).on(Events.PARK);
+		builder.transition().fromAll().to(Vehicle.LOST).on(Events.SIGNAL_LOST);
+		builder.transition().from(Vehicle.LOST).to(Vehicle.PARKED).on(Events.HEARTBEAT);
+		builder.onEntry(Vehicle.MOVING).perform(new Action<Vehicle, Events, String>() {
+			@Override
+			public void onTransition(Vehicle from, Vehicle to, Events causedBy, String context, StateMachine<Vehicle, Events, String> stateMachine) {
+				log.add(causedBy + " " + context);
+			}
+		});
+		builder.onEntry(Vehicle.LOST).perform(new Action<Vehicle, Events, String>() {
+			@Override
+			public void onTransition(Vehicle from, Vehicle to, Events causedBy, String context, StateMachine<Vehicle, Events, String> stateMachine) {
+				log.add(causedBy + " " + context);
+			}
+		});
+		machine = builder.buildCompiledTransitionModel().newStateMachine(Vehicle.PARKED);
+		coalescing = new CoalescingStateMachine<Vehicle, Events, String>(machine, Events.class, EnumSet.of(Events.POSITION, Events.HEARTBEAT));
+	}
+
+	@Test
+	public void burstsOfCoalescibleEventsAreAppliedOnceOnDrain() {
+		for (int i = 0; i < 10; i++) {
+			assertFalse(coalescing.fireEvent(Events.POSITION, "position " + i));
+		}
+		assertEquals(Vehicle.PARKED, coalescing.getCurrentState());
+		assertEquals(1, coalescing.getPending());
+
+		assertEquals(1, coalescing.drain());
+
+		assertEquals(Vehicle.MOVING, coalescing.getCurrentState());
+		assertEquals(Lists.newArrayList("POSITION position 9"), log);
+		assertEquals(10, coalescing.getReceived());
+		assertEquals(9, coalescing.getDropped());
+		assertEquals(1, coalescing.getApplied());
+		assertEquals(0, coalescing.getPending());
+	}
+
+	@Test
+	public void pendingEventsAreDrainedInTheOrderTheyFirstArrived() {
+		coalescing.fireEvent(Events.HEARTBEAT);
+		coalescing.fireEvent(Events.POSITION);
+		coalescing.fireEvent(Events.HEARTBEAT);
+
+		assertEquals(1, coalescing.drain());
+
+		assertEquals(Vehicle.MOVING, machine.getCurrentState());
+		assertEquals(Lists.newArrayList("POSITION default"), log);
+	}
+
+	@Test
+	public void otherEventsAreFiredAfterThePendingOnes() {
+		coalescing.fireEvent(Events.POSITION, "moved");
+
+		assertTrue(coalescing.fireEvent(Events.SIGNAL_LOST, "tunnel"));
+
+		assertEquals(Vehicle.LOST, machine.getCurrentState());
+		assertEquals(Lists.newArrayList("POSITION moved", "SIGNAL_LOST tunnel"), log);
+		assertEquals(0, coalescing.getPending());
+		assertEquals(2, coalescing.getApplied());
+	}
+
+	@Test
+	public void eventsFiredWhileDrainingDoNotStartANestedDrain() {
+		StateMachineBuilder<Vehicle, Events, String> builder = Fettle.newBuilder(Vehicle.class, Events.class);
+		builder.defaultContext("default");
+		builder.transition().from(Vehicle.PARKED).to(Vehicle.MOVING).on(Events.POSITION);
+		builder.transition().fromAll().to(Vehicle.LOST).on(Events.SIGNAL_LOST);
+		builder.transition().from(Vehicle.LOST).to(Vehicle.PARKED).on(Events.HEARTBEAT);
+		final List<CoalescingStateMachine<Vehicle, Events, String>> front = Lists.newArrayList();
+		builder.onEntry(Vehicle.MOVING).perform(new Action<Vehicle, Events, String>() {
+			@Override
+			public void onTransition(Vehicle from, Vehicle to, Events causedBy, String context, StateMachine<Vehicle, Events, String> stateMachine) {
+				log.add(causedBy + " " + context);
+				front.get(0).fireEvent(Events.SIGNAL_LOST, "tunnel");
+			}
+		});
+		builder.onEntry(Vehicle.LOST).perform(new Action<Vehicle, Events, String>() {
+			@Override
+			public void onTransition(Vehicle from, Vehicle to, Events causedBy, String context, StateMachine<Vehicle, Events, String> stateMachine) {
+				log.add(causedBy + " " + context);
+			}
+		});
+		CoalescingStateMachine<Vehicle, Events, String> reentrant = new CoalescingStateMachine<Vehicle, Events, String>(
+				  builder.buildCompiledTransitionModel().newStateMachine(Vehicle.PARKED), Events.class, EnumSet.of(Events.POSITION, Events.HEARTBEAT));
+		front.add(reentrant);
+		reentrant.fireEvent(Events.POSITION, "moved");
+		reentrant.fireEvent(Events.HEARTBEAT, "alive");
+
+		assertEquals(2, reentrant.drain());
+
+		assertEquals(Vehicle.PARKED, reentrant.getCurrentState());
+		assertEquals(Lists.newArrayList("POSITION moved", "SIGNAL_LOST tunnel"), log);
+		assertEquals(0, reentrant.getPending());
+		assertEquals(3, reentrant.getApplied());
+	}
+
+	@Test
+	public void coalescibleEventsFiredWhileDrainingJoinTheDrain() {
+		StateMachineBuilder<Vehicle, Events, String> builder = Fettle.newBuilder(Vehicle.class, Events.class);
+		builder.defaultContext("default");
+		builder.transition().from(Vehicle.PARKED).to(Vehicle.MOVING).on(Events.POSITION);
+		builder.transition().from(Vehicle.MOVING).to(Vehicle.MOVING).on(Events.POSITION);
+		final List<CoalescingStateMachine<Vehicle, Events, String>> front = Lists.newArrayList();
+		builder.onEntry(Vehicle.MOVING).perform(new Action<Vehicle, Events, String>() {
+			@Override
+			public void onTransition(Vehicle from, Vehicle to, Events causedBy, String context, StateMachine<Vehicle, Events, String> stateMachine) {
+				log.add(causedBy + " " + context);
+				if (log.size() < 10) {
+					front.get(0).fireEvent(Events.POSITION, "again");
+				}
+			}
+		});
+		CoalescingStateMachine<Vehicle, Events, String> reentrant = new CoalescingStateMachine<Vehicle, Events, String>(
+				  builder.buildCompiledTransitionModel().newStateMachine(Vehicle.PARKED), Events.class, EnumSet.of(Events.POSITION, Events.HEARTBEAT));
+		front.add(reentrant);
+		reentrant.fireEvent(Events.POSITION, "moved");
+		reentrant.fireEvent(Events.HEARTBEAT, "alive");
+
+		assertEquals(10, reentrant.drain());
+
+		assertEquals(10, log.size());
+		assertEquals("POSITION moved", log.get(0));
+		assertEquals("POSITION again", log.get(9));
+		assertEquals(0, reentrant.getPending());
+		assertEquals(11, reentrant.getApplied());
+
+		reentrant.fireEvent(Events.HEARTBEAT, "alive");
+		reentrant.fireEvent(Events.POSITION, "moved");
+		assertEquals(2, reentrant.getPending());
+		assertEquals(1, reentrant.drain());
+		assertEquals(0, reentrant.getPending());
+	}
+
+	@Test
+	public void batchesAreCoalescedToo() {
+		assertEquals(1, coalescing.fireEvents(Lists.newArrayList(Events.POSITION, Events.POSITION, Events.PARK, Events.POSITION), "batch"));
+
+		assertEquals(Vehicle.PARKED, machine.getCurrentState());
+		assertEquals(1, coalescing.getDropped());
+		assertEquals(1, coalescing.drain());
+		assertEquals(Vehicle.MOVING, machine.getCurrentState());
+	}
+
+	@Test
+	public void eventsAfterAFailingOneStayPending() {
+		StateMachine<Vehicle, Events, String> failing = new StateMachine<Vehicle, Events, String>() {
+			@Override
+			public Vehicle getCurrentState() {
+				return machine.getCurrentState();
+			}
+
+			@Override
+			public boolean fireEvent(Events event) {
+				return fireEvent(event, null);
+			}
+
+			@Override
+			public boolean fireEvent(Events event, String context) {
+				if (event == Events.HEARTBEAT) {
+					throw new IllegalStateException("heartbeat failed");
+				}
+				return machine.fireEvent(event, context);
+			}
+
+			@Override
+			public int fireEvents(Iterable<? extends Events> events, String context) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public int fireEvents(Events[] events, int offset, int length, String context) {
+				throw new UnsupportedOperationException();
+			}
+
+			@Override
+			public void rawSetState(Vehicle rawState) {
+				machine.rawSetState(rawState);
+			}
+
+			@Override
+			public boolean forceSetState(Vehicle forcedState) {
+				return machine.forceSetState(forcedState);
+			}
+
+			@Override
+			public Map<Events, Collection<? extends Transition<Vehicle, Events, String>>> getPossibleTransitions(Vehicle fromState) {
+				return machine.getPossibleTransitions(fromState);
+			}
+		};
+		coalescing = new CoalescingStateMachine<Vehicle, Events, String>(failing, Events.class, EnumSet.of(Events.POSITION, Events.HEARTBEAT));
+		coalescing.fireEvent(Events.HEARTBEAT);
+		coalescing.fireEvent(Events.POSITION);
+
+		try {
+			coalescing.drain();
+			fail("The exception should propagate");
+		} catch (IllegalStateException e) {
+			assertEquals("heartbeat failed", e.getMessage());
+		}
+
+		assertEquals(1, coalescing.getPending());
+		assertEquals(1, coalescing.drain());
+		assertEquals(Vehicle.MOVING, machine.getCurrentState());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void someEventMustBeCoalescible() {
+		new CoalescingStateMachine<Vehicle, Events, String>(machine, Events.class, EnumSet.noneOf(Events.class));
+	}
+}
@@ -0,0 +1,145 @@
+package se.fearless.fettle;
+
+import com.googlecode.gentyref.TypeToken;
+import org.junit.Before;
+import org.junit.Test;
+import se.fearless.fettle.builder.StateMachineBuilder;
+import se.fearless.fettle.impl.MutableTransitionModelImpl;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static se.mockachino.Mockachino.mock;
+import static se.mockachino.Mockachino.verifyNever;
+import static se.mockachino.Mockachino.verifyOnce;
+import static se.mockachino.matchers.Matchers.any;
+
+public class CompiledTransitionModelTest {
+
+	public static final TypeToken<Action<States, Triggers, Boolean>> ACTION_TYPE_TOKEN = new TypeToken<Action<States, Triggers, Boolean>>() {
+	};
+
+	enum Triggers {
+		FOO, BAR, BAZ
+	}
+
+	private StateMachineBuilder<States, Triggers, Boolean> builder;
+
+	@Before
+	public void setUp() throws Exception {
+		builder = StateMachineBuilder.create(States.class, Triggers.class);
+		builder.defaultContext(true);
+	}
+
+	@Test
+	public void simpleStateTransition() {
+		builder.transition().from(States.INITIAL).to(States.ONE).on(Triggers.FOO);
+		builder.transition().from(States.ONE).to(States.TWO).on(Triggers.BAR);
+
+		StateMachine<States, Triggers, Boolean> machine = builder.buildCompiledTransitionModel().newStateMachine(States.INITIAL);
+
+		assertFalse(machine.fireEvent(Triggers.BAR));
+		assertTrue(machine.fireEvent(Triggers.FOO));
+		assertEquals(States.ONE, machine.getCurrentState());
+		assertFalse(machine.fireEvent(Triggers.FOO));
+		assertTrue(machine.fireEvent(Triggers.BAR));
+		assertEquals(States.TWO, machine.getCurrentState());
+		assertFalse(machine.fireEvent(null));
+	}
+
+	@Test
+	public void guardsAreEvaluatedInInsertionOrder() {
+		builder.transition().from(States.INITIAL).to(States.ONE).on(Triggers.FOO).when(new Condition<Boolean>() {
+			@Override
+			public boolean isSatisfied(Boolean context) {
+				return context;
+			}
+		});
+		builder.transition().from(States.INITIAL).to(States.TWO).on(Triggers.FOO);
+
+		StateMachineTemplate<States, Triggers, Boolean> template = builder.buildCompiledTransitionModel();
+
+		StateMachine<States, Triggers, Boolean> first = template.newStateMachine(States.INITIAL);
+		first.fireEvent(Triggers.FOO, true);
+		assertEquals(States.ONE, first.getCurrentState());
+
+		StateMachine<States, Triggers, Boolean> second = template.newStateMachine(States.INITIAL);
+		second.fireEvent(Triggers.FOO, false);
+		assertEquals(States.TWO, second.getCurrentState());
+	}
+
+	@Test
+	public void fromAllTransitionsAreMergedAfterStateTransitions() {
+		builder.transition().from(States.INITIAL).to(States.ONE).on(Triggers.FOO);
+		builder.transition().from(States.ONE).to(States.TWO).on(Triggers.BAR).when(new Condition<Boolean>() {
+			@Override
+			public boolean isSatisfied(Boolean context) {
+				return context;
+			}
+		});
+		builder.transition().fromAll().to(States.THREE).on(Triggers.BAR);
+		builder.transition().fromAll().to(States.INITIAL).on(Triggers.BAZ);
+
+		StateMachine<States, Triggers, Boolean> machine = builder.buildCompiledTransitionModel().newStateMachine(States.INITIAL);
+
+		machine.fireEvent(Triggers.FOO);
+		machine.fireEvent(Triggers.BAR, true);
+		assertEquals(States.TWO, machine.getCurrentState());
+
+		machine.fireEvent(Triggers.BAZ);
+		machine.fireEvent(Triggers.FOO);
+		machine.fireEvent(Triggers.BAR, false);
+		assertEquals(States.THREE, machine.getCurrentState());
+	}
+
+	@Test
+	public void entryExitAndTransitionActions() {
+		Action<States, Triggers, Boolean> entryAction = mock(ACTION_TYPE_TOKEN);
+		Action<States, Triggers, Boolean> exitAction = mock(ACTION_TYPE_TOKEN);
+		Action<States, Triggers, Boolean> transitionAction = mock(ACTION_TYPE_TOKEN);
+		builder.transition().from(States.INITIAL).to(States.ONE).on(Triggers.FOO).perform(transitionAction);
+		builder.transition().from(States.ONE).to(States.TWO).on(Triggers.FOO);
+		builder.onEntry(States.ONE).perform(entryAction);
+		builder.onExit(States.ONE).perform(exitAction);
+
+		StateMachine<States, Triggers, Boolean> machine = builder.buildCompiledTransitionModel().newStateMachine(States.INITIAL);
+
+		machine.fireEvent(Triggers.FOO);
+		verifyOnce().on(transitionAction).onTransition(States.INITIAL, States.ONE, Triggers.FOO, true, machine);
+		verifyOnce().on(entryAction).onTransition(States.INITIAL, States.ONE, Triggers.FOO, true, machine);
+		verifyNever().on(exitAction).onTransition(any(States.class), any(States.class), any(Triggers.class), any(Boolean.class), machine);
+
+		machine.fireEvent(Triggers.FOO);
+		verifyOnce().on(exitAction).onTransition(States.ONE, States.TWO, Triggers.FOO, true, machine);
+
+		machine.forceSetState(States.ONE);
+		verifyOnce().on(entryAction).onTransition(States.TWO, States.ONE, null, null, machine);
+	}
+
+	@Test
+	public void compiledModelIsNotAffectedByLaterChanges() {
+		MutableTransitionModel<States, Triggers, Void> model = MutableTransitionModelImpl.create(States.class, Triggers.class);
+		model.addTransition(States.INITIAL, States.ONE, Triggers.FOO, BasicConditions.<Void>always(), Collections.<Action<States, Triggers, Void>>emptyList());
+
+		StateMachineTemplate<States, Triggers, Void> compiled = model.compile();
+		model.addTransition(States.INITIAL, States.TWO, Triggers.BAR, BasicConditions.<Void>always(), Collections.<Action<States, Triggers, Void>>emptyList());
+
+		StateMachine<States, Triggers, Void> machine = compiled.newStateMachine(States.INITIAL);
+		assertFalse(machine.fireEvent(Triggers.BAR));
+		assertTrue(machine.fireEvent(Triggers.FOO));
+	}
+
+	@Test
+	public void nonEnumEventsCannotBeCompiled() {
+		MutableTransitionModel<States, String, Void> model = MutableTransitionModelImpl.create(States.class, String.class);
+		try {
+			model.compile();
+			fail("Models with non enum events should not compile");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains(String.class.getName()));
+		}
+	}
+}
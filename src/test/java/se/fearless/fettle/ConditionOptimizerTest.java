@@ -0,0 +1,184 @@
+package se.fearless.fettle;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+import se.fearless.fettle.impl.BasicTransition;
+import se.fearless.fettle.impl.ImmutableTransitionModel;
+import se.fearless.fettle.impl.MutableTransitionModelImpl;
+
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static se.fearless.fettle.BasicConditions.and;
+import static se.fearless.fettle.BasicConditions.not;
+import static se.fearless.fettle.BasicConditions.or;
+import static se.fearless.fettle.BasicConditions.withCost;
+import static se.fearless.fettle.BasicConditions.xor;
+
+public class ConditionOptimizerTest {
+
+	private final List<String> log = Lists.newArrayList();
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void nestedJunctionsAreFlattened() {
+		Condition<Void> a = new Recording("a", true);
+		Condition<Void> b = new Recording("b", true);
+		Condition<Void> c = new Recording("c", true);
+
+		Condition<Void> optimized = ConditionOptimizer.optimize(and(and(a, BasicConditions.<Void>always()), and(b, c)));
+
+		assertArrayEquals(new Condition[]{a, b, c}, ((BasicConditions.And<Void>) optimized).terms);
+		assertTrue(optimized.isSatisfied(null));
+		assertEquals(Lists.newArrayList("a", "b", "c"), log);
+	}
+
+	@Test
+	public void constantsAreFolded() {
+		Condition<Void> a = new Recording("a", true);
+
+		assertSame(BasicConditions.<Void>never(), ConditionOptimizer.optimize(and(a, not(BasicConditions.<Void>always()))));
+		assertSame(BasicConditions.<Void>always(), ConditionOptimizer.optimize(or(a, BasicConditions.<Void>always())));
+		assertSame(a, ConditionOptimizer.optimize(or(BasicConditions.<Void>never(), a)));
+		assertSame(a, ConditionOptimizer.optimize(not(not(a))));
+		assertSame(a, ConditionOptimizer.optimize(xor(a, BasicConditions.<Void>never())));
+		assertSame(BasicConditions.<Void>always(), ConditionOptimizer.optimize(and(BasicConditions.<Void>always(), BasicConditions.<Void>always())));
+		assertTrue(log.isEmpty());
+	}
+
+	@Test
+	public void unknownConditionsAreLeftAlone() {
+		Condition<Void> a = new Recording("a", false);
+
+		assertSame(a, ConditionOptimizer.optimize(a));
+	}
+
+	@Test
+	public void cheapTermsAreEvaluatedFirst() {
+		Condition<Void> expensive = withCost(new Recording("expensive", true), 100);
+		Condition<Void> cheap = withCost(new Recording("cheap", false), 1);
+		Condition<Void> medium = withCost(new Recording("medium", true), 10);
+
+		Condition<Void> optimized = ConditionOptimizer.optimize(and(and(expensive, medium), cheap));
+
+		assertFalse(optimized.isSatisfied(null));
+		assertEquals(Lists.newArrayList("cheap"), log);
+	}
+
+	@Test
+	public void declaredOrderIsKeptUnlessAllTermsHaveACost() {
+		Condition<Void> expensive = withCost(new Recording("expensive", false), 100);
+		Condition<Void> unknown = new Recording("unknown", false);
+		Condition<Void> cheap = withCost(new Recording("cheap", false), 1);
+
+		assertFalse(ConditionOptimizer.optimize(or(Lists.newArrayList(expensive, unknown, cheap))).isSatisfied(null));
+		assertEquals(Lists.newArrayList("expensive", "unknown", "cheap"), log);
+	}
+
+	@Test
+	public void adaptiveJunctionsMoveDecidingTermsFirst() {
+		Recording rarelyFalse = new Recording("rarelyFalse", true);
+		Recording oftenFalse = new Recording("oftenFalse", false);
+		Condition<Void> adaptive = ConditionOptimizer.adaptive(and(rarelyFalse, oftenFalse));
+
+		for (int i = 0; i < 2048; i++) {
+			assertFalse(adaptive.isSatisfied(null));
+		}
+		log.clear();
+		assertFalse(adaptive.isSatisfied(null));
+
+		assertEquals(Lists.newArrayList("oftenFalse"), log);
+		assertArrayEquals(new Condition[]{oftenFalse, rarelyFalse}, ((ConditionOptimizer.AdaptiveJunction<Void>) adaptive).getTerms());
+	}
+
+	@Test
+	public void adaptiveJunctionsFollowChangingOutcomes() {
+		Switch first = new Switch(true);
+		Switch second = new Switch(false);
+		Condition<Void> adaptive = ConditionOptimizer.adaptive(or(first, second));
+		ConditionOptimizer.AdaptiveJunction<Void> junction = (ConditionOptimizer.AdaptiveJunction<Void>) adaptive;
+
+		for (int i = 0; i < 4096; i++) {
+			assertTrue(adaptive.isSatisfied(null));
+		}
+		assertArrayEquals(new Condition[]{first, second}, junction.getTerms());
+
+		first.value = false;
+		second.value = true;
+		for (int i = 0; i < 4096; i++) {
+			assertTrue(adaptive.isSatisfied(null));
+		}
+		assertArrayEquals(new Condition[]{second, first}, junction.getTerms());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void immutableModelsOptimizeTheirGuards() {
+		MutableTransitionModelImpl<String, String, Void> model = MutableTransitionModelImpl.create(String.class, String.class);
+		Condition<Void> a = new Recording("a", true);
+		model.addTransition("from", "to", "event", and(a, BasicConditions.<Void>always()), Lists.<Action<String, String, Void>>newArrayList());
+
+		ImmutableTransitionModel<String, String, Void> immutable = (ImmutableTransitionModel<String, String, Void>) model.createImmutableClone();
+
+		Collection<BasicTransition<String, String, Void>> transitions = immutable.getStateTransitions().get("from").get("event");
+		assertSame(a, transitions.iterator().next().getCondition());
+		assertTrue(immutable.newStateMachine("from").fireEvent("event"));
+		assertEquals(Lists.newArrayList("a"), log);
+	}
+
+	@Test
+	public void conditionsThatCanNotBeSimplifiedAreKept() {
+		Condition<Void> a = new Recording("a", true);
+		Condition<Void> b = new Recording("b", true);
+		Condition<Void> c = new Recording("c", true);
+		Condition<Void> condition = and(or(a, b), xor(not(c), a));
+
+		assertSame(condition, ConditionOptimizer.optimize(condition));
+	}
+
+	@Test
+	public void possibleTransitionsKeepTheGuardsAsGiven() {
+		MutableTransitionModelImpl<String, String, Void> model = MutableTransitionModelImpl.create(String.class, String.class);
+		Condition<Void> guard = or(new Recording("a", true), new Recording("b", true));
+		model.addTransition("from", "to", "event", guard, Lists.<Action<String, String, Void>>newArrayList());
+
+		StateMachineTemplate<String, String, Void> immutable = model.createImmutableClone();
+
+		Transition<String, String, Void> transition = immutable.newStateMachine("from").getPossibleTransitions("from").get("event").iterator().next();
+		assertSame(guard, ((BasicTransition<String, String, Void>) transition).getCondition());
+	}
+
+	private static class Switch implements Condition<Void> {
+		private boolean value;
+
+		Switch(boolean value) {
+			this.value = value;
+		}
+
+		@Override
+		public boolean isSatisfied(Void context) {
+			return value;
+		}
+	}
+
+	private class Recording implements Condition<Void> {
+		private final String name;
+		private final boolean value;
+
+		Recording(String name, boolean value) {
+			this.name = name;
+			this.value = value;
+		}
+
+		@Override
+		public boolean isSatisfied(Void context) {
+			log.add(name);
+			return value;
+		}
+	}
+}
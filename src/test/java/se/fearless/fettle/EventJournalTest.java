@@ -0,0 +1,294 @@
+package se.fearless.fettle;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import se.fearless.fettle.builder.StateMachineBuilder;
+import se.fearless.fettle.journal.ContextSummarizer;
+import se.fearless.fettle.journal.Durability;
+import se.fearless.fettle.journal.EventJournal;
+import se.fearless.fettle.journal.JournalRecordHandler;
+import se.fearless.fettle.journal.JournalReplayer;
+import se.fearless.fettle.journal.JournalingTransitionListener;
+import se.fearless.fettle.timer.TimeoutBuilder;
+import se.fearless.fettle.timer.TimingWheel;
+import se.fearless.fettle.timer.VirtualClock;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class EventJournalTest {
+
+	private enum Events {
+		NEXT, RESET
+	}
+
+	private File file;
+	private StateMachineBuilder<States, Events, Integer> builder;
+	private StateMachineTemplate<States, Events, Integer> template;
+	private int actionCalls;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("fettle", ".journal");
+		assertTrue(file.delete());
+		builder = Fettle.newBuilder(States.class, Events.class);
+		Action<States, Events, Integer> count = new Action<States, Events, Integer>() {
+			@Override
+			public void onTransition(States from, States to, Events causedBy, Integer context, StateMachine<States, Events, Integer> stateMachine) {
+				actionCalls++;
+			}
+		};
+		builder.transition().from(States.INITIAL).to(States.ONE).on(Events.NEXT).perform(count);
+		builder.transition().from(States.ONE).to(States.TWO).on(Events.NEXT).perform(count);
+		builder.transition().from(States.TWO).to(States.THREE).on(Events.NEXT).perform(count);
+		builder.transition().fromAll().to(States.INITIAL).on(Events.RESET).perform(count);
+		template = builder.buildCompiledTransitionModel();
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void replayRestoresStatesWithoutRunningActions() throws IOException {
+		EventJournal journal = new EventJournal(file, Durability.WRITTEN);
+		JournalingTransitionListener<States, Events, Integer> journaling = new JournalingTransitionListener<States, Events, Integer>(journal);
+		template.addTransitionListener(journaling);
+		List<StateMachine<States, Events, Integer>> machines = Lists.newArrayList();
+		for (int id = 0; id < 3; id++) {
+			machines.add(journaling.journal(template.newStateMachine(States.INITIAL), id));
+		}
+		machines.get(0).fireEvent(Events.NEXT);
+		machines.get(1).fireEvent(Events.NEXT);
+		machines.get(1).fireEvent(Events.NEXT);
+		machines.get(1).fireEvent(Events.NEXT);
+		machines.get(1).fireEvent(Events.NEXT);
+		machines.get(2).fireEvent(Events.NEXT);
+		machines.get(2).fireEvent(Events.RESET);
+		machines.get(2).forceSetState(States.TWO);
+		journal.close();
+
+		actionCalls = 0;
+		StateMachinePool<States, Events, Integer> pool = template.newStateMachinePool(3, States.INITIAL);
+		long records = newReplayer().replay(file, pool, true);
+
+		assertEquals(7, records);
+		assertEquals(States.ONE, pool.getCurrentState(0));
+		assertEquals(States.THREE, pool.getCurrentState(1));
+		assertEquals(States.TWO, pool.getCurrentState(2));
+		assertEquals(0, actionCalls);
+	}
+
+	@Test
+	public void recordsHoldTheContextSummary() throws IOException {
+		EventJournal journal = new EventJournal(file, Durability.SYNCED);
+		JournalingTransitionListener<States, Events, Integer> journaling = new JournalingTransitionListener<States, Events, Integer>(journal,
+				  new ContextSummarizer<Integer>() {
+			@Override
+			public long summarize(Integer context) {
+				return context * 10L;
+			}
+		});
+		template.addTransitionListener(journaling);
+		StateMachine<States, Events, Integer> machine = journaling.journal(template.newStateMachine(States.INITIAL), 7);
+		machine.fireEvent(Events.NEXT, 4);
+		journal.close();
+
+		final List<String> records = Lists.newArrayList();
+		EventJournal.read(file, new JournalRecordHandler() {
+			@Override
+			public void onRecord(int machineId, int event, int state, long summary) {
+				records.add(machineId + ":" + event + ":" + state + ":" + summary);
+			}
+		});
+		assertEquals(Lists.newArrayList("7:0:1:40"), records);
+	}
+
+	@Test
+	public void eventsFiredByActionsAreJournaledWithTheirOwnRecords() throws IOException {
+		builder.onEntry(States.ONE).perform(new Action<States, Events, Integer>() {
+			@Override
+			public void onTransition(States from, States to, Events causedBy, Integer context, StateMachine<States, Events, Integer> stateMachine) {
+				stateMachine.fireEvent(Events.NEXT);
+			}
+		});
+		template = builder.buildCompiledTransitionModel();
+		EventJournal journal = new EventJournal(file, Durability.WRITTEN);
+		JournalingTransitionListener<States, Events, Integer> journaling = new JournalingTransitionListener<States, Events, Integer>(journal);
+		template.addTransitionListener(journaling);
+
+		journaling.journal(template.newStateMachine(States.INITIAL), 0).fireEvent(Events.NEXT);
+		journal.close();
+
+		assertEquals(Lists.newArrayList("0:0:1", "0:0:2"), readRecords());
+		StateMachinePool<States, Events, Integer> pool = template.newStateMachinePool(1, States.INITIAL);
+		assertEquals(2, newReplayer().replay(file, pool, true));
+		assertEquals(States.TWO, pool.getCurrentState(0));
+	}
+
+	@Test
+	public void timeoutsAreJournaled() throws IOException {
+		VirtualClock clock = new VirtualClock();
+		TimingWheel wheel = new TimingWheel(clock, 10, TimeUnit.MILLISECONDS, 8);
+		builder.transition().from(States.ONE).to(States.THREE).on(Events.RESET);
+		TimeoutBuilder.create(builder, wheel).timeout(States.ONE, Events.RESET, 50, TimeUnit.MILLISECONDS);
+		template = builder.buildTransitionModel();
+		EventJournal journal = new EventJournal(file, Durability.WRITTEN);
+		JournalingTransitionListener<States, Events, Integer> journaling = new JournalingTransitionListener<States, Events, Integer>(journal);
+		template.addTransitionListener(journaling);
+		StateMachine<States, Events, Integer> machine = journaling.journal(template.newStateMachine(States.INITIAL), 0);
+
+		machine.fireEvent(Events.NEXT);
+		clock.advance(50, TimeUnit.MILLISECONDS);
+		wheel.advance();
+		journal.close();
+
+		assertEquals(States.THREE, machine.getCurrentState());
+		assertEquals(Lists.newArrayList("0:0:1", "0:1:3"), readRecords());
+		StateMachinePool<States, Events, Integer> pool = template.newStateMachinePool(1, States.INITIAL);
+		assertEquals(2, newReplayer().replay(file, pool, true));
+		assertEquals(States.THREE, pool.getCurrentState(0));
+	}
+
+	@Test
+	public void bufferedRecordsAreWrittenOnFlush() throws IOException {
+		EventJournal journal = new EventJournal(file, Durability.BUFFERED);
+		journal.append(0, 0, 1, 0);
+		assertEquals(0, countRecords());
+
+		journal.flush();
+		assertEquals(1, countRecords());
+		journal.close();
+	}
+
+	@Test
+	public void tornRecordsAreDroppedWhenReopening() throws IOException {
+		EventJournal journal = new EventJournal(file, Durability.WRITTEN);
+		journal.append(0, 0, 1, 0);
+		journal.close();
+		FileOutputStream out = new FileOutputStream(file, true);
+		out.write(new byte[]{1, 2, 3});
+		out.close();
+		assertEquals(1, countRecords());
+
+		journal = new EventJournal(file, Durability.WRITTEN);
+		journal.append(0, 0, 2, 0);
+		journal.close();
+
+		assertEquals(2, countRecords());
+	}
+
+	@Test(expected = IOException.class)
+	public void otherFilesAreNotJournals() throws IOException {
+		RandomAccessFile other = new RandomAccessFile(file, "rw");
+		other.writeLong(42);
+		other.close();
+		new EventJournal(file, Durability.WRITTEN);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void verifyingDetectsTheWrongInitialState() throws IOException {
+		EventJournal journal = new EventJournal(file, Durability.WRITTEN);
+		JournalingTransitionListener<States, Events, Integer> journaling = new JournalingTransitionListener<States, Events, Integer>(journal);
+		template.addTransitionListener(journaling);
+		journaling.journal(template.newStateMachine(States.INITIAL), 0).fireEvent(Events.NEXT);
+		journal.close();
+
+		newReplayer().replay(file, template.newStateMachinePool(1, States.TWO), true);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void recordsOfUnknownStatesAreRejected() throws IOException {
+		EventJournal journal = new EventJournal(file, Durability.WRITTEN);
+		journal.append(0, EventJournal.FORCED, States.values().length, 0);
+		journal.close();
+
+		newReplayer().replay(file, template.newStateMachinePool(1, States.INITIAL), false);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void recordsOfUnknownEventsAreRejected() throws IOException {
+		EventJournal journal = new EventJournal(file, Durability.WRITTEN);
+		journal.append(0, Events.values().length, States.ONE.ordinal(), 0);
+		journal.close();
+
+		newReplayer().replay(file, template.newStateMachinePool(1, States.INITIAL), true);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void closedJournalsRejectRecords() throws IOException {
+		EventJournal journal = new EventJournal(file, Durability.WRITTEN);
+		journal.close();
+		journal.append(0, 0, 0, 0);
+	}
+
+	@Test
+	public void concurrentAppendersShareWritesAndKeepTheirOrder() throws Exception {
+		final EventJournal journal = new EventJournal(file, Durability.WRITTEN, 16);
+		final int threads = 4;
+		final int perThread = 2000;
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int t = 0; t < threads; t++) {
+			final int id = t;
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < perThread; i++) {
+							journal.append(id, 0, 0, i);
+						}
+					} catch (IOException e) {
+						throw new IllegalStateException(e);
+					} finally {
+						done.countDown();
+					}
+				}
+			}).start();
+		}
+		done.await();
+		journal.close();
+
+		final long[] next = new long[threads];
+		long records = EventJournal.read(file, new JournalRecordHandler() {
+			@Override
+			public void onRecord(int machineId, int event, int state, long summary) {
+				assertEquals(next[machineId]++, summary);
+			}
+		});
+		assertEquals(threads * perThread, records);
+	}
+
+	private JournalReplayer<States, Events> newReplayer() {
+		return new JournalReplayer<States, Events>((TransitionModel<States, Events, Integer>) template, States.class, Events.class);
+	}
+
+	private List<String> readRecords() throws IOException {
+		final List<String> records = Lists.newArrayList();
+		EventJournal.read(file, new JournalRecordHandler() {
+			@Override
+			public void onRecord(int machineId, int event, int state, long summary) {
+				records.add(machineId + ":" + event + ":" + state);
+			}
+		});
+		return records;
+	}
+
+	private long countRecords() throws IOException {
+		return EventJournal.read(file, new JournalRecordHandler() {
+			@Override
+			public void onRecord(int machineId, int event, int state, long summary) {
+			}
+		});
+	}
+}
@@ -0,0 +1,118 @@
+package se.fearless.fettle;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import se.fearless.fettle.builder.StateMachineBuilder;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class FireEventsTest {
+
+	private StateMachineBuilder<States, String, Void> builder;
+	private List<String> calls;
+
+	@Before
+	public void setUp() throws Exception {
+		builder = Fettle.newBuilder(States.class, String.class);
+		calls = Lists.newArrayList();
+		builder.transition().from(States.INITIAL).to(States.ONE).on("hej");
+		builder.transition().from(States.ONE).to(States.TWO).on("hopp");
+		builder.transition().from(States.TWO).to(States.THREE).on("hej");
+		for (final States state : States.values()) {
+			builder.onEntry(state).perform(new RecordingAction("enter " + state));
+			builder.onExit(state).perform(new RecordingAction("exit " + state));
+		}
+	}
+
+	@Test
+	public void eventsAreFiredInOrder() throws Exception {
+		StateMachine<States, String, Void> machine = builder.build(States.INITIAL);
+
+		int transitions = machine.fireEvents(Lists.newArrayList("hej", "hej", "hopp", "foo", "hej"), null);
+
+		assertEquals(3, transitions);
+		assertEquals(States.THREE, machine.getCurrentState());
+		assertEquals(Lists.newArrayList("exit INITIAL", "enter ONE", "exit ONE", "enter TWO", "exit TWO", "enter THREE"), calls);
+	}
+
+	@Test
+	public void arrayRange() throws Exception {
+		StateMachine<States, String, Void> machine = builder.build(States.INITIAL);
+		String[] events = {"foo", "hej", "hopp", "hej"};
+
+		assertEquals(2, machine.fireEvents(events, 1, 2, null));
+		assertEquals(States.TWO, machine.getCurrentState());
+	}
+
+	@Test
+	public void optimisticMachines() throws Exception {
+		StateMachine<States, String, Void> machine = builder.buildTransitionModel().newStateMachine(States.INITIAL, Concurrency.OPTIMISTIC);
+
+		assertEquals(3, machine.fireEvents(Lists.newArrayList("hej", "hopp", "hej"), null));
+		machine.rawSetState(States.INITIAL);
+		assertEquals(2, machine.fireEvents(new String[]{"hej", "hopp"}, 0, 2, null));
+		assertEquals(States.TWO, machine.getCurrentState());
+	}
+
+	@Test
+	public void pooledMachines() throws Exception {
+		StateMachinePool<States, String, Void> pool = builder.buildTransitionModel().newStateMachinePool(4, States.INITIAL);
+
+		assertEquals(3, pool.fireEvents(2, Lists.newArrayList("hej", "hopp", "hej"), null));
+		assertEquals(2, pool.getStateMachine(1).fireEvents(new String[]{"hej", "hopp"}, 0, 2, null));
+		assertEquals(States.THREE, pool.getCurrentState(2));
+		assertEquals(States.TWO, pool.getCurrentState(1));
+		assertEquals(States.INITIAL, pool.getCurrentState(0));
+	}
+
+	@Test
+	public void lockIsHeldForTheWholeBatch() throws Exception {
+		final ReentrantLock lock = new ReentrantLock();
+		final CountDownLatch inBatch = new CountDownLatch(1);
+		final CountDownLatch released = new CountDownLatch(1);
+		builder.onEntry(States.ONE).perform(new Action<States, String, Void>() {
+			@Override
+			public void onTransition(States from, States to, String causedBy, Void context, StateMachine<States, String, Void> stateMachine) {
+				inBatch.countDown();
+				try {
+					released.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		final StateMachine<States, String, Void> machine = builder.buildTransitionModel().newStateMachine(States.INITIAL, lock);
+		Thread batch = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				machine.fireEvents(Lists.newArrayList("hej", "hopp"), null);
+			}
+		});
+		batch.start();
+		inBatch.await();
+
+		assertFalse(lock.tryLock());
+		released.countDown();
+		batch.join();
+		assertEquals(States.TWO, machine.getCurrentState());
+	}
+
+	private class RecordingAction implements Action<States, String, Void> {
+		private final String name;
+
+		RecordingAction(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public void onTransition(States from, States to, String causedBy, Void context, StateMachine<States, String, Void> stateMachine) {
+			calls.add(name);
+		}
+	}
+}
@@ -0,0 +1,249 @@
+package se.fearless.fettle;
+
+import com.google.common.collect.Lists;
+import com.googlecode.gentyref.TypeToken;
+import org.junit.Before;
+import org.junit.Test;
+import se.fearless.fettle.builder.StateMachineBuilder;
+import se.fearless.fettle.codegen.GeneratedTransitionModel;
+import se.fearless.fettle.impl.MutableTransitionModelImpl;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static se.mockachino.Mockachino.mock;
+import static se.mockachino.Mockachino.verifyNever;
+import static se.mockachino.Mockachino.verifyOnce;
+import static se.mockachino.matchers.Matchers.any;
+
+public class GeneratedTransitionModelTest {
+
+	public static final TypeToken<Action<States, Triggers, Boolean>> ACTION_TYPE_TOKEN = new TypeToken<Action<States, Triggers, Boolean>>() {
+	};
+
+	enum Triggers {
+		FOO, BAR, BAZ
+	}
+
+	private StateMachineBuilder<States, Triggers, Boolean> builder;
+
+	@Before
+	public void setUp() throws Exception {
+		builder = StateMachineBuilder.create(States.class, Triggers.class);
+		builder.defaultContext(true);
+	}
+
+	@Test
+	public void simpleStateTransition() {
+		builder.transition().from(States.INITIAL).to(States.ONE).on(Triggers.FOO);
+		builder.transition().from(States.ONE).to(States.TWO).on(Triggers.BAR);
+
+		StateMachine<States, Triggers, Boolean> machine = generate().newStateMachine(States.INITIAL);
+
+		assertFalse(machine.fireEvent(Triggers.BAR));
+		assertTrue(machine.fireEvent(Triggers.FOO));
+		assertEquals(States.ONE, machine.getCurrentState());
+		assertFalse(machine.fireEvent(Triggers.FOO));
+		assertTrue(machine.fireEvent(Triggers.BAR));
+		assertEquals(States.TWO, machine.getCurrentState());
+		assertFalse(machine.fireEvent(null));
+	}
+
+	@Test
+	public void emptyModel() {
+		StateMachine<States, Triggers, Boolean> machine = generate().newStateMachine(States.INITIAL);
+
+		assertFalse(machine.fireEvent(Triggers.FOO));
+		assertTrue(machine.forceSetState(States.ONE));
+		assertEquals(States.ONE, machine.getCurrentState());
+	}
+
+	@Test
+	public void guardsAreEvaluatedInInsertionOrder() {
+		builder.transition().from(States.INITIAL).to(States.ONE).on(Triggers.FOO).when(new Condition<Boolean>() {
+			@Override
+			public boolean isSatisfied(Boolean context) {
+				return context;
+			}
+		});
+		builder.transition().from(States.INITIAL).to(States.TWO).on(Triggers.FOO);
+
+		StateMachineTemplate<States, Triggers, Boolean> template = generate();
+
+		StateMachine<States, Triggers, Boolean> first = template.newStateMachine(States.INITIAL);
+		first.fireEvent(Triggers.FOO, true);
+		assertEquals(States.ONE, first.getCurrentState());
+
+		StateMachine<States, Triggers, Boolean> second = template.newStateMachine(States.INITIAL);
+		second.fireEvent(Triggers.FOO, false);
+		assertEquals(States.TWO, second.getCurrentState());
+	}
+
+	@Test
+	public void fromAllTransitionsAreTriedAfterStateTransitions() {
+		builder.transition().from(States.INITIAL).to(States.ONE).on(Triggers.FOO);
+		builder.transition().from(States.ONE).to(States.TWO).on(Triggers.BAR).when(new Condition<Boolean>() {
+			@Override
+			public boolean isSatisfied(Boolean context) {
+				return context;
+			}
+		});
+		builder.transition().fromAll().to(States.THREE).on(Triggers.BAR);
+		builder.transition().fromAll().to(States.INITIAL).on(Triggers.BAZ);
+
+		StateMachine<States, Triggers, Boolean> machine = generate().newStateMachine(States.INITIAL);
+
+		machine.fireEvent(Triggers.FOO);
+		machine.fireEvent(Triggers.BAR, true);
+		assertEquals(States.TWO, machine.getCurrentState());
+
+		machine.fireEvent(Triggers.BAZ);
+		machine.fireEvent(Triggers.FOO);
+		machine.fireEvent(Triggers.BAR, false);
+		assertEquals(States.THREE, machine.getCurrentState());
+	}
+
+	@Test
+	public void entryExitAndTransitionActions() {
+		Action<States, Triggers, Boolean> entryAction = mock(ACTION_TYPE_TOKEN);
+		Action<States, Triggers, Boolean> exitAction = mock(ACTION_TYPE_TOKEN);
+		Action<States, Triggers, Boolean> transitionAction = mock(ACTION_TYPE_TOKEN);
+		builder.transition().from(States.INITIAL).to(States.ONE).on(Triggers.FOO).perform(transitionAction);
+		builder.transition().from(States.ONE).to(States.TWO).on(Triggers.FOO);
+		builder.onEntry(States.ONE).perform(entryAction);
+		builder.onExit(States.ONE).perform(exitAction);
+
+		StateMachine<States, Triggers, Boolean> machine = generate().newStateMachine(States.INITIAL);
+
+		machine.fireEvent(Triggers.FOO);
+		verifyOnce().on(transitionAction).onTransition(States.INITIAL, States.ONE, Triggers.FOO, true, machine);
+		verifyOnce().on(entryAction).onTransition(States.INITIAL, States.ONE, Triggers.FOO, true, machine);
+		verifyNever().on(exitAction).onTransition(any(States.class), any(States.class), any(Triggers.class), any(Boolean.class), machine);
+
+		machine.fireEvent(Triggers.FOO);
+		verifyOnce().on(exitAction).onTransition(States.ONE, States.TWO, Triggers.FOO, true, machine);
+
+		machine.forceSetState(States.ONE);
+		verifyOnce().on(entryAction).onTransition(States.TWO, States.ONE, null, null, machine);
+	}
+
+	@Test
+	public void actionsRunInOrder() {
+		final List<String> calls = Lists.newArrayList();
+		for (final String name : new String[]{"exit 1", "exit 2"}) {
+			builder.onExit(States.INITIAL).perform(new RecordingAction(calls, name));
+		}
+		builder.transition().from(States.INITIAL).to(States.ONE).on(Triggers.FOO)
+				  .perform(Lists.<Action<States, Triggers, Boolean>>newArrayList(new RecordingAction(calls, "transition 1"), new RecordingAction(calls, "transition 2")));
+		builder.onEntry(States.ONE).perform(new RecordingAction(calls, "entry"));
+
+		StateMachine<States, Triggers, Boolean> machine = generate().newStateMachine(States.INITIAL);
+		machine.fireEvent(Triggers.FOO);
+
+		assertEquals(Lists.newArrayList("exit 1", "exit 2", "transition 1", "transition 2", "entry"), calls);
+	}
+
+	@Test
+	public void manyGuardedTransitions() {
+		int count = 300;
+		for (int i = 0; i < count; i++) {
+			final int expected = i;
+			builder.transition().fromAll().to(States.values()[i % States.values().length]).on(Triggers.BAZ).when(new Condition<Boolean>() {
+				@Override
+				public boolean isSatisfied(Boolean context) {
+					return expected == 299;
+				}
+			});
+		}
+
+		StateMachine<States, Triggers, Boolean> machine = generate().newStateMachine(States.INITIAL);
+
+		assertTrue(machine.fireEvent(Triggers.BAZ));
+		assertEquals(States.values()[299 % States.values().length], machine.getCurrentState());
+	}
+
+	@Test
+	public void exceptionsFromActionsPropagate() {
+		final IllegalStateException failure = new IllegalStateException();
+		builder.transition().from(States.INITIAL).to(States.ONE).on(Triggers.FOO).perform(new Action<States, Triggers, Boolean>() {
+			@Override
+			public void onTransition(States from, States to, Triggers causedBy, Boolean context, StateMachine<States, Triggers, Boolean> stateMachine) {
+				throw failure;
+			}
+		});
+
+		StateMachine<States, Triggers, Boolean> machine = generate().newStateMachine(States.INITIAL);
+		try {
+			machine.fireEvent(Triggers.FOO);
+			fail("Expected the action to throw");
+		} catch (IllegalStateException e) {
+			assertSame(failure, e);
+		}
+	}
+
+	@Test
+	public void worksWithOtherMachineKinds() {
+		builder.transition().from(States.INITIAL).to(States.ONE).on(Triggers.FOO);
+		builder.transition().from(States.ONE).to(States.TWO).on(Triggers.BAR);
+		StateMachineTemplate<States, Triggers, Boolean> template = generate();
+
+		StateMachine<States, Triggers, Boolean> optimistic = template.newStateMachine(States.INITIAL, Concurrency.OPTIMISTIC);
+		assertEquals(2, optimistic.fireEvents(Lists.newArrayList(Triggers.FOO, Triggers.BAR), true));
+		assertEquals(States.TWO, optimistic.getCurrentState());
+
+		StateMachinePool<States, Triggers, Boolean> pool = template.newStateMachinePool(8, States.INITIAL);
+		assertTrue(pool.fireEvent(3, Triggers.FOO));
+		assertEquals(States.ONE, pool.getCurrentState(3));
+
+		List<StateMachine<States, Triggers, Boolean>> machines = Lists.newArrayList(template.newStateMachine(States.INITIAL), template.newStateMachine(States.ONE));
+		assertEquals(1, template.broadcast(Triggers.FOO, true, machines).getTransitioned());
+	}
+
+	@Test
+	public void generatedModelIsNotAffectedByLaterChanges() {
+		MutableTransitionModel<States, Triggers, Void> model = MutableTransitionModelImpl.create(States.class, Triggers.class);
+		model.addTransition(States.INITIAL, States.ONE, Triggers.FOO, BasicConditions.<Void>always(), Collections.<Action<States, Triggers, Void>>emptyList());
+
+		StateMachineTemplate<States, Triggers, Void> generated = GeneratedTransitionModel.generate(model);
+		model.addTransition(States.INITIAL, States.TWO, Triggers.BAR, BasicConditions.<Void>always(), Collections.<Action<States, Triggers, Void>>emptyList());
+
+		StateMachine<States, Triggers, Void> machine = generated.newStateMachine(States.INITIAL);
+		assertFalse(machine.fireEvent(Triggers.BAR));
+		assertTrue(machine.fireEvent(Triggers.FOO));
+	}
+
+	@Test
+	public void nonEnumEventsCannotBeGenerated() {
+		MutableTransitionModel<States, String, Void> model = MutableTransitionModelImpl.create(States.class, String.class);
+		try {
+			GeneratedTransitionModel.generate(model);
+			fail("Models with non enum events should not be generated");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains(String.class.getName()));
+		}
+	}
+
+	private StateMachineTemplate<States, Triggers, Boolean> generate() {
+		return GeneratedTransitionModel.generate(builder.buildTransitionModel());
+	}
+
+	private static class RecordingAction implements Action<States, Triggers, Boolean> {
+		private final List<String> calls;
+		private final String name;
+
+		RecordingAction(List<String> calls, String name) {
+			this.calls = calls;
+			this.name = name;
+		}
+
+		@Override
+		public void onTransition(States from, States to, Triggers causedBy, Boolean context, StateMachine<States, Triggers, Boolean> stateMachine) {
+			calls.add(name);
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package se.fearless.fettle;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import se.fearless.fettle.builder.StateMachineBuilder;
+import se.fearless.fettle.codegen.GeneratedTransitionModel;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HierarchicalStateTest {
+
+	private enum Call {
+		IDLE, ACTIVE, DIALING, CONNECTED, ON_HOLD
+	}
+
+	private enum Events {
+		DIAL, ANSWER, HOLD, RESUME, HANG_UP, REDIAL
+	}
+
+	private final List<String> log = Lists.newArrayList();
+	private StateMachineBuilder<Call, Events, Void> builder;
+
+	@Before
+	public void setUp() {
+		builder = Fettle.newBuilder(Call.class, Events.class);
+		builder.substates(Call.ACTIVE, Call.DIALING, Call.CONNECTED).substates(Call.CONNECTED, Call.ON_HOLD);
+		builder.transition().from(Call.IDLE).to(Call.DIALING).on(Events.DIAL);
+		builder.transition().from(Call.DIALING).to(Call.CONNECTED).on(Events.ANSWER);
+		builder.transition().from(Call.CONNECTED).to(Call.ON_HOLD).on(Events.HOLD);
+		builder.transition().from(Call.ON_HOLD).to(Call.CONNECTED).on(Events.RESUME);
+		builder.transition().from(Call.ACTIVE).to(Call.IDLE).on(Events.HANG_UP);
+		builder.transition().from(Call.ACTIVE).to(Call.DIALING).on(Events.REDIAL);
+		builder.transition().from(Call.ON_HOLD).to(Call.ON_HOLD).on(Events.REDIAL);
+		for (final Call state : Call.values()) {
+			builder.onEntry(state).perform(new Action<Call, Events, Void>() {
+				@Override
+				public void onTransition(Call from, Call to, Events causedBy, Void context, StateMachine<Call, Events, Void> stateMachine) {
+					log.add("enter " + state);
+				}
+			});
+			builder.onExit(state).perform(new Action<Call, Events, Void>() {
+				@Override
+				public void onTransition(Call from, Call to, Events causedBy, Void context, StateMachine<Call, Events, Void> stateMachine) {
+					log.add("exit " + state);
+				}
+			});
+		}
+	}
+
+	@Test
+	public void enteringASubstateEntersItsParentsFirst() {
+		for (StateMachineTemplate<Call, Events, Void> template : templates()) {
+			StateMachine<Call, Events, Void> machine = template.newStateMachine(Call.IDLE);
+			assertTrue(machine.fireEvent(Events.DIAL));
+			assertLog("exit IDLE", "enter ACTIVE", "enter DIALING");
+		}
+	}
+
+	@Test
+	public void transitionsWithinAParentDoNotLeaveIt() {
+		for (StateMachineTemplate<Call, Events, Void> template : templates()) {
+			StateMachine<Call, Events, Void> machine = template.newStateMachine(Call.DIALING);
+			assertTrue(machine.fireEvent(Events.ANSWER));
+			assertTrue(machine.fireEvent(Events.HOLD));
+			assertTrue(machine.fireEvent(Events.RESUME));
+			assertLog("exit DIALING", "enter CONNECTED", "enter ON_HOLD", "exit ON_HOLD");
+		}
+	}
+
+	@Test
+	public void inheritedTransitionsLeaveAllStatesUpToTheCommonParent() {
+		for (StateMachineTemplate<Call, Events, Void> template : templates()) {
+			StateMachine<Call, Events, Void> machine = template.newStateMachine(Call.ON_HOLD);
+			assertTrue(machine.fireEvent(Events.HANG_UP));
+			assertEquals(Call.IDLE, machine.getCurrentState());
+			assertLog("exit ON_HOLD", "exit CONNECTED", "exit ACTIVE", "enter IDLE");
+		}
+	}
+
+	@Test
+	public void transitionsToAnEnclosingStateLeaveAndEnterIt() {
+		for (StateMachineTemplate<Call, Events, Void> template : templates()) {
+			StateMachine<Call, Events, Void> machine = template.newStateMachine(Call.CONNECTED);
+			assertTrue(machine.fireEvent(Events.REDIAL));
+			assertEquals(Call.DIALING, machine.getCurrentState());
+			assertLog("exit CONNECTED", "enter DIALING");
+		}
+	}
+
+	@Test
+	public void ownTransitionsTakePrecedenceOverInheritedOnes() {
+		for (StateMachineTemplate<Call, Events, Void> template : templates()) {
+			StateMachine<Call, Events, Void> machine = template.newStateMachine(Call.ON_HOLD);
+			assertTrue(machine.fireEvent(Events.REDIAL));
+			assertEquals(Call.ON_HOLD, machine.getCurrentState());
+			assertLog("exit ON_HOLD", "enter ON_HOLD");
+			assertFalse(template.newStateMachine(Call.IDLE).fireEvent(Events.HANG_UP));
+		}
+	}
+
+	@Test
+	public void possibleTransitionsIncludeInheritedOnes() {
+		for (StateMachineTemplate<Call, Events, Void> template : templates()) {
+			TransitionModel<Call, Events, Void> model = (TransitionModel<Call, Events, Void>) template;
+			assertEquals(Call.IDLE, model.getPossibleTransitions(Call.ON_HOLD).get(Events.HANG_UP).iterator().next().getTo());
+			assertEquals(2, model.getPossibleTransitions(Call.ON_HOLD).get(Events.REDIAL).size());
+		}
+	}
+
+	@Test
+	public void forcingAStateRunsTheChains() {
+		for (StateMachineTemplate<Call, Events, Void> template : templates()) {
+			StateMachine<Call, Events, Void> machine = template.newStateMachine(Call.IDLE);
+			assertTrue(machine.forceSetState(Call.ON_HOLD));
+			assertLog("exit IDLE", "enter ACTIVE", "enter CONNECTED", "enter ON_HOLD");
+		}
+	}
+
+	@Test
+	public void forcingAStateNoTransitionLeadsToWalksTheHierarchy() {
+		for (StateMachineTemplate<Call, Events, Void> template : templates()) {
+			StateMachine<Call, Events, Void> machine = template.newStateMachine(Call.DIALING);
+			assertTrue(machine.forceSetState(Call.ON_HOLD));
+			assertTrue(machine.forceSetState(Call.DIALING));
+			assertLog("exit DIALING", "enter CONNECTED", "enter ON_HOLD", "exit ON_HOLD", "exit CONNECTED", "enter DIALING");
+		}
+	}
+
+	@Test
+	public void poolsUseTheChains() {
+		for (StateMachineTemplate<Call, Events, Void> template : templates()) {
+			StateMachinePool<Call, Events, Void> pool = template.newStateMachinePool(2, Call.DIALING);
+			assertTrue(pool.fireEvent(1, Events.HANG_UP));
+			assertLog("exit DIALING", "exit ACTIVE", "enter IDLE");
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void cyclesAreRejected() {
+		builder.substates(Call.ON_HOLD, Call.ACTIVE).buildTransitionModel();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void statesHaveOneParent() {
+		MutableTransitionModel<Call, Events, Void> model = Fettle.newTransitionModel(Call.class, Events.class);
+		model.setParent(Call.DIALING, Call.ACTIVE);
+		model.setParent(Call.DIALING, Call.IDLE);
+	}
+
+	private List<StateMachineTemplate<Call, Events, Void>> templates() {
+		MutableTransitionModel<Call, Events, Void> model = (MutableTransitionModel<Call, Events, Void>) builder.buildTransitionModel();
+		List<StateMachineTemplate<Call, Events, Void>> templates = Lists.newArrayList();
+		templates.add(model);
+		templates.add(model.createImmutableClone());
+		templates.add(model.compile());
+		templates.add(model.createAdaptiveClone());
+		templates.add(GeneratedTransitionModel.generate(model));
+		return templates;
+	}
+
+	private void assertLog(String... expected) {
+		assertEquals(Lists.newArrayList(expected), log);
+		log.clear();
+	}
+}
@@ -0,0 +1,160 @@
+package se.fearless.fettle;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import se.fearless.fettle.builder.StateMachineBuilder;
+import se.fearless.fettle.impl.OptimisticStateMachine;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class OptimisticStateMachineTest {
+
+	private StateMachineBuilder<States, String, Void> builder;
+
+	@Before
+	public void setUp() throws Exception {
+		builder = Fettle.newBuilder(States.class, String.class);
+	}
+
+	@Test
+	public void selectableFromTemplate() throws Exception {
+		builder.transition().from(States.INITIAL).to(States.ONE).on("foo");
+		StateMachine<States, String, Void> machine = builder.buildTransitionModel().newStateMachine(States.INITIAL, Concurrency.OPTIMISTIC);
+
+		assertTrue(machine instanceof OptimisticStateMachine);
+		assertFalse(machine.fireEvent("bar"));
+		assertTrue(machine.fireEvent("foo"));
+		assertEquals(States.ONE, machine.getCurrentState());
+	}
+
+	@Test
+	public void actionsRunInOrderAfterCommit() throws Exception {
+		final List<String> calls = Lists.newArrayList();
+		builder.transition().from(States.INITIAL).to(States.ONE).on("foo").perform(new RecordingAction(calls, "transition"));
+		builder.onExit(States.INITIAL).perform(new RecordingAction(calls, "exit"));
+		builder.onEntry(States.ONE).perform(new RecordingAction(calls, "entry"));
+		StateMachine<States, String, Void> machine = builder.buildTransitionModel().newStateMachine(States.INITIAL, Concurrency.OPTIMISTIC);
+
+		machine.fireEvent("foo");
+
+		assertEquals(Lists.newArrayList("exit:ONE", "transition:ONE", "entry:ONE"), calls);
+	}
+
+	@Test
+	public void forceSetState() throws Exception {
+		final List<String> calls = Lists.newArrayList();
+		builder.onExit(States.INITIAL).perform(new RecordingAction(calls, "exit"));
+		builder.onEntry(States.TWO).perform(new RecordingAction(calls, "entry"));
+		StateMachine<States, String, Void> machine = builder.buildTransitionModel().newStateMachine(States.INITIAL, Concurrency.OPTIMISTIC);
+
+		assertFalse(machine.forceSetState(States.INITIAL));
+		assertTrue(machine.forceSetState(States.TWO));
+
+		assertEquals(States.TWO, machine.getCurrentState());
+		assertEquals(Lists.newArrayList("exit:TWO", "entry:TWO"), calls);
+	}
+
+	@Test
+	public void eventIsRetriedWhenStateChangesDuringConditionEvaluation() throws Exception {
+		final CountDownLatch inCondition = new CountDownLatch(1);
+		final CountDownLatch stateChanged = new CountDownLatch(1);
+		final AtomicInteger evaluations = new AtomicInteger();
+		builder.transition().from(States.INITIAL).to(States.ONE).on("first").when(new Condition<Void>() {
+			@Override
+			public boolean isSatisfied(Void context) {
+				evaluations.incrementAndGet();
+				inCondition.countDown();
+				try {
+					stateChanged.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return true;
+			}
+		});
+		builder.transition().from(States.TWO).to(States.THREE).on("first");
+
+		final StateMachine<States, String, Void> machine = builder.buildTransitionModel().newStateMachine(States.INITIAL, Concurrency.OPTIMISTIC);
+		Thread firing = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				machine.fireEvent("first");
+			}
+		});
+		firing.start();
+		inCondition.await();
+		machine.rawSetState(States.TWO);
+		stateChanged.countDown();
+		firing.join();
+
+		assertEquals(States.THREE, machine.getCurrentState());
+		assertEquals(1, evaluations.get());
+	}
+
+	@Test
+	public void noTransitionsAreLostUnderContention() throws Exception {
+		builder.transition().from(States.INITIAL).to(States.ONE).on("next");
+		builder.transition().from(States.ONE).to(States.TWO).on("next");
+		builder.transition().from(States.TWO).to(States.THREE).on("next");
+		builder.transition().from(States.THREE).to(States.INITIAL).on("next");
+		final AtomicInteger entries = new AtomicInteger();
+		Action<States, String, Void> countEntries = new Action<States, String, Void>() {
+			@Override
+			public void onTransition(States from, States to, String causedBy, Void context, StateMachine<States, String, Void> stateMachine) {
+				entries.incrementAndGet();
+			}
+		};
+		for (States state : States.values()) {
+			builder.onEntry(state).perform(countEntries);
+		}
+		final StateMachine<States, String, Void> machine = builder.buildTransitionModel().newStateMachine(States.INITIAL, Concurrency.OPTIMISTIC);
+
+		final int threads = 4;
+		final int eventsPerThread = 10001;
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					for (int j = 0; j < eventsPerThread; j++) {
+						machine.fireEvent("next");
+					}
+					done.countDown();
+				}
+			}).start();
+		}
+		start.countDown();
+		done.await();
+
+		assertEquals(threads * eventsPerThread, entries.get());
+		assertEquals(States.values()[(threads * eventsPerThread) % States.values().length], machine.getCurrentState());
+	}
+
+	private static class RecordingAction implements Action<States, String, Void> {
+		private final List<String> calls;
+		private final String name;
+
+		RecordingAction(List<String> calls, String name) {
+			this.calls = calls;
+			this.name = name;
+		}
+
+		@Override
+		public void onTransition(States from, States to, String causedBy, Void context, StateMachine<States, String, Void> stateMachine) {
+			calls.add(name + ":" + stateMachine.getCurrentState());
+		}
+	}
+}
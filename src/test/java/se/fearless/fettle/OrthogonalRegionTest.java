@@ -0,0 +1,197 @@
+package se.fearless.fettle;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import se.fearless.fettle.builder.StateMachineBuilder;
+import se.fearless.fettle.impl.OrthogonalTransitionModel;
+
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class OrthogonalRegionTest {
+
+	private enum Door {
+		CLOSED, OPEN
+	}
+
+	private enum Power {
+		OFF, ON
+	}
+
+	private enum Events {
+		OPEN, CLOSE, SWITCH, RESET
+	}
+
+	private final List<String> log = Lists.newArrayList();
+	private StateMachineTemplate<Door, Events, Void> door;
+	private StateMachineTemplate<Power, Events, Void> power;
+	private OrthogonalTransitionModel<Events, Void> model;
+
+	@Before
+	public void setUp() {
+		StateMachineBuilder<Door, Events, Void> doorBuilder = Fettle.newBuilder(Door.class, Events.class);
+		doorBuilder.transition().from(Door.CLOSED).to(Door.OPEN).on(Events.OPEN).perform(new Log<Door>("opened"));
+		doorBuilder.transition().from(Door.OPEN).to(Door.CLOSED).on(Events.CLOSE);
+		doorBuilder.transition().fromAll().to(Door.CLOSED).on(Events.RESET);
+		doorBuilder.onEntry(Door.CLOSED).perform(new Log<Door>("door closed"));
+		door = doorBuilder.buildCompiledTransitionModel();
+
+		StateMachineBuilder<Power, Events, Void> powerBuilder = Fettle.newBuilder(Power.class, Events.class);
+		powerBuilder.transition().from(Power.OFF).to(Power.ON).on(Events.SWITCH);
+		powerBuilder.transition().from(Power.ON).to(Power.OFF).on(Events.SWITCH);
+		powerBuilder.transition().fromAll().to(Power.OFF).on(Events.RESET);
+		powerBuilder.onExit(Power.ON).perform(new Log<Power>("power off"));
+		power = powerBuilder.buildTransitionModel();
+
+		List<StateMachineTemplate<?, Events, Void>> regions = Lists.newArrayList();
+		regions.add(door);
+		regions.add(power);
+		model = Fettle.newOrthogonalModel(Events.class, regions);
+	}
+
+	@Test
+	public void eventsAreOnlyHandledByRegionsWithTransitions() {
+		OrthogonalStateMachine<Events, Void> machine = model.newStateMachine(Door.CLOSED, Power.OFF);
+
+		assertTrue(machine.fireEvent(Events.OPEN));
+		assertEquals(Door.OPEN, machine.getCurrentState(door));
+		assertEquals(Power.OFF, machine.getCurrentState(power));
+
+		assertTrue(machine.fireEvent(Events.SWITCH));
+		assertEquals(Door.OPEN, machine.getCurrentState(0));
+		assertEquals(Power.ON, machine.getCurrentState(1));
+
+		assertFalse(machine.fireEvent(Events.OPEN));
+		assertEquals(Lists.newArrayList("opened OPEN"), log);
+	}
+
+	@Test
+	public void oneEventCanMoveAllRegionsInOrder() {
+		OrthogonalStateMachine<Events, Void> machine = model.newStateMachine(Door.OPEN, Power.ON);
+
+		assertTrue(machine.fireEvent(Events.RESET));
+
+		assertEquals(Door.CLOSED, machine.getCurrentState(door));
+		assertEquals(Power.OFF, machine.getCurrentState(power));
+		assertEquals(Lists.newArrayList("door closed CLOSED", "power off ON"), log);
+	}
+
+	@Test
+	public void eventsAreFiredUnderOneLockAcquisition() {
+		CountingLock lock = new CountingLock();
+		OrthogonalStateMachine<Events, Void> machine = model.newStateMachine(lock, Door.OPEN, Power.ON);
+
+		assertEquals(2, machine.fireEvents(Lists.newArrayList(Events.RESET, Events.SWITCH), null));
+
+		assertEquals(1, lock.acquisitions);
+		assertEquals(Power.ON, machine.getCurrentState(power));
+	}
+
+	@Test
+	public void regionViewsSetTheStateOfTheirRegion() {
+		OrthogonalStateMachine<Events, Void> machine = model.newStateMachine(Door.CLOSED, Power.OFF);
+		StateMachine<Power, Events, Void> powerRegion = machine.getRegion(power);
+
+		powerRegion.rawSetState(Power.ON);
+		assertEquals(Power.ON, powerRegion.getCurrentState());
+		assertTrue(powerRegion.forceSetState(Power.OFF));
+		assertEquals(Lists.newArrayList("power off ON"), log);
+		assertEquals(Door.CLOSED, machine.getCurrentState(door));
+		assertSame(powerRegion, machine.getRegion(power));
+
+		assertTrue(powerRegion.fireEvent(Events.OPEN));
+		assertEquals(Door.OPEN, machine.getCurrentState(door));
+	}
+
+	@Test
+	public void listenersOfARegionAreNotifiedOfItsTransitions() {
+		final List<String> notifications = Lists.newArrayList();
+		power.addTransitionListener(new TransitionListener<Power, Events, Void>() {
+			@Override
+			public void onTransition(Power from, Power to, Events causedBy, Void context, StateMachine<Power, Events, Void> stateMachine) {
+				notifications.add(from + "->" + to);
+			}
+
+			@Override
+			public void onRejected(Power state, Events event, Void context, StateMachine<Power, Events, Void> stateMachine) {
+				notifications.add(state + " rejected " + event);
+			}
+		});
+		OrthogonalStateMachine<Events, Void> machine = model.newStateMachine(Door.CLOSED, Power.OFF);
+
+		machine.fireEvent(Events.SWITCH);
+		machine.fireEvent(Events.OPEN);
+
+		assertEquals(Lists.newArrayList("OFF->ON"), notifications);
+	}
+
+	@Test
+	public void eventsFiredByActionsAreHandledByAllRegionsAfterTheCurrentEvent() {
+		StateMachineBuilder<Door, Events, Void> doorBuilder = Fettle.newBuilder(Door.class, Events.class);
+		doorBuilder.transition().from(Door.CLOSED).to(Door.OPEN).on(Events.OPEN).perform(new Action<Door, Events, Void>() {
+			@Override
+			public void onTransition(Door from, Door to, Events causedBy, Void context, StateMachine<Door, Events, Void> stateMachine) {
+				assertFalse(stateMachine.fireEvent(Events.SWITCH));
+			}
+		});
+		StateMachineBuilder<Power, Events, Void> powerBuilder = Fettle.newBuilder(Power.class, Events.class);
+		powerBuilder.transition().from(Power.OFF).to(Power.ON).on(Events.OPEN).perform(new Log<Power>("open"));
+		powerBuilder.transition().from(Power.ON).to(Power.OFF).on(Events.SWITCH).perform(new Log<Power>("switch"));
+		List<StateMachineTemplate<?, Events, Void>> regions = Lists.newArrayList();
+		regions.add(doorBuilder.buildTransitionModel());
+		regions.add(powerBuilder.buildTransitionModel());
+		OrthogonalStateMachine<Events, Void> machine = Fettle.newOrthogonalModel(Events.class, regions).newStateMachine(Door.CLOSED, Power.OFF);
+
+		assertTrue(machine.fireEvent(Events.OPEN));
+
+		assertEquals(Door.OPEN, machine.getCurrentState(0));
+		assertEquals(Power.OFF, machine.getCurrentState(1));
+		assertEquals(Lists.newArrayList("open ON", "switch OFF"), log);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void initialStatesMustMatchTheRegions() {
+		model.newStateMachine(Power.OFF, Door.CLOSED);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void everyRegionNeedsAnInitialState() {
+		model.newStateMachine(Door.CLOSED);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void onlyRegionsOfTheModelCanBeLookedUp() {
+		model.newStateMachine(Door.CLOSED, Power.OFF).getCurrentState(Fettle.<Door, Events, Void>newBuilder(Door.class, Events.class).buildTransitionModel());
+	}
+
+	private class Log<S> implements Action<S, Events, Void> {
+		private final String message;
+
+		private Log(String message) {
+			this.message = message;
+		}
+
+		@Override
+		public void onTransition(S from, S to, Events causedBy, Void context, StateMachine<S, Events, Void> stateMachine) {
+			log.add(message + " " + stateMachine.getCurrentState());
+		}
+	}
+
+	private static class CountingLock extends ReentrantLock {
+		private int acquisitions;
+
+		@Override
+		public void lock() {
+			if (!isHeldByCurrentThread()) {
+				acquisitions++;
+			}
+			super.lock();
+		}
+	}
+}
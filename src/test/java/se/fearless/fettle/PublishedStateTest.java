@@ -0,0 +1,123 @@
+package se.fearless.fettle;
+
+import org.junit.Before;
+import org.junit.Test;
+import se.fearless.fettle.builder.StateMachineBuilder;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PublishedStateTest {
+
+	private enum Switch {
+		OFF, ON
+	}
+
+	private enum Events {
+		TOGGLE, STAY
+	}
+
+	private StateMachineTemplate<Switch, Events, Void> template;
+
+	@Before
+	public void setUp() {
+		StateMachineBuilder<Switch, Events, Void> builder = Fettle.newBuilder(Switch.class, Events.class);
+		builder.transition().from(Switch.OFF).to(Switch.ON).on(Events.TOGGLE);
+		builder.transition().from(Switch.ON).to(Switch.OFF).on(Events.TOGGLE);
+		builder.transition().from(Switch.ON).to(Switch.ON).on(Events.STAY);
+		template = builder.buildCompiledTransitionModel();
+	}
+
+	@Test
+	public void everyStateChangeIncrementsTheVersion() {
+		VersionedStateMachine<Switch, Events, Void> machine = newMachine();
+		assertEquals(new VersionedState<Switch>(Switch.OFF, 0), machine.getVersionedState());
+
+		assertTrue(machine.fireEvent(Events.TOGGLE));
+		assertTrue(machine.fireEvent(Events.STAY));
+		assertEquals(new VersionedState<Switch>(Switch.ON, 2), machine.getVersionedState());
+
+		assertTrue(machine.fireEvent(Events.TOGGLE));
+		assertFalse(machine.fireEvent(Events.STAY));
+		assertEquals(new VersionedState<Switch>(Switch.OFF, 3), machine.getVersionedState());
+	}
+
+	@Test
+	public void forcedStatesAreVersionedToo() {
+		VersionedStateMachine<Switch, Events, Void> machine = newMachine();
+
+		assertTrue(machine.forceSetState(Switch.ON));
+		machine.rawSetState(Switch.OFF);
+
+		assertEquals(Switch.OFF, machine.getCurrentState());
+		assertEquals(2, machine.getVersion());
+	}
+
+	@Test
+	public void readsAreInvalidatedBySettingTheState() {
+		VersionedStateMachine<Switch, Events, Void> machine = newMachine();
+
+		long version = machine.startRead();
+		assertEquals(Switch.OFF, machine.getCurrentState());
+		assertTrue(machine.validateRead(version));
+
+		version = machine.startRead();
+		machine.fireEvent(Events.TOGGLE);
+		assertFalse(machine.validateRead(version));
+		assertEquals(1, machine.startRead());
+	}
+
+	@Test
+	public void publishedModeCreatesVersionedMachines() {
+		assertTrue(template.newStateMachine(Switch.OFF, Concurrency.PUBLISHED) instanceof VersionedStateMachine);
+	}
+
+	@Test
+	public void readersAlwaysSeeAStateMatchingItsVersion() throws Exception {
+		final VersionedStateMachine<Switch, Events, Void> machine = newMachine();
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicInteger inconsistent = new AtomicInteger();
+		final AtomicInteger reads = new AtomicInteger();
+		Thread reader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				long last = 0;
+				while (!done.get()) {
+					long version;
+					Switch state;
+					do {
+						version = machine.startRead();
+						state = machine.getCurrentState();
+					} while (!machine.validateRead(version));
+					VersionedState<Switch> read = machine.getVersionedState();
+					if (state != (version % 2 == 0 ? Switch.OFF : Switch.ON) || version < last) {
+						inconsistent.incrementAndGet();
+					}
+					if (read.getState() != (read.getVersion() % 2 == 0 ? Switch.OFF : Switch.ON) || read.getVersion() < version) {
+						inconsistent.incrementAndGet();
+					}
+					last = read.getVersion();
+					reads.incrementAndGet();
+				}
+			}
+		});
+		reader.start();
+		for (int i = 0; i < 100000; i++) {
+			machine.fireEvent(Events.TOGGLE);
+		}
+		done.set(true);
+		reader.join();
+
+		assertEquals(0, inconsistent.get());
+		assertTrue(reads.get() > 0);
+		assertEquals(100000, machine.getVersion());
+	}
+
+	private VersionedStateMachine<Switch, Events, Void> newMachine() {
+		return template.newVersionedStateMachine(Switch.OFF);
+	}
+}
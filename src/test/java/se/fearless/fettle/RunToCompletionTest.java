@@ -0,0 +1,185 @@
+package se.fearless.fettle;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import se.fearless.fettle.builder.StateMachineBuilder;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RunToCompletionTest {
+
+	private enum Order {
+		NEW, PAID, SHIPPED, FAILED
+	}
+
+	private enum Events {
+		PAY, SHIP, FAIL, RETRY
+	}
+
+	private final List<String> log = Lists.newArrayList();
+	private StateMachineBuilder<Order, Events, Integer> builder;
+
+	@Before
+	public void setUp() {
+		builder = Fettle.newBuilder(Order.class, Events.class);
+		builder.defaultContext(0);
+		builder.transition().from(Order.NEW).to(Order.PAID).on(Events.PAY);
+		builder.transition().from(Order.PAID).to(Order.SHIPPED).on(Events.SHIP);
+		builder.transition().fromAll().to(Order.FAILED).on(Events.FAIL);
+		builder.transition().from(Order.FAILED).to(Order.FAILED).on(Events.RETRY);
+		for (final Order state : Order.values()) {
+			builder.onEntry(state).perform(new Log("enter " + state));
+			builder.onExit(state).perform(new Log("exit " + state));
+		}
+	}
+
+	@Test
+	public void eventsFiredByActionsAreHandledAfterTheTransitionCompletes() {
+		final List<Boolean> results = Lists.newArrayList();
+		builder.onEntry(Order.PAID).perform(new Action<Order, Events, Integer>() {
+			@Override
+			public void onTransition(Order from, Order to, Events causedBy, Integer context, StateMachine<Order, Events, Integer> stateMachine) {
+				results.add(stateMachine.fireEvent(Events.SHIP));
+				log.add("shipping requested");
+			}
+		});
+		for (StateMachineTemplate<Order, Events, Integer> template : templates()) {
+			log.clear();
+			StateMachine<Order, Events, Integer> machine = template.newStateMachine(Order.NEW);
+
+			assertTrue(machine.fireEvent(Events.PAY));
+
+			assertEquals(Order.SHIPPED, machine.getCurrentState());
+			assertEquals(Lists.newArrayList("exit NEW", "enter PAID", "shipping requested", "exit PAID", "enter SHIPPED"), log);
+		}
+		assertEquals(Lists.newArrayList(false, false), results);
+	}
+
+	@Test
+	public void queuedEventsKeepTheirOrderAndContext() {
+		builder.onEntry(Order.PAID).perform(new Action<Order, Events, Integer>() {
+			@Override
+			public void onTransition(Order from, Order to, Events causedBy, Integer context, StateMachine<Order, Events, Integer> stateMachine) {
+				stateMachine.fireEvent(Events.FAIL, 1);
+				for (int i = 2; i <= 10; i++) {
+					stateMachine.fireEvent(Events.RETRY, i);
+				}
+			}
+		});
+		final List<Integer> contexts = Lists.newArrayList();
+		builder.onEntry(Order.FAILED).perform(new Action<Order, Events, Integer>() {
+			@Override
+			public void onTransition(Order from, Order to, Events causedBy, Integer context, StateMachine<Order, Events, Integer> stateMachine) {
+				contexts.add(context);
+			}
+		});
+		StateMachine<Order, Events, Integer> machine = builder.buildCompiledTransitionModel().newStateMachine(Order.NEW);
+
+		machine.fireEvent(Events.PAY);
+
+		assertEquals(Lists.newArrayList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10), contexts);
+	}
+
+	@Test
+	public void longChainsOfEventsDoNotGrowTheStack() {
+		final int[] retries = new int[1];
+		builder.onEntry(Order.FAILED).perform(new Action<Order, Events, Integer>() {
+			@Override
+			public void onTransition(Order from, Order to, Events causedBy, Integer context, StateMachine<Order, Events, Integer> stateMachine) {
+				if (++retries[0] < 100000) {
+					stateMachine.fireEvent(Events.RETRY);
+				}
+			}
+		});
+		StateMachine<Order, Events, Integer> machine = builder.buildTransitionModel().newStateMachine(Order.NEW);
+
+		machine.fireEvent(Events.FAIL);
+
+		assertEquals(100000, retries[0]);
+	}
+
+	@Test
+	public void eventsQueuedByAFailedTransitionAreDropped() {
+		builder.onEntry(Order.PAID).perform(new Action<Order, Events, Integer>() {
+			@Override
+			public void onTransition(Order from, Order to, Events causedBy, Integer context, StateMachine<Order, Events, Integer> stateMachine) {
+				stateMachine.fireEvent(Events.SHIP);
+				throw new IllegalStateException("payment declined");
+			}
+		});
+		StateMachine<Order, Events, Integer> machine = builder.buildTransitionModel().newStateMachine(Order.NEW);
+
+		try {
+			machine.fireEvent(Events.PAY);
+			fail("The exception of the action should propagate");
+		} catch (IllegalStateException e) {
+			assertEquals("payment declined", e.getMessage());
+		}
+
+		assertEquals(Order.PAID, machine.getCurrentState());
+		assertTrue(machine.fireEvent(Events.FAIL));
+		assertEquals(Order.FAILED, machine.getCurrentState());
+	}
+
+	@Test
+	public void eventsFiredByForcedTransitionsAreQueued() {
+		builder.onExit(Order.NEW).perform(new Action<Order, Events, Integer>() {
+			@Override
+			public void onTransition(Order from, Order to, Events causedBy, Integer context, StateMachine<Order, Events, Integer> stateMachine) {
+				assertFalse(stateMachine.fireEvent(Events.RETRY));
+			}
+		});
+		StateMachine<Order, Events, Integer> machine = builder.buildTransitionModel().newStateMachine(Order.NEW);
+
+		assertTrue(machine.forceSetState(Order.FAILED));
+
+		assertEquals(Lists.newArrayList("exit NEW", "enter FAILED", "exit FAILED", "enter FAILED"), log);
+	}
+
+	@Test
+	public void statesForcedByActionsAreQueued() {
+		builder.onEntry(Order.PAID).perform(new Action<Order, Events, Integer>() {
+			@Override
+			public void onTransition(Order from, Order to, Events causedBy, Integer context, StateMachine<Order, Events, Integer> stateMachine) {
+				assertFalse(stateMachine.forceSetState(Order.FAILED));
+				assertFalse(stateMachine.fireEvent(Events.RETRY));
+				log.add("failure requested");
+			}
+		});
+		for (StateMachineTemplate<Order, Events, Integer> template : templates()) {
+			log.clear();
+			StateMachine<Order, Events, Integer> machine = template.newStateMachine(Order.NEW);
+
+			assertTrue(machine.fireEvent(Events.PAY));
+
+			assertEquals(Order.FAILED, machine.getCurrentState());
+			assertEquals(Lists.newArrayList("exit NEW", "enter PAID", "failure requested", "exit PAID", "enter FAILED", "exit FAILED", "enter FAILED"), log);
+		}
+	}
+
+	private List<StateMachineTemplate<Order, Events, Integer>> templates() {
+		List<StateMachineTemplate<Order, Events, Integer>> templates = Lists.newArrayList();
+		templates.add(builder.buildTransitionModel());
+		templates.add(builder.buildCompiledTransitionModel());
+		return templates;
+	}
+
+	private class Log implements Action<Order, Events, Integer> {
+		private final String message;
+
+		private Log(String message) {
+			this.message = message;
+		}
+
+		@Override
+		public void onTransition(Order from, Order to, Events causedBy, Integer context, StateMachine<Order, Events, Integer> stateMachine) {
+			log.add(message);
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package se.fearless.fettle;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import se.fearless.fettle.builder.StateMachineBuilder;
+import se.fearless.fettle.shard.ShardedEngine;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedEngineTest {
+	private static final int MACHINES = 1000;
+
+	private enum Switch {
+		OFF, ON
+	}
+
+	private enum Events {
+		TOGGLE, BLOCK, FAIL
+	}
+
+	private final ConcurrentMap<StateMachine<Switch, Events, Integer>, Thread> owners = new ConcurrentHashMap<StateMachine<Switch, Events, Integer>, Thread>();
+	private final ConcurrentMap<StateMachine<Switch, Events, Integer>, Integer> lastSequence = new ConcurrentHashMap<StateMachine<Switch, Events, Integer>, Integer>();
+	private final AtomicInteger outOfOrder = new AtomicInteger();
+	private final CountDownLatch blocked = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+	private StateMachineBuilder<Switch, Events, Integer> builder;
+	private ShardedEngine<Switch, Events, Integer> engine;
+
+	@Before
+	public void setUp() {
+		builder = Fettle.newBuilder(Switch.class, Events.class);
+		builder.defaultContext(0);
+		Action<Switch, Events, Integer> record = new Action<Switch, Events, Integer>() {
+			@Override
+			public void onTransition(Switch from, Switch to, Events causedBy, Integer context, StateMachine<Switch, Events, Integer> stateMachine) {
+				Thread owner = owners.putIfAbsent(stateMachine, Thread.currentThread());
+				if (owner != null && owner != Thread.currentThread()) {
+					outOfOrder.incrementAndGet();
+				}
+				Integer previous = lastSequence.put(stateMachine, context);
+				if (previous != null && previous >= context) {
+					outOfOrder.incrementAndGet();
+				}
+			}
+		};
+		builder.transition().from(Switch.OFF).to(Switch.ON).on(Events.TOGGLE).perform(record);
+		builder.transition().from(Switch.ON).to(Switch.OFF).on(Events.TOGGLE).perform(record);
+		builder.transition().fromAll().to(Switch.OFF).on(Events.BLOCK).perform(new Action<Switch, Events, Integer>() {
+			@Override
+			public void onTransition(Switch from, Switch to, Events causedBy, Integer context, StateMachine<Switch, Events, Integer> stateMachine) {
+				blocked.countDown();
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		builder.transition().fromAll().to(Switch.ON).on(Events.FAIL).perform(new Action<Switch, Events, Integer>() {
+			@Override
+			public void onTransition(Switch from, Switch to, Events causedBy, Integer context, StateMachine<Switch, Events, Integer> stateMachine) {
+				throw new IllegalStateException("failed on purpose");
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		if (engine != null) {
+			engine.close();
+		}
+	}
+
+	@Test
+	public void eventsFromManyProducersAreAppliedInOrderByTheOwningShard() throws Exception {
+		engine = new ShardedEngine<Switch, Events, Integer>(builder.buildCompiledTransitionModel(), MACHINES, Switch.OFF, 4, 64);
+		Thread[] producers = new Thread[4];
+		for (int p = 0; p < producers.length; p++) {
+			final int producer = p;
+			producers[p] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int round = 1; round <= 3; round++) {
+						for (int id = producer; id < MACHINES; id += 4) {
+							engine.submit(id, Events.TOGGLE, round);
+						}
+					}
+				}
+			});
+			producers[p].start();
+		}
+		for (Thread producer : producers) {
+			producer.join();
+		}
+
+		engine.flush();
+
+		for (int id = 0; id < MACHINES; id++) {
+			assertEquals(Switch.ON, engine.getCurrentState(id));
+		}
+		assertEquals(3 * MACHINES, engine.getProcessed());
+		assertEquals(MACHINES, owners.size());
+		assertEquals(0, outOfOrder.get());
+	}
+
+	@Test
+	public void machinesArePartitionedAcrossTheShards() {
+		engine = new ShardedEngine<Switch, Events, Integer>(builder.buildTransitionModel(), 10, Switch.OFF, 3, 8);
+
+		assertEquals(3, engine.getShardCount());
+		assertEquals(10, engine.size());
+		assertEquals(0, engine.getShard(0));
+		assertEquals(1, engine.getShard(4));
+		assertEquals(2, engine.getShard(8));
+	}
+
+	@Test
+	public void fullRingsRejectOrHoldBackProducers() throws Exception {
+		engine = new ShardedEngine<Switch, Events, Integer>(builder.buildTransitionModel(), 2, Switch.OFF, 1, 2);
+		engine.submit(0, Events.BLOCK);
+		assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+		assertTrue(engine.trySubmit(1, Events.TOGGLE, 1));
+		assertFalse(engine.trySubmit(1, Events.TOGGLE, 2));
+		assertEquals(1, engine.getRejected());
+
+		final CountDownLatch submitted = new CountDownLatch(1);
+		Thread producer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				engine.submit(1, Events.TOGGLE, 2);
+				submitted.countDown();
+			}
+		});
+		producer.start();
+		assertFalse(submitted.await(50, TimeUnit.MILLISECONDS));
+
+		release.countDown();
+		assertTrue(submitted.await(10, TimeUnit.SECONDS));
+		engine.flush();
+		assertEquals(Switch.OFF, engine.getCurrentState(1));
+		assertEquals(3, engine.getProcessed());
+		assertEquals(0, outOfOrder.get());
+	}
+
+	@Test
+	public void aFailingActionDoesNotStopTheShard() {
+		final AtomicInteger uncaught = new AtomicInteger();
+		engine = new ShardedEngine<Switch, Events, Integer>(builder.buildTransitionModel(), 2, Switch.OFF, 1, 8, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+					@Override
+					public void uncaughtException(Thread t, Throwable e) {
+						uncaught.incrementAndGet();
+					}
+				});
+				return thread;
+			}
+		});
+
+		engine.submit(0, Events.FAIL);
+		engine.submit(1, Events.TOGGLE, 1);
+		engine.flush();
+
+		assertEquals(Switch.ON, engine.getCurrentState(0));
+		assertEquals(Switch.ON, engine.getCurrentState(1));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void closedEnginesRejectEvents() {
+		engine = new ShardedEngine<Switch, Events, Integer>(builder.buildTransitionModel(), 1, Switch.OFF, 1, 8);
+		engine.close();
+		engine.submit(0, Events.TOGGLE);
+	}
+
+	@Test(timeout = 20000)
+	public void eventsAcceptedWhileClosingAreApplied() throws Exception {
+		for (int attempt = 0; attempt < 20; attempt++) {
+			engine = new ShardedEngine<Switch, Events, Integer>(builder.buildCompiledTransitionModel(), MACHINES, Switch.OFF, 2, 1024);
+			final AtomicInteger accepted = new AtomicInteger();
+			Thread[] producers = new Thread[2];
+			for (int p = 0; p < producers.length; p++) {
+				final int producer = p;
+				producers[p] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							for (int i = 0; ; i++) {
+								engine.submit((producer + i * 2) % MACHINES, Events.TOGGLE);
+								accepted.incrementAndGet();
+							}
+						} catch (IllegalStateException e) {
+							// closed
+						}
+					}
+				});
+				producers[p].start();
+			}
+			Thread.sleep(1);
+			engine.close();
+			for (Thread producer : producers) {
+				producer.join();
+			}
+
+			engine.flush();
+			assertEquals(accepted.get(), engine.getProcessed());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownIdsAreRejected() {
+		engine = new ShardedEngine<Switch, Events, Integer>(builder.buildTransitionModel(), 1, Switch.OFF, 1, 8);
+		engine.submit(1, Events.TOGGLE);
+	}
+}
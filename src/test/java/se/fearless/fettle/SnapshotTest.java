@@ -0,0 +1,174 @@
+package se.fearless.fettle;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import se.fearless.fettle.builder.StateMachineBuilder;
+import se.fearless.fettle.snapshot.RestoredMachineHandler;
+import se.fearless.fettle.snapshot.SnapshotReader;
+import se.fearless.fettle.snapshot.SnapshotWriter;
+import se.fearless.fettle.snapshot.Snapshots;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotTest {
+
+	private enum Events {
+		NEXT, RESET
+	}
+
+	private StateMachineTemplate<States, Events, Void> template;
+	private Snapshots<States, Events, Void> snapshots;
+	private int entries;
+
+	@Before
+	public void setUp() {
+		StateMachineBuilder<States, Events, Void> builder = newBuilder();
+		builder.onEntry(States.ONE).perform(new Action<States, Events, Void>() {
+			@Override
+			public void onTransition(States from, States to, Events causedBy, Void context, StateMachine<States, Events, Void> stateMachine) {
+				entries++;
+			}
+		});
+		template = builder.buildTransitionModel();
+		snapshots = new Snapshots<States, Events, Void>(template, States.class, Events.class);
+	}
+
+	private StateMachineBuilder<States, Events, Void> newBuilder() {
+		StateMachineBuilder<States, Events, Void> builder = Fettle.newBuilder(States.class, Events.class);
+		builder.transition().from(States.INITIAL).to(States.ONE).on(Events.NEXT);
+		builder.transition().from(States.ONE).to(States.TWO).on(Events.NEXT);
+		builder.transition().from(States.TWO).to(States.THREE).on(Events.NEXT);
+		builder.transition().fromAll().to(States.INITIAL).on(Events.RESET);
+		return builder;
+	}
+
+	@Test
+	public void poolsRoundTripAcrossBlocks() throws IOException {
+		int size = Snapshots.BLOCK_MACHINES * 2 + 17;
+		StateMachinePool<States, Events, Void> pool = template.newStateMachinePool(size, States.INITIAL);
+		for (int id = 0; id < size; id++) {
+			pool.rawSetState(id, States.values()[id % 4]);
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertEquals(size, snapshots.write(pool, Channels.newChannel(out)));
+
+		StateMachinePool<States, Events, Void> restored = template.newStateMachinePool(size, States.INITIAL);
+		assertEquals(size, snapshots.restore(channel(out), restored));
+		for (int id = 0; id < size; id++) {
+			assertEquals(pool.getCurrentState(id), restored.getCurrentState(id));
+		}
+		assertEquals(0, entries);
+	}
+
+	@Test
+	public void statesArePackedWithAsFewBitsAsNeeded() throws IOException {
+		StateMachinePool<States, Events, Void> pool = template.newStateMachinePool(1001, States.THREE);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		snapshots.write(pool, Channels.newChannel(out));
+
+		int header = 20;
+		int block = 4 + (1001 * 2 + 7) / 8;
+		int end = 4;
+		assertEquals(header + block + end, out.size());
+	}
+
+	@Test
+	public void restoredMachinesAreBoundToTheTemplate() throws IOException {
+		List<StateMachine<States, Events, Void>> machines = Lists.newArrayList();
+		machines.add(template.newStateMachine(States.INITIAL));
+		machines.add(template.newStateMachine(States.TWO));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		snapshots.write(machines, Channels.newChannel(out));
+
+		final List<StateMachine<States, Events, Void>> restored = Lists.newArrayList();
+		long count = snapshots.restore(channel(out), new RestoredMachineHandler<States, Events, Void>() {
+			@Override
+			public void onMachine(long index, StateMachine<States, Events, Void> machine) {
+				assertEquals(restored.size(), index);
+				restored.add(machine);
+			}
+		});
+
+		assertEquals(2, count);
+		assertEquals(States.INITIAL, restored.get(0).getCurrentState());
+		assertEquals(States.TWO, restored.get(1).getCurrentState());
+		assertEquals(0, entries);
+		assertTrue(restored.get(0).fireEvent(Events.NEXT));
+		assertEquals(1, entries);
+	}
+
+	@Test
+	public void readersAndWritersStream() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SnapshotWriter<States> writer = snapshots.newWriter(Channels.newChannel(out));
+		writer.write(States.THREE);
+		writer.write(States.ONE);
+		writer.finish();
+
+		SnapshotReader<States> reader = snapshots.newReader(channel(out));
+		assertEquals(States.THREE, reader.next());
+		assertEquals(States.ONE, reader.next());
+		assertFalse(reader.hasNext());
+	}
+
+	@Test
+	public void fingerprintsDependOnTheTransitions() {
+		Snapshots<States, Events, Void> same = new Snapshots<States, Events, Void>(newBuilder().buildCompiledTransitionModel(), States.class, Events.class);
+		assertEquals(snapshots.getFingerprint(), same.getFingerprint());
+
+		StateMachineBuilder<States, Events, Void> builder = newBuilder();
+		builder.transition().from(States.THREE).to(States.ONE).on(Events.NEXT);
+		Snapshots<States, Events, Void> other = new Snapshots<States, Events, Void>(builder.buildTransitionModel(), States.class, Events.class);
+		assertNotEquals(snapshots.getFingerprint(), other.getFingerprint());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void snapshotsOfOtherTemplatesAreRejected() throws IOException {
+		StateMachineBuilder<States, Events, Void> builder = newBuilder();
+		builder.transition().from(States.THREE).to(States.ONE).on(Events.NEXT);
+		Snapshots<States, Events, Void> other = new Snapshots<States, Events, Void>(builder.buildTransitionModel(), States.class, Events.class);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		other.newWriter(Channels.newChannel(out)).finish();
+
+		snapshots.newReader(channel(out));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void poolsMustHaveRoomForTheSnapshot() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		snapshots.write(template.newStateMachinePool(3, States.ONE), Channels.newChannel(out));
+
+		snapshots.restore(channel(out), template.newStateMachinePool(2, States.INITIAL));
+	}
+
+	@Test(expected = EOFException.class)
+	public void truncatedSnapshotsAreDetected() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		snapshots.write(template.newStateMachinePool(10, States.ONE), Channels.newChannel(out));
+		byte[] bytes = out.toByteArray();
+		ByteArrayInputStream in = new ByteArrayInputStream(bytes, 0, bytes.length - 6);
+
+		snapshots.restore(Channels.newChannel(in), template.newStateMachinePool(10, States.INITIAL));
+	}
+
+	@Test(expected = IOException.class)
+	public void otherDataIsNotASnapshot() throws IOException {
+		snapshots.newReader(Channels.newChannel(new ByteArrayInputStream(new byte[24])));
+	}
+
+	private ReadableByteChannel channel(ByteArrayOutputStream out) {
+		return Channels.newChannel(new ByteArrayInputStream(out.toByteArray()));
+	}
+}
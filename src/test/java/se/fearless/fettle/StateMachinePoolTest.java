@@ -0,0 +1,107 @@
+package se.fearless.fettle;
+
+import com.googlecode.gentyref.TypeToken;
+import org.junit.Before;
+import org.junit.Test;
+import se.fearless.fettle.builder.StateMachineBuilder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static se.mockachino.Mockachino.mock;
+import static se.mockachino.Mockachino.verifyNever;
+import static se.mockachino.Mockachino.verifyOnce;
+import static se.mockachino.matchers.Matchers.any;
+
+public class StateMachinePoolTest {
+
+	public static final TypeToken<Action<States, String, Void>> ACTION_TYPE_TOKEN = new TypeToken<Action<States, String, Void>>() {
+	};
+
+	private StateMachineBuilder<States, String, Void> builder;
+
+	@Before
+	public void setUp() throws Exception {
+		builder = Fettle.newBuilder(States.class, String.class);
+		builder.transition().from(States.INITIAL).to(States.ONE).on("hej");
+		builder.transition().from(States.ONE).to(States.TWO).on("hopp");
+		builder.transition().fromAll().to(States.INITIAL).on("back");
+	}
+
+	@Test
+	public void machinesInPoolAreIndependent() throws Exception {
+		StateMachinePool<States, String, Void> pool = builder.buildTransitionModel().newStateMachinePool(1000, States.INITIAL);
+
+		assertEquals(1000, pool.size());
+		assertTrue(pool.fireEvent(7, "hej"));
+		assertFalse(pool.fireEvent(8, "hopp"));
+		assertTrue(pool.fireEvent(7, "hopp"));
+
+		assertEquals(States.TWO, pool.getCurrentState(7));
+		assertEquals(States.INITIAL, pool.getCurrentState(8));
+		assertEquals(States.INITIAL, pool.getCurrentState(999));
+
+		assertTrue(pool.fireEvent(7, "back"));
+		assertEquals(States.INITIAL, pool.getCurrentState(7));
+	}
+
+	@Test
+	public void entryExitAndTransitionActionsSeeTheView() throws Exception {
+		Action<States, String, Void> entryAction = mock(ACTION_TYPE_TOKEN);
+		Action<States, String, Void> exitAction = mock(ACTION_TYPE_TOKEN);
+		builder.onEntry(States.ONE).perform(entryAction);
+		builder.onExit(States.ONE).perform(exitAction);
+		StateMachinePool<States, String, Void> pool = builder.buildTransitionModel().newStateMachinePool(10, States.INITIAL);
+
+		StateMachine<States, String, Void> machine = pool.getStateMachine(3);
+		machine.fireEvent("hej");
+		verifyOnce().on(entryAction).onTransition(States.INITIAL, States.ONE, "hej", any(Void.class), machine);
+		verifyNever().on(exitAction).onTransition(any(States.class), any(States.class), any(String.class), any(Void.class), machine);
+
+		pool.fireEvent(3, "hopp");
+		verifyOnce().on(exitAction).onTransition(States.ONE, States.TWO, "hopp", any(Void.class), machine);
+		assertEquals(States.TWO, machine.getCurrentState());
+	}
+
+	@Test
+	public void rawAndForcedStates() throws Exception {
+		Action<States, String, Void> entryAction = mock(ACTION_TYPE_TOKEN);
+		builder.onEntry(States.THREE).perform(entryAction);
+		StateMachinePool<States, String, Void> pool = builder.buildTransitionModel().newStateMachinePool(10, States.INITIAL);
+
+		pool.rawSetState(1, States.THREE);
+		assertEquals(States.THREE, pool.getCurrentState(1));
+		verifyNever().on(entryAction).onTransition(any(States.class), any(States.class), any(String.class), any(Void.class), pool.getStateMachine(1));
+
+		assertFalse(pool.forceSetState(2, States.INITIAL));
+		assertTrue(pool.forceSetState(2, States.THREE));
+		verifyOnce().on(entryAction).onTransition(States.INITIAL, States.THREE, null, null, pool.getStateMachine(2));
+	}
+
+	@Test
+	public void actionsCanReadTheStateOfTheirMachine() throws Exception {
+		final States[] seen = new States[1];
+		builder.onEntry(States.ONE).perform(new Action<States, String, Void>() {
+			@Override
+			public void onTransition(States from, States to, String causedBy, Void context, StateMachine<States, String, Void> stateMachine) {
+				seen[0] = stateMachine.getCurrentState();
+			}
+		});
+		StateMachinePool<States, String, Void> pool = builder.buildTransitionModel().newStateMachinePool(10, States.INITIAL);
+
+		assertTrue(pool.fireEvent(4, "hej"));
+		assertEquals(States.ONE, seen[0]);
+	}
+
+	@Test
+	public void nonEnumStatesAreRejected() throws Exception {
+		StateMachineBuilder<String, String, Void> stringBuilder = Fettle.newBuilder(String.class, String.class);
+		try {
+			stringBuilder.buildTransitionModel().newStateMachinePool(10, "initial");
+			fail("Pools should only accept enum states");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().contains(String.class.getName()));
+		}
+	}
+}
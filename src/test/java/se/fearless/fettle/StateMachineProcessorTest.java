@@ -0,0 +1,173 @@
+package se.fearless.fettle;
+
+import com.google.common.collect.Lists;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import se.fearless.fettle.processor.StateMachineProcessor;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeNotNull;
+
+public class StateMachineProcessorTest {
+
+	private static final String DOOR = "package example;\n" +
+			  "import se.fearless.fettle.*;\n" +
+			  "import se.fearless.fettle.annotation.*;\n" +
+			  "import java.util.List;\n" +
+			  "@StateMachineDefinition(states = Door.State.class, events = Door.Event.class, context = List.class,\n" +
+			  "    transitions = {\n" +
+			  "        @TransitionDefinition(from = \"CLOSED\", to = \"OPEN\", on = \"OPEN\", when = Door.Unlocked.class, perform = Door.Log.class),\n" +
+			  "        @TransitionDefinition(from = \"CLOSED\", to = \"LOCKED\", on = \"OPEN\"),\n" +
+			  "        @TransitionDefinition(from = {\"OPEN\", \"LOCKED\"}, to = \"CLOSED\", on = \"CLOSE\"),\n" +
+			  "        @TransitionDefinition(fromAll = true, to = \"BROKEN\", on = \"KICK\"),\n" +
+			  "        @TransitionDefinition(fromAll = true, to = \"OPEN\", on = \"OPEN\", perform = Door.Log.class)\n" +
+			  "    },\n" +
+			  "    onEntry = @StateActionDefinition(state = \"OPEN\", perform = Door.Log.class),\n" +
+			  "    onExit = @StateActionDefinition(state = \"OPEN\", perform = Door.Log.class))\n" +
+			  "public interface Door {\n" +
+			  "    enum State { CLOSED, OPEN, LOCKED, BROKEN }\n" +
+			  "    enum Event { OPEN, CLOSE, KICK }\n" +
+			  "    class Unlocked implements Condition<List> {\n" +
+			  "        public boolean isSatisfied(List context) { return context.isEmpty(); }\n" +
+			  "    }\n" +
+			  "    class Log implements Action<State, Event, List> {\n" +
+			  "        public void onTransition(State from, State to, Event causedBy, List context, StateMachine<State, Event, List> stateMachine) {\n" +
+			  "            if (context != null) { context.add(from + \"-\" + to); }\n" +
+			  "        }\n" +
+			  "    }\n" +
+			  "}\n";
+
+	private JavaCompiler compiler;
+	private File output;
+
+	@Before
+	public void setUp() throws Exception {
+		compiler = ToolProvider.getSystemJavaCompiler();
+		assumeNotNull(compiler);
+		output = File.createTempFile("fettle", "processor");
+		assertTrue(output.delete());
+		assertTrue(output.mkdir());
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (output != null) {
+			delete(output);
+		}
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void generatedModelBehavesLikeTheDefinition() throws Exception {
+		DiagnosticCollector<JavaFileObject> result = compile(DOOR);
+		assertTrue(result.getDiagnostics().toString(), noErrors(result));
+
+		ClassLoader loader = new URLClassLoader(new URL[]{output.toURI().toURL()}, getClass().getClassLoader());
+		Class<? extends Enum> states = (Class<? extends Enum>) loader.loadClass("example.Door$State");
+		Class<? extends Enum> events = (Class<? extends Enum>) loader.loadClass("example.Door$Event");
+		StateMachineTemplate template = (StateMachineTemplate) loader.loadClass("example.DoorModel").newInstance();
+
+		List<String> log = Lists.newArrayList();
+		StateMachine machine = template.newStateMachine(Enum.valueOf(states, "CLOSED"));
+		assertTrue(machine.fireEvent(Enum.valueOf(events, "OPEN"), Lists.newArrayList("locked")));
+		assertEquals(Enum.valueOf(states, "LOCKED"), machine.getCurrentState());
+		assertTrue(machine.fireEvent(Enum.valueOf(events, "CLOSE"), log));
+		assertTrue(machine.fireEvent(Enum.valueOf(events, "OPEN"), log));
+		assertEquals(Enum.valueOf(states, "OPEN"), machine.getCurrentState());
+		assertEquals(Lists.newArrayList("CLOSED-OPEN", "CLOSED-OPEN"), log);
+
+		assertTrue(machine.fireEvent(Enum.valueOf(events, "OPEN"), log));
+		assertEquals(Lists.newArrayList("CLOSED-OPEN", "CLOSED-OPEN", "OPEN-OPEN", "OPEN-OPEN", "OPEN-OPEN"), log);
+		assertTrue(machine.fireEvent(Enum.valueOf(events, "KICK"), log));
+		assertEquals(Enum.valueOf(states, "BROKEN"), machine.getCurrentState());
+		assertFalse(machine.fireEvent(Enum.valueOf(events, "CLOSE"), log));
+		assertEquals(3, ((Collection<?>) machine.getPossibleTransitions(Enum.valueOf(states, "CLOSED")).get(Enum.valueOf(events, "OPEN"))).size());
+	}
+
+	@Test
+	public void unknownNamesAreCompileErrors() throws Exception {
+		DiagnosticCollector<JavaFileObject> result = compile(DOOR.replace("to = \"BROKEN\"", "to = \"SHATTERED\""));
+
+		assertFalse(noErrors(result));
+		assertTrue(result.getDiagnostics().toString().contains("Unknown state SHATTERED"));
+	}
+
+	@Test
+	public void fromOrFromAllIsRequired() throws Exception {
+		DiagnosticCollector<JavaFileObject> result = compile(DOOR.replace("fromAll = true, to = \"BROKEN\"", "to = \"BROKEN\""));
+
+		assertFalse(noErrors(result));
+		assertTrue(result.getDiagnostics().toString().contains("fromAll"));
+	}
+
+	@Test
+	public void primitiveAndArrayTypesAreCompileErrors() throws Exception {
+		DiagnosticCollector<JavaFileObject> result = compile(DOOR.replace("states = Door.State.class, events = Door.Event.class, context = List.class",
+				  "states = int.class, events = Door.Event[].class, context = boolean.class"));
+
+		assertFalse(noErrors(result));
+		String diagnostics = result.getDiagnostics().toString();
+		assertTrue(diagnostics, diagnostics.contains("must be an enum, got int"));
+		assertTrue(diagnostics, diagnostics.contains("must be an enum, got example.Door.Event[]"));
+		assertTrue(diagnostics, diagnostics.contains("must be a class or interface, got boolean"));
+	}
+
+	private DiagnosticCollector<JavaFileObject> compile(String source) {
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		List<String> options = Arrays.asList("-d", output.getPath(), "-s", output.getPath(), "-classpath", System.getProperty("java.class.path"));
+		JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics, options, null, Arrays.asList(new Source("example/Door.java", source)));
+		task.setProcessors(Arrays.asList(new StateMachineProcessor()));
+		task.call();
+		return diagnostics;
+	}
+
+	private boolean noErrors(DiagnosticCollector<JavaFileObject> result) {
+		for (Diagnostic<? extends JavaFileObject> diagnostic : result.getDiagnostics()) {
+			if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static class Source extends SimpleJavaFileObject {
+		private final String source;
+
+		Source(String path, String source) {
+			super(URI.create("string:///" + path), Kind.SOURCE);
+			this.source = source;
+		}
+
+		@Override
+		public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+			return source;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package se.fearless.fettle;
+
+import org.junit.Test;
+import se.fearless.fettle.builder.StateMachineBuilder;
+import se.fearless.fettle.util.StripedLocks;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class StripedLocksTest {
+
+	@Test
+	public void stripesAreRoundedUpToPowerOfTwo() throws Exception {
+		assertEquals(1, new StripedLocks(1).size());
+		assertEquals(8, new StripedLocks(5).size());
+		assertEquals(64, new StripedLocks(64).size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void stripesThatCanNotBeRoundedUpAreRejected() throws Exception {
+		new StripedLocks((1 << 30) + 1);
+	}
+
+	@Test
+	public void sameIdGivesSameLock() throws Exception {
+		StripedLocks locks = new StripedLocks(16);
+		assertSame(locks.get(3), locks.get(3));
+		assertSame(locks.get(3), locks.get(19));
+	}
+
+	@Test
+	public void locksAreHandedOutRoundRobin() throws Exception {
+		StripedLocks locks = new StripedLocks(4);
+		Set<Lock> handedOut = Collections.newSetFromMap(new IdentityHashMap<Lock, Boolean>());
+		for (int i = 0; i < 4; i++) {
+			handedOut.add(locks.next());
+		}
+		assertEquals(4, handedOut.size());
+		assertSame(locks.get(0), locks.next());
+	}
+
+	@Test
+	public void atLeastOneStripe() throws Exception {
+		try {
+			new StripedLocks(0);
+			fail("Zero stripes should not be allowed");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	@Test
+	public void machinesSharingStripesAreIndependent() throws Exception {
+		StateMachineBuilder<States, String, Void> builder = Fettle.newBuilder(States.class, String.class);
+		builder.transition().from(States.INITIAL).to(States.ONE).on("foo");
+		StateMachineTemplate<States, String, Void> template = builder.buildTransitionModel();
+		StripedLocks locks = new StripedLocks(1);
+
+		StateMachine<States, String, Void> first = template.newStateMachine(States.INITIAL, locks);
+		StateMachine<States, String, Void> second = template.newStateMachine(States.INITIAL, locks);
+		first.fireEvent("foo");
+
+		assertEquals(States.ONE, first.getCurrentState());
+		assertEquals(States.INITIAL, second.getCurrentState());
+	}
+}
@@ -0,0 +1,304 @@
+package se.fearless.fettle;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import se.fearless.fettle.builder.StateMachineBuilder;
+import se.fearless.fettle.timer.Timeout;
+import se.fearless.fettle.timer.TimeoutBuilder;
+import se.fearless.fettle.timer.TimingWheel;
+import se.fearless.fettle.timer.VirtualClock;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TimingWheelTest {
+
+	private enum Session {
+		CONNECTING, ACTIVE, IDLE, CLOSED
+	}
+
+	private enum Events {
+		CONNECTED, MESSAGE, IDLE_TIMEOUT, CONNECT_TIMEOUT, CLOSE
+	}
+
+	private final List<String> expired = Lists.newArrayList();
+	private VirtualClock clock;
+	private TimingWheel wheel;
+
+	@Before
+	public void setUp() {
+		clock = new VirtualClock();
+		wheel = new TimingWheel(clock, 10, TimeUnit.MILLISECONDS, 8);
+	}
+
+	@Test
+	public void timeoutsExpireOnTheFirstTickAfterTheirDeadline() {
+		wheel.schedule(new Record("a"), 25, TimeUnit.MILLISECONDS);
+
+		clock.advance(20, TimeUnit.MILLISECONDS);
+		assertEquals(0, wheel.advance());
+		assertEquals(1, wheel.getPending());
+
+		clock.advance(10, TimeUnit.MILLISECONDS);
+		assertEquals(1, wheel.advance());
+		assertEquals(Lists.newArrayList("a"), expired);
+		assertEquals(0, wheel.getPending());
+	}
+
+	@Test
+	public void cancelledTimeoutsNeverExpire() {
+		Timeout timeout = wheel.schedule(new Record("a"), 10, TimeUnit.MILLISECONDS);
+		wheel.schedule(new Record("b"), 10, TimeUnit.MILLISECONDS);
+
+		assertTrue(timeout.cancel());
+		assertFalse(timeout.cancel());
+		clock.advance(10, TimeUnit.MILLISECONDS);
+		wheel.advance();
+
+		assertEquals(Lists.newArrayList("b"), expired);
+		assertFalse(timeout.isExpired());
+	}
+
+	@Test
+	public void timeoutsBeyondOneTurnOfTheWheelWaitForTheirRound() {
+		Timeout timeout = wheel.schedule(new Record("late"), 200, TimeUnit.MILLISECONDS);
+		wheel.schedule(new Record("early"), 40, TimeUnit.MILLISECONDS);
+
+		clock.advance(190, TimeUnit.MILLISECONDS);
+		wheel.advance();
+		assertEquals(Lists.newArrayList("early"), expired);
+		assertTrue(timeout.isPending());
+
+		clock.advance(10, TimeUnit.MILLISECONDS);
+		wheel.advance();
+		assertEquals(Lists.newArrayList("early", "late"), expired);
+		assertTrue(timeout.isExpired());
+	}
+
+	@Test
+	public void allTimeoutsDueAreExpiredInOneAdvanceInOrder() {
+		for (int i = 0; i < 20; i++) {
+			wheel.schedule(new Record("t" + i), i * 5, TimeUnit.MILLISECONDS);
+		}
+
+		clock.advance(1, TimeUnit.SECONDS);
+
+		assertEquals(20, wheel.advance());
+		assertEquals("t0", expired.get(0));
+		assertEquals("t19", expired.get(19));
+	}
+
+	@Test
+	public void aFailingTaskDoesNotStopTheOthers() {
+		wheel.schedule(new Fail("first"), 10, TimeUnit.MILLISECONDS);
+		wheel.schedule(new Record("a"), 10, TimeUnit.MILLISECONDS);
+		wheel.schedule(new Fail("second"), 10, TimeUnit.MILLISECONDS);
+		wheel.schedule(new Record("b"), 10, TimeUnit.MILLISECONDS);
+		clock.advance(10, TimeUnit.MILLISECONDS);
+		try {
+			wheel.advance();
+			fail("The last failure should be rethrown");
+		} catch (IllegalStateException e) {
+			assertEquals("second", e.getMessage());
+		}
+
+		assertEquals(Lists.newArrayList("a", "b"), expired);
+		assertEquals(0, wheel.getPending());
+	}
+
+	@Test
+	public void runningTheWheelRethrowsFailuresAfterRunningTheRest() {
+		wheel.schedule(new Fail("failed"), 10, TimeUnit.MILLISECONDS);
+		wheel.schedule(new Record("a"), 10, TimeUnit.MILLISECONDS);
+		wheel.schedule(new Record("b"), 20, TimeUnit.MILLISECONDS);
+		clock.advance(10, TimeUnit.MILLISECONDS);
+		try {
+			wheel.run();
+			fail("The failure should be rethrown");
+		} catch (IllegalStateException e) {
+			assertEquals("failed", e.getMessage());
+		}
+		clock.advance(10, TimeUnit.MILLISECONDS);
+		wheel.run();
+
+		assertEquals(Lists.newArrayList("a", "b"), expired);
+	}
+
+	@Test
+	public void aFailingTimeoutTransitionDoesNotLeaveTheTimeoutArmed() {
+		StateMachineBuilder<Session, Events, Void> builder = builder();
+		builder.onEntry(Session.IDLE).perform(new Action<Session, Events, Void>() {
+			@Override
+			public void onTransition(Session from, Session to, Events causedBy, Void context, StateMachine<Session, Events, Void> stateMachine) {
+				throw new IllegalStateException("entry failed");
+			}
+		});
+		StateMachineTemplate<Session, Events, Void> template = builder.buildCompiledTransitionModel();
+		StateMachine<Session, Events, Void> failing = template.newStateMachine(Session.CONNECTING);
+		StateMachine<Session, Events, Void> other = template.newStateMachine(Session.CONNECTING);
+		failing.fireEvent(Events.CONNECTED);
+		other.fireEvent(Events.CONNECTED);
+		clock.advance(100, TimeUnit.MILLISECONDS);
+		try {
+			wheel.run();
+			fail("The failure should be rethrown");
+		} catch (IllegalStateException e) {
+			assertEquals("entry failed", e.getMessage());
+		}
+
+		assertEquals(Session.IDLE, failing.getCurrentState());
+		assertEquals(Session.IDLE, other.getCurrentState());
+		assertEquals(0, wheel.getPending());
+	}
+
+	@Test
+	public void tasksCanScheduleNewTimeouts() {
+		wheel.schedule(new Runnable() {
+			@Override
+			public void run() {
+				expired.add("first");
+				wheel.schedule(new Record("second"), 10, TimeUnit.MILLISECONDS);
+			}
+		}, 10, TimeUnit.MILLISECONDS);
+
+		clock.advance(10, TimeUnit.MILLISECONDS);
+		wheel.advance();
+		assertEquals(Lists.newArrayList("first"), expired);
+
+		clock.advance(10, TimeUnit.MILLISECONDS);
+		wheel.advance();
+		assertEquals(Lists.newArrayList("first", "second"), expired);
+	}
+
+	@Test
+	public void stateTimeoutsFireTheirEventAfterTheDelay() {
+		for (StateMachineTemplate<Session, Events, Void> template : templates()) {
+			StateMachine<Session, Events, Void> machine = template.newStateMachine(Session.CONNECTING);
+			machine.fireEvent(Events.CONNECTED);
+
+			clock.advance(90, TimeUnit.MILLISECONDS);
+			wheel.advance();
+			assertEquals(Session.ACTIVE, machine.getCurrentState());
+
+			clock.advance(10, TimeUnit.MILLISECONDS);
+			wheel.advance();
+			assertEquals(Session.IDLE, machine.getCurrentState());
+		}
+	}
+
+	@Test
+	public void reenteringTheStateRestartsTheTimeout() {
+		StateMachine<Session, Events, Void> machine = builder().buildCompiledTransitionModel().newStateMachine(Session.CONNECTING);
+		machine.fireEvent(Events.CONNECTED);
+
+		clock.advance(80, TimeUnit.MILLISECONDS);
+		wheel.advance();
+		assertTrue(machine.fireEvent(Events.MESSAGE));
+		clock.advance(80, TimeUnit.MILLISECONDS);
+		wheel.advance();
+		assertEquals(Session.ACTIVE, machine.getCurrentState());
+		assertEquals(1, wheel.getPending());
+
+		clock.advance(20, TimeUnit.MILLISECONDS);
+		wheel.advance();
+		assertEquals(Session.IDLE, machine.getCurrentState());
+	}
+
+	@Test
+	public void leavingTheStateCancelsTheTimeout() {
+		for (StateMachineTemplate<Session, Events, Void> template : templates()) {
+			StateMachine<Session, Events, Void> machine = template.newStateMachine(Session.CONNECTING);
+			machine.fireEvent(Events.CONNECTED);
+			machine.fireEvent(Events.CLOSE);
+			assertEquals(0, wheel.getPending());
+
+			clock.advance(1, TimeUnit.SECONDS);
+			assertEquals(0, wheel.advance());
+			assertEquals(Session.CLOSED, machine.getCurrentState());
+		}
+	}
+
+	@Test
+	public void machinesTimeOutIndependently() {
+		StateMachineTemplate<Session, Events, Void> template = builder().buildTransitionModel();
+		StateMachine<Session, Events, Void> first = template.newStateMachine(Session.CONNECTING);
+		StateMachine<Session, Events, Void> second = template.newStateMachine(Session.CONNECTING);
+		first.fireEvent(Events.CONNECTED);
+		clock.advance(50, TimeUnit.MILLISECONDS);
+		second.fireEvent(Events.CONNECTED);
+
+		clock.advance(50, TimeUnit.MILLISECONDS);
+		wheel.advance();
+		assertEquals(Session.IDLE, first.getCurrentState());
+		assertEquals(Session.ACTIVE, second.getCurrentState());
+
+		clock.advance(50, TimeUnit.MILLISECONDS);
+		wheel.advance();
+		assertEquals(Session.IDLE, second.getCurrentState());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void timeoutsNeedATimingWheel() {
+		StateMachineBuilder<Session, Events, Void> builder = Fettle.newBuilder(Session.class, Events.class);
+		TimeoutBuilder.create(builder, null);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void timeoutsCanNotLeaveAllStates() {
+		StateMachineBuilder<Session, Events, Void> builder = Fettle.newBuilder(Session.class, Events.class);
+		TimeoutBuilder.create(builder, wheel).timeout(null, Events.CLOSE, 1, TimeUnit.SECONDS);
+	}
+
+	private StateMachineBuilder<Session, Events, Void> builder() {
+		StateMachineBuilder<Session, Events, Void> builder = Fettle.newBuilder(Session.class, Events.class);
+		TimeoutBuilder<Session, Events, Void> timeouts = TimeoutBuilder.create(builder, wheel);
+		builder.transition().from(Session.CONNECTING).to(Session.ACTIVE).on(Events.CONNECTED);
+		builder.transition().from(Session.CONNECTING).to(Session.CLOSED).on(Events.CONNECT_TIMEOUT);
+		timeouts.timeout(Session.CONNECTING, Events.CONNECT_TIMEOUT, 5, TimeUnit.SECONDS);
+		builder.transition().from(Session.ACTIVE).to(Session.ACTIVE).on(Events.MESSAGE);
+		builder.transition().from(Session.ACTIVE).to(Session.IDLE).on(Events.IDLE_TIMEOUT);
+		timeouts.timeout(Session.ACTIVE, Events.IDLE_TIMEOUT, 100, TimeUnit.MILLISECONDS);
+		builder.transition().fromAll().to(Session.CLOSED).on(Events.CLOSE);
+		return builder;
+	}
+
+	private List<StateMachineTemplate<Session, Events, Void>> templates() {
+		List<StateMachineTemplate<Session, Events, Void>> templates = Lists.newArrayList();
+		templates.add(builder().buildTransitionModel());
+		templates.add(builder().buildCompiledTransitionModel());
+		templates.add(builder().buildAdaptiveTransitionModel());
+		return templates;
+	}
+
+	private static class Fail implements Runnable {
+		private final String message;
+
+		private Fail(String message) {
+			this.message = message;
+		}
+
+		@Override
+		public void run() {
+			throw new IllegalStateException(message);
+		}
+	}
+
+	private class Record implements Runnable {
+		private final String name;
+
+		private Record(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public void run() {
+			expired.add(name);
+		}
+	}
+}
@@ -0,0 +1,211 @@
+package se.fearless.fettle;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import se.fearless.fettle.async.AsyncTransitionListener;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TransitionListenerTest {
+
+	private StateMachineTemplate<States, String, Void> template;
+	private final Recorder recorder = new Recorder();
+
+	@Before
+	public void setUp() {
+		MutableTransitionModel<States, String, Void> model = Fettle.newTransitionModel(States.class, String.class);
+		model.addTransition(States.INITIAL, States.ONE, "go", BasicConditions.<Void>always(), Lists.<Action<States, String, Void>>newArrayList());
+		template = model.createImmutableClone();
+		template.addTransitionListener(recorder);
+	}
+
+	@Test
+	public void transitionsAndRejectionsAreReported() {
+		StateMachine<States, String, Void> machine = template.newStateMachine(States.INITIAL);
+
+		assertTrue(machine.fireEvent("go"));
+		assertFalse(machine.fireEvent("go"));
+		assertTrue(machine.forceSetState(States.TWO));
+
+		assertEquals(Lists.newArrayList("INITIAL-go->ONE", "ONE-go rejected"), recorder.notifications);
+	}
+
+	@Test
+	public void optimisticMachinesPoolsAndBroadcastsAreReported() {
+		template.newStateMachine(States.INITIAL, Concurrency.OPTIMISTIC).fireEvent("go");
+		StateMachinePool<States, String, Void> pool = template.newStateMachinePool(2, States.ONE);
+		pool.fireEvent(1, "go");
+		template.broadcast("go", null, Collections.singletonList(template.newStateMachine(States.INITIAL)));
+		template.broadcast("go", null, Collections.singletonList(template.newStateMachine(States.TWO)));
+
+		assertEquals(Lists.newArrayList("INITIAL-go->ONE", "ONE-go rejected", "INITIAL-go->ONE", "TWO-go rejected"), recorder.notifications);
+	}
+
+	@Test
+	public void removedListenersAreNotNotified() {
+		Recorder other = new Recorder();
+		template.addTransitionListener(other);
+
+		assertTrue(template.removeTransitionListener(recorder));
+		assertFalse(template.removeTransitionListener(recorder));
+		template.newStateMachine(States.INITIAL).fireEvent("go");
+
+		assertTrue(recorder.notifications.isEmpty());
+		assertEquals(1, other.notifications.size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void nullListenersAreRejected() {
+		template.addTransitionListener(null);
+	}
+
+	@Test
+	public void asyncListenersDeliverOnAnotherThread() throws InterruptedException {
+		final CountDownLatch delivered = new CountDownLatch(2);
+		final List<Thread> threads = Lists.newArrayList();
+		AsyncTransitionListener<States, String, Void> async = new AsyncTransitionListener<States, String, Void>(new Recorder() {
+			@Override
+			void record(String notification) {
+				super.record(notification);
+				threads.add(Thread.currentThread());
+				delivered.countDown();
+			}
+		}, 16);
+		template.addTransitionListener(async);
+
+		StateMachine<States, String, Void> machine = template.newStateMachine(States.INITIAL);
+		machine.fireEvent("go");
+		machine.fireEvent("go");
+
+		assertTrue(delivered.await(5, TimeUnit.SECONDS));
+		assertFalse(threads.contains(Thread.currentThread()));
+		assertEquals(0, async.getDropped());
+		async.close();
+	}
+
+	@Test
+	public void slowListenersMakeTheRingDropNotifications() throws InterruptedException {
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		AsyncTransitionListener<States, String, Void> async = new AsyncTransitionListener<States, String, Void>(new Recorder() {
+			@Override
+			void record(String notification) {
+				blocked.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}, 4);
+		template.addTransitionListener(async);
+		StateMachine<States, String, Void> machine = template.newStateMachine(States.ONE);
+
+		machine.fireEvent("go");
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+		for (int i = 0; i < 10; i++) {
+			machine.fireEvent("go");
+		}
+
+		assertEquals(7, async.getDropped());
+		release.countDown();
+		async.close();
+	}
+
+	@Test
+	public void parkedConsumersAreWokenByNewNotifications() throws InterruptedException {
+		final AtomicInteger count = new AtomicInteger();
+		AsyncTransitionListener<States, String, Void> async = new AsyncTransitionListener<States, String, Void>(new Recorder() {
+			@Override
+			void record(String notification) {
+				count.incrementAndGet();
+			}
+		}, 16);
+		template.addTransitionListener(async);
+		StateMachine<States, String, Void> machine = template.newStateMachine(States.ONE);
+
+		for (int i = 1; i <= 5; i++) {
+			Thread.sleep(20);
+			machine.fireEvent("go");
+			long deadline = System.currentTimeMillis() + 5000;
+			while (async.getDelivered() < i && System.currentTimeMillis() < deadline) {
+				Thread.yield();
+			}
+			assertEquals(i, async.getDelivered());
+		}
+		assertEquals(5, count.get());
+		async.close();
+	}
+
+	@Test
+	public void notificationsRacingCloseAreEitherDeliveredOrDropped() throws InterruptedException {
+		for (int round = 0; round < 50; round++) {
+			final List<Thread> consumers = Collections.synchronizedList(Lists.<Thread>newArrayList());
+			final AsyncTransitionListener<States, String, Void> async = new AsyncTransitionListener<States, String, Void>(recorder, 64,
+					  new ThreadFactory() {
+						  @Override
+						  public Thread newThread(Runnable runnable) {
+							  Thread thread = new Thread(runnable);
+							  consumers.add(thread);
+							  return thread;
+						  }
+					  });
+			List<Thread> producers = Lists.newArrayList();
+			for (int i = 0; i < 2; i++) {
+				Thread producer = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						for (int j = 0; j < 1000; j++) {
+							async.onTransition(States.INITIAL, States.ONE, "go", null, null);
+						}
+					}
+				});
+				producers.add(producer);
+				producer.start();
+			}
+			Thread.yield();
+			async.close();
+			for (Thread producer : producers) {
+				producer.join();
+			}
+			for (Thread consumer : Lists.newArrayList(consumers)) {
+				consumer.join(5000);
+			}
+
+			assertEquals(2000, async.getDelivered() + async.getDropped());
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void ringsNeedRoom() {
+		new AsyncTransitionListener<States, String, Void>(recorder, 0);
+	}
+
+	private static class Recorder implements TransitionListener<States, String, Void> {
+		private final List<String> notifications = Collections.synchronizedList(Lists.<String>newArrayList());
+
+		@Override
+		public void onTransition(States from, States to, String causedBy, Void context, StateMachine<States, String, Void> stateMachine) {
+			record(from + "-" + causedBy + "->" + to);
+		}
+
+		@Override
+		public void onRejected(States state, String event, Void context, StateMachine<States, String, Void> stateMachine) {
+			record(state + "-" + event + " rejected");
+		}
+
+		void record(String notification) {
+			notifications.add(notification);
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package se.fearless.fettle;
+
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import se.fearless.fettle.impl.AbstractTransitionModel;
+import se.fearless.fettle.metrics.HistogramSnapshot;
+import se.fearless.fettle.metrics.LatencyHistogram;
+import se.fearless.fettle.metrics.MetricsSnapshot;
+import se.fearless.fettle.metrics.StripedCounter;
+import se.fearless.fettle.metrics.TransitionKey;
+import se.fearless.fettle.metrics.TransitionMetrics;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static se.fearless.fettle.BasicConditions.not;
+
+public class TransitionMetricsTest {
+
+	private MutableTransitionModel<States, String, Void> model;
+	private TransitionMetrics<States, String> metrics;
+
+	@Before
+	public void setUp() {
+		model = Fettle.newTransitionModel(States.class, String.class);
+		model.addTransition(States.INITIAL, States.ONE, "go", BasicConditions.<Void>always(), Lists.<Action<States, String, Void>>newArrayList());
+		model.addTransition(States.ONE, States.TWO, "go", not(BasicConditions.<Void>always()), Lists.<Action<States, String, Void>>newArrayList());
+		model.addFromAllTransition(States.INITIAL, "reset", BasicConditions.<Void>always(), Lists.<Action<States, String, Void>>newArrayList());
+		metrics = new TransitionMetrics<States, String>();
+	}
+
+	@Test
+	public void transitionsAndRejectionsAreCounted() {
+		((AbstractTransitionModel<States, String, Void>) model).setMetrics(metrics);
+		StateMachine<States, String, Void> machine = model.newStateMachine(States.INITIAL);
+
+		machine.fireEvent("go");
+		machine.fireEvent("go");
+		machine.fireEvent("go");
+		machine.fireEvent("reset");
+		machine.fireEvent("go");
+
+		MetricsSnapshot<States, String> snapshot = metrics.snapshot();
+		assertEquals(2, snapshot.getTransitionCount(States.INITIAL, "go", States.ONE));
+		assertEquals(1, snapshot.getTransitionCount(States.ONE, "reset", States.INITIAL));
+		assertEquals(0, snapshot.getTransitionCount(States.ONE, "go", States.TWO));
+		assertEquals(2, snapshot.getRejections(States.ONE));
+		assertEquals(5, snapshot.getConditionLatency().getCount());
+		assertEquals(3, snapshot.getExitActionLatency().getCount());
+		assertEquals(3, snapshot.getTransitionActionLatency().getCount());
+		assertEquals(3, snapshot.getEntryActionLatency().getCount());
+		assertEquals(5, snapshot.getLockWaitLatency().getCount());
+	}
+
+	@Test
+	public void immutableModelsAndOptimisticMachinesAreMeasuredToo() {
+		AbstractTransitionModel<States, String, Void> immutable = (AbstractTransitionModel<States, String, Void>) model.createImmutableClone();
+		immutable.setMetrics(metrics);
+		StateMachine<States, String, Void> machine = immutable.newStateMachine(States.INITIAL, Concurrency.OPTIMISTIC);
+
+		machine.fireEvent("go");
+		machine.fireEvent("go");
+
+		MetricsSnapshot<States, String> snapshot = metrics.snapshot();
+		assertEquals(1, snapshot.getTransitionCount(States.INITIAL, "go", States.ONE));
+		assertEquals(1, snapshot.getRejections(States.ONE));
+		assertEquals(new TransitionKey<States, String>(States.INITIAL, "go", States.ONE), snapshot.getTransitionCounts().keySet().iterator().next());
+	}
+
+	@Test
+	public void nothingIsRecordedWithoutMetrics() {
+		AbstractTransitionModel<States, String, Void> abstractModel = (AbstractTransitionModel<States, String, Void>) model;
+		abstractModel.setMetrics(metrics);
+		abstractModel.setMetrics(null);
+
+		model.newStateMachine(States.INITIAL).fireEvent("go");
+
+		assertTrue(metrics.snapshot().getTransitionCounts().isEmpty());
+		assertEquals(0, metrics.snapshot().getConditionLatency().getCount());
+	}
+
+	@Test
+	public void histogramPercentilesAreWithinThePrecision() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++) {
+			histogram.record(i * 1000);
+		}
+		histogram.record(-5);
+
+		HistogramSnapshot snapshot = histogram.snapshot();
+		assertEquals(1001, snapshot.getCount());
+		assertEquals(0, snapshot.getValueAtPercentile(0));
+		assertWithin(500000, snapshot.getValueAtPercentile(50));
+		assertWithin(990000, snapshot.getValueAtPercentile(99));
+		assertWithin(1000000, snapshot.getMax());
+		assertWithin(500000, (long) snapshot.getMean());
+	}
+
+	@Test
+	public void hugeValuesEndUpInTheLastBucket() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(Long.MAX_VALUE);
+
+		assertTrue(histogram.snapshot().getMax() > 60000000000L);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void percentilesAbove100AreRejected() {
+		new LatencyHistogram().snapshot().getValueAtPercentile(101);
+	}
+
+	@Test
+	public void stripedCounterCountsAllThreads() throws InterruptedException {
+		final StripedCounter counter = new StripedCounter();
+		final CountDownLatch done = new CountDownLatch(4);
+		for (int i = 0; i < 4; i++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						counter.increment();
+					}
+					done.countDown();
+				}
+			}).start();
+		}
+		done.await();
+
+		assertEquals(40000, counter.sum());
+	}
+
+	@Test
+	public void histogramSnapshotsSumTheBucketsOfAllThreads() throws InterruptedException {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		final CountDownLatch done = new CountDownLatch(4);
+		for (int i = 0; i < 4; i++) {
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int j = 0; j < 10000; j++) {
+						histogram.record(100);
+					}
+					done.countDown();
+				}
+			}).start();
+		}
+		done.await();
+
+		HistogramSnapshot snapshot = histogram.snapshot();
+		assertEquals(40000, snapshot.getCount());
+		assertWithin(100, snapshot.getValueAtPercentile(0));
+		assertWithin(100, snapshot.getMax());
+	}
+
+	private void assertWithin(long expected, long actual) {
+		assertTrue("Expected about " + expected + " but was " + actual, Math.abs(expected - actual) <= expected * 4 / 100);
+	}
+}
@@ -8,10 +8,13 @@ import se.fearless.fettle.builder.StateMachineBuilder;
 import se.fearless.fettle.impl.BasicTransition;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 public class TraverseTest {
@@ -130,6 +133,43 @@ public class TraverseTest {
 		checkExistenceOfTransitionsTo(States.TWO, transitions);
 	}
 
+	@Test
+	public void queryingDoesNotChangeTheModel() throws Exception {
+		MutableTransitionModel<States, String, Boolean> model = Fettle.newTransitionModel(States.class, String.class);
+		List<Action<States, String, Boolean>> noActions = Collections.emptyList();
+		model.addTransition(States.INITIAL, States.TWO, "foo", BasicConditions.<Boolean>always(), noActions);
+		model.addFromAllTransition(States.ONE, "foo", BasicConditions.<Boolean>always(), noActions);
+
+		assertEquals(2, model.getPossibleTransitions(States.INITIAL).get("foo").size());
+		assertEquals(2, model.getPossibleTransitions(States.INITIAL).get("foo").size());
+		assertEquals(1, model.getPossibleTransitions(States.THREE).get("foo").size());
+	}
+
+	@Test
+	public void immutableViewsAreSharedBetweenCalls() throws Exception {
+		MutableTransitionModel<States, String, Boolean> model = Fettle.newTransitionModel(States.class, String.class);
+		List<Action<States, String, Boolean>> noActions = Collections.emptyList();
+		model.addTransition(States.INITIAL, States.TWO, "foo", BasicConditions.<Boolean>always(), noActions);
+		model.addFromAllTransition(States.ONE, "foo", BasicConditions.<Boolean>always(), noActions);
+		StateMachine<States, String, Boolean> stateMachine = model.createImmutableClone().newStateMachine(States.INITIAL);
+
+		Map<String, Collection<? extends Transition<States, String, Boolean>>> transitionMap = stateMachine.getPossibleTransitions(States.INITIAL);
+
+		assertSame(transitionMap, stateMachine.getPossibleTransitions(States.INITIAL));
+		assertEquals(2, transitionMap.get("foo").size());
+		assertSame(stateMachine.getPossibleTransitions(States.TWO), stateMachine.getPossibleTransitions(States.THREE));
+		assertEquals(1, stateMachine.getPossibleTransitions(States.TWO).get("foo").size());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void immutableViewsCannotBeModified() throws Exception {
+		MutableTransitionModel<States, String, Boolean> model = Fettle.newTransitionModel(States.class, String.class);
+		List<Action<States, String, Boolean>> noActions = Collections.emptyList();
+		model.addTransition(States.INITIAL, States.TWO, "foo", BasicConditions.<Boolean>always(), noActions);
+		StateMachine<States, String, Boolean> stateMachine = model.createImmutableClone().newStateMachine(States.INITIAL);
+
+		stateMachine.getPossibleTransitions(States.INITIAL).get("foo").clear();
+	}
 
 	private StateMachine<States, String, Boolean> createStateMachine(StateMachineBuilder<States, String, Boolean> builder) {
 		StateMachineTemplate<States, String, Boolean> template = builder.buildTransitionModel();
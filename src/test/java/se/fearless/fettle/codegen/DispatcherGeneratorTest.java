@@ -0,0 +1,96 @@
+package se.fearless.fettle.codegen;
+
+import org.junit.Test;
+import se.fearless.fettle.Action;
+import se.fearless.fettle.BasicConditions;
+import se.fearless.fettle.Condition;
+import se.fearless.fettle.StateMachine;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DispatcherGeneratorTest {
+	private static final int STATES = 60;
+	private static final int EVENTS = 10;
+	private static final int HUGE_METHOD_LIMIT = 8000;
+
+	@Test
+	public void largeModelIsSplitIntoCompilableMethods() {
+		DispatcherGenerator generator = new DispatcherGenerator();
+		generator.emit(slots(), conditions(), transitionActions(new AtomicInteger()), stateActions(new AtomicInteger()),
+				stateActions(new AtomicInteger()));
+
+		assertTrue("Longest method is " + generator.getLongestMethod() + " bytes", generator.getLongestMethod() < HUGE_METHOD_LIMIT);
+	}
+
+	@Test
+	public void splitDispatcherFindsEveryTransition() {
+		AtomicInteger transitions = new AtomicInteger();
+		AtomicInteger exits = new AtomicInteger();
+		Dispatcher<Object, Object, Object> dispatcher = DispatcherGenerator.generate(slots(), conditions(), transitionActions(transitions),
+				stateActions(exits), stateActions(new AtomicInteger()));
+
+		for (int slot = 0; slot < STATES * EVENTS; slot++) {
+			assertEquals(2 * slot + 1, dispatcher.findTransition(slot, null));
+		}
+		assertEquals(-1, dispatcher.findTransition(STATES * EVENTS, null));
+		assertEquals(-1, dispatcher.findTransition(-1, null));
+
+		for (int transition = 0; transition < 2 * STATES * EVENTS; transition++) {
+			dispatcher.transition(transition, null, null, null, null, null);
+		}
+		for (int state = 0; state < STATES; state++) {
+			dispatcher.exit(state, null, null, null, null, null);
+		}
+		assertEquals(2 * STATES * EVENTS, transitions.get());
+		assertEquals(STATES, exits.get());
+	}
+
+	private int[][] slots() {
+		int[][] slots = new int[STATES * EVENTS][];
+		for (int slot = 0; slot < slots.length; slot++) {
+			slots[slot] = new int[]{2 * slot, 2 * slot + 1};
+		}
+		return slots;
+	}
+
+	private Condition<?>[] conditions() {
+		Condition<?>[] conditions = new Condition<?>[2 * STATES * EVENTS];
+		for (int i = 0; i < conditions.length; i += 2) {
+			conditions[i] = BasicConditions.never();
+			conditions[i + 1] = BasicConditions.always();
+		}
+		return conditions;
+	}
+
+	private Action<?, ?, ?>[][] transitionActions(AtomicInteger counter) {
+		return actions(2 * STATES * EVENTS, counter);
+	}
+
+	private Action<?, ?, ?>[][] stateActions(AtomicInteger counter) {
+		return actions(STATES, counter);
+	}
+
+	private Action<?, ?, ?>[][] actions(int count, AtomicInteger counter) {
+		Action<?, ?, ?>[][] actions = new Action<?, ?, ?>[count][];
+		for (int i = 0; i < count; i++) {
+			actions[i] = new Action<?, ?, ?>[]{new Counting(counter)};
+		}
+		return actions;
+	}
+
+	private static class Counting implements Action<Object, Object, Object> {
+		private final AtomicInteger counter;
+
+		Counting(AtomicInteger counter) {
+			this.counter = counter;
+		}
+
+		@Override
+		public void onTransition(Object from, Object to, Object event, Object context, StateMachine<Object, Object, Object> statemachine) {
+			counter.incrementAndGet();
+		}
+	}
+}
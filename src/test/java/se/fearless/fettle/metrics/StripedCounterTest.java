@@ -0,0 +1,21 @@
+package se.fearless.fettle.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class StripedCounterTest {
+
+	@Test
+	public void countsBeforeAndAfterSpreadingAreSummed() {
+		StripedCounter counter = new StripedCounter();
+		counter.add(3);
+		counter.increment();
+
+		assertSame(counter.spread(), counter.spread());
+		counter.add(5);
+
+		assertEquals(9, counter.sum());
+	}
+}